@@ -0,0 +1,22 @@
+-- Embedding Cache Table
+-- Cache vector embedding theo hash nội dung chunk (đã chuẩn hóa) + model + số chiều.
+-- Cùng một tài liệu upload lại ở nhiều notebook / retry file sẽ không phải gọi lại API embedding.
+
+CREATE TABLE IF NOT EXISTS public.embedding_cache (
+    content_hash VARCHAR(64) NOT NULL,       -- SHA-256 hex của text đã chuẩn hóa
+    model VARCHAR(100) NOT NULL,             -- gemini-embedding-001
+    dimension INTEGER NOT NULL,              -- 1536
+    embedding vector NOT NULL,
+    created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    last_used_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+
+    PRIMARY KEY (content_hash, model, dimension)
+);
+
+-- Indexes
+CREATE INDEX IF NOT EXISTS idx_embedding_cache_last_used ON public.embedding_cache(last_used_at);
+
+-- Comments
+COMMENT ON TABLE public.embedding_cache IS 'Cache embedding theo hash nội dung, dùng chung cho mọi notebook';
+COMMENT ON COLUMN public.embedding_cache.content_hash IS 'SHA-256 của text đã trim và gộp khoảng trắng';
+COMMENT ON COLUMN public.embedding_cache.last_used_at IS 'Lần cuối cache hit, dùng để dọn các entry cũ';
@@ -0,0 +1,58 @@
+-- ANN index cho file_chunks.embedding (pgvector)
+-- rag_search_chunks trước đây phải tính khoảng cách với mọi chunk của notebook, độ trễ tăng
+-- tuyến tính theo số chunk. HNSW / IVFFlat trả về top-k gần đúng mà không quét hết bảng.
+--
+-- Index có thể tạo / build lại khi app đang chạy qua API admin:
+--   GET    /admin/ai/vector-index            trạng thái index + tiến độ build
+--   POST   /admin/ai/vector-index            tạo index (HNSW hoặc IVFFLAT)
+--   POST   /admin/ai/vector-index/{type}/rebuild
+--   DELETE /admin/ai/vector-index/{type}
+--   POST   /admin/ai/vector-index/benchmark  recall / độ trễ so với exact search
+-- Script này là bản chạy tay tương đương (HNSW, tham số mặc định).
+
+-- 1. Index HNSW / IVFFlat cần cột có số chiều cố định. Pipeline ingest chỉ ghi vector 1536 chiều.
+ALTER TABLE public.file_chunks ALTER COLUMN embedding TYPE vector(1536);
+
+-- 2. Index B-tree cũ trên embedding không dùng được cho tìm kiếm theo khoảng cách
+DROP INDEX IF EXISTS public.idx_file_chunks_embedding;
+
+-- 3. HNSW theo cosine distance (toán tử <=>)
+SET maintenance_work_mem = '512MB';
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_file_chunks_embedding_hnsw
+    ON public.file_chunks USING hnsw (embedding vector_cosine_ops)
+    WITH (m = 16, ef_construction = 64);
+
+-- 4. rag_search_chunks phải ORDER BY embedding <=> query ... LIMIT thì planner mới dùng index.
+-- Giữ nguyên tham số và các cột trả về mà ChatBotService đang đọc.
+-- Lọc notebook / file xảy ra sau khi index trả ứng viên (ef_search ứng viên trên toàn bảng): notebook
+-- nhỏ trong bảng lớn có thể nhận ít hơn k dòng, thậm chí 0. Hai lớp bảo vệ trong VectorIndexService:
+--   - hnsw.iterative_scan = relaxed_order (ai.rag.ann.iterative-scan, mặc định): index quét tiếp tới khi
+--     đủ k dòng sau lọc. CẦN pgvector >= 0.8 – bản cũ hơn app tự bỏ qua setting này.
+--   - searchTopK: nhận ít hơn k dòng thì chạy lại exact (tắt index scan).
+-- Khuyến nghị: ALTER EXTENSION vector UPDATE; (>= 0.8) trước khi tạo index.
+CREATE OR REPLACE FUNCTION public.rag_search_chunks(
+    p_notebook_id UUID,
+    p_query_embedding vector,
+    p_file_ids UUID[],
+    p_limit INTEGER DEFAULT 5)
+RETURNS TABLE (
+    file_id UUID,
+    chunk_index INTEGER,
+    content TEXT,
+    similarity DOUBLE PRECISION,
+    distance DOUBLE PRECISION)
+LANGUAGE sql STABLE AS $$
+    SELECT fc.file_id,
+           fc.chunk_index,
+           fc.content,
+           1 - (fc.embedding <=> p_query_embedding) AS similarity,
+           fc.embedding <=> p_query_embedding AS distance
+    FROM public.file_chunks fc
+    WHERE fc.notebook_id = p_notebook_id
+      AND fc.file_id = ANY(p_file_ids)
+    ORDER BY fc.embedding <=> p_query_embedding
+    LIMIT p_limit
+$$;
+
+-- Comments
+COMMENT ON INDEX public.idx_file_chunks_embedding_hnsw IS 'ANN index cho RAG, quản lý bởi VectorIndexService';
@@ -0,0 +1,56 @@
+-- Tìm kiếm từ khóa (full-text) trên file_chunks cho RAG lai (lexical + vector)
+-- Câu hỏi quy chế hay xoay quanh số điều / mã học phần ("điều 12", "INT1234"): cosine similarity
+-- của embedding gần như không phân biệt được các số này, tìm theo từ khóa thì khớp chính xác.
+-- LexicalSearchService chạy rag_search_chunks_lexical song song với truy vấn vector, ChatBotService
+-- gộp hai danh sách bằng reciprocal rank fusion.
+--
+-- Chuẩn hóa tiếng Việt: vn_normalize phải cho kết quả giống MessageClassifierService.normalizeText
+-- (phía Java chuẩn hóa câu hỏi), nên dùng từ điển 'simple' (không stemming / stop word).
+
+-- 1. Chuẩn hóa: chữ thường, c++ → cpp, c# → csharp, bỏ dấu tiếng Việt, chỉ giữ a-z 0-9
+CREATE OR REPLACE FUNCTION public.vn_normalize(p_text TEXT)
+RETURNS TEXT
+LANGUAGE sql IMMUTABLE PARALLEL SAFE AS $$
+    SELECT trim(regexp_replace(regexp_replace(
+        translate(
+            replace(replace(lower(coalesce(p_text, '')), 'c++', 'cpp'), 'c#', 'csharp'),
+            'àáạảãâầấậẩẫăằắặẳẵèéẹẻẽêềếệểễìíịỉĩòóọỏõôồốộổỗơờớợởỡùúụủũưừứựửữỳýỵỷỹđ',
+            'aaaaaaaaaaaaaaaaaeeeeeeeeeeeiiiiiooooooooooooooooouuuuuuuuuuuyyyyyd'),
+        '[^a-z0-9\s]', ' ', 'g'), '\s+', ' ', 'g'))
+$$;
+
+-- 2. tsvector lưu sẵn (generated column): tính một lần khi ghi chunk, dòng cũ được tính khi ALTER
+ALTER TABLE public.file_chunks
+    ADD COLUMN IF NOT EXISTS content_tsv tsvector
+    GENERATED ALWAYS AS (to_tsvector('simple', public.vn_normalize(content))) STORED;
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_file_chunks_content_tsv
+    ON public.file_chunks USING gin (content_tsv);
+
+-- 3. Truy vấn từ khóa. p_query là tsquery dạng text do LexicalSearchService dựng từ câu hỏi
+-- (các từ OR với nhau, cặp "chữ số" đi liền dùng <->).
+-- ts_rank_cd chuẩn hóa 1 = chia cho 1 + log(độ dài chunk): chunk dài không thắng chỉ vì dài (giống BM25).
+-- Trả kèm embedding để phía Java tính cosine similarity cho chunk chỉ có trong kết quả từ khóa.
+CREATE OR REPLACE FUNCTION public.rag_search_chunks_lexical(
+    p_notebook_id UUID,
+    p_query TEXT,
+    p_file_ids UUID[],
+    p_limit INTEGER)
+RETURNS TABLE (
+    file_id UUID,
+    chunk_index INTEGER,
+    content TEXT,
+    rank REAL,
+    embedding vector)
+LANGUAGE sql STABLE AS $$
+    SELECT fc.file_id, fc.chunk_index, fc.content, ts_rank_cd(fc.content_tsv, q, 1) AS rank, fc.embedding
+    FROM public.file_chunks fc, to_tsquery('simple', p_query) q
+    WHERE fc.notebook_id = p_notebook_id
+      AND fc.file_id = ANY(p_file_ids)
+      AND fc.content_tsv @@ q
+    ORDER BY rank DESC
+    LIMIT p_limit
+$$;
+
+-- Comments
+COMMENT ON COLUMN public.file_chunks.content_tsv IS 'to_tsvector(simple, vn_normalize(content)) cho tìm kiếm từ khóa (LexicalSearchService)';
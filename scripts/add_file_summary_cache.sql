@@ -0,0 +1,23 @@
+-- File Summary Cache Table
+-- Tóm tắt map-reduce của từng file theo hash nội dung chunk + model.
+-- Mọi generator (quiz, flashcard, mindmap, timeline, video, audio, đề thi) dùng chung,
+-- bấm "tạo" lần sau không phải tóm tắt lại cùng tài liệu.
+
+CREATE TABLE IF NOT EXISTS public.file_summary_cache (
+    file_id UUID NOT NULL REFERENCES public.notebook_files(id) ON DELETE CASCADE,
+    content_hash VARCHAR(64) NOT NULL,       -- SHA-256 hex của text đưa vào tóm tắt
+    model VARCHAR(100) NOT NULL,             -- gemini-2.0-flash
+    summary TEXT NOT NULL,
+    created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    last_used_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+
+    PRIMARY KEY (file_id, content_hash, model)
+);
+
+-- Indexes
+CREATE INDEX IF NOT EXISTS idx_file_summary_cache_last_used ON public.file_summary_cache(last_used_at);
+
+-- Comments
+COMMENT ON TABLE public.file_summary_cache IS 'Cache tóm tắt từng file, xóa khi file được xử lý lại (FileChunksChangedEvent)';
+COMMENT ON COLUMN public.file_summary_cache.content_hash IS 'SHA-256 của các chunk đầu file đưa vào tóm tắt';
+COMMENT ON COLUMN public.file_summary_cache.last_used_at IS 'Lần cuối cache hit, dùng để dọn các entry cũ';
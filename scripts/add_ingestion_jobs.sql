@@ -0,0 +1,48 @@
+-- Ingestion Job Queue
+-- Hàng đợi bền vững cho pipeline xử lý file (OCR/chunk → embedding), worker lấy job bằng
+-- SELECT ... FOR UPDATE SKIP LOCKED nên chạy được nhiều worker / nhiều instance song song.
+-- Job sống sót qua restart: job đang chạy mà hết lease sẽ được đưa lại hàng đợi.
+
+CREATE TABLE IF NOT EXISTS public.ingestion_jobs (
+    id UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    file_id UUID NOT NULL REFERENCES public.notebook_files(id) ON DELETE CASCADE,
+    stage VARCHAR(20) NOT NULL,                    -- EXTRACT | EMBED
+    status VARCHAR(20) NOT NULL DEFAULT 'queued',  -- queued | running | done | failed | cancelled
+    priority INTEGER NOT NULL DEFAULT 5,           -- càng lớn càng được lấy trước
+    attempts INTEGER NOT NULL DEFAULT 0,
+    max_attempts INTEGER NOT NULL DEFAULT 5,
+    next_run_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    source_url TEXT,                               -- URL YouTube (null với file upload)
+    last_chunk_index INTEGER NOT NULL DEFAULT -1,  -- chunk cuối đã embedding + lưu (resume)
+    total_chunks INTEGER,
+    locked_by VARCHAR(100),
+    locked_at TIMESTAMPTZ,
+    last_error TEXT,
+    created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    updated_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+-- Chunk đã tách nhưng chưa embedding (đầu ra của stage EXTRACT, đầu vào của stage EMBED)
+CREATE TABLE IF NOT EXISTS public.ingestion_chunks (
+    file_id UUID NOT NULL REFERENCES public.notebook_files(id) ON DELETE CASCADE,
+    chunk_index INTEGER NOT NULL,
+    content TEXT NOT NULL,
+    metadata JSONB,
+
+    PRIMARY KEY (file_id, chunk_index)
+);
+
+-- Indexes
+CREATE INDEX IF NOT EXISTS idx_ingestion_jobs_poll
+    ON public.ingestion_jobs(stage, priority DESC, created_at)
+    WHERE status = 'queued';
+CREATE INDEX IF NOT EXISTS idx_ingestion_jobs_running
+    ON public.ingestion_jobs(locked_at)
+    WHERE status = 'running';
+CREATE INDEX IF NOT EXISTS idx_ingestion_jobs_file ON public.ingestion_jobs(file_id);
+
+-- Comments
+COMMENT ON TABLE public.ingestion_jobs IS 'Hàng đợi job xử lý file (OCR/chunk, embedding)';
+COMMENT ON COLUMN public.ingestion_jobs.last_chunk_index IS 'Stage EMBED tiếp tục từ chunk sau chỉ số này khi retry / restart';
+COMMENT ON COLUMN public.ingestion_jobs.locked_at IS 'Lease của worker, được gia hạn trong lúc chạy; hết hạn thì job được đưa lại hàng đợi';
+COMMENT ON TABLE public.ingestion_chunks IS 'Chunk trung gian giữa stage EXTRACT và EMBED, xóa khi file xử lý xong';
@@ -0,0 +1,106 @@
+-- Chế độ lưu vector rút gọn cho RAG (pgvector >= 0.7)
+-- Index HNSW trên vector(1536) đầy đủ chiếm 6KB / chunk và là phần đọc nhiều nhất khi truy vấn.
+-- Các chế độ dưới đây dựng index trên biểu thức rút gọn của cột embedding, truy vấn lấy
+-- p_candidates ứng viên từ index rút gọn rồi xếp lại (re-rank) bằng khoảng cách đầy đủ:
+--   HALFVEC      embedding::halfvec(1536)                      float16, 3KB / chunk
+--   HALFVEC_768  subvector(embedding, 1, 768)::halfvec(768)    768 chiều đầu (Matryoshka), 1.5KB / chunk
+--   BINARY       binary_quantize(embedding)::bit(1536)         1 bit / chiều, 192B / chunk
+-- Cột embedding gốc giữ nguyên (dùng cho bước re-rank chính xác).
+--
+-- Index tạo qua POST /admin/ai/vector-index (type HNSW_HALFVEC / HNSW_HALFVEC_768 / HNSW_BINARY),
+-- chế độ của từng notebook đặt qua PUT /admin/ai/vector-index/notebooks/{notebookId}/storage,
+-- so sánh recall / độ trễ / dung lượng qua POST /admin/ai/vector-index/storage-benchmark.
+
+-- 1. Chế độ lưu vector của từng notebook (không có dòng = FULL)
+CREATE TABLE IF NOT EXISTS public.notebook_vector_settings (
+    notebook_id UUID PRIMARY KEY REFERENCES public.notebooks(id) ON DELETE CASCADE,
+    storage_mode VARCHAR(20) NOT NULL DEFAULT 'FULL',  -- FULL | HALFVEC | HALFVEC_768 | BINARY
+    rerank_factor INTEGER NOT NULL DEFAULT 4,          -- số ứng viên = limit * rerank_factor
+    updated_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+
+    CONSTRAINT chk_notebook_vector_settings_mode
+        CHECK (storage_mode IN ('FULL', 'HALFVEC', 'HALFVEC_768', 'BINARY')),
+    CONSTRAINT chk_notebook_vector_settings_rerank CHECK (rerank_factor BETWEEN 1 AND 50)
+);
+
+-- 2. Index rút gọn: KHÔNG tạo mặc định. Mỗi index HNSW build trên toàn bảng file_chunks (tốn thời
+-- gian, I/O và dung lượng), chỉ tạo index cho chế độ thực sự dùng – qua POST /admin/ai/vector-index
+-- hoặc bỏ comment dòng tương ứng dưới đây. Notebook chỉ chuyển được sang chế độ rút gọn khi index
+-- của chế độ đó đã build xong (VectorStorageService.updateSettings kiểm tra).
+-- SET maintenance_work_mem = '512MB';
+-- CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_file_chunks_embedding_hnsw_halfvec
+--     ON public.file_chunks USING hnsw ((embedding::halfvec(1536)) halfvec_cosine_ops);
+-- CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_file_chunks_embedding_hnsw_halfvec_768
+--     ON public.file_chunks USING hnsw ((subvector(embedding, 1, 768)::halfvec(768)) halfvec_cosine_ops);
+-- CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_file_chunks_embedding_hnsw_binary
+--     ON public.file_chunks USING hnsw ((binary_quantize(embedding)::bit(1536)) bit_hamming_ops);
+
+-- 3. Truy vấn 2 bước: ứng viên từ index rút gọn → re-rank bằng cosine distance đầy đủ.
+-- Biểu thức ORDER BY phải giống hệt biểu thức của index thì planner mới dùng index.
+-- Các cột trả về giống rag_search_chunks.
+CREATE OR REPLACE FUNCTION public.rag_search_chunks_compact(
+    p_notebook_id UUID,
+    p_query_embedding vector,
+    p_file_ids UUID[],
+    p_limit INTEGER,
+    p_mode TEXT,
+    p_candidates INTEGER)
+RETURNS TABLE (
+    file_id UUID,
+    chunk_index INTEGER,
+    content TEXT,
+    similarity DOUBLE PRECISION,
+    distance DOUBLE PRECISION)
+LANGUAGE plpgsql STABLE AS $$
+#variable_conflict use_column
+BEGIN
+    IF p_mode = 'HALFVEC' THEN
+        RETURN QUERY
+        WITH candidates AS (
+            SELECT fc.file_id, fc.chunk_index, fc.content, fc.embedding
+            FROM public.file_chunks fc
+            WHERE fc.notebook_id = p_notebook_id AND fc.file_id = ANY(p_file_ids)
+            ORDER BY fc.embedding::halfvec(1536) <=> p_query_embedding::halfvec(1536)
+            LIMIT p_candidates)
+        SELECT c.file_id, c.chunk_index, c.content,
+               1 - (c.embedding <=> p_query_embedding), c.embedding <=> p_query_embedding
+        FROM candidates c
+        ORDER BY c.embedding <=> p_query_embedding
+        LIMIT p_limit;
+    ELSIF p_mode = 'HALFVEC_768' THEN
+        RETURN QUERY
+        WITH candidates AS (
+            SELECT fc.file_id, fc.chunk_index, fc.content, fc.embedding
+            FROM public.file_chunks fc
+            WHERE fc.notebook_id = p_notebook_id AND fc.file_id = ANY(p_file_ids)
+            ORDER BY subvector(fc.embedding, 1, 768)::halfvec(768)
+                     <=> subvector(p_query_embedding, 1, 768)::halfvec(768)
+            LIMIT p_candidates)
+        SELECT c.file_id, c.chunk_index, c.content,
+               1 - (c.embedding <=> p_query_embedding), c.embedding <=> p_query_embedding
+        FROM candidates c
+        ORDER BY c.embedding <=> p_query_embedding
+        LIMIT p_limit;
+    ELSIF p_mode = 'BINARY' THEN
+        RETURN QUERY
+        WITH candidates AS (
+            SELECT fc.file_id, fc.chunk_index, fc.content, fc.embedding
+            FROM public.file_chunks fc
+            WHERE fc.notebook_id = p_notebook_id AND fc.file_id = ANY(p_file_ids)
+            ORDER BY binary_quantize(fc.embedding)::bit(1536) <~> binary_quantize(p_query_embedding)
+            LIMIT p_candidates)
+        SELECT c.file_id, c.chunk_index, c.content,
+               1 - (c.embedding <=> p_query_embedding), c.embedding <=> p_query_embedding
+        FROM candidates c
+        ORDER BY c.embedding <=> p_query_embedding
+        LIMIT p_limit;
+    ELSE
+        RETURN QUERY
+        SELECT * FROM public.rag_search_chunks(p_notebook_id, p_query_embedding, p_file_ids, p_limit);
+    END IF;
+END;
+$$;
+
+-- Comments
+COMMENT ON TABLE public.notebook_vector_settings IS 'Chế độ lưu / tìm vector rút gọn của từng notebook (VectorStorageService)';
+COMMENT ON COLUMN public.notebook_vector_settings.rerank_factor IS 'Số ứng viên lấy từ index rút gọn = limit * rerank_factor';
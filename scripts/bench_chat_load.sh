@@ -0,0 +1,93 @@
+#!/usr/bin/env bash
+# =====================================================
+# Load test đơn giản cho endpoint chat (LLM_ONLY)
+# =====================================================
+# So sánh thread pool thường và virtual thread:
+#   ./gradlew bootRun                    → chạy script, ghi lại kết quả
+#   ./gradlew bootRun -PvirtualThreads   → chạy lại với cùng tham số
+#
+# Biến môi trường:
+#   BASE_URL         (mặc định http://localhost:8386)
+#   TOKEN            JWT của user (bắt buộc)
+#   NOTEBOOK_ID      notebook user là thành viên (bắt buộc)
+#   CONVERSATION_ID  conversation thuộc notebook (bắt buộc)
+#   MODEL_ID         id model LLM (bắt buộc)
+#   REQUESTS         tổng số request (mặc định 200)
+#   CONCURRENCY      số request song song (mặc định 50)
+#   MESSAGE          nội dung tin nhắn
+#   LABEL            nhãn của lần chạy, vd: platform / virtual (mặc định "run")
+#   RESULTS_FILE     file CSV để ghi thêm kết quả (mặc định bench_chat_load.csv);
+#                    chạy trước / sau thay đổi với LABEL khác nhau rồi so sánh
+#
+# Chỉ dùng awk / sort POSIX (chạy được với mawk, BSD awk trên macOS).
+
+set -euo pipefail
+
+BASE_URL="${BASE_URL:-http://localhost:8386}"
+REQUESTS="${REQUESTS:-200}"
+CONCURRENCY="${CONCURRENCY:-50}"
+MESSAGE="${MESSAGE:-Xin chào, hãy trả lời ngắn gọn trong một câu.}"
+LABEL="${LABEL:-run}"
+RESULTS_FILE="${RESULTS_FILE:-bench_chat_load.csv}"
+
+: "${TOKEN:?Cần TOKEN}"
+: "${NOTEBOOK_ID:?Cần NOTEBOOK_ID}"
+: "${CONVERSATION_ID:?Cần CONVERSATION_ID}"
+: "${MODEL_ID:?Cần MODEL_ID}"
+
+URL="$BASE_URL/user/notebooks/$NOTEBOOK_ID/bot-chat/conversations/$CONVERSATION_ID/chat"
+BODY="{\"message\":\"$MESSAGE\",\"modelId\":\"$MODEL_ID\",\"mode\":\"LLM_ONLY\"}"
+OUT="$(mktemp)"
+LAT="$(mktemp)"
+trap 'rm -f "$OUT" "$LAT"' EXIT
+
+# Thời điểm hiện tại (giây, có phần lẻ nếu date hỗ trợ %N – BSD date thì không)
+now() {
+  date +%s.%N 2>/dev/null | grep -v N || date +%s
+}
+
+export URL BODY TOKEN
+
+echo "▶ $REQUESTS request, $CONCURRENCY song song → $URL"
+START=$(now)
+
+# Mỗi dòng kết quả: <http_code> <time_total giây>
+seq "$REQUESTS" | xargs -P "$CONCURRENCY" -I{} sh -c '
+  curl -s -o /dev/null -w "%{http_code} %{time_total}\n" \
+    -H "Authorization: Bearer $TOKEN" \
+    -F "request=$BODY;type=application/json" \
+    "$URL" || echo "000 0"
+' >> "$OUT"
+
+END=$(now)
+
+# Latency (ms) của các request thành công, đã sắp xếp tăng dần
+LC_ALL=C awk '$1 ~ /^2/ { printf "%.0f\n", $2 * 1000 }' "$OUT" | LC_ALL=C sort -n > "$LAT"
+
+[ -s "$RESULTS_FILE" ] || echo "label,requests,concurrency,ok,p50_ms,p95_ms,p99_ms,throughput_rps" > "$RESULTS_FILE"
+
+LC_ALL=C awk -v elapsed="$(awk -v s="$START" -v e="$END" 'BEGIN { print e - s }')" \
+  -v label="$LABEL" -v requests="$REQUESTS" -v concurrency="$CONCURRENCY" \
+  -v latfile="$LAT" -v results="$RESULTS_FILE" '
+  function pct(p,   i) {
+    i = int(ok * p + 0.999999)
+    if (i < 1) i = 1
+    return lat[i]
+  }
+  { total++; if ($1 !~ /^2/) codes[$1]++ }
+  END {
+    ok = 0
+    while ((getline v < latfile) > 0) lat[++ok] = v
+    if (elapsed <= 0) elapsed = 1
+    printf "Thành công: %d/%d\n", ok, total
+    for (c in codes) printf "  HTTP %s: %d\n", c, codes[c]
+    p50 = ok > 0 ? pct(0.50) : -1
+    p95 = ok > 0 ? pct(0.95) : -1
+    p99 = ok > 0 ? pct(0.99) : -1
+    if (ok > 0) printf "p50: %d ms, p95: %d ms, p99: %d ms\n", p50, p95, p99
+    printf "Thời gian: %.1f s, throughput: %.2f req/s\n", elapsed, total / elapsed
+    printf "%s,%d,%d,%d,%d,%d,%d,%.2f\n", label, requests, concurrency, ok, p50, p95, p99, total / elapsed >> results
+  }' "$OUT"
+
+echo "📄 Đã ghi kết quả vào $RESULTS_FILE:"
+column -s, -t < "$RESULTS_FILE" 2>/dev/null || cat "$RESULTS_FILE"
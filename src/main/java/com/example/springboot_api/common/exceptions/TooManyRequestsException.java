@@ -0,0 +1,7 @@
+package com.example.springboot_api.common.exceptions;
+
+public class TooManyRequestsException extends RuntimeException {
+    public TooManyRequestsException(String message) {
+        super(message);
+    }
+}
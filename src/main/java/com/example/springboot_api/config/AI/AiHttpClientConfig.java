@@ -0,0 +1,94 @@
+package com.example.springboot_api.config.AI;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.reactive.function.client.WebClientCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+
+import com.example.springboot_api.services.shared.ai.AiHttpMetrics;
+
+import io.netty.channel.ChannelOption;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * HTTP client dùng chung cho mọi WebClient gọi ra ngoài (Groq, Gemini TTS,
+ * Google Search, Piston, ...).
+ *
+ * Bean ClientHttpConnector thay connector mặc định của Spring Boot, nên mọi
+ * WebClient.Builder được inject đều dùng chung một connection pool (keep-alive,
+ * giới hạn kết nối theo host), timeout kết nối / response, và filter đo độ trễ
+ * của AiHttpMetrics.
+ */
+@Configuration
+public class AiHttpClientConfig {
+
+    private static final String GROQ_HOST = "api.groq.com";
+    private static final String GEMINI_HOST = "generativelanguage.googleapis.com";
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider aiConnectionProvider(
+            AiHttpMetrics metrics,
+            @Value("${ai.http.pool.max-connections:100}") int maxConnections,
+            @Value("${ai.http.pool.groq.max-connections:50}") int groqMaxConnections,
+            @Value("${ai.http.pool.gemini.max-connections:50}") int geminiMaxConnections,
+            @Value("${ai.http.pool.pending-acquire-timeout-ms:30000}") long pendingAcquireTimeoutMs,
+            @Value("${ai.http.pool.max-idle-ms:30000}") long maxIdleMs,
+            @Value("${ai.http.pool.max-life-ms:300000}") long maxLifeMs) {
+        Duration pendingAcquireTimeout = Duration.ofMillis(pendingAcquireTimeoutMs);
+        Duration maxIdle = Duration.ofMillis(maxIdleMs);
+        Duration maxLife = Duration.ofMillis(maxLifeMs);
+
+        ConnectionProvider.Builder builder = ConnectionProvider.builder("ai-http");
+        pool(builder, maxConnections, pendingAcquireTimeout, maxIdle, maxLife, metrics);
+        // Pool theo host không kế thừa cấu hình chung nên phải đặt lại đủ
+        builder.forRemoteHost(InetSocketAddress.createUnresolved(GROQ_HOST, 443),
+                spec -> pool(spec, groqMaxConnections, pendingAcquireTimeout, maxIdle, maxLife, metrics));
+        builder.forRemoteHost(InetSocketAddress.createUnresolved(GEMINI_HOST, 443),
+                spec -> pool(spec, geminiMaxConnections, pendingAcquireTimeout, maxIdle, maxLife, metrics));
+        return builder.build();
+    }
+
+    private static <S extends ConnectionProvider.ConnectionPoolSpec<S>> void pool(S spec, int maxConnections,
+            Duration pendingAcquireTimeout, Duration maxIdle, Duration maxLife, AiHttpMetrics metrics) {
+        spec.maxConnections(maxConnections)
+                .pendingAcquireMaxCount(maxConnections * 4)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                // Đóng kết nối nhàn rỗi trước khi server / load balancer tự cắt
+                .maxIdleTime(maxIdle)
+                .maxLifeTime(maxLife)
+                .evictInBackground(Duration.ofSeconds(30))
+                .metrics(true, () -> metrics);
+    }
+
+    @Bean
+    public ClientHttpConnector aiClientHttpConnector(
+            ConnectionProvider aiConnectionProvider,
+            @Value("${ai.http.connect-timeout-ms:5000}") int connectTimeoutMs,
+            @Value("${ai.http.response-timeout-ms:300000}") long responseTimeoutMs,
+            @Value("${ai.http.h2-enabled:false}") boolean h2Enabled) {
+        HttpClient httpClient = HttpClient.create(aiConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                // TTS / tóm tắt dài có thể mất vài phút mới trả header
+                .responseTimeout(Duration.ofMillis(responseTimeoutMs))
+                .keepAlive(true)
+                .compress(true);
+        if (h2Enabled) {
+            // HTTPS thương lượng H2 qua ALPN; http:// (Piston) vẫn dùng HTTP/1.1
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        return new ReactorClientHttpConnector(httpClient);
+    }
+
+    @Bean
+    public WebClientCustomizer aiHttpMetricsCustomizer(AiHttpMetrics metrics) {
+        return builder -> builder.filter(metrics.filter());
+    }
+}
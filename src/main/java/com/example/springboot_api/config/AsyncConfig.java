@@ -1,32 +1,275 @@
 package com.example.springboot_api.config;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.scheduling.annotation.AsyncConfigurer;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import com.example.springboot_api.services.shared.ai.LlmTenantContext;
+
+/**
+ * Các executor tách riêng theo loại tải, để một loại job chậm không chiếm hết
+ * thread của loại khác:
+ * - taskExecutor: mặc định cho @Async không chỉ định executor
+ * - aiGenerationExecutor: sinh nội dung AI (quiz, flashcard, mindmap, ...) –
+ * IO-bound, chủ yếu chờ LLM
+ * - mediaExecutor: render video / tổng hợp audio – CPU + tiến trình ngoài
+ * - chatStreamExecutor: stream câu trả lời chatbot (SSE) – IO-bound, chờ LLM
+ * - chatPipelineExecutor: các stage song song của một lượt chat (upload, OCR
+ * ảnh, RAG, web search)
+ * - summarizationExecutor: lời gọi tóm tắt chunk / gộp song song của
+ * DocumentSummarizationService
+ * - llmHedgeExecutor: lời gọi LLM của chat qua LlmRouter (bản chính + bản
+ * hedge chạy song song)
+ * - lexicalSearchExecutor: nhánh tìm từ khóa của RAG (LexicalSearchService),
+ * chạy song song với vector search của stage RAG
+ * - ragRerankExecutor: lời gọi LLM chấm điểm chunk của RagRerankService (mode
+ * LLM)
+ * - embeddingExecutor, ocrExecutor: pipeline ingest file
+ *
+ * Mọi pool đều đếm số task bị từ chối (RejectionCountingPolicy), xem
+ * ExecutorMetricsService, và mang tenant LLM của thread submit sang thread chạy
+ * (LlmTenantContext.propagate) để LlmRequestScheduler chia quota theo user.
+ *
+ * Chế độ virtual thread (opt-in, spring.threads.virtual.enabled=true): Spring
+ * Boot chuyển Tomcat sang virtual thread, còn các pool IO-bound ở đây (task,
+ * aiGeneration, chatStream, chatPipeline, summarization, llmHedge, lexicalSearch, ragRerank, embedding) được thay
+ * bằng BoundedVirtualThreadExecutor với cùng giới hạn đồng thời. Pool CPU-bound (ocr, media) giữ platform thread.
+ * Code chạy trên các pool này khóa bằng ReentrantLock thay cho synchronized,
+ * để không ghim (pin) virtual thread vào carrier thread khi chờ lock.
+ */
 @Configuration
 @EnableAsync
 public class AsyncConfig implements AsyncConfigurer {
 
+    public static final String AI_GENERATION_EXECUTOR = "aiGenerationExecutor";
+    public static final String MEDIA_EXECUTOR = "mediaExecutor";
+    public static final String CHAT_STREAM_EXECUTOR = "chatStreamExecutor";
+    public static final String CHAT_PIPELINE_EXECUTOR = "chatPipelineExecutor";
+    public static final String SUMMARIZATION_EXECUTOR = "summarizationExecutor";
+    public static final String LLM_HEDGE_EXECUTOR = "llmHedgeExecutor";
+    public static final String LEXICAL_SEARCH_EXECUTOR = "lexicalSearchExecutor";
+    public static final String RAG_RERANK_EXECUTOR = "ragRerankExecutor";
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${ai.embedding.max-concurrency:4}")
+    private int embeddingMaxConcurrency;
+
+    // Mặc định = số core: OCR (tesseract) là tác vụ CPU-bound
+    @Value("${ocr.pdf.workers:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+    private int ocrWorkers;
+
+    @Value("${ai.executor.generation.core-size:4}")
+    private int generationCoreSize;
+
+    @Value("${ai.executor.generation.max-size:16}")
+    private int generationMaxSize;
+
+    @Value("${ai.executor.generation.queue-capacity:200}")
+    private int generationQueueCapacity;
+
+    @Value("${ai.executor.chat-stream.max-size:32}")
+    private int chatStreamMaxSize;
+
+    @Value("${ai.executor.chat-stream.queue-capacity:64}")
+    private int chatStreamQueueCapacity;
+
+    @Value("${ai.executor.chat-pipeline.max-size:32}")
+    private int chatPipelineMaxSize;
+
+    @Value("${ai.executor.chat-pipeline.queue-capacity:128}")
+    private int chatPipelineQueueCapacity;
+
+    @Value("${ai.executor.summarization.max-size:8}")
+    private int summarizationMaxSize;
+
+    @Value("${ai.executor.llm-hedge.max-size:32}")
+    private int llmHedgeMaxSize;
+
+    @Value("${ai.executor.lexical-search.max-size:8}")
+    private int lexicalSearchMaxSize;
+
+    @Value("${ai.executor.rag-rerank.max-size:8}")
+    private int ragRerankMaxSize;
+
+    @Value("${ai.executor.media.size:2}")
+    private int mediaSize;
+
+    @Value("${ai.executor.media.queue-capacity:20}")
+    private int mediaQueueCapacity;
+
     @Bean(name = "taskExecutor")
-    public Executor taskExecutor() {
+    public AsyncTaskExecutor taskExecutor() {
+        if (virtualThreads) {
+            return newVirtualPool("Async-", 10, 25);
+        }
+        // Số thread cơ bản 5, tối đa 10, hàng đợi 25 task
+        return newPool(5, 10, 25, "Async-", new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Pool cho các job sinh nội dung AI. Thread phần lớn thời gian chờ LLM trả lời
+     * nên pool được phép lớn hơn số core.
+     */
+    @Bean(name = AI_GENERATION_EXECUTOR)
+    public AsyncTaskExecutor aiGenerationExecutor() {
+        if (virtualThreads) {
+            return newVirtualPool("AiGen-", generationMaxSize, generationQueueCapacity);
+        }
+        return newPool(generationCoreSize, generationMaxSize, generationQueueCapacity, "AiGen-",
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Pool cho chat stream: mỗi task giữ một kết nối SSE tới client và một stream
+     * tới LLM cho tới khi trả lời xong. Tách khỏi aiGeneration để job nền (quiz,
+     * video, ...) không làm chậm người đang chat.
+     */
+    @Bean(name = CHAT_STREAM_EXECUTOR)
+    public AsyncTaskExecutor chatStreamExecutor() {
+        if (virtualThreads) {
+            return newVirtualPool("ChatStream-", chatStreamMaxSize, chatStreamQueueCapacity);
+        }
+        return newPool(chatStreamMaxSize, chatStreamMaxSize, chatStreamQueueCapacity, "ChatStream-",
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Pool cho các stage của một lượt chat (ChatStagePipeline). Request thread chờ
+     * kết quả nên khi pool đầy thì request thread tự chạy stage (CallerRuns) – chat
+     * chậm lại như chạy tuần tự chứ không lỗi.
+     */
+    @Bean(name = CHAT_PIPELINE_EXECUTOR)
+    public AsyncTaskExecutor chatPipelineExecutor() {
+        if (virtualThreads) {
+            return newVirtualPool("ChatStage-", chatPipelineMaxSize, Integer.MAX_VALUE);
+        }
+        return newPool(chatPipelineMaxSize, chatPipelineMaxSize, chatPipelineQueueCapacity, "ChatStage-",
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Pool cho các lời gọi LLM tóm tắt chunk / gộp tóm tắt chạy song song. Tốc độ
+     * thật do LlmRequestScheduler quyết định, pool chỉ giới hạn số lời gọi đang
+     * chờ. Job sinh nội dung (trên aiGeneration / media) chờ kết quả nên khi pool
+     * đầy thì thread đó tự chạy (CallerRuns) thay vì bị reject hay deadlock.
+     */
+    @Bean(name = SUMMARIZATION_EXECUTOR)
+    public AsyncTaskExecutor summarizationExecutor() {
+        if (virtualThreads) {
+            return newVirtualPool("Summarize-", summarizationMaxSize, Integer.MAX_VALUE);
+        }
+        return newPool(summarizationMaxSize, summarizationMaxSize, summarizationMaxSize * 4, "Summarize-",
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Pool cho lời gọi LLM của chat qua LlmRouter: bản chính và bản hedge chạy ở
+     * đây để thread chat chờ có hạn. Pool đầy thì reject (Abort) và LlmRouter tự
+     * gọi trên thread chat, không hedge.
+     */
+    @Bean(name = LLM_HEDGE_EXECUTOR)
+    public AsyncTaskExecutor llmHedgeExecutor() {
+        if (virtualThreads) {
+            // maxWaiting tính cả task đang lấy permit nên không thể là 0
+            return newVirtualPool("LlmHedge-", llmHedgeMaxSize, llmHedgeMaxSize);
+        }
+        return newPool(llmHedgeMaxSize, llmHedgeMaxSize, 0, "LlmHedge-", new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Pool cho truy vấn từ khóa của RAG. Tách khỏi chatPipeline: stage RAG chạy
+     * trên chatPipeline và chờ kết quả này, dùng chung pool thì lúc tải cao task
+     * từ khóa xếp hàng sau chính các stage đang chờ nó và bị bỏ khi quá
+     * timeout-ms. Pool đầy thì thread RAG tự chạy truy vấn (CallerRuns).
+     */
+    @Bean(name = LEXICAL_SEARCH_EXECUTOR)
+    public AsyncTaskExecutor lexicalSearchExecutor() {
+        if (virtualThreads) {
+            return newVirtualPool("Lexical-", lexicalSearchMaxSize, Integer.MAX_VALUE);
+        }
+        return newPool(lexicalSearchMaxSize, lexicalSearchMaxSize, lexicalSearchMaxSize * 2, "Lexical-",
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Pool cho lời gọi LLM chấm điểm rerank: chat chờ có hạn (budget-ms) rồi hủy
+     * (interrupt) lời gọi. Pool đầy thì reject (Abort) và RagRerankService dùng
+     * điểm local.
+     */
+    @Bean(name = RAG_RERANK_EXECUTOR)
+    public AsyncTaskExecutor ragRerankExecutor() {
+        if (virtualThreads) {
+            return newVirtualPool("Rerank-", ragRerankMaxSize, ragRerankMaxSize);
+        }
+        return newPool(ragRerankMaxSize, ragRerankMaxSize, 0, "Rerank-", new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Pool nhỏ cho render video (Playwright) và audio overview: mỗi job tốn nhiều
+     * CPU / bộ nhớ, chạy song song quá nhiều chỉ làm chậm tất cả.
+     */
+    @Bean(name = MEDIA_EXECUTOR)
+    public ThreadPoolTaskExecutor mediaExecutor() {
+        return newPool(mediaSize, mediaSize, mediaQueueCapacity, "Media-", new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Pool riêng cho các request batch embedding.
+     * Số thread = số request embedding được gửi song song tối đa.
+     * Khi pool đầy, thread gọi tự chạy batch (CallerRuns) thay vì bị reject.
+     */
+    @Bean(name = "embeddingExecutor")
+    public AsyncTaskExecutor embeddingExecutor() {
+        if (virtualThreads) {
+            // Không cần CallerRuns: task chờ permit trên virtual thread của nó
+            return newVirtualPool("Embed-", embeddingMaxConcurrency, Integer.MAX_VALUE);
+        }
+        return newPool(embeddingMaxConcurrency, embeddingMaxConcurrency, embeddingMaxConcurrency * 4, "Embed-",
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Pool OCR theo trang cho PDF scan (mỗi task = một tiến trình tesseract).
+     */
+    @Bean(name = "ocrExecutor")
+    public ThreadPoolTaskExecutor ocrExecutor() {
+        return newPool(ocrWorkers, ocrWorkers, ocrWorkers * 2, "Ocr-", new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Override
+    public Executor getAsyncExecutor() {
+        return taskExecutor();
+    }
+
+    private ThreadPoolTaskExecutor newPool(int coreSize, int maxSize, int queueCapacity, String threadNamePrefix,
+            RejectedExecutionHandler rejectedHandler) {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(5); // Số thread cơ bản
-        executor.setMaxPoolSize(10); // Số thread tối đa
-        executor.setQueueCapacity(25); // Số task trong hàng đợi
-        executor.setThreadNamePrefix("Async-");
+        executor.setCorePoolSize(coreSize);
+        executor.setMaxPoolSize(maxSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setRejectedExecutionHandler(new RejectionCountingPolicy(rejectedHandler));
+        executor.setTaskDecorator(LlmTenantContext::propagate);
         executor.setWaitForTasksToCompleteOnShutdown(true);
         executor.setAwaitTerminationSeconds(60);
         executor.initialize();
         return executor;
     }
 
-    @Override
-    public Executor getAsyncExecutor() {
-        return taskExecutor();
+    private BoundedVirtualThreadExecutor newVirtualPool(String threadNamePrefix, int maxConcurrency, int maxWaiting) {
+        BoundedVirtualThreadExecutor executor = new BoundedVirtualThreadExecutor(threadNamePrefix, maxConcurrency,
+                maxWaiting);
+        executor.setTaskDecorator(LlmTenantContext::propagate);
+        return executor;
     }
 }
@@ -0,0 +1,120 @@
+package com.example.springboot_api.config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.core.task.TaskRejectedException;
+
+/**
+ * Executor chạy mỗi task trên một virtual thread, giới hạn số task chạy đồng
+ * thời bằng Semaphore.
+ *
+ * Task vượt quá maxConcurrency không chiếm platform thread mà chờ (park) trên
+ * virtual thread của chính nó; số task đang chờ vượt maxWaiting thì bị từ chối.
+ * Dùng cho tải IO-bound (gọi LLM / HTTP) khi bật spring.threads.virtual.enabled.
+ */
+public class BoundedVirtualThreadExecutor implements AsyncTaskExecutor {
+
+    private final String name;
+    private final int maxConcurrency;
+    private final int maxWaiting;
+    private final Semaphore permits;
+    private final ThreadFactory threadFactory;
+    private TaskDecorator taskDecorator;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public BoundedVirtualThreadExecutor(String threadNamePrefix, int maxConcurrency, int maxWaiting) {
+        this.name = threadNamePrefix;
+        this.maxConcurrency = maxConcurrency;
+        this.maxWaiting = maxWaiting;
+        this.permits = new Semaphore(maxConcurrency);
+        this.threadFactory = Thread.ofVirtual().name(threadNamePrefix, 1).factory();
+    }
+
+    /**
+     * Giống ThreadPoolTaskExecutor.setTaskDecorator: bọc task lúc submit.
+     */
+    public void setTaskDecorator(TaskDecorator taskDecorator) {
+        this.taskDecorator = taskDecorator;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            throw new TaskRejectedException("Executor " + name + " đã đầy (" + maxWaiting + " task đang chờ)");
+        }
+
+        Runnable decorated = taskDecorator != null ? taskDecorator.decorate(task) : task;
+        threadFactory.newThread(() -> {
+            boolean acquired = false;
+            try {
+                permits.acquire();
+                acquired = true;
+                waiting.decrementAndGet();
+                active.incrementAndGet();
+                decorated.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (acquired) {
+                    active.decrementAndGet();
+                    permits.release();
+                    completed.increment();
+                } else {
+                    waiting.decrementAndGet();
+                }
+            }
+        }).start();
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        FutureTask<Object> future = new FutureTask<>(task, null);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        execute(future);
+        return future;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getMaxWaiting() {
+        return maxWaiting;
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
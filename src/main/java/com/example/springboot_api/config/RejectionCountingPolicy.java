@@ -0,0 +1,29 @@
+package com.example.springboot_api.config;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bọc một RejectedExecutionHandler để đếm số task bị từ chối (pool + hàng đợi
+ * đều đầy), phục vụ metrics của từng executor.
+ */
+public class RejectionCountingPolicy implements RejectedExecutionHandler {
+
+    private final RejectedExecutionHandler delegate;
+    private final LongAdder rejected = new LongAdder();
+
+    public RejectionCountingPolicy(RejectedExecutionHandler delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+        rejected.increment();
+        delegate.rejectedExecution(task, executor);
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
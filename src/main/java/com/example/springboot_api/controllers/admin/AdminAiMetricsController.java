@@ -0,0 +1,224 @@
+package com.example.springboot_api.controllers.admin;
+
+import java.util.List;
+
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.springboot_api.config.security.UserPrincipal;
+import com.example.springboot_api.dto.shared.ai.AiHttpStats;
+import com.example.springboot_api.dto.shared.ai.ChatPromptStats;
+import com.example.springboot_api.dto.shared.ai.ChatStageStats;
+import com.example.springboot_api.dto.shared.ai.ClassifierStats;
+import com.example.springboot_api.dto.shared.ai.EmbeddingCacheStats;
+import com.example.springboot_api.dto.shared.ai.ExecutorPoolStats;
+import com.example.springboot_api.dto.shared.ai.FileSummaryCacheStats;
+import com.example.springboot_api.dto.shared.ai.IngestionQueueStat;
+import com.example.springboot_api.dto.shared.ai.LlmRateStats;
+import com.example.springboot_api.dto.shared.ai.LlmRouteStats;
+import com.example.springboot_api.dto.shared.ai.MemoryVectorIndexStats;
+import com.example.springboot_api.dto.shared.ai.RagCacheStats;
+import com.example.springboot_api.dto.shared.ai.RagRerankStats;
+import com.example.springboot_api.services.shared.ai.AiHttpMetrics;
+import com.example.springboot_api.services.shared.ai.EmbeddingCacheService;
+import com.example.springboot_api.services.shared.ai.ExecutorMetricsService;
+import com.example.springboot_api.services.shared.ai.FileSummaryCacheService;
+import com.example.springboot_api.services.shared.ai.LlmRequestScheduler;
+import com.example.springboot_api.services.shared.ai.LlmRouter;
+import com.example.springboot_api.services.shared.ai.MessageClassifierService;
+import com.example.springboot_api.services.shared.ai.RagRerankService;
+import com.example.springboot_api.services.shared.ai.RagResultCache;
+import com.example.springboot_api.services.shared.ai.ingest.IngestionJobQueue;
+import com.example.springboot_api.services.shared.ai.vector.InMemoryVectorIndexService;
+import com.example.springboot_api.services.user.ChatPromptBuilder;
+import com.example.springboot_api.services.user.ChatStagePipeline;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Các chỉ số vận hành của pipeline AI (cache, hàng đợi, ...).
+ */
+@RestController
+@RequestMapping("/admin/ai/metrics")
+@RequiredArgsConstructor
+public class AdminAiMetricsController {
+
+    private final EmbeddingCacheService embeddingCacheService;
+    private final IngestionJobQueue ingestionJobQueue;
+    private final ExecutorMetricsService executorMetricsService;
+    private final ChatStagePipeline chatStagePipeline;
+    private final ChatPromptBuilder chatPromptBuilder;
+    private final RagResultCache ragResultCache;
+    private final InMemoryVectorIndexService inMemoryVectorIndexService;
+    private final RagRerankService ragRerankService;
+    private final MessageClassifierService messageClassifierService;
+    private final LlmRequestScheduler llmRequestScheduler;
+    private final FileSummaryCacheService fileSummaryCacheService;
+    private final AiHttpMetrics aiHttpMetrics;
+    private final LlmRouter llmRouter;
+
+    /**
+     * Thống kê hit/miss của embedding cache.
+     * GET /admin/ai/metrics/embedding-cache
+     */
+    @GetMapping("/embedding-cache")
+    public EmbeddingCacheStats getEmbeddingCacheStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return embeddingCacheService.getStats();
+    }
+
+    /**
+     * Thống kê hit/miss của cache kết quả RAG (câu hỏi → chunk top-k).
+     * GET /admin/ai/metrics/rag-cache
+     */
+    @GetMapping("/rag-cache")
+    public RagCacheStats getRagCacheStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return ragResultCache.getStats();
+    }
+
+    /**
+     * Thống kê bước rerank chunk RAG (thời gian, timeout, số chunk trước / sau).
+     * GET /admin/ai/metrics/rag-rerank
+     */
+    @GetMapping("/rag-rerank")
+    public RagRerankStats getRagRerankStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return ragRerankService.getStats();
+    }
+
+    /**
+     * Các notebook đang có index vector trong JVM (số chunk, bộ nhớ, độ trễ search).
+     * GET /admin/ai/metrics/memory-index
+     */
+    @GetMapping("/memory-index")
+    public List<MemoryVectorIndexStats> getMemoryIndexStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return inMemoryVectorIndexService.getStats();
+    }
+
+    /**
+     * Số job ingest theo stage / trạng thái (độ sâu hàng đợi, job lỗi, ...).
+     * GET /admin/ai/metrics/ingestion-queue
+     */
+    @GetMapping("/ingestion-queue")
+    public List<IngestionQueueStat> getIngestionQueueStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return ingestionJobQueue.getStats();
+    }
+
+    /**
+     * Trạng thái các thread pool (đang chạy, hàng đợi, số task bị từ chối).
+     * GET /admin/ai/metrics/executors
+     */
+    @GetMapping("/executors")
+    public List<ExecutorPoolStats> getExecutorStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return executorMetricsService.getStats();
+    }
+
+    /**
+     * Thời gian các stage của chatbot (upload, ocr, rag, web, history): số lần
+     * chạy, lỗi, timeout, trung bình và lâu nhất.
+     * GET /admin/ai/metrics/chat-stages
+     */
+    @GetMapping("/chat-stages")
+    public List<ChatStageStats> getChatStageStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return chatStagePipeline.getStats();
+    }
+
+    /**
+     * Số token (ước lượng) của prompt chatbot theo từng phần, số prompt bị cắt theo
+     * ngân sách và số chunk trùng / bị bỏ.
+     * GET /admin/ai/metrics/chat-prompt
+     */
+    @GetMapping("/chat-prompt")
+    public ChatPromptStats getChatPromptStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return chatPromptBuilder.getStats();
+    }
+
+    /**
+     * Thống kê phân loại câu hỏi: quyết bằng rule / local / cache, số lần phải gọi
+     * LLM.
+     * GET /admin/ai/metrics/classifier
+     */
+    @GetMapping("/classifier")
+    public ClassifierStats getClassifierStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return messageClassifierService.getStats();
+    }
+
+    /**
+     * Quota LLM theo bucket: rpm hiện tại (sau 429), số request đang chờ, thời gian
+     * chờ token.
+     * GET /admin/ai/metrics/llm-rate
+     */
+    @GetMapping("/llm-rate")
+    public List<LlmRateStats> getLlmRateStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return llmRequestScheduler.getStats();
+    }
+
+    /**
+     * Cache tóm tắt theo file dùng chung cho các generator: hit/miss, số lần xóa
+     * khi file xử lý lại, số lần warm-up sau ingest.
+     * GET /admin/ai/metrics/summary-cache
+     */
+    @GetMapping("/summary-cache")
+    public FileSummaryCacheStats getSummaryCacheStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return fileSummaryCacheService.getStats();
+    }
+
+    /**
+     * HTTP client dùng chung cho lời gọi AI: độ trễ p50/p95 và lỗi theo host,
+     * connection pool (đang dùng / rảnh / chờ), số lời gọi LLM được gộp.
+     * GET /admin/ai/metrics/http
+     */
+    @GetMapping("/http")
+    public AiHttpStats getHttpStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return aiHttpMetrics.getStats();
+    }
+
+    /**
+     * Route LLM của chat: p50/p95 độ trễ và token đầu, tỉ lệ lỗi, route đang bị bỏ
+     * qua, số lần hedge và số lần bản hedge thắng.
+     * GET /admin/ai/metrics/llm-routes
+     */
+    @GetMapping("/llm-routes")
+    public List<LlmRouteStats> getLlmRouteStats(@AuthenticationPrincipal UserPrincipal admin) {
+        if (admin == null)
+            throw new RuntimeException("Admin chưa đăng nhập.");
+
+        return llmRouter.getStats();
+    }
+}
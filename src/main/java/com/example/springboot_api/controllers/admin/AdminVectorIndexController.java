@@ -0,0 +1,104 @@
+package com.example.springboot_api.controllers.admin;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.springboot_api.common.dto.ApiResponse;
+import com.example.springboot_api.dto.admin.vectorindex.CreateVectorIndexRequest;
+import com.example.springboot_api.dto.admin.vectorindex.UpdateVectorStorageRequest;
+import com.example.springboot_api.dto.admin.vectorindex.VectorIndexBenchmarkRequest;
+import com.example.springboot_api.dto.admin.vectorindex.VectorIndexBenchmarkResponse;
+import com.example.springboot_api.dto.admin.vectorindex.VectorIndexResponse;
+import com.example.springboot_api.dto.admin.vectorindex.VectorStorageBenchmarkRequest;
+import com.example.springboot_api.dto.admin.vectorindex.VectorStorageBenchmarkResponse;
+import com.example.springboot_api.dto.admin.vectorindex.VectorStorageSettingsResponse;
+import com.example.springboot_api.services.shared.ai.VectorIndexService;
+import com.example.springboot_api.services.shared.ai.VectorIndexService.IndexType;
+import com.example.springboot_api.services.shared.ai.VectorStorageService;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Admin API quản lý ANN index (HNSW / IVFFlat) trên file_chunks.embedding và chế
+ * độ lưu vector rút gọn của từng notebook.
+ */
+@RestController
+@RequestMapping("/admin/ai/vector-index")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('ADMIN')")
+@Tag(name = "Admin Vector Index", description = "API quản lý index vector cho RAG")
+public class AdminVectorIndexController {
+
+    private final VectorIndexService vectorIndexService;
+    private final VectorStorageService vectorStorageService;
+
+    @GetMapping
+    @Operation(summary = "Trạng thái các index vector (kích thước, hợp lệ, tiến độ build)")
+    public ResponseEntity<ApiResponse<List<VectorIndexResponse>>> listIndexes() {
+        return ResponseEntity.ok(ApiResponse.success(vectorIndexService.listIndexes(), "Vector indexes"));
+    }
+
+    @PostMapping
+    @Operation(summary = "Tạo index vector (build nền, CONCURRENTLY)")
+    public ResponseEntity<ApiResponse<Void>> createIndex(@Valid @RequestBody CreateVectorIndexRequest request) {
+        vectorIndexService.createIndex(request);
+        return ResponseEntity.accepted().body(ApiResponse.success(null, "Đang build index " + request.getType()));
+    }
+
+    @PostMapping("/{type}/rebuild")
+    @Operation(summary = "Build lại index vector (REINDEX CONCURRENTLY)")
+    public ResponseEntity<ApiResponse<Void>> rebuildIndex(@PathVariable IndexType type) {
+        vectorIndexService.rebuildIndex(type);
+        return ResponseEntity.accepted().body(ApiResponse.success(null, "Đang build lại index " + type));
+    }
+
+    @DeleteMapping("/{type}")
+    @Operation(summary = "Xóa index vector")
+    public ResponseEntity<ApiResponse<Void>> dropIndex(@PathVariable IndexType type) {
+        vectorIndexService.dropIndex(type);
+        return ResponseEntity.ok(ApiResponse.success(null, "Đã xóa index " + type));
+    }
+
+    @PostMapping("/benchmark")
+    @Operation(summary = "So sánh recall / độ trễ của ANN index với exact search")
+    public ResponseEntity<ApiResponse<VectorIndexBenchmarkResponse>> benchmark(
+            @Valid @RequestBody VectorIndexBenchmarkRequest request) {
+        return ResponseEntity.ok(ApiResponse.success(vectorIndexService.benchmark(request), "Benchmark"));
+    }
+
+    @GetMapping("/notebooks/{notebookId}/storage")
+    @Operation(summary = "Chế độ lưu vector của notebook")
+    public ResponseEntity<ApiResponse<VectorStorageSettingsResponse>> getStorage(@PathVariable UUID notebookId) {
+        return ResponseEntity.ok(ApiResponse.success(vectorStorageService.getSettings(notebookId),
+                "Vector storage"));
+    }
+
+    @PutMapping("/notebooks/{notebookId}/storage")
+    @Operation(summary = "Đổi chế độ lưu vector của notebook (FULL / HALFVEC / HALFVEC_768 / BINARY)")
+    public ResponseEntity<ApiResponse<VectorStorageSettingsResponse>> updateStorage(@PathVariable UUID notebookId,
+            @Valid @RequestBody UpdateVectorStorageRequest request) {
+        return ResponseEntity.ok(ApiResponse.success(vectorStorageService.updateSettings(notebookId, request),
+                "Đã đổi chế độ lưu vector"));
+    }
+
+    @PostMapping("/storage-benchmark")
+    @Operation(summary = "So sánh recall / độ trễ / dung lượng của các chế độ lưu vector")
+    public ResponseEntity<ApiResponse<VectorStorageBenchmarkResponse>> storageBenchmark(
+            @Valid @RequestBody VectorStorageBenchmarkRequest request) {
+        return ResponseEntity.ok(ApiResponse.success(vectorStorageService.benchmark(request), "Benchmark"));
+    }
+}
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -16,6 +17,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.example.springboot_api.common.exceptions.BadRequestException;
 import com.example.springboot_api.config.security.UserPrincipal;
@@ -28,6 +30,7 @@ import com.example.springboot_api.dto.user.chatbot.ListMessagesResponse;
 import com.example.springboot_api.dto.user.chatbot.LlmModelResponse;
 import com.example.springboot_api.services.user.AiSetService;
 import com.example.springboot_api.services.user.ChatBotService;
+import com.example.springboot_api.services.user.ChatStreamService;
 import com.example.springboot_api.services.user.QuizService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -39,6 +42,7 @@ import lombok.RequiredArgsConstructor;
 public class BotChatController {
 
     private final ChatBotService chatBotService;
+    private final ChatStreamService chatStreamService;
     private final AiSetService aiSetService;
     private final QuizService quizService;
     private final ObjectMapper objectMapper;
@@ -129,6 +133,49 @@ public class BotChatController {
             throw new RuntimeException("User chưa đăng nhập.");
         }
 
+        ChatRequest request = parseChatRequest(requestJson, conversationId);
+        validateChatFiles(images);
+
+        // Gọi service với MultipartFile[] - service sẽ tự lưu file
+        ChatResponse response = chatBotService.chat(notebookId, user.getId(), request, images);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Gửi tin nhắn chat với bot, câu trả lời được stream về qua SSE
+     * POST
+     * /user/notebooks/{notebookId}/bot-chat/conversations/{conversationId}/chat/stream
+     *
+     * Event: start → delta (nhiều lần) → done (ChatResponse) | error
+     *
+     * @param user           Current authenticated user
+     * @param notebookId     Notebook ID
+     * @param conversationId Conversation ID
+     * @param requestJson    JSON string chứa ChatRequest
+     * @param images         Danh sách hình ảnh (optional)
+     * @return SseEmitter
+     */
+    @PostMapping(value = "/conversations/{conversationId}/chat/stream", consumes = {
+            "multipart/form-data" }, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(
+            @AuthenticationPrincipal UserPrincipal user,
+            @PathVariable UUID notebookId,
+            @PathVariable UUID conversationId,
+            @RequestPart("request") String requestJson,
+            @RequestPart(value = "images", required = false) List<MultipartFile> images)
+            throws IOException {
+
+        if (user == null) {
+            throw new RuntimeException("User chưa đăng nhập.");
+        }
+
+        ChatRequest request = parseChatRequest(requestJson, conversationId);
+        validateChatFiles(images);
+
+        return chatStreamService.chatStream(notebookId, user.getId(), request, images);
+    }
+
+    private ChatRequest parseChatRequest(String requestJson, UUID conversationId) {
         // Parse ChatRequest từ JSON
         ChatRequest request;
         try {
@@ -140,6 +187,10 @@ public class BotChatController {
         // Set conversationId từ path parameter vào request
         request.setConversationId(conversationId);
 
+        return request;
+    }
+
+    private void validateChatFiles(List<MultipartFile> images) {
         // Validate file type nếu có
         if (images != null && !images.isEmpty()) {
             for (MultipartFile image : images) {
@@ -163,10 +214,6 @@ public class BotChatController {
                 }
             }
         }
-
-        // Gọi service với MultipartFile[] - service sẽ tự lưu file
-        ChatResponse response = chatBotService.chat(notebookId, user.getId(), request, images);
-        return ResponseEntity.ok(response);
     }
 
     /**
@@ -0,0 +1,35 @@
+package com.example.springboot_api.dto.admin.vectorindex;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import lombok.Data;
+
+/**
+ * Request tạo ANN index cho file_chunks.embedding.
+ * Tham số không gửi thì dùng mặc định của pgvector / VectorIndexService.
+ */
+@Data
+public class CreateVectorIndexRequest {
+
+    @NotNull(message = "Type là bắt buộc")
+    @Pattern(regexp = "^(HNSW|IVFFLAT|HNSW_HALFVEC|HNSW_HALFVEC_768|HNSW_BINARY)$",
+            message = "Type phải là: HNSW, IVFFLAT, HNSW_HALFVEC, HNSW_HALFVEC_768, HNSW_BINARY")
+    private String type = "HNSW";
+
+    // HNSW*: số cạnh mỗi node
+    @Min(value = 2, message = "m phải >= 2")
+    @Max(value = 100, message = "m phải <= 100")
+    private Integer m;
+
+    // HNSW*: độ rộng danh sách ứng viên khi build (phải >= 2 * m)
+    @Min(value = 4, message = "efConstruction phải >= 4")
+    @Max(value = 1000, message = "efConstruction phải <= 1000")
+    private Integer efConstruction;
+
+    // IVFFLAT: số cụm; không gửi thì tính theo số chunk (rows / 1000, trên 1 triệu thì sqrt(rows))
+    @Min(value = 1, message = "lists phải >= 1")
+    @Max(value = 32768, message = "lists phải <= 32768")
+    private Integer lists;
+}
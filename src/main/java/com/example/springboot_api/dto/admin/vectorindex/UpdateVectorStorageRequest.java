@@ -0,0 +1,25 @@
+package com.example.springboot_api.dto.admin.vectorindex;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import lombok.Data;
+
+/**
+ * Request đổi chế độ lưu / tìm vector của một notebook.
+ */
+@Data
+public class UpdateVectorStorageRequest {
+
+    @NotNull(message = "Mode là bắt buộc")
+    @Pattern(regexp = "^(FULL|HALFVEC|HALFVEC_768|BINARY)$",
+            message = "Mode phải là: FULL, HALFVEC, HALFVEC_768, BINARY")
+    private String mode;
+
+    // Số ứng viên lấy từ index rút gọn = limit * rerankFactor; không gửi thì dùng
+    // ai.rag.storage.default-rerank-factor
+    @Min(value = 1, message = "rerankFactor phải >= 1")
+    @Max(value = 50, message = "rerankFactor phải <= 50")
+    private Integer rerankFactor;
+}
@@ -0,0 +1,36 @@
+package com.example.springboot_api.dto.admin.vectorindex;
+
+import java.util.UUID;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+/**
+ * Request benchmark ANN index so với exact search trên một notebook.
+ * efSearch / probes không gửi thì dùng cấu hình ai.rag.ann.*.
+ */
+@Data
+public class VectorIndexBenchmarkRequest {
+
+    @NotNull(message = "notebookId là bắt buộc")
+    private UUID notebookId;
+
+    // Số câu truy vấn (lấy ngẫu nhiên embedding của chính các chunk trong notebook)
+    @Min(value = 1, message = "queries phải >= 1")
+    @Max(value = 500, message = "queries phải <= 500")
+    private Integer queries = 50;
+
+    @Min(value = 1, message = "k phải >= 1")
+    @Max(value = 100, message = "k phải <= 100")
+    private Integer k = 5;
+
+    @Min(value = 1, message = "efSearch phải >= 1")
+    @Max(value = 1000, message = "efSearch phải <= 1000")
+    private Integer efSearch;
+
+    @Min(value = 1, message = "probes phải >= 1")
+    @Max(value = 32768, message = "probes phải <= 32768")
+    private Integer probes;
+}
@@ -0,0 +1,30 @@
+package com.example.springboot_api.dto.admin.vectorindex;
+
+import java.util.List;
+import java.util.UUID;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Kết quả benchmark: độ trễ exact search và ANN search, recall@k của ANN.
+ */
+@Data
+@Builder
+public class VectorIndexBenchmarkResponse {
+    private UUID notebookId;
+    private Integer queries;
+    private Integer k;
+    private Long notebookChunks;
+    private List<String> indexes;
+    private Integer efSearch;
+    private Integer probes;
+
+    private Double exactAvgMs;
+    private Long exactP95Ms;
+    private Double annAvgMs;
+    private Long annP95Ms;
+
+    // Trung bình |top-k ANN ∩ top-k exact| / |top-k exact|
+    private Double recallAtK;
+}
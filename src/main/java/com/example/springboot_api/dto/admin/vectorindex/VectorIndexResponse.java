@@ -0,0 +1,22 @@
+package com.example.springboot_api.dto.admin.vectorindex;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Trạng thái một ANN index trên file_chunks.embedding.
+ */
+@Data
+@Builder
+public class VectorIndexResponse {
+    private String type;
+    private String name;
+    private String definition;
+    private Long sizeBytes;
+    // false khi build CONCURRENTLY đang chạy hoặc đã lỗi giữa chừng
+    private Boolean valid;
+    // Phase của pg_stat_progress_create_index khi đang build, null nếu không build
+    private String buildPhase;
+    private Long buildTuplesDone;
+    private Long buildTuplesTotal;
+}
@@ -0,0 +1,31 @@
+package com.example.springboot_api.dto.admin.vectorindex;
+
+import java.util.UUID;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+/**
+ * Request benchmark các chế độ lưu vector (FULL / HALFVEC / HALFVEC_768 / BINARY)
+ * trên một notebook.
+ */
+@Data
+public class VectorStorageBenchmarkRequest {
+
+    @NotNull(message = "notebookId là bắt buộc")
+    private UUID notebookId;
+
+    @Min(value = 1, message = "queries phải >= 1")
+    @Max(value = 500, message = "queries phải <= 500")
+    private Integer queries = 50;
+
+    @Min(value = 1, message = "k phải >= 1")
+    @Max(value = 100, message = "k phải <= 100")
+    private Integer k = 5;
+
+    @Min(value = 1, message = "rerankFactor phải >= 1")
+    @Max(value = 50, message = "rerankFactor phải <= 50")
+    private Integer rerankFactor;
+}
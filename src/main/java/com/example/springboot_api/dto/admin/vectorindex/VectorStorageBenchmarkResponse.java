@@ -0,0 +1,28 @@
+package com.example.springboot_api.dto.admin.vectorindex;
+
+import java.util.List;
+import java.util.UUID;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Kết quả benchmark các chế độ lưu vector, so với exact search trên vector đầy
+ * đủ.
+ */
+@Data
+@Builder
+public class VectorStorageBenchmarkResponse {
+    private UUID notebookId;
+    private Integer queries;
+    private Integer k;
+    private Integer rerankFactor;
+    private Long notebookChunks;
+    // pg_table_size của file_chunks (toàn bảng, gồm TOAST)
+    private Long tableBytes;
+
+    private Double exactAvgMs;
+    private Long exactP95Ms;
+
+    private List<VectorStorageBenchmarkResult> modes;
+}
@@ -0,0 +1,24 @@
+package com.example.springboot_api.dto.admin.vectorindex;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Kết quả của một chế độ lưu vector trong benchmark.
+ */
+@Data
+@Builder
+public class VectorStorageBenchmarkResult {
+    private String mode;
+    private String indexName;
+    // Kích thước index trên toàn bảng; null nếu chưa có index
+    private Long indexBytes;
+    // Dung lượng vector của notebook ở chế độ này (số chunk * byte / vector)
+    private Long vectorBytes;
+
+    private Double avgMs;
+    private Long p95Ms;
+
+    // Trung bình |top-k chế độ này ∩ top-k exact| / |top-k exact|
+    private Double recallAtK;
+}
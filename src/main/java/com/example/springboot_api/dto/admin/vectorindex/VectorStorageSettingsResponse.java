@@ -0,0 +1,16 @@
+package com.example.springboot_api.dto.admin.vectorindex;
+
+import java.util.UUID;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class VectorStorageSettingsResponse {
+    private UUID notebookId;
+    private String mode;
+    private Integer rerankFactor;
+    // Dung lượng vector trong index của chế độ này (không tính overhead của index)
+    private Integer bytesPerVector;
+}
@@ -0,0 +1,15 @@
+package com.example.springboot_api.dto.shared.ai;
+
+public record AiHttpHostStats(
+                String host,
+                long requests,
+                long errors,
+                int inFlight,
+                long p50LatencyMs,
+                long p95LatencyMs,
+                long maxLatencyMs,
+                int poolActive,
+                int poolIdle,
+                int poolPending,
+                int poolMax) {
+}
@@ -0,0 +1,9 @@
+package com.example.springboot_api.dto.shared.ai;
+
+import java.util.List;
+
+public record AiHttpStats(
+                long coalescedCalls,
+                int coalescingInFlight,
+                List<AiHttpHostStats> hosts) {
+}
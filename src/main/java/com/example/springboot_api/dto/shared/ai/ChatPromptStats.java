@@ -0,0 +1,14 @@
+package com.example.springboot_api.dto.shared.ai;
+
+public record ChatPromptStats(
+                long prompts,
+                double avgTotalTokens,
+                long maxTotalTokens,
+                double avgHistoryTokens,
+                double avgRagTokens,
+                double avgWebTokens,
+                double avgImageTokens,
+                long trimmedPrompts,
+                long dedupedChunks,
+                long droppedChunks) {
+}
@@ -0,0 +1,10 @@
+package com.example.springboot_api.dto.shared.ai;
+
+public record ChatStageStats(
+                String stage,
+                long count,
+                long failures,
+                long timeouts,
+                double avgMs,
+                long maxMs) {
+}
@@ -0,0 +1,12 @@
+package com.example.springboot_api.dto.shared.ai;
+
+public record ClassifierStats(
+                long requests,
+                long ruleDecisions,
+                long localDecisions,
+                long cacheHits,
+                long llmCalls,
+                long llmFailures,
+                double avoidedLlmRate,
+                int cachedDecisions) {
+}
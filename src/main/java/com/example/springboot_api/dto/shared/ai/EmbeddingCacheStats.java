@@ -0,0 +1,10 @@
+package com.example.springboot_api.dto.shared.ai;
+
+public record EmbeddingCacheStats(
+                long memoryHits,
+                long databaseHits,
+                long misses,
+                double hitRate,
+                int memoryEntries,
+                int memoryCapacity) {
+}
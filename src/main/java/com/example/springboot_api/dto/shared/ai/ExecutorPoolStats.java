@@ -0,0 +1,13 @@
+package com.example.springboot_api.dto.shared.ai;
+
+public record ExecutorPoolStats(
+                String name,
+                int corePoolSize,
+                int maxPoolSize,
+                int poolSize,
+                int activeCount,
+                int queueSize,
+                int queueRemainingCapacity,
+                long completedTasks,
+                long rejectedTasks) {
+}
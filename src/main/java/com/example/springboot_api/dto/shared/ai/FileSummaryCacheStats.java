@@ -0,0 +1,10 @@
+package com.example.springboot_api.dto.shared.ai;
+
+public record FileSummaryCacheStats(
+                long hits,
+                long misses,
+                double hitRate,
+                long writes,
+                long invalidations,
+                long warmUps) {
+}
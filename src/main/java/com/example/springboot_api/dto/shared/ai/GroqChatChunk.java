@@ -0,0 +1,43 @@
+package com.example.springboot_api.dto.shared.ai;
+
+import java.util.List;
+import java.util.Optional;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One server-sent chunk of a streaming Groq Chat API response.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record GroqChatChunk(
+        String id,
+        List<Choice> choices) {
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Choice(
+            Integer index,
+            Delta delta,
+            @JsonProperty("finish_reason") String finishReason) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Delta(
+            String role,
+            String content) {
+    }
+
+    /**
+     * Extracts the text delta from the first choice.
+     *
+     * @return the new text content, or empty string if this chunk has none
+     */
+    public String getText() {
+        return Optional.ofNullable(choices)
+                .filter(c -> !c.isEmpty())
+                .map(c -> c.get(0))
+                .map(Choice::delta)
+                .map(Delta::content)
+                .orElse("");
+    }
+}
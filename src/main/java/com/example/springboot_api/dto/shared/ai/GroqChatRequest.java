@@ -2,16 +2,21 @@ package com.example.springboot_api.dto.shared.ai;
 
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
  * Request DTO for Groq Chat API.
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public record GroqChatRequest(
         String model,
         List<Message> messages,
         @JsonProperty("max_tokens") Integer maxTokens,
-        Double temperature) {
+        Double temperature,
+        Boolean stream) {
+
+    public static final String DEFAULT_MODEL = "llama-3.3-70b-versatile";
 
     public record Message(
             String role,
@@ -20,9 +25,22 @@ public record GroqChatRequest(
 
     public static GroqChatRequest create(String prompt) {
         return new GroqChatRequest(
-                "llama-3.3-70b-versatile",
+                DEFAULT_MODEL,
+                List.of(new Message("user", prompt)),
+                1000,
+                0.7,
+                null);
+    }
+
+    /**
+     * Request stream (SSE): Groq trả về từng GroqChatChunk thay vì một response.
+     */
+    public static GroqChatRequest createStreaming(String prompt) {
+        return new GroqChatRequest(
+                DEFAULT_MODEL,
                 List.of(new Message("user", prompt)),
                 1000,
-                0.7);
+                0.7,
+                true);
     }
 }
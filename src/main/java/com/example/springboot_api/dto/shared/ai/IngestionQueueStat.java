@@ -0,0 +1,7 @@
+package com.example.springboot_api.dto.shared.ai;
+
+/**
+ * Số job ingest theo stage và trạng thái.
+ */
+public record IngestionQueueStat(String stage, String status, long count) {
+}
@@ -0,0 +1,15 @@
+package com.example.springboot_api.dto.shared.ai;
+
+public record LlmRateStats(
+                String bucket,
+                double configuredRpm,
+                double currentRpm,
+                double availableTokens,
+                int waiting,
+                int waitingTenants,
+                long granted,
+                long interactiveGranted,
+                long rateLimited,
+                double avgWaitMs,
+                long maxWaitMs) {
+}
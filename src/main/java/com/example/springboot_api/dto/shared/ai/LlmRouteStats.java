@@ -0,0 +1,17 @@
+package com.example.springboot_api.dto.shared.ai;
+
+public record LlmRouteStats(
+                String route,
+                String model,
+                boolean healthy,
+                long calls,
+                long errors,
+                double errorRate,
+                long p50LatencyMs,
+                long p95LatencyMs,
+                long p50FirstTokenMs,
+                long p95FirstTokenMs,
+                long hedged,
+                long hedgeWins,
+                long hedgeCancelled) {
+}
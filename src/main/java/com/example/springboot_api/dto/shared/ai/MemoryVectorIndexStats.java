@@ -0,0 +1,12 @@
+package com.example.springboot_api.dto.shared.ai;
+
+import java.util.UUID;
+
+public record MemoryVectorIndexStats(
+                UUID notebookId,
+                int chunks,
+                int deletedChunks,
+                long offHeapBytes,
+                long searches,
+                double avgSearchMicros) {
+}
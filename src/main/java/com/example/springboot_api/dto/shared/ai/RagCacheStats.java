@@ -0,0 +1,10 @@
+package com.example.springboot_api.dto.shared.ai;
+
+public record RagCacheStats(
+                long hits,
+                long misses,
+                double hitRate,
+                long invalidations,
+                int entries,
+                int capacity) {
+}
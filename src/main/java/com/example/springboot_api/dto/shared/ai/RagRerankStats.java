@@ -0,0 +1,12 @@
+package com.example.springboot_api.dto.shared.ai;
+
+public record RagRerankStats(
+                String mode,
+                long count,
+                long timeouts,
+                long failures,
+                double avgMs,
+                long maxMs,
+                double avgCandidates,
+                double avgKept) {
+}
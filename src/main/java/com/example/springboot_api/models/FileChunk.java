@@ -2,7 +2,6 @@ package com.example.springboot_api.models;
 
 import java.io.Serializable;
 import java.time.OffsetDateTime;
-import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -10,8 +9,11 @@ import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
+import org.hibernate.annotations.Type;
 import org.hibernate.type.SqlTypes;
 
+import com.example.springboot_api.models.types.PgVectorType;
+
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
@@ -41,9 +43,10 @@ import lombok.experimental.Accessors;
 @Entity(name = FileChunk.ENTITY_NAME)
 @Table(name = FileChunk.TABLE_NAME, schema = "public", indexes = {
         @Index(name = "idx_file_chunks_notebook", columnList = "notebook_id"),
-        @Index(name = "idx_file_chunks_file", columnList = "file_id"),
-        @Index(name = "idx_file_chunks_embedding", columnList = "embedding")
+        @Index(name = "idx_file_chunks_file", columnList = "file_id")
 })
+// Index ANN (HNSW / IVFFlat) trên embedding do VectorIndexService quản lý, xem
+// scripts/add_file_chunks_ann_index.sql
 public class FileChunk implements Serializable {
     public static final String ENTITY_NAME = "File_Chunk";
     public static final String TABLE_NAME = "file_chunks";
@@ -65,7 +68,7 @@ public class FileChunk implements Serializable {
 
     private String content;
 
-    private List<Double> embedding;
+    private float[] embedding;
 
     private Map<String, Object> metadata;
 
@@ -108,7 +111,8 @@ public class FileChunk implements Serializable {
 
     @NotNull
     @Column(name = COLUMN_EMBEDDING_NAME, nullable = false)
-    public List<Double> getEmbedding() {
+    @Type(PgVectorType.class)
+    public float[] getEmbedding() {
         return embedding;
     }
 
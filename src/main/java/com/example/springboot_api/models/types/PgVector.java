@@ -0,0 +1,140 @@
+package com.example.springboot_api.models.types;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.postgresql.PGConnection;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+/**
+ * Giá trị pgvector "vector" dạng float[] cho JDBC.
+ *
+ * Khi kiểu đã được đăng ký trên connection (registerType), driver gửi / nhận
+ * vector theo định dạng nhị phân của pgvector (int16 số chiều, int16 0, rồi các
+ * float4 big-endian): không phải format / parse chuỗi "[0.1,0.2,...]" ~20KB mỗi
+ * vector 1536 chiều. Chưa đăng ký thì driver dùng getValue() (dạng text) như cũ.
+ */
+public class PgVector extends PGobject implements PGBinaryObject {
+
+    public static final String TYPE_NAME = "vector";
+
+    private static final long serialVersionUID = 1L;
+
+    private float[] vector;
+
+    // Driver tạo instance qua constructor rỗng rồi gọi setValue / setByteValue
+    public PgVector() {
+        setType(TYPE_NAME);
+    }
+
+    public PgVector(float[] vector) {
+        this();
+        this.vector = vector;
+    }
+
+    /**
+     * Đăng ký kiểu vector (nhị phân) trên connection. Gọi trước khi bind / đọc
+     * tham số vector; đăng ký lại nhiều lần không tốn thêm truy vấn.
+     */
+    public static void registerType(Connection connection) throws SQLException {
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        pgConnection.addDataType(TYPE_NAME, PgVector.class);
+    }
+
+    /**
+     * Đọc giá trị cột vector từ rs.getObject: PgVector nếu kiểu đã đăng ký, PGobject
+     * dạng text nếu chưa.
+     */
+    public static float[] toArray(Object value) throws SQLException {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof PgVector pgVector) {
+            return pgVector.toArray();
+        }
+        if (value instanceof PGobject pgObject) {
+            return parse(pgObject.getValue());
+        }
+        return parse(value.toString());
+    }
+
+    public float[] toArray() {
+        return vector;
+    }
+
+    @Override
+    public void setValue(String value) throws SQLException {
+        this.vector = value == null ? null : parse(value);
+    }
+
+    @Override
+    public String getValue() {
+        if (vector == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(vector.length * 12);
+        sb.append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(vector[i]);
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    @Override
+    public boolean isNull() {
+        return vector == null;
+    }
+
+    @Override
+    public void setByteValue(byte[] value, int offset) throws SQLException {
+        ByteBuffer buffer = ByteBuffer.wrap(value, offset, value.length - offset);
+        int dimension = buffer.getShort();
+        buffer.getShort(); // không dùng
+        float[] result = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            result[i] = buffer.getFloat();
+        }
+        this.vector = result;
+    }
+
+    @Override
+    public int lengthInBytes() {
+        return vector == null ? 0 : 4 + vector.length * 4;
+    }
+
+    @Override
+    public void toBytes(byte[] bytes, int offset) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, lengthInBytes());
+        buffer.putShort((short) vector.length);
+        buffer.putShort((short) 0);
+        for (float component : vector) {
+            buffer.putFloat(component);
+        }
+    }
+
+    private static float[] parse(String literal) throws SQLException {
+        if (literal == null) {
+            return null;
+        }
+        String body = literal.trim();
+        if (body.length() < 2 || body.charAt(0) != '[' || body.charAt(body.length() - 1) != ']') {
+            throw new SQLException("Giá trị vector không hợp lệ: " + literal);
+        }
+        body = body.substring(1, body.length() - 1);
+        if (body.isEmpty()) {
+            return new float[0];
+        }
+        String[] parts = body.split(",");
+        float[] result = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Float.parseFloat(parts[i]);
+        }
+        return result;
+    }
+}
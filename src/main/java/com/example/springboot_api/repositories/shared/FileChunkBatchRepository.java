@@ -0,0 +1,91 @@
+package com.example.springboot_api.repositories.shared;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.example.springboot_api.models.FileChunk;
+import com.example.springboot_api.models.types.PgVector;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Ghi FileChunk bằng JDBC batch insert.
+ * Dùng cho pipeline ingest: một round trip cho cả lô chunk thay vì một
+ * INSERT/chunk qua JPA.
+ */
+@Repository
+@RequiredArgsConstructor
+public class FileChunkBatchRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO public.file_chunks "
+            + "(id, notebook_id, file_id, chunk_index, content, embedding, metadata, created_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?::jsonb, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Batch insert danh sách chunk (notebook, file, chunkIndex, content, embedding
+     * bắt buộc phải có). Embedding gửi dạng nhị phân của pgvector (PgVector).
+     */
+    public void batchInsert(List<FileChunk> chunks) {
+        if (chunks == null || chunks.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                if (i == 0) {
+                    PgVector.registerType(ps.getConnection());
+                }
+                FileChunk chunk = chunks.get(i);
+                UUID id = chunk.getId() != null ? chunk.getId() : UUID.randomUUID();
+                chunk.setId(id);
+
+                ps.setObject(1, id);
+                ps.setObject(2, chunk.getNotebook().getId());
+                ps.setObject(3, chunk.getFile().getId());
+                ps.setInt(4, chunk.getChunkIndex());
+                ps.setString(5, chunk.getContent());
+                ps.setObject(6, new PgVector(chunk.getEmbedding()));
+                ps.setString(7, toJson(chunk));
+                ps.setTimestamp(8, Timestamp.from(chunk.getCreatedAt().toInstant()));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return chunks.size();
+            }
+        });
+    }
+
+    /**
+     * Xóa các chunk có chunk_index > afterIndex của file (dọn phần ghi dở trước khi
+     * resume; afterIndex = -1 → xóa hết).
+     */
+    public void deleteByFileIdAfterIndex(UUID fileId, int afterIndex) {
+        jdbcTemplate.update("DELETE FROM public.file_chunks WHERE file_id = ? AND chunk_index > ?",
+                fileId, afterIndex);
+    }
+
+    private String toJson(FileChunk chunk) {
+        if (chunk.getMetadata() == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(chunk.getMetadata());
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Không serialize được metadata của chunk: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.springboot_api.repositories.shared;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Chunk trung gian (public.ingestion_chunks) giữa stage EXTRACT và EMBED.
+ */
+@Repository
+@RequiredArgsConstructor
+public class IngestionChunkRepository {
+
+    public record PendingChunk(int chunkIndex, String content, Map<String, Object> metadata) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    public void batchInsert(UUID fileId, List<PendingChunk> chunks) {
+        if (chunks == null || chunks.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO public.ingestion_chunks (file_id, chunk_index, content, metadata) "
+                        + "VALUES (?, ?, ?, ?::jsonb)",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        PendingChunk chunk = chunks.get(i);
+                        ps.setObject(1, fileId);
+                        ps.setInt(2, chunk.chunkIndex());
+                        ps.setString(3, chunk.content());
+                        ps.setString(4, toJson(chunk.metadata()));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return chunks.size();
+                    }
+                });
+    }
+
+    /**
+     * Lấy tối đa limit chunk có chunk_index > afterIndex, theo thứ tự.
+     */
+    public List<PendingChunk> findAfter(UUID fileId, int afterIndex, int limit) {
+        return jdbcTemplate.query(
+                "SELECT chunk_index, content, metadata::text AS metadata FROM public.ingestion_chunks "
+                        + "WHERE file_id = ? AND chunk_index > ? ORDER BY chunk_index LIMIT ?",
+                (rs, i) -> new PendingChunk(rs.getInt("chunk_index"), rs.getString("content"),
+                        fromJson(rs.getString("metadata"))),
+                fileId, afterIndex, limit);
+    }
+
+    public void deleteByFileId(UUID fileId) {
+        jdbcTemplate.update("DELETE FROM public.ingestion_chunks WHERE file_id = ?", fileId);
+    }
+
+    private String toJson(Map<String, Object> metadata) {
+        if (metadata == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Không serialize được metadata của chunk: " + e.getMessage(), e);
+        }
+    }
+
+    private Map<String, Object> fromJson(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(json, new TypeReference<Map<String, Object>>() {
+            });
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Không đọc được metadata của chunk: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.springboot_api.repositories.shared;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.example.springboot_api.dto.shared.ai.IngestionQueueStat;
+import com.example.springboot_api.services.shared.ai.ingest.IngestionJob;
+import com.example.springboot_api.services.shared.ai.ingest.IngestionStage;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Truy cập bảng public.ingestion_jobs bằng JDBC (các câu SKIP LOCKED / RETURNING
+ * không biểu diễn được qua JPA).
+ */
+@Repository
+@RequiredArgsConstructor
+public class IngestionJobRepository {
+
+    private static final String JOB_COLUMNS = "id, file_id, stage, priority, attempts, max_attempts, "
+            + "last_chunk_index, source_url";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public UUID insert(UUID fileId, IngestionStage stage, int priority, String sourceUrl) {
+        UUID id = UUID.randomUUID();
+        jdbcTemplate.update(
+                "INSERT INTO public.ingestion_jobs (id, file_id, stage, priority, source_url) VALUES (?, ?, ?, ?, ?)",
+                id, fileId, stage.name(), priority, sourceUrl);
+        return id;
+    }
+
+    /**
+     * Hủy các job chưa xong của file (khi file được xử lý lại từ đầu).
+     */
+    public int cancelActiveByFileId(UUID fileId) {
+        return jdbcTemplate.update(
+                "UPDATE public.ingestion_jobs SET status = 'cancelled', locked_by = NULL, updated_at = now() "
+                        + "WHERE file_id = ? AND status IN ('queued', 'running')",
+                fileId);
+    }
+
+    /**
+     * Lấy job sẵn sàng có priority cao nhất của stage và đánh dấu running.
+     * SKIP LOCKED: các worker (kể cả ở instance khác) không bao giờ lấy trùng job
+     * và không chờ nhau.
+     *
+     * @return job đã claim, hoặc null nếu hàng đợi rỗng
+     */
+    public IngestionJob claimNext(IngestionStage stage, String workerId) {
+        List<IngestionJob> jobs = jdbcTemplate.query(
+                "UPDATE public.ingestion_jobs SET status = 'running', locked_by = ?, locked_at = now(), "
+                        + "attempts = attempts + 1, updated_at = now() "
+                        + "WHERE id = (SELECT id FROM public.ingestion_jobs "
+                        + "  WHERE status = 'queued' AND stage = ? AND next_run_at <= now() "
+                        + "  ORDER BY priority DESC, created_at "
+                        + "  LIMIT 1 FOR UPDATE SKIP LOCKED) "
+                        + "RETURNING " + JOB_COLUMNS,
+                this::mapJob, workerId, stage.name());
+        return jobs.isEmpty() ? null : jobs.get(0);
+    }
+
+    /**
+     * Gia hạn lease.
+     *
+     * @return false nếu job không còn thuộc worker này (bị hủy / bị thu hồi)
+     */
+    public boolean heartbeat(UUID jobId, String workerId) {
+        return jdbcTemplate.update(
+                "UPDATE public.ingestion_jobs SET locked_at = now(), updated_at = now() "
+                        + "WHERE id = ? AND status = 'running' AND locked_by = ?",
+                jobId, workerId) == 1;
+    }
+
+    /**
+     * Ghi nhận chunk cuối đã lưu xong (kèm gia hạn lease).
+     */
+    public boolean updateProgress(UUID jobId, String workerId, int lastChunkIndex) {
+        return jdbcTemplate.update(
+                "UPDATE public.ingestion_jobs SET last_chunk_index = ?, locked_at = now(), updated_at = now() "
+                        + "WHERE id = ? AND status = 'running' AND locked_by = ?",
+                lastChunkIndex, jobId, workerId) == 1;
+    }
+
+    /**
+     * Chuyển job sang stage tiếp theo và đưa lại hàng đợi (reset số lần thử).
+     */
+    public boolean advance(UUID jobId, String workerId, IngestionStage nextStage, int totalChunks) {
+        return jdbcTemplate.update(
+                "UPDATE public.ingestion_jobs SET stage = ?, status = 'queued', attempts = 0, "
+                        + "last_chunk_index = -1, total_chunks = ?, next_run_at = now(), "
+                        + "locked_by = NULL, locked_at = NULL, last_error = NULL, updated_at = now() "
+                        + "WHERE id = ? AND status = 'running' AND locked_by = ?",
+                nextStage.name(), totalChunks, jobId, workerId) == 1;
+    }
+
+    public boolean markDone(UUID jobId, String workerId) {
+        return jdbcTemplate.update(
+                "UPDATE public.ingestion_jobs SET status = 'done', locked_by = NULL, locked_at = NULL, "
+                        + "last_error = NULL, updated_at = now() "
+                        + "WHERE id = ? AND status = 'running' AND locked_by = ?",
+                jobId, workerId) == 1;
+    }
+
+    /**
+     * Đưa job lại hàng đợi sau delayMs (retry với backoff).
+     */
+    public boolean reschedule(UUID jobId, String workerId, long delayMs, String error) {
+        return jdbcTemplate.update(
+                "UPDATE public.ingestion_jobs SET status = 'queued', "
+                        + "next_run_at = now() + (? * interval '1 millisecond'), "
+                        + "locked_by = NULL, locked_at = NULL, last_error = ?, updated_at = now() "
+                        + "WHERE id = ? AND status = 'running' AND locked_by = ?",
+                delayMs, error, jobId, workerId) == 1;
+    }
+
+    public boolean markFailed(UUID jobId, String workerId, String error) {
+        return jdbcTemplate.update(
+                "UPDATE public.ingestion_jobs SET status = 'failed', locked_by = NULL, locked_at = NULL, "
+                        + "last_error = ?, updated_at = now() "
+                        + "WHERE id = ? AND status = 'running' AND locked_by = ?",
+                error, jobId, workerId) == 1;
+    }
+
+    /**
+     * Đưa lại hàng đợi các job running đã hết lease (worker chết / instance
+     * restart). Stage EMBED sẽ tiếp tục từ last_chunk_index.
+     */
+    public int requeueExpired(long leaseMs) {
+        return jdbcTemplate.update(
+                "UPDATE public.ingestion_jobs SET status = 'queued', locked_by = NULL, locked_at = NULL, "
+                        + "next_run_at = now(), updated_at = now() "
+                        + "WHERE status = 'running' AND locked_at < now() - (? * interval '1 millisecond')",
+                leaseMs);
+    }
+
+    public List<IngestionQueueStat> countByStageAndStatus() {
+        return jdbcTemplate.query(
+                "SELECT stage, status, count(*) AS cnt FROM public.ingestion_jobs "
+                        + "GROUP BY stage, status ORDER BY stage, status",
+                (rs, i) -> new IngestionQueueStat(rs.getString("stage"), rs.getString("status"), rs.getLong("cnt")));
+    }
+
+    private IngestionJob mapJob(ResultSet rs, int rowNum) throws SQLException {
+        return new IngestionJob(
+                rs.getObject("id", UUID.class),
+                rs.getObject("file_id", UUID.class),
+                IngestionStage.valueOf(rs.getString("stage")),
+                rs.getInt("priority"),
+                rs.getInt("attempts"),
+                rs.getInt("max_attempts"),
+                rs.getInt("last_chunk_index"),
+                rs.getString("source_url"));
+    }
+}
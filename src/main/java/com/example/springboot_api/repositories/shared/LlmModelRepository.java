@@ -31,5 +31,10 @@ public interface LlmModelRepository extends JpaRepository<LlmModel, UUID> {
      * Lấy model theo code
      */
     LlmModel findByCodeAndIsActiveTrue(String code);
+
+    /**
+     * Lấy model theo code (kể cả model đã tắt)
+     */
+    LlmModel findByCode(String code);
 }
 
@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
@@ -27,7 +28,9 @@ import com.example.springboot_api.repositories.admin.UserRepository;
 import com.example.springboot_api.repositories.shared.FileChunkRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
 import com.example.springboot_api.services.shared.FileStorageService;
+import com.example.springboot_api.services.shared.ai.FileChunksChangedEvent;
 import com.example.springboot_api.services.shared.ai.FileProcessingTaskService;
+import com.example.springboot_api.services.shared.ai.ingest.IngestionJob;
 import com.example.springboot_api.utils.UrlNormalizer;
 
 import lombok.RequiredArgsConstructor;
@@ -42,6 +45,7 @@ public class AdminNotebookFileService {
     private final NotebookFileRepository notebookFileRepository;
     private final FileChunkRepository fileChunkRepository;
     private final FileProcessingTaskService fileProcessingTaskService;
+    private final ApplicationEventPublisher eventPublisher;
     private final UrlNormalizer urlNormalizer;
 
     // ============================
@@ -97,7 +101,7 @@ public class AdminNotebookFileService {
             NotebookFile savedFile = notebookFileRepository.save(newFile);
             saved.add(savedFile);
 
-            fileProcessingTaskService.startAIProcessing(savedFile);
+            fileProcessingTaskService.startAIProcessing(savedFile, IngestionJob.PRIORITY_BULK);
         }
 
         return saved;
@@ -217,7 +221,7 @@ public class AdminNotebookFileService {
             file.setStatus("approved");
             file.setUpdatedAt(now);
             NotebookFile saved = notebookFileRepository.save(file);
-            fileProcessingTaskService.startAIProcessing(saved);
+            fileProcessingTaskService.startAIProcessing(saved, IngestionJob.PRIORITY_BULK);
             count++;
         }
 
@@ -235,7 +239,7 @@ public class AdminNotebookFileService {
             file.setStatus("approved");
             file.setUpdatedAt(now);
             NotebookFile saved = notebookFileRepository.save(file);
-            fileProcessingTaskService.startAIProcessing(saved);
+            fileProcessingTaskService.startAIProcessing(saved, IngestionJob.PRIORITY_BULK);
             count++;
         }
 
@@ -266,6 +270,7 @@ public class AdminNotebookFileService {
             throw new BadRequestException("File không thuộc notebook này");
 
         fileChunkRepository.deleteByFileId(fileId);
+        eventPublisher.publishEvent(new FileChunksChangedEvent(notebookId, fileId));
 
         fileStorageService.deleteFile(file.getStorageUrl());
 
@@ -300,7 +305,7 @@ public class AdminNotebookFileService {
         NotebookFile savedFile = notebookFileRepository.save(file);
 
         // Bắt đầu xử lý lại
-        fileProcessingTaskService.startAIProcessing(savedFile);
+        fileProcessingTaskService.startAIProcessing(savedFile, IngestionJob.PRIORITY_HIGH);
 
         return savedFile;
     }
@@ -324,7 +329,7 @@ public class AdminNotebookFileService {
             NotebookFile savedFile = notebookFileRepository.save(file);
 
             // Bắt đầu xử lý lại
-            fileProcessingTaskService.startAIProcessing(savedFile);
+            fileProcessingTaskService.startAIProcessing(savedFile, IngestionJob.PRIORITY_BULK);
             count++;
         }
 
@@ -27,6 +27,7 @@ import com.example.springboot_api.repositories.admin.UserRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
 import com.example.springboot_api.services.shared.FileStorageService;
 import com.example.springboot_api.services.shared.ai.FileProcessingTaskService;
+import com.example.springboot_api.services.shared.ai.ingest.IngestionJob;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -198,7 +199,7 @@ public class AdminRegulationService {
                         .build();
 
                 notebookFile = fileRepo.save(notebookFile);
-                processingTaskService.startAIProcessing(notebookFile);
+                processingTaskService.startAIProcessing(notebookFile, IngestionJob.PRIORITY_BULK);
                 responses.add(regulationMapper.toFileResponse(notebookFile));
 
             } catch (Exception e) {
@@ -256,7 +257,7 @@ public class AdminRegulationService {
         file = fileRepo.save(file);
 
         // Trigger lại AI processing
-        processingTaskService.startAIProcessing(file);
+        processingTaskService.startAIProcessing(file, IngestionJob.PRIORITY_HIGH);
 
         return regulationMapper.toFileResponse(file);
     }
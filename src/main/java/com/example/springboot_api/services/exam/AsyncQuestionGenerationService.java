@@ -1,5 +1,6 @@
 package com.example.springboot_api.services.exam;
 
+import com.example.springboot_api.config.AsyncConfig;
 import com.example.springboot_api.dto.exam.GenerateQuestionsRequest;
 import com.example.springboot_api.models.NotebookFile;
 import com.example.springboot_api.models.exam.Exam;
@@ -7,6 +8,7 @@ import com.example.springboot_api.models.exam.ExamQuestion;
 import com.example.springboot_api.models.exam.ExamStatus;
 import com.example.springboot_api.repositories.exam.ExamQuestionRepository;
 import com.example.springboot_api.repositories.exam.ExamRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Async;
@@ -24,8 +26,9 @@ public class AsyncQuestionGenerationService {
     private final QuestionGenerationService questionGenerationService;
     private final ExamRepository examRepository;
     private final ExamQuestionRepository examQuestionRepository;
+    private final AiTaskBulkhead aiTaskBulkhead;
 
-    @Async
+    @Async(AsyncConfig.AI_GENERATION_EXECUTOR)
     @Transactional
     public void generateQuestionsAsync(Exam exam, List<NotebookFile> notebookFiles, GenerateQuestionsRequest request) {
         log.info("🔥 [ASYNC] Bắt đầu tạo câu hỏi cho Exam ID: {}", exam.getId());
@@ -60,6 +63,9 @@ public class AsyncQuestionGenerationService {
             } catch (Exception ex) {
                 log.error("Failed to revert exam status", ex);
             }
+        } finally {
+            // Slot do ExamServiceImpl.generateQuestions giữ (key = examId)
+            aiTaskBulkhead.release(exam.getId());
         }
     }
 
@@ -1,5 +1,6 @@
 package com.example.springboot_api.services.exam;
 
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
 import com.example.springboot_api.dto.exam.*;
 import com.example.springboot_api.models.*;
 import com.example.springboot_api.models.exam.*;
@@ -11,6 +12,7 @@ import com.example.springboot_api.repositories.exam.ExamQuestionRepository;
 import com.example.springboot_api.repositories.exam.ExamAttemptRepository;
 import com.example.springboot_api.repositories.exam.ExamAnswerRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
@@ -44,6 +46,7 @@ public class ExamServiceImpl implements ExamService {
     private final NotebookFileRepository notebookFileRepository;
     private final QuestionGenerationService questionGenerationService;
     private final AsyncQuestionGenerationService asyncQuestionGenerationService;
+    private final AiTaskBulkhead aiTaskBulkhead;
     private final ObjectMapper objectMapper;
 
     @Override
@@ -110,6 +113,13 @@ public class ExamServiceImpl implements ExamService {
             throw new RuntimeException("Some notebook files not found");
         }
 
+        // Cùng bulkhead với các generator AI khác: slot theo examId, giảng viên và
+        // notebook của file đầu tiên; AsyncQuestionGenerationService release khi xong
+        UUID notebookId = notebookFiles.get(0).getNotebook() != null
+                ? notebookFiles.get(0).getNotebook().getId()
+                : examId;
+        aiTaskBulkhead.checkCapacity(lecturerId, notebookId);
+
         // Clear existing questions
         examQuestionRepository.deleteByExamId(examId);
 
@@ -119,11 +129,14 @@ public class ExamServiceImpl implements ExamService {
             examRepository.save(exam);
 
             // Trigger ASYNC generation
-            asyncQuestionGenerationService.generateQuestionsAsync(exam, notebookFiles, request);
+            aiTaskBulkhead.dispatch(examId, lecturerId, notebookId,
+                    () -> asyncQuestionGenerationService.generateQuestionsAsync(exam, notebookFiles, request));
 
             log.info("Triggered ASYNC question generation for exam {}", examId);
             return mapToExamResponse(exam, lecturerId);
 
+        } catch (TooManyRequestsException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error triggering question generation for exam {}: {}", examId, e.getMessage(), e);
             throw new RuntimeException("Failed to generate questions: " + e.getMessage());
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -23,6 +24,7 @@ import com.example.springboot_api.repositories.admin.UserRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
 import com.example.springboot_api.repositories.shared.FileChunkRepository;
 import com.example.springboot_api.services.shared.FileStorageService;
+import com.example.springboot_api.services.shared.ai.FileChunksChangedEvent;
 import com.example.springboot_api.services.shared.ai.FileProcessingTaskService;
 
 import lombok.RequiredArgsConstructor;
@@ -39,6 +41,7 @@ public class LecturerNotebookFileService {
     private final UserRepository userRepository;
     private final FileStorageService fileStorageService;
     private final FileProcessingTaskService fileProcessingTaskService;
+    private final ApplicationEventPublisher eventPublisher;
 
     /**
      * Upload files vào notebook
@@ -116,6 +119,7 @@ public class LecturerNotebookFileService {
         }
 
         fileChunkRepository.deleteByFileId(fileId);
+        eventPublisher.publishEvent(new FileChunksChangedEvent(notebookId, fileId));
         fileStorageService.deleteFile(file.getStorageUrl());
         notebookFileRepository.delete(file);
     }
@@ -1,5 +1,10 @@
 package com.example.springboot_api.services.shared.ai;
 
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -8,37 +13,53 @@ import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
+import com.example.springboot_api.dto.shared.ai.GroqChatChunk;
 import com.example.springboot_api.dto.shared.ai.GroqChatRequest;
 import com.example.springboot_api.dto.shared.ai.GroqChatResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.genai.ResponseStream;
 import com.google.genai.types.Content;
 import com.google.genai.types.GenerateContentResponse;
 import com.google.genai.types.Part;
 
 /**
  * Service for calling AI models (Groq and Gemini).
+ *
+ * Every call goes through LlmRequestScheduler, which paces requests to the
+ * provider quota and retries on 429. Identical non-streaming prompts that are
+ * already in flight share one request (LlmCallCoalescer).
+ *
+ * The WebClient comes from the shared AI HTTP layer (AiHttpClientConfig).
  */
 @Service
 public class AIModelService {
 
     private static final Logger log = LoggerFactory.getLogger(AIModelService.class);
     private static final String GROQ_API_URL = "https://api.groq.com/openai/v1/chat/completions";
-    private static final String DEFAULT_GEMINI_MODEL = "gemini-2.0-flash";
+    public static final String DEFAULT_GEMINI_MODEL = "gemini-2.0-flash";
 
     private final com.google.genai.Client geminiClient;
     private final WebClient webClient;
     private final ObjectMapper objectMapper;
     private final String groqApiKey;
+    private final LlmRequestScheduler scheduler;
+    private final LlmCallCoalescer coalescer;
 
     public AIModelService(
             com.google.genai.Client geminiClient,
             WebClient.Builder webClientBuilder,
             ObjectMapper objectMapper,
-            @Qualifier("groqApiKey") String groqApiKey) {
+            @Qualifier("groqApiKey") String groqApiKey,
+            LlmRequestScheduler scheduler,
+            LlmCallCoalescer coalescer) {
         this.geminiClient = geminiClient;
         this.webClient = webClientBuilder.build();
         this.objectMapper = objectMapper;
         this.groqApiKey = groqApiKey;
+        this.scheduler = scheduler;
+        this.coalescer = coalescer;
     }
 
     /**
@@ -51,20 +72,25 @@ public class AIModelService {
 
         try {
             GroqChatRequest request = GroqChatRequest.create(prompt.trim());
-            String responseJson = webClient.post()
-                    .uri(GROQ_API_URL)
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + groqApiKey)
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                    .bodyValue(request)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
+            String key = LlmRequestScheduler.GROQ + "|" + request.model() + "|" + prompt.trim();
+            String responseJson = coalescer.call(key, () -> scheduler.call(LlmRequestScheduler.GROQ,
+                    () -> webClient.post()
+                            .uri(GROQ_API_URL)
+                            .header(HttpHeaders.AUTHORIZATION, "Bearer " + groqApiKey)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .bodyValue(request)
+                            .retrieve()
+                            .bodyToMono(String.class)
+                            .block()));
 
             GroqChatResponse response = objectMapper.readValue(responseJson, GroqChatResponse.class);
             String result = response.getText();
 
             return (result == null || result.isEmpty()) ? "No response generated" : result;
 
+        } catch (TooManyRequestsException ex) {
+            // Hết thời gian chờ quota: giữ nguyên để trả 429
+            throw ex;
         } catch (Exception ex) {
             log.error("Error calling Groq API: {}", ex.getMessage());
             throw new RuntimeException("Error calling Groq API: " + ex.getMessage(), ex);
@@ -81,20 +107,134 @@ public class AIModelService {
 
         try {
             Content content = Content.fromParts(Part.fromText(prompt.trim()));
-            GenerateContentResponse response = geminiClient.models.generateContent(
-                    DEFAULT_GEMINI_MODEL,
-                    java.util.List.of(content),
-                    null);
+            String key = LlmRequestScheduler.GEMINI + "|" + DEFAULT_GEMINI_MODEL + "|" + prompt.trim();
+            String result = coalescer.call(key, () -> scheduler.call(LlmRequestScheduler.GEMINI,
+                    () -> geminiClient.models.generateContent(
+                            DEFAULT_GEMINI_MODEL,
+                            java.util.List.of(content),
+                            null))
+                    .text());
 
-            String result = response.text();
             return (result == null || result.isEmpty()) ? "No response generated" : result;
 
+        } catch (TooManyRequestsException ex) {
+            throw ex;
         } catch (Exception ex) {
             log.error("Error calling Gemini API: {}", ex.getMessage());
             throw new RuntimeException("Error calling Gemini API: " + ex.getMessage(), ex);
         }
     }
 
+    /**
+     * Calls Groq model in streaming mode. onDelta receives each piece of text as
+     * soon as the model produces it.
+     *
+     * @return the full generated text
+     */
+    public String streamGroqModel(String prompt, Consumer<String> onDelta) {
+        if (prompt == null || prompt.trim().isEmpty()) {
+            throw new IllegalArgumentException("Prompt cannot be null or empty");
+        }
+
+        StringBuilder full = new StringBuilder();
+        try {
+            GroqChatRequest request = GroqChatRequest.createStreaming(prompt.trim());
+            // Chỉ thử lại khi chưa gửi đoạn nào cho client
+            scheduler.call(LlmRequestScheduler.GROQ, () -> {
+                Stream<String> events = webClient.post()
+                        .uri(GROQ_API_URL)
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + groqApiKey)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .bodyValue(request)
+                        .retrieve()
+                        .bodyToFlux(String.class)
+                        .toStream();
+
+                // Đóng stream (kể cả khi onDelta ném lỗi) thì hủy luôn request HTTP
+                try (events) {
+                    Iterator<String> it = events.iterator();
+                    while (it.hasNext()) {
+                        String data = it.next();
+                        if ("[DONE]".equals(data)) {
+                            break;
+                        }
+                        String text = readChunkText(data);
+                        if (!text.isEmpty()) {
+                            full.append(text);
+                            onDelta.accept(text);
+                        }
+                    }
+                }
+                return null;
+            }, e -> full.length() == 0);
+        } catch (CancellationException ex) {
+            // Người gọi dừng stream (vd: thua hedge ở LlmRouter)
+            throw ex;
+        } catch (TooManyRequestsException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            log.error("Error streaming Groq API: {}", ex.getMessage());
+            throw new RuntimeException("Error calling Groq API: " + ex.getMessage(), ex);
+        }
+
+        return full.length() == 0 ? "No response generated" : full.toString();
+    }
+
+    /**
+     * Calls Gemini model in streaming mode. onDelta receives each piece of text as
+     * soon as the model produces it.
+     *
+     * @return the full generated text
+     */
+    public String streamGeminiModel(String prompt, Consumer<String> onDelta) {
+        if (prompt == null || prompt.trim().isEmpty()) {
+            throw new IllegalArgumentException("Prompt cannot be null or empty");
+        }
+
+        StringBuilder full = new StringBuilder();
+        Content content = Content.fromParts(Part.fromText(prompt.trim()));
+        try {
+            // Chỉ thử lại khi chưa gửi đoạn nào cho client
+            scheduler.call(LlmRequestScheduler.GEMINI, () -> {
+                try (ResponseStream<GenerateContentResponse> stream = geminiClient.models.generateContentStream(
+                        DEFAULT_GEMINI_MODEL,
+                        java.util.List.of(content),
+                        null)) {
+                    for (GenerateContentResponse chunk : stream) {
+                        String text = chunk.text();
+                        if (text != null && !text.isEmpty()) {
+                            full.append(text);
+                            onDelta.accept(text);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+                return null;
+            }, e -> full.length() == 0);
+        } catch (CancellationException ex) {
+            throw ex;
+        } catch (TooManyRequestsException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            log.error("Error streaming Gemini API: {}", ex.getMessage());
+            throw new RuntimeException("Error calling Gemini API: " + ex.getMessage(), ex);
+        }
+
+        return full.length() == 0 ? "No response generated" : full.toString();
+    }
+
+    private String readChunkText(String data) {
+        try {
+            return objectMapper.readValue(data, GroqChatChunk.class).getText();
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Invalid Groq stream chunk: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Generate image using Gemini Imagen model.
      * Returns image bytes or null if generation fails.
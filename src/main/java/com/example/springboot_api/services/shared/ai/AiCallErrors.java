@@ -0,0 +1,73 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.google.genai.errors.ApiException;
+
+/**
+ * Phân loại lỗi khi gọi AI provider theo kiểu exception và HTTP status, không
+ * dò chuỗi trong message (message của provider / của người gọi có thể chứa
+ * "429", "500" vì lý do khác).
+ *
+ * - Groq (WebClient): WebClientResponseException mang status,
+ * WebClientRequestException là lỗi kết nối / timeout.
+ * - Gemini (google-genai): ApiException mang code và status ("RESOURCE_EXHAUSTED",
+ * "UNAVAILABLE", ...).
+ */
+final class AiCallErrors {
+
+    private AiCallErrors() {
+    }
+
+    /**
+     * HTTP status đầu tiên tìm được trong chuỗi cause, -1 nếu không có.
+     */
+    static int httpStatus(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof WebClientResponseException web) {
+                return web.getStatusCode().value();
+            }
+            if (t instanceof ApiException api) {
+                return api.code();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 429 / RESOURCE_EXHAUSTED (rate limit, quota).
+     */
+    static boolean isRateLimited(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ApiException api && "RESOURCE_EXHAUSTED".equals(api.status())) {
+                return true;
+            }
+        }
+        return httpStatus(e) == 429;
+    }
+
+    /**
+     * Lỗi tạm thời, thử lại có thể thành công: rate limit, 500 / 502 / 503 / 504,
+     * lỗi kết nối / timeout.
+     */
+    static boolean isTransient(Throwable e) {
+        if (isRateLimited(e)) {
+            return true;
+        }
+        int status = httpStatus(e);
+        if (status == 500 || status == 502 || status == 503 || status == 504) {
+            return true;
+        }
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof WebClientRequestException || t instanceof IOException
+                    || t instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+
+import com.example.springboot_api.dto.shared.ai.AiHttpHostStats;
+import com.example.springboot_api.dto.shared.ai.AiHttpStats;
+
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Số liệu của lớp HTTP dùng chung cho các lời gọi AI (AiHttpClientConfig):
+ * - độ trễ tới khi có response header, số lỗi, số request đang chạy theo host
+ * (ExchangeFilterFunction gắn vào mọi WebClient)
+ * - trạng thái connection pool theo host (reactor-netty gọi registerMetrics
+ * khi tạo pool cho một remote address)
+ * - số lời gọi LLM được gộp (LlmCallCoalescer)
+ */
+@Service
+public class AiHttpMetrics implements ConnectionProvider.MeterRegistrar {
+
+    private static final int LATENCY_SAMPLES = 512;
+
+    private final LlmCallCoalescer coalescer;
+    private final Map<String, HostCounters> hosts = new ConcurrentHashMap<>();
+    // poolName/id → (host, metrics)
+    private final Map<String, PoolEntry> pools = new ConcurrentHashMap<>();
+
+    public AiHttpMetrics(LlmCallCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    public ExchangeFilterFunction filter() {
+        return (request, next) -> {
+            HostCounters counters = hosts.computeIfAbsent(request.url().getHost(), h -> new HostCounters());
+            long start = System.nanoTime();
+            counters.inFlight.incrementAndGet();
+            return next.exchange(request)
+                    .doOnSuccess(response -> counters.record(start, response == null
+                            || response.statusCode().isError()))
+                    .doOnError(error -> counters.record(start, true))
+                    .doFinally(signal -> counters.inFlight.decrementAndGet());
+        };
+    }
+
+    @Override
+    public void registerMetrics(String poolName, String id, SocketAddress remoteAddress,
+            ConnectionPoolMetrics metrics) {
+        pools.put(poolName + "/" + id, new PoolEntry(hostOf(remoteAddress), metrics));
+    }
+
+    @Override
+    public void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress) {
+        pools.remove(poolName + "/" + id);
+    }
+
+    public AiHttpStats getStats() {
+        Map<String, int[]> poolsByHost = new TreeMap<>();
+        for (PoolEntry entry : pools.values()) {
+            ConnectionPoolMetrics m = entry.metrics();
+            int[] sum = poolsByHost.computeIfAbsent(entry.host(), h -> new int[4]);
+            sum[0] += m.acquiredSize();
+            sum[1] += m.idleSize();
+            sum[2] += m.pendingAcquireSize();
+            sum[3] += m.maxAllocatedSize();
+        }
+
+        TreeMap<String, HostCounters> sorted = new TreeMap<>(hosts);
+        for (String host : poolsByHost.keySet()) {
+            sorted.computeIfAbsent(host, h -> new HostCounters());
+        }
+
+        List<AiHttpHostStats> stats = new ArrayList<>(sorted.size());
+        sorted.forEach((host, counters) -> {
+            int[] pool = poolsByHost.getOrDefault(host, new int[4]);
+            stats.add(new AiHttpHostStats(
+                    host,
+                    counters.requests.sum(),
+                    counters.errors.sum(),
+                    counters.inFlight.get(),
+                    counters.latency.percentile(50),
+                    counters.latency.percentile(95),
+                    counters.maxLatencyMs.get(),
+                    pool[0],
+                    pool[1],
+                    pool[2],
+                    pool[3]));
+        });
+        return new AiHttpStats(coalescer.getCoalescedCount(), coalescer.getInFlightCount(), stats);
+    }
+
+    private static String hostOf(SocketAddress address) {
+        return address instanceof InetSocketAddress inet ? inet.getHostString() : String.valueOf(address);
+    }
+
+    private record PoolEntry(String host, ConnectionPoolMetrics metrics) {
+    }
+
+    private static final class HostCounters {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong maxLatencyMs = new AtomicLong();
+        private final LatencyWindow latency = new LatencyWindow(LATENCY_SAMPLES);
+
+        private void record(long startNanos, boolean error) {
+            long elapsedMs = (System.nanoTime() - startNanos) / 1_000_000;
+            requests.increment();
+            if (error) {
+                errors.increment();
+            }
+            latency.record(elapsedMs);
+            maxLatencyMs.accumulateAndGet(elapsedMs, Math::max);
+        }
+    }
+}
@@ -33,6 +33,7 @@ import lombok.extern.slf4j.Slf4j;
 public class AiImageGeneratorService {
 
     private final Client geminiClient;
+    private final LlmRequestScheduler scheduler;
 
     @Value("${file.upload-dir:uploads}")
     private String uploadDir;
@@ -42,8 +43,9 @@ public class AiImageGeneratorService {
 
     private static final String IMAGE_MODEL = "gemini-2.5-flash-image";
 
-    public AiImageGeneratorService(Client geminiClient) {
+    public AiImageGeneratorService(Client geminiClient, LlmRequestScheduler scheduler) {
         this.geminiClient = geminiClient;
+        this.scheduler = scheduler;
     }
 
     public String generateAndSaveImage(String prompt) throws IOException {
@@ -83,10 +85,11 @@ public class AiImageGeneratorService {
                             Part.builder().text(prompt).build()))
                     .build();
 
-            GenerateContentResponse response = geminiClient.models.generateContent(
-                    IMAGE_MODEL,
-                    List.of(content),
-                    config);
+            GenerateContentResponse response = scheduler.call(LlmRequestScheduler.GEMINI_IMAGE,
+                    () -> geminiClient.models.generateContent(
+                            IMAGE_MODEL,
+                            List.of(content),
+                            config));
 
             Optional<List<Candidate>> candidatesOpt = response.candidates();
             if (candidatesOpt.isEmpty() || candidatesOpt.get().isEmpty()) {
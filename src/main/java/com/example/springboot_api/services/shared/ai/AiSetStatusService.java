@@ -26,6 +26,7 @@ public class AiSetStatusService {
 
     private final NotebookAiSetRepository aiSetRepository;
     private final AiTaskProgressService progressService;
+    private final AiTaskBulkhead aiTaskBulkhead;
 
     /**
      * Cập nhật status của NotebookAiSet.
@@ -57,6 +58,10 @@ public class AiSetStatusService {
             // Push WebSocket events
             pushWebSocketEvents(aiSet, status, errorMessage, outputStats);
         });
+
+        if ("done".equals(status) || "failed".equals(status)) {
+            aiTaskBulkhead.release(aiSetId);
+        }
     }
 
     /**
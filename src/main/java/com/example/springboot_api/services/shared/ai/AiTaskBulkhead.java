@@ -0,0 +1,132 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
+import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Giới hạn số job sinh nội dung AI đang chạy / chờ của mỗi user và mỗi
+ * notebook, để một người không chiếm hết aiGenerationExecutor / mediaExecutor.
+ *
+ * Luồng dùng:
+ * - checkCapacity trước khi tạo NotebookAiSet (TooManyRequestsException phải
+ * được ném ra tới controller để trả 429, không bị nuốt thành body lỗi)
+ * - dispatch để giữ slot và gọi hàm @Async; gọi thất bại thì slot được trả ngay
+ * - release khi AI Set kết thúc (AiSetStatusService.markDone / markFailed)
+ *
+ * Slot không được release (job chết giữa chừng) tự hết hạn sau maxHoldMinutes.
+ * Đây là giới hạn mềm: hai request đồng thời có thể cùng vượt qua
+ * checkCapacity.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AiTaskBulkhead {
+
+    private record Slot(UUID userId, UUID notebookId, long registeredAt) {
+    }
+
+    private final Map<UUID, Slot> activeSlots = new ConcurrentHashMap<>();
+    private final NotebookAiSetRepository aiSetRepository;
+
+    @Value("${ai.bulkhead.max-per-user:3}")
+    private int maxPerUser;
+
+    @Value("${ai.bulkhead.max-per-notebook:10}")
+    private int maxPerNotebook;
+
+    @Value("${ai.bulkhead.max-hold-minutes:30}")
+    private long maxHoldMinutes;
+
+    /**
+     * @throws TooManyRequestsException nếu user hoặc notebook đã đạt giới hạn
+     */
+    public void checkCapacity(UUID userId, UUID notebookId) {
+        expireStaleSlots();
+
+        int byUser = 0;
+        int byNotebook = 0;
+        for (Slot slot : activeSlots.values()) {
+            if (slot.userId().equals(userId)) {
+                byUser++;
+            }
+            if (slot.notebookId().equals(notebookId)) {
+                byNotebook++;
+            }
+        }
+
+        if (byUser >= maxPerUser) {
+            throw new TooManyRequestsException("Bạn đang có " + byUser
+                    + " tác vụ AI đang xử lý. Vui lòng chờ tác vụ hiện tại hoàn thành.");
+        }
+        if (byNotebook >= maxPerNotebook) {
+            throw new TooManyRequestsException("Notebook đang có " + byNotebook
+                    + " tác vụ AI đang xử lý. Vui lòng thử lại sau.");
+        }
+    }
+
+    public void register(UUID aiSetId, UUID userId, UUID notebookId) {
+        activeSlots.put(aiSetId, new Slot(userId, notebookId, System.currentTimeMillis()));
+    }
+
+    /**
+     * Giữ slot cho AI Set rồi gọi hàm @Async. Nếu không đưa được task vào executor
+     * (pool đầy, lỗi proxy) thì trả slot, đánh dấu AI Set failed rồi ném lỗi; pool
+     * đầy được báo là TooManyRequestsException (429).
+     */
+    public void dispatch(UUID aiSetId, UUID userId, UUID notebookId, Runnable asyncCall) {
+        register(aiSetId, userId, notebookId);
+        try {
+            asyncCall.run();
+        } catch (RuntimeException e) {
+            release(aiSetId);
+            markDispatchFailed(aiSetId, e);
+            if (e instanceof TaskRejectedException) {
+                throw new TooManyRequestsException("Hệ thống AI đang quá tải. Vui lòng thử lại sau.");
+            }
+            throw e;
+        }
+    }
+
+    public void release(UUID aiSetId) {
+        activeSlots.remove(aiSetId);
+    }
+
+    private void markDispatchFailed(UUID aiSetId, RuntimeException cause) {
+        log.warn("⚠️ Không đưa được AI Set {} vào hàng đợi: {}", aiSetId, cause.getMessage());
+        try {
+            aiSetRepository.findById(aiSetId).ifPresent(aiSet -> {
+                OffsetDateTime now = OffsetDateTime.now();
+                aiSet.setStatus("failed");
+                aiSet.setErrorMessage("Không đưa được tác vụ vào hàng đợi: " + cause.getMessage());
+                aiSet.setFinishedAt(now);
+                aiSet.setUpdatedAt(now);
+                aiSetRepository.save(aiSet);
+            });
+        } catch (RuntimeException e) {
+            log.warn("⚠️ Không cập nhật được trạng thái AI Set {}: {}", aiSetId, e.getMessage());
+        }
+    }
+
+    private void expireStaleSlots() {
+        long cutoff = System.currentTimeMillis() - maxHoldMinutes * 60_000;
+        activeSlots.entrySet().removeIf(entry -> {
+            if (entry.getValue().registeredAt() < cutoff) {
+                log.warn("⚠️ Bulkhead slot của AI Set {} hết hạn mà không được release", entry.getKey());
+                return true;
+            }
+            return false;
+        });
+    }
+}
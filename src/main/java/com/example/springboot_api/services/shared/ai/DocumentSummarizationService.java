@@ -2,92 +2,265 @@ package com.example.springboot_api.services.shared.ai;
 
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import com.example.springboot_api.config.AsyncConfig;
 import com.example.springboot_api.models.LlmModel;
 import com.example.springboot_api.models.NotebookFile;
 import com.example.springboot_api.repositories.shared.FileChunkRepository;
+import com.example.springboot_api.repositories.shared.NotebookFileRepository;
+import com.example.springboot_api.services.shared.ai.chunking.ChunkingService;
+import com.example.springboot_api.services.shared.ai.chunking.TextChunk;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * Service xử lý tóm tắt tài liệu.
  * Dùng chung cho tất cả AI generation (Quiz, Flashcard, Summary, Mindmap, etc.)
+ *
+ * Map-reduce:
+ * - map: mọi chunk của mọi file được tóm tắt song song trên
+ * summarizationExecutor; tốc độ thật do LlmRequestScheduler (quota) quyết định
+ * - reduce: tóm tắt của một file dài hơn FILE_SUMMARY_CHARS thì gộp theo nhóm
+ * reduce-fanout bản, lặp lại tới khi đủ ngắn
+ *
+ * Tóm tắt của một file chỉ phụ thuộc nội dung file (không phụ thuộc số file
+ * được chọn), và hai generator tóm tắt cùng file cùng lúc dùng chung một lần
+ * tính (inFlight).
+ *
+ * Tóm tắt có gọi LLM được lưu ở FileSummaryCacheService theo (file, hash nội
+ * dung, model): generator sau chỉ đọc lại. Khi chunk của file thay đổi, cache
+ * của file bị xóa và file vừa xử lý xong được tóm tắt trước (warm-up).
  */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class DocumentSummarizationService {
 
+    public static final int MAX_FILES = 10;
+    private static final int MAX_CHARS_TOTAL = 50000;
+    // Mỗi file tối đa MAX_CHARS_TOTAL / MAX_FILES ký tự sau reduce
+    private static final int FILE_SUMMARY_CHARS = MAX_CHARS_TOTAL / MAX_FILES;
+
+    private static final int MAX_CHUNKS_PER_FILE = 8;
+    private static final int MAX_CHARS_PER_FILE = 12000;
+    private static final int SUMMARY_THRESHOLD = 4000;
+    private static final int CHUNK_SIZE = 3000;
+    private static final int CHUNK_OVERLAP = 200;
+
     private final FileChunkRepository fileChunkRepository;
     private final AIModelService aiModelService;
+    private final ChunkingService chunkingService;
+    private final FileSummaryCacheService summaryCache;
+    private final NotebookFileRepository notebookFileRepository;
+    private final Executor executor;
+
+    // Số bản tóm tắt gộp trong một lời gọi reduce
+    @Value("${ai.summary.reduce-fanout:4}")
+    private int reduceFanout = 4;
+
+    // Tóm tắt trước file vừa xử lý xong, để generator đầu tiên cũng dùng cache
+    @Value("${ai.summary.cache.warm-up:true}")
+    private boolean warmUp = true;
+
+    // fileId:hash → tóm tắt đang tính
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    public DocumentSummarizationService(
+            FileChunkRepository fileChunkRepository,
+            AIModelService aiModelService,
+            ChunkingService chunkingService,
+            FileSummaryCacheService summaryCache,
+            NotebookFileRepository notebookFileRepository,
+            @Qualifier(AsyncConfig.SUMMARIZATION_EXECUTOR) Executor executor) {
+        this.fileChunkRepository = fileChunkRepository;
+        this.aiModelService = aiModelService;
+        this.chunkingService = chunkingService;
+        this.summaryCache = summaryCache;
+        this.notebookFileRepository = notebookFileRepository;
+        this.executor = executor;
+    }
 
     /**
      * Tóm tắt nội dung từ nhiều files.
-     * 
+     *
      * @param files    Danh sách NotebookFile cần tóm tắt
      * @param llmModel Optional: chọn model, có thể null để dùng default
      * @return String tóm tắt tổng hợp từ tất cả files
      */
     public String summarizeDocuments(List<NotebookFile> files, LlmModel llmModel) {
+        return summarizeDocuments(files, llmModel, null);
+    }
+
+    /**
+     * Như summarizeDocuments(files, llmModel), thêm onFileSummary nhận (file, tóm
+     * tắt) ngay khi từng file xong – theo thứ tự hoàn thành, trên thread gọi.
+     *
+     * @param onFileSummary có thể null
+     */
+    public String summarizeDocuments(List<NotebookFile> files, LlmModel llmModel,
+            BiConsumer<NotebookFile, String> onFileSummary) {
         if (files == null || files.isEmpty()) {
             return "";
         }
 
-        int maxFiles = 10;
-        int maxCharsTotal = 50000;
+        long start = System.currentTimeMillis();
+        List<NotebookFile> selected = files.subList(0, Math.min(files.size(), MAX_FILES));
+
+        // Map: gửi tất cả file đi cùng lúc
+        List<CompletableFuture<String>> futures = new ArrayList<>(selected.size());
+        BlockingQueue<Integer> completed = new LinkedBlockingQueue<>();
+        for (int i = 0; i < selected.size(); i++) {
+            int index = i;
+            NotebookFile file = selected.get(i);
+            CompletableFuture<String> future = summarizeFileAsync(file.getId(), file.getOriginalFilename(), llmModel);
+            future.whenComplete((result, error) -> completed.add(index));
+            futures.add(future);
+        }
 
+        String[] summaries = new String[selected.size()];
+        try {
+            for (int done = 0; done < selected.size(); done++) {
+                int index = completed.take();
+                NotebookFile file = selected.get(index);
+                summaries[index] = futures.get(index).exceptionally(e -> {
+                    log.error("❌ Lỗi tóm tắt file {}: {}", file.getOriginalFilename(), e.getMessage());
+                    return "";
+                }).join();
+                if (onFileSummary != null && !summaries[index].isEmpty()) {
+                    onFileSummary.accept(file, summaries[index]);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("⚠️ Tóm tắt bị gián đoạn, dùng các file đã xong");
+        }
+
+        // Ghép theo thứ tự file, giới hạn tổng số ký tự
         StringBuilder fullTextBuilder = new StringBuilder();
         int totalChars = 0;
+        for (int i = 0; i < selected.size(); i++) {
+            String fileSummary = summaries[i];
+            if (fileSummary == null || fileSummary.isEmpty()) {
+                continue;
+            }
+            int remaining = MAX_CHARS_TOTAL - totalChars;
+            if (remaining <= 0)
+                break;
 
-        int limitFiles = Math.min(files.size(), maxFiles);
+            if (fileSummary.length() > remaining) {
+                fileSummary = fileSummary.substring(0, remaining);
+            }
 
-        for (int i = 0; i < limitFiles; i++) {
-            NotebookFile file = files.get(i);
-            String fileSummary = summarizeSingleFile(file, llmModel);
+            fullTextBuilder.append("\n\n--- FILE: ")
+                    .append(selected.get(i).getOriginalFilename())
+                    .append(" ---\n");
 
-            if (fileSummary != null && !fileSummary.isEmpty()) {
-                int remaining = maxCharsTotal - totalChars;
-                if (remaining <= 0)
-                    break;
+            fullTextBuilder.append(fileSummary);
+            totalChars += fileSummary.length();
+        }
 
-                if (fileSummary.length() > remaining) {
-                    fileSummary = fileSummary.substring(0, remaining);
-                }
+        log.info("🧩 [SUMMARY] {} file → {} ký tự trong {}ms", selected.size(), totalChars,
+                System.currentTimeMillis() - start);
+        return fullTextBuilder.toString().trim();
+    }
 
-                fullTextBuilder.append("\n\n--- FILE: ")
-                        .append(file.getOriginalFilename())
-                        .append(" ---\n");
+    /**
+     * Chunk của file thay đổi (xử lý lại / xóa): bỏ tóm tắt cũ; file đã xử lý
+     * xong thì tóm tắt lại ngay trên summarizationExecutor.
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onFileChunksChanged(FileChunksChangedEvent event) {
+        UUID fileId = event.fileId();
+        summaryCache.invalidateFile(fileId);
+        if (!warmUp || fileId == null) {
+            return;
+        }
+        // Event cũng bắn lúc bắt đầu embedding / khi xóa file: chỉ warm-up file đã xong
+        notebookFileRepository.findById(fileId)
+                .filter(file -> "done".equals(file.getStatus()) && Boolean.TRUE.equals(file.getEmbeddingDone()))
+                .ifPresent(file -> {
+                    String label = file.getOriginalFilename();
+                    executor.execute(() -> {
+                        summaryCache.recordWarmUp();
+                        summarizeFileAsync(fileId, label, null).whenComplete((result, error) -> {
+                            if (error != null) {
+                                log.warn("⚠️ [SUMMARY] Warm-up tóm tắt file {} lỗi: {}", label,
+                                        error.getMessage());
+                            }
+                        });
+                    });
+                });
+    }
 
-                fullTextBuilder.append(fileSummary);
-                totalChars += fileSummary.length();
-            }
+    /**
+     * Tóm tắt một file: lấy từ cache nếu nội dung chưa đổi; nếu file đang được tóm
+     * tắt (generator khác) thì dùng chung kết quả đó.
+     */
+    private CompletableFuture<String> summarizeFileAsync(UUID fileId, String label, LlmModel llmModel) {
+        String fullText;
+        try {
+            // Đọc chunk trên thread gọi (cần session / transaction của job)
+            fullText = loadFileText(fileId);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // File ngắn không gọi LLM nên không cần cache
+        if (fullText.length() <= SUMMARY_THRESHOLD) {
+            return CompletableFuture.completedFuture(fullText);
+        }
 
-            // Né rate limit Gemini khi xử lý file tiếp theo
-            if (i < limitFiles - 1) {
-                try {
-                    log.info("⏳ Chờ 10s trước file tiếp theo...");
-                    Thread.sleep(10000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
+        String hash = FileSummaryCacheService.contentHash(fullText);
+        Optional<String> cached = summaryCache.get(fileId, hash, AIModelService.DEFAULT_GEMINI_MODEL);
+        if (cached.isPresent()) {
+            log.debug("🧩 [SUMMARY] Dùng tóm tắt đã cache của file {}", label);
+            return CompletableFuture.completedFuture(cached.get());
         }
 
-        return fullTextBuilder.toString().trim();
+        String key = fileId + ":" + hash;
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> shared = inFlight.putIfAbsent(key, created);
+        if (shared != null) {
+            log.debug("🧩 [SUMMARY] File {} đang được tóm tắt, dùng chung kết quả", label);
+            return shared;
+        }
+
+        // Có chunk / bản gộp dùng fallback (LLM lỗi) thì không cache, lần sau tóm tắt lại
+        AtomicBoolean degraded = new AtomicBoolean();
+        mapReduce(fullText, llmModel, degraded).whenComplete((result, error) -> {
+            inFlight.remove(key, created);
+            if (error != null) {
+                created.completeExceptionally(error);
+                return;
+            }
+            if (!degraded.get()) {
+                summaryCache.put(fileId, hash, AIModelService.DEFAULT_GEMINI_MODEL, result);
+            }
+            created.complete(result);
+        });
+        return created;
     }
 
     /**
-     * Tóm tắt nội dung của một file.
+     * Text của một file: tối đa MAX_CHUNKS_PER_FILE chunk đầu, MAX_CHARS_PER_FILE
+     * ký tự.
      */
-    private String summarizeSingleFile(NotebookFile file, LlmModel llmModel) {
-        int maxChunks = 8;
-        int maxCharsPerFile = 12000;
-        int summaryThreshold = 4000;
-
-        List<Object[]> chunkData = fileChunkRepository.findByFileIdWithLimit(file.getId(), maxChunks);
+    private String loadFileText(UUID fileId) {
+        List<Object[]> chunkData = fileChunkRepository.findByFileIdWithLimit(fileId, MAX_CHUNKS_PER_FILE);
         if (chunkData == null || chunkData.isEmpty()) {
             return "";
         }
@@ -96,12 +269,12 @@ public class DocumentSummarizationService {
         int charCount = 0;
 
         for (Object[] row : chunkData) {
-            if (charCount >= maxCharsPerFile)
+            if (charCount >= MAX_CHARS_PER_FILE)
                 break;
 
             String content = (String) row[1];
             if (content != null && !content.isEmpty()) {
-                int remaining = maxCharsPerFile - charCount;
+                int remaining = MAX_CHARS_PER_FILE - charCount;
                 if (content.length() > remaining) {
                     content = content.substring(0, remaining);
                 }
@@ -110,80 +283,74 @@ public class DocumentSummarizationService {
             }
         }
 
-        String fullText = textBuilder.toString().trim();
-        if (fullText.isEmpty()) {
-            return "";
-        }
-
-        // Nếu file quá dài → tóm tắt theo chunk
-        if (fullText.length() > summaryThreshold) {
-            return summarizeLongText(fullText, llmModel);
-        }
-
-        return fullText;
+        return textBuilder.toString().trim();
     }
 
     /**
-     * Chia text dài thành chunks và tóm tắt từng phần bằng LLM.
+     * Chia chunk, tóm tắt song song (map) rồi gộp (reduce).
+     *
+     * @param degraded được bật nếu có bước phải dùng fallback
      */
-    private String summarizeLongText(String fullText, LlmModel llmModel) {
-        int chunkSize = 3000;
-        int overlap = 200;
-
-        List<String> chunks = splitTextIntoChunks(fullText, chunkSize, overlap);
-        StringBuilder summaryBuilder = new StringBuilder();
+    private CompletableFuture<String> mapReduce(String fullText, LlmModel llmModel, AtomicBoolean degraded) {
+        List<String> chunks = chunkingService.split(fullText, CHUNK_SIZE, CHUNK_OVERLAP).stream()
+                .map(TextChunk::content)
+                .toList();
 
+        List<CompletableFuture<String>> mapped = new ArrayList<>(chunks.size());
         for (int i = 0; i < chunks.size(); i++) {
-            String chunk = chunks.get(i);
-            String chunkSummary = summarizeChunk(chunk, i, chunks.size(), fullText.length(), llmModel);
-
-            if (chunkSummary != null && !chunkSummary.isEmpty()) {
-                summaryBuilder.append(chunkSummary).append("\n");
-            }
-
-            // Né rate-limit Google GEMINI FREE
-            if (i < chunks.size() - 1) {
-                try {
-                    log.info("⏳ Chờ 10s để né rate limit Gemini...");
-                    Thread.sleep(10000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
+            int index = i;
+            mapped.add(CompletableFuture.supplyAsync(
+                    () -> summarizeChunk(chunks.get(index), index, chunks.size(), fullText.length(), llmModel,
+                            degraded),
+                    executor));
         }
 
-        return summaryBuilder.toString().trim();
+        return CompletableFuture.allOf(mapped.toArray(new CompletableFuture[0]))
+                .thenCompose(v -> reduce(joinNonEmpty(mapped), llmModel, 1, degraded));
     }
 
     /**
-     * Chia text thành chunks với overlap.
+     * Gộp các bản tóm tắt (theo thứ tự) cho tới khi tổng không quá
+     * FILE_SUMMARY_CHARS: mỗi tầng gộp từng nhóm reduceFanout bản bằng một lời gọi
+     * LLM, các nhóm chạy song song.
      */
-    private List<String> splitTextIntoChunks(String text, int chunkSize, int overlap) {
-        List<String> chunks = new ArrayList<>();
-        if (text == null || text.isEmpty()) {
-            return chunks;
+    private CompletableFuture<String> reduce(List<String> parts, LlmModel llmModel, int level,
+            AtomicBoolean degraded) {
+        String joined = String.join("\n", parts);
+        if (parts.size() <= 1 || joined.length() <= FILE_SUMMARY_CHARS) {
+            return CompletableFuture.completedFuture(joined.trim());
         }
 
-        int start = 0;
-        while (start < text.length()) {
-            int end = Math.min(start + chunkSize, text.length());
-            chunks.add(text.substring(start, end));
-
-            start = end - overlap;
-            if (start >= text.length())
-                break;
-            if (end == text.length())
-                break;
+        int fanout = Math.max(2, reduceFanout);
+        List<CompletableFuture<String>> merged = new ArrayList<>();
+        for (int from = 0; from < parts.size(); from += fanout) {
+            List<String> group = parts.subList(from, Math.min(parts.size(), from + fanout));
+            merged.add(group.size() == 1
+                    ? CompletableFuture.completedFuture(group.get(0))
+                    : CompletableFuture.supplyAsync(() -> mergeSummaries(group, level, llmModel, degraded), executor));
         }
+        log.debug("🧩 [SUMMARY] Reduce tầng {}: {} → {} bản", level, parts.size(), merged.size());
 
-        return chunks;
+        return CompletableFuture.allOf(merged.toArray(new CompletableFuture[0]))
+                .thenCompose(v -> reduce(joinNonEmpty(merged), llmModel, level + 1, degraded));
+    }
+
+    private static List<String> joinNonEmpty(List<CompletableFuture<String>> futures) {
+        List<String> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<String> future : futures) {
+            String result = future.join();
+            if (result != null && !result.isEmpty()) {
+                results.add(result);
+            }
+        }
+        return results;
     }
 
     /**
      * Tóm tắt một chunk bằng LLM.
      */
     private String summarizeChunk(String chunk, int chunkIndex, int totalChunks, int originalLength,
-            LlmModel llmModel) {
+            LlmModel llmModel, AtomicBoolean degraded) {
         try {
             String prompt = String.format("""
                      Tóm tắt đoạn văn bản sau (phần %d/%d của văn bản gốc %d ký tự):
@@ -203,8 +370,44 @@ public class DocumentSummarizationService {
             return response != null ? response.trim() : "";
         } catch (Exception e) {
             log.error("❌ Lỗi tóm tắt chunk: {}", e.getMessage());
+            degraded.set(true);
             // Fallback: trả về chunk gốc đã cắt ngắn
             return chunk.length() > 500 ? chunk.substring(0, 500) + "..." : chunk;
         }
     }
+
+    /**
+     * Gộp một nhóm bản tóm tắt liên tiếp của cùng tài liệu bằng LLM.
+     */
+    private String mergeSummaries(List<String> group, int level, LlmModel llmModel, AtomicBoolean degraded) {
+        String joined = String.join("\n\n---\n\n", group);
+        try {
+            String prompt = String.format("""
+                     Dưới đây là %d bản tóm tắt của các phần liên tiếp trong cùng một tài liệu:
+
+                     ---
+                     %s
+                     ---
+
+                    Yêu cầu:
+                     - Gộp thành MỘT bản tóm tắt, giữ đúng thứ tự nội dung.
+                     - Tối đa %d ký tự, bỏ ý trùng lặp, giữ số liệu và thuật ngữ quan trọng.
+                     - Không thêm lời dẫn, không mở đầu hay kết thúc.
+                     - Trả về đúng phần tóm tắt, không thêm bất kỳ câu nào ngoài nội dung.
+                     """, group.size(), joined, FILE_SUMMARY_CHARS / 2);
+
+            String response = aiModelService.callGeminiModel(prompt);
+            return response != null ? response.trim() : "";
+        } catch (Exception e) {
+            log.error("❌ Lỗi gộp tóm tắt (tầng {}): {}", level, e.getMessage());
+            degraded.set(true);
+            // Fallback: giữ phần đầu của mỗi bản để tầng sau vẫn ngắn lại
+            int share = FILE_SUMMARY_CHARS / 2 / group.size();
+            List<String> heads = new ArrayList<>(group.size());
+            for (String part : group) {
+                heads.add(part.length() > share ? part.substring(0, share) + "..." : part);
+            }
+            return String.join("\n", heads);
+        }
+    }
 }
@@ -0,0 +1,236 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.springboot_api.dto.shared.ai.EmbeddingCacheStats;
+import com.example.springboot_api.models.types.PgVector;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cache embedding theo hash nội dung (text đã chuẩn hóa + model + số chiều).
+ * Gồm 2 tầng: LRU trong bộ nhớ và bảng public.embedding_cache trong Postgres.
+ * Lỗi ở tầng DB chỉ log warning, không làm hỏng luồng embedding.
+ */
+@Service
+@Slf4j
+public class EmbeddingCacheService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate cacheTx;
+    private final int memoryCapacity;
+
+    // LRU theo thứ tự truy cập; vector trả ra dùng chung mảng với cache
+    private final LinkedHashMap<String, float[]> memoryCache;
+    private final ReentrantLock memoryLock = new ReentrantLock();
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder databaseHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public EmbeddingCacheService(
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            @Value("${ai.embedding.cache.memory-entries:5000}") int memoryCapacity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.memoryCapacity = memoryCapacity;
+
+        // Đọc/ghi cache trong transaction riêng: lỗi cache không được làm abort
+        // transaction ingest đang chạy
+        this.cacheTx = new TransactionTemplate(transactionManager);
+        this.cacheTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        this.memoryCache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > EmbeddingCacheService.this.memoryCapacity;
+            }
+        };
+    }
+
+    /**
+     * Tra cache cho một danh sách text.
+     *
+     * @return Map text → vector cho các text đã có trong cache (text miss không có
+     *         trong map)
+     */
+    public Map<String, float[]> getAll(List<String> texts, String model, int dimension) {
+        Map<String, float[]> found = new HashMap<>();
+        Map<String, String> pendingByKey = new HashMap<>();
+
+        for (String text : texts) {
+            if (found.containsKey(text)) {
+                continue;
+            }
+            String key = cacheKey(text, model, dimension);
+            float[] cached;
+            memoryLock.lock();
+            try {
+                cached = memoryCache.get(key);
+            } finally {
+                memoryLock.unlock();
+            }
+            if (cached != null) {
+                memoryHits.increment();
+                found.put(text, cached);
+            } else {
+                pendingByKey.put(key, text);
+            }
+        }
+
+        if (pendingByKey.isEmpty()) {
+            return found;
+        }
+
+        Map<String, float[]> fromDb = loadFromDatabase(new ArrayList<>(pendingByKey.keySet()), model, dimension);
+        for (Map.Entry<String, String> entry : pendingByKey.entrySet()) {
+            float[] vector = fromDb.get(entry.getKey());
+            if (vector != null) {
+                databaseHits.increment();
+                putInMemory(entry.getKey(), vector);
+                found.put(entry.getValue(), vector);
+            } else {
+                misses.increment();
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Lưu các vector vừa embedding vào cả 2 tầng cache.
+     */
+    public void putAll(Map<String, float[]> vectorsByText, String model, int dimension) {
+        if (vectorsByText == null || vectorsByText.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> rows = new ArrayList<>(vectorsByText.size());
+        for (Map.Entry<String, float[]> entry : vectorsByText.entrySet()) {
+            String key = cacheKey(entry.getKey(), model, dimension);
+            float[] vector = entry.getValue();
+            putInMemory(key, vector);
+            rows.add(new Object[] { key, model, dimension, new PgVector(vector) });
+        }
+
+        try {
+            cacheTx.executeWithoutResult(status -> jdbcTemplate.batchUpdate(
+                    "INSERT INTO public.embedding_cache (content_hash, model, dimension, embedding) "
+                            + "VALUES (?, ?, ?, ?) ON CONFLICT DO NOTHING",
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            if (i == 0) {
+                                PgVector.registerType(ps.getConnection());
+                            }
+                            Object[] row = rows.get(i);
+                            ps.setString(1, (String) row[0]);
+                            ps.setString(2, (String) row[1]);
+                            ps.setInt(3, (Integer) row[2]);
+                            ps.setObject(4, row[3]);
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return rows.size();
+                        }
+                    }));
+        } catch (Exception e) {
+            log.warn("⚠️ Không ghi được embedding cache vào DB: {}", e.getMessage());
+        }
+    }
+
+    public EmbeddingCacheStats getStats() {
+        long mem = memoryHits.sum();
+        long db = databaseHits.sum();
+        long miss = misses.sum();
+        long total = mem + db + miss;
+        int entries;
+        memoryLock.lock();
+        try {
+            entries = memoryCache.size();
+        } finally {
+            memoryLock.unlock();
+        }
+        return new EmbeddingCacheStats(mem, db, miss, total == 0 ? 0.0 : (double) (mem + db) / total,
+                entries, memoryCapacity);
+    }
+
+    // =========================
+    // PRIVATE HELPERS
+    // =========================
+
+    private Map<String, float[]> loadFromDatabase(List<String> keys, String model, int dimension) {
+        Map<String, float[]> result = new HashMap<>();
+        try {
+            cacheTx.executeWithoutResult(status -> {
+                jdbcTemplate.query(con -> {
+                    PgVector.registerType(con);
+                    Array keyArray = con.createArrayOf("varchar", keys.toArray());
+                    var ps = con.prepareStatement(
+                            "UPDATE public.embedding_cache SET last_used_at = now() "
+                                    + "WHERE model = ? AND dimension = ? AND content_hash = ANY(?) "
+                                    + "RETURNING content_hash, embedding");
+                    ps.setString(1, model);
+                    ps.setInt(2, dimension);
+                    ps.setArray(3, keyArray);
+                    return ps;
+                }, rs -> {
+                    result.put(rs.getString("content_hash"), PgVector.toArray(rs.getObject("embedding")));
+                });
+            });
+        } catch (Exception e) {
+            log.warn("⚠️ Không đọc được embedding cache từ DB: {}", e.getMessage());
+        }
+        return result;
+    }
+
+    private void putInMemory(String key, float[] vector) {
+        memoryLock.lock();
+        try {
+            memoryCache.put(key, vector);
+        } finally {
+            memoryLock.unlock();
+        }
+    }
+
+    /**
+     * Hash SHA-256 của text đã chuẩn hóa (trim + gộp khoảng trắng) kèm model và số
+     * chiều.
+     */
+    private String cacheKey(String text, String model, int dimension) {
+        String normalized = text == null ? "" : text.trim().replaceAll("\\s+", " ");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((model + "|" + dimension + "|").getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest(normalized.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 không khả dụng", e);
+        }
+    }
+}
@@ -1,62 +1,84 @@
 package com.example.springboot_api.services.shared.ai;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.google.genai.types.ContentEmbedding;
 import com.google.genai.types.EmbedContentConfig;
 import com.google.genai.types.EmbedContentResponse;
 
-import lombok.RequiredArgsConstructor;
-
 @Service
-@RequiredArgsConstructor
 public class EmbeddingService {
 
     // 🟢 Dùng TÊN LỚP ĐẦY ĐỦ (FQCN) để đảm bảo tiêm đúng Bean
     private final com.google.genai.Client geminiClient;
+    private final Executor embeddingExecutor;
+    private final EmbeddingCacheService embeddingCacheService;
 
     // Cấu hình mô hình và kích thước vector mục tiêu
     private static final String EMBED_MODEL = "gemini-embedding-001";
     private static final int TARGET_DIMENSION = 1536;
 
+    // Số text tối đa trong một request batch (giới hạn của Gemini là 100)
+    @Value("${ai.embedding.batch-size:100}")
+    private int batchSize;
+
+    // Số lần thử lại khi bị rate limit (429) hoặc lỗi tạm thời (5xx, timeout) – xem AiCallErrors
+    @Value("${ai.embedding.max-retries:5}")
+    private int maxRetries;
+
+    @Value("${ai.embedding.backoff-initial-ms:1000}")
+    private long backoffInitialMs;
+
+    @Value("${ai.embedding.backoff-max-ms:30000}")
+    private long backoffMaxMs;
+
+    public EmbeddingService(
+            com.google.genai.Client geminiClient,
+            @Qualifier("embeddingExecutor") Executor embeddingExecutor,
+            EmbeddingCacheService embeddingCacheService) {
+        this.geminiClient = geminiClient;
+        this.embeddingExecutor = embeddingExecutor;
+        this.embeddingCacheService = embeddingCacheService;
+    }
+
     /**
      * Sinh vector embedding 3072 chiều, sau đó chuẩn hóa L2 và cắt/trích về 1536
      * chiều.
+     *
+     * Mảng trả về có thể được chia sẻ với cache: không sửa trực tiếp.
      */
-    public List<Double> embedGoogleNormalized(String text) {
+    public float[] embedGoogleNormalized(String text) {
         if (text == null || text.isEmpty() || text.trim().isEmpty()) {
             return createZeroVector(TARGET_DIMENSION);
         }
 
-        try {
-            EmbedContentConfig config = EmbedContentConfig.builder()
-                    .taskType("retrieval_document")
-                    .build();
-
-            // 1. GỌI API: SỬA LỖI CÚ PHÁP -> gọi qua FIELD 'models'
-            EmbedContentResponse response = geminiClient.models.embedContent(
-                    EMBED_MODEL,
-                    text.trim(),
-                    config);
-
-            // 2. Unwrap Optional<List<ContentEmbedding>>
-            List<ContentEmbedding> embeddingList = response.embeddings()
-                    .orElseThrow(() -> new NoSuchElementException("API response did not contain embedding list."));
-
-            if (embeddingList.isEmpty()) {
-                throw new RuntimeException("Danh sách embedding rỗng.");
-            }
+        String trimmed = text.trim();
+        float[] cached = embeddingCacheService
+                .getAll(List.of(trimmed), EMBED_MODEL, TARGET_DIMENSION)
+                .get(trimmed);
+        if (cached != null) {
+            return cached;
+        }
 
-            // 3. Unwrap Optional<List<Float>>
-            List<Float> originalVector = embeddingList.get(0).values()
-                    .orElseThrow(() -> new NoSuchElementException("Embedding vector values are missing."));
+        try {
+            List<List<Float>> vectors = requestEmbeddingsWithRetry(List.of(trimmed));
 
-            // 4. Chuẩn hóa và Cắt/Trích
-            return normalizeAndTruncate(originalVector);
+            // Chuẩn hóa và Cắt/Trích
+            float[] result = normalizeAndTruncate(vectors.get(0));
+            embeddingCacheService.putAll(Map.of(trimmed, result), EMBED_MODEL, TARGET_DIMENSION);
+            return result;
 
         } catch (NoSuchElementException e) {
             System.err.println("❌ Lỗi cấu trúc phản hồi API: Dữ liệu embedding bị thiếu. Chi tiết: " + e.getMessage());
@@ -70,7 +92,135 @@ public class EmbeddingService {
         }
     }
 
-    private List<Double> normalizeAndTruncate(List<Float> vector3072) {
+    /**
+     * Embedding nhiều text cùng lúc.
+     * Text đã có trong EmbeddingCacheService được lấy thẳng từ cache. Phần còn lại
+     * được gom thành các batch (tối đa batchSize text/request), các batch được
+     * gửi song song trên embeddingExecutor (giới hạn số request đồng thời), mỗi
+     * batch tự backoff khi bị rate limit.
+     *
+     * @param texts Danh sách text cần embedding
+     * @return Danh sách vector 1536 chiều, đúng thứ tự với texts
+     */
+    public List<float[]> embedGoogleNormalizedBatch(List<String> texts) {
+        List<float[]> results = new ArrayList<>(texts.size());
+        List<Integer> pendingIndexes = new ArrayList<>();
+
+        List<String> nonBlank = new ArrayList<>();
+        for (String text : texts) {
+            if (text != null && !text.trim().isEmpty()) {
+                nonBlank.add(text.trim());
+            }
+        }
+        Map<String, float[]> cached = nonBlank.isEmpty()
+                ? Map.of()
+                : embeddingCacheService.getAll(nonBlank, EMBED_MODEL, TARGET_DIMENSION);
+
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            if (text == null || text.trim().isEmpty()) {
+                results.add(createZeroVector(TARGET_DIMENSION));
+            } else if (cached.containsKey(text.trim())) {
+                results.add(cached.get(text.trim()));
+            } else {
+                results.add(null);
+                pendingIndexes.add(i);
+            }
+        }
+
+        if (pendingIndexes.isEmpty()) {
+            return results;
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int start = 0; start < pendingIndexes.size(); start += batchSize) {
+            List<Integer> batchIndexes = pendingIndexes.subList(start,
+                    Math.min(start + batchSize, pendingIndexes.size()));
+
+            futures.add(CompletableFuture.runAsync(() -> {
+                List<String> batchTexts = new ArrayList<>(batchIndexes.size());
+                for (int idx : batchIndexes) {
+                    batchTexts.add(texts.get(idx).trim());
+                }
+
+                List<List<Float>> vectors = requestEmbeddingsWithRetry(batchTexts);
+                for (int j = 0; j < batchIndexes.size(); j++) {
+                    // Mỗi batch ghi vào các vị trí riêng biệt → không tranh chấp
+                    results.set(batchIndexes.get(j), normalizeAndTruncate(vectors.get(j)));
+                }
+            }, embeddingExecutor));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            System.err.println("❌ Lỗi khi batch embedding tại EmbeddingService: " + cause.getMessage());
+            throw new RuntimeException("Batch embedding failed: " + cause.getMessage(), cause);
+        }
+
+        Map<String, float[]> fresh = new HashMap<>();
+        for (int idx : pendingIndexes) {
+            fresh.put(texts.get(idx).trim(), results.get(idx));
+        }
+        embeddingCacheService.putAll(fresh, EMBED_MODEL, TARGET_DIMENSION);
+
+        return results;
+    }
+
+    /**
+     * Gọi API embedding cho một batch text, tự thử lại với exponential backoff
+     * (có jitter) khi gặp rate limit hoặc lỗi tạm thời.
+     */
+    private List<List<Float>> requestEmbeddingsWithRetry(List<String> texts) {
+        int attempt = 0;
+        while (true) {
+            try {
+                return requestEmbeddings(texts);
+            } catch (RuntimeException e) {
+                if (attempt >= maxRetries || !AiCallErrors.isTransient(e)) {
+                    throw e;
+                }
+
+                long backoff = Math.min(backoffMaxMs, backoffInitialMs << attempt);
+                long jitter = ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                attempt++;
+                System.out.println("⏳ Embedding bị giới hạn (" + e.getMessage() + "), thử lại lần " + attempt
+                        + " sau " + (backoff + jitter) + "ms");
+                try {
+                    Thread.sleep(backoff + jitter);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Embedding bị gián đoạn khi chờ retry", ie);
+                }
+            }
+        }
+    }
+
+    private List<List<Float>> requestEmbeddings(List<String> texts) {
+        EmbedContentConfig config = EmbedContentConfig.builder()
+                .taskType("retrieval_document")
+                .build();
+
+        EmbedContentResponse response = geminiClient.models.embedContent(EMBED_MODEL, texts, config);
+
+        List<ContentEmbedding> embeddingList = response.embeddings()
+                .orElseThrow(() -> new NoSuchElementException("API response did not contain embedding list."));
+
+        if (embeddingList.size() != texts.size()) {
+            throw new RuntimeException("Số embedding trả về (" + embeddingList.size()
+                    + ") không khớp số text (" + texts.size() + ").");
+        }
+
+        List<List<Float>> vectors = new ArrayList<>(embeddingList.size());
+        for (ContentEmbedding embedding : embeddingList) {
+            vectors.add(embedding.values()
+                    .orElseThrow(() -> new NoSuchElementException("Embedding vector values are missing.")));
+        }
+        return vectors;
+    }
+
+    private float[] normalizeAndTruncate(List<Float> vector3072) {
         if (vector3072.isEmpty()) {
             return createZeroVector(TARGET_DIMENSION);
         }
@@ -81,30 +231,21 @@ public class EmbeddingService {
         }
         norm = Math.sqrt(norm);
 
-        List<Double> resultVector = new ArrayList<>(TARGET_DIMENSION);
-
         if (norm == 0.0) {
             return createZeroVector(TARGET_DIMENSION);
         }
 
+        // Phần thiếu (vector ngắn hơn 1536 chiều) giữ giá trị 0
+        float[] resultVector = new float[TARGET_DIMENSION];
         int dimensionToUse = Math.min(vector3072.size(), TARGET_DIMENSION);
         for (int i = 0; i < dimensionToUse; i++) {
-            double normalizedComponent = vector3072.get(i) / norm;
-            resultVector.add(normalizedComponent);
-        }
-
-        while (resultVector.size() < TARGET_DIMENSION) {
-            resultVector.add(0.0);
+            resultVector[i] = (float) (vector3072.get(i) / norm);
         }
 
         return resultVector;
     }
 
-    private List<Double> createZeroVector(int dimension) {
-        List<Double> zeroVector = new ArrayList<>(dimension);
-        for (int i = 0; i < dimension; i++) {
-            zeroVector.add(0.0);
-        }
-        return zeroVector;
+    private float[] createZeroVector(int dimension) {
+        return new float[dimension];
     }
-}
\ No newline at end of file
+}
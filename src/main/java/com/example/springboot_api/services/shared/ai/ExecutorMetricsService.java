@@ -0,0 +1,78 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import com.example.springboot_api.config.BoundedVirtualThreadExecutor;
+import com.example.springboot_api.config.RejectionCountingPolicy;
+import com.example.springboot_api.dto.shared.ai.ExecutorPoolStats;
+
+/**
+ * Chụp trạng thái của các executor trong context (AsyncConfig, WebSocket, ...):
+ * số thread, số task đang chạy, độ sâu hàng đợi, số task bị từ chối.
+ * Với BoundedVirtualThreadExecutor, "pool" là giới hạn đồng thời và "queue" là
+ * số task đang chờ permit.
+ */
+@Service
+public class ExecutorMetricsService {
+
+    private final Map<String, Executor> executors;
+
+    public ExecutorMetricsService(Map<String, Executor> executors) {
+        this.executors = new TreeMap<>(executors);
+    }
+
+    public List<ExecutorPoolStats> getStats() {
+        List<ExecutorPoolStats> stats = new ArrayList<>(executors.size());
+        executors.forEach((name, executor) -> {
+            if (executor instanceof ThreadPoolTaskExecutor taskExecutor) {
+                ExecutorPoolStats poolStats = fromThreadPool(name, taskExecutor);
+                if (poolStats != null) {
+                    stats.add(poolStats);
+                }
+            } else if (executor instanceof BoundedVirtualThreadExecutor virtual) {
+                stats.add(new ExecutorPoolStats(
+                        name,
+                        virtual.getMaxConcurrency(),
+                        virtual.getMaxConcurrency(),
+                        virtual.getActiveCount(),
+                        virtual.getActiveCount(),
+                        virtual.getWaitingCount(),
+                        Math.max(0, virtual.getMaxWaiting() - virtual.getWaitingCount()),
+                        virtual.getCompletedCount(),
+                        virtual.getRejectedCount()));
+            }
+        });
+        return stats;
+    }
+
+    private ExecutorPoolStats fromThreadPool(String name, ThreadPoolTaskExecutor executor) {
+        ThreadPoolExecutor pool;
+        try {
+            pool = executor.getThreadPoolExecutor();
+        } catch (IllegalStateException e) {
+            return null; // executor chưa initialize / đã shutdown
+        }
+
+        long rejected = pool.getRejectedExecutionHandler() instanceof RejectionCountingPolicy counting
+                ? counting.getRejectedCount()
+                : 0;
+        return new ExecutorPoolStats(
+                name,
+                pool.getCorePoolSize(),
+                pool.getMaximumPoolSize(),
+                pool.getPoolSize(),
+                pool.getActiveCount(),
+                pool.getQueue().size(),
+                pool.getQueue().remainingCapacity(),
+                pool.getCompletedTaskCount(),
+                rejected);
+    }
+}
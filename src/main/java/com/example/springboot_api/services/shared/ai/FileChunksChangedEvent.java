@@ -0,0 +1,11 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.UUID;
+
+/**
+ * Chunk của một file vừa bị ghi lại hoặc xóa khỏi file_chunks. Các cache / index
+ * phía trên file_chunks (RagResultCache, InMemoryVectorIndexService,
+ * DocumentSummarizationService) nghe event này để làm mới.
+ */
+public record FileChunksChangedEvent(UUID notebookId, UUID fileId) {
+}
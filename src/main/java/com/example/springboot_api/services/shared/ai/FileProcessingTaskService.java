@@ -1,21 +1,47 @@
 package com.example.springboot_api.services.shared.ai;
 
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.example.springboot_api.common.exceptions.BadRequestException;
 import com.example.springboot_api.models.FileChunk;
 import com.example.springboot_api.models.Notebook;
 import com.example.springboot_api.models.NotebookFile;
-import com.example.springboot_api.repositories.shared.FileChunkRepository;
+import com.example.springboot_api.repositories.shared.FileChunkBatchRepository;
+import com.example.springboot_api.repositories.shared.IngestionChunkRepository;
+import com.example.springboot_api.repositories.shared.IngestionChunkRepository.PendingChunk;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
+import com.example.springboot_api.services.shared.ai.chunking.ChunkingService;
+import com.example.springboot_api.services.shared.ai.chunking.TextChunk;
+import com.example.springboot_api.services.shared.ai.chunking.TextChunker;
+import com.example.springboot_api.services.shared.ai.ingest.IngestionAbortException;
+import com.example.springboot_api.services.shared.ai.ingest.IngestionJob;
+import com.example.springboot_api.services.shared.ai.ingest.IngestionJobQueue;
+import com.example.springboot_api.services.shared.ai.ingest.IngestionLease;
+import com.example.springboot_api.services.shared.ai.ingest.IngestionStage;
 
 import lombok.RequiredArgsConstructor;
 
+/**
+ * Pipeline xử lý file: OCR / phụ đề → chunk → embedding → file_chunks.
+ *
+ * Các hàm start* chỉ đưa file vào hàng đợi Postgres (IngestionJobQueue); việc
+ * xử lý do IngestionWorker chạy theo 2 stage:
+ * - EXTRACT: đọc text (streaming) → chunk → ingestion_chunks
+ * - EMBED: embedding theo cửa sổ embedWindow chunk → file_chunks, lưu tiến độ
+ * sau mỗi cửa sổ để retry / restart tiếp tục từ chunk cuối đã lưu.
+ */
 @Service
 @RequiredArgsConstructor
 public class FileProcessingTaskService {
@@ -24,155 +50,319 @@ public class FileProcessingTaskService {
     private final EmbeddingService embeddingService;
     private final YoutubeSubtitleService youtubeSubtitleService;
     private final NotebookFileRepository fileRepository;
-    private final FileChunkRepository fileChunkRepository;
+    private final FileChunkBatchRepository fileChunkBatchRepository;
+    private final IngestionChunkRepository ingestionChunkRepository;
+    private final ChunkingService chunkingService;
+    private final IngestionJobQueue jobQueue;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // Số chunk mỗi lần JDBC batch insert
+    private static final int INSERT_BATCH_SIZE = 200;
+
+    // Số chunk gom lại trước khi gọi batch embedding (và giữ trong bộ nhớ)
+    @Value("${ai.ingest.embed-window:400}")
+    private int embedWindow;
 
     /**
-     * Xử lý file (PDF, Word, PPT): OCR → chunk → embedding.
+     * Đưa file (PDF, Word, PPT, ảnh) vào hàng đợi xử lý AI.
+     * Job được ghi trong transaction của caller và chỉ chạy sau khi commit.
      */
-    @Async
     @Transactional
     public void startAIProcessing(NotebookFile file) {
-        System.out.println("🔥 RUNNING AI THREAD: " + Thread.currentThread().getName());
+        startAIProcessing(file, IngestionJob.PRIORITY_NORMAL);
+    }
 
-        UUID fileId = file.getId();
-        System.out.println("=== START AI PROCESSING: " + fileId);
+    /**
+     * @param priority IngestionJob.PRIORITY_* (càng lớn càng được xử lý trước)
+     */
+    @Transactional
+    public void startAIProcessing(NotebookFile file, int priority) {
+        UUID jobId = jobQueue.enqueue(file.getId(), null, priority);
+        System.out.println("📥 Đã đưa file vào hàng đợi AI: " + file.getId() + " | job=" + jobId);
+    }
 
-        NotebookFile loadedFile = fileRepository.findById(fileId)
-                .orElseThrow(() -> new RuntimeException("File không tồn tại: " + fileId));
+    /**
+     * Đưa video YouTube vào hàng đợi: trích xuất phụ đề → chunk → embedding.
+     *
+     * @param file       NotebookFile đã được lưu (với mimeType = video/youtube)
+     * @param youtubeUrl URL video YouTube để trích xuất phụ đề
+     */
+    @Transactional
+    public void startYoutubeProcessing(NotebookFile file, String youtubeUrl) {
+        UUID jobId = jobQueue.enqueue(file.getId(), youtubeUrl, IngestionJob.PRIORITY_NORMAL);
+        System.out.println("📥 Đã đưa video vào hàng đợi AI: " + file.getId() + " | job=" + jobId);
+    }
 
-        loadedFile.setStatus("processing");
-        fileRepository.save(loadedFile);
+    /**
+     * Chạy một job đã được worker claim. Lỗi được ghi nhận vào hàng đợi (retry có
+     * backoff hoặc failed), không ném ra ngoài.
+     *
+     * @param lease lease do IngestionWorker gia hạn; pipeline kiểm tra nhanh job còn
+     *              được giữ, còn mỗi lần ghi chunk thì kiểm tra lại trên DB
+     *              trong cùng transaction
+     */
+    public void processJob(IngestionJob job, String workerId, IngestionLease lease) {
+        System.out.println("🔥 RUNNING " + job.stage() + " job=" + job.id() + " file=" + job.fileId()
+                + " attempt=" + job.attempts() + " on " + Thread.currentThread().getName());
 
         try {
-            System.out.println("📄 Bắt đầu OCR...");
-            String text = ocrService.extract(loadedFile.getStorageUrl());
-            System.out.println("✅ OCR hoàn thành, độ dài text: " + (text != null ? text.length() : 0));
-            if (text == null || text.trim().isEmpty()) {
-                throw new RuntimeException("OCR không đọc được nội dung.");
+            NotebookFile file = fileRepository.findById(job.fileId()).orElse(null);
+            if (file == null) {
+                throw new IngestionAbortException("File không tồn tại: " + job.fileId());
             }
 
-            processChunksAndEmbeddings(loadedFile, text);
-
-            loadedFile.setOcrDone(true);
-            loadedFile.setEmbeddingDone(true);
-            loadedFile.setStatus("done");
+            switch (job.stage()) {
+                case EXTRACT -> runExtractStage(job, workerId, lease, file);
+                case EMBED -> runEmbedStage(job, workerId, lease, file);
+            }
 
         } catch (Exception e) {
-            loadedFile.setStatus("failed");
-            System.err.println("LỖI AI PROCESS: " + e.getMessage());
-            e.printStackTrace();
+            boolean retryable = !(e instanceof IngestionAbortException) && !(e instanceof BadRequestException);
+            System.err.println("LỖI AI PROCESS (" + job.stage() + "): " + e.getMessage());
+            if (jobQueue.fail(job, workerId, e, retryable)) {
+                updateFileStatus(job.fileId(), "failed", null, null);
+            }
         } finally {
-            loadedFile.setUpdatedAt(OffsetDateTime.now());
-            fileRepository.save(loadedFile);
-            System.out.println("=== END AI PROCESSING: " + fileId + " | status=" + loadedFile.getStatus());
+            System.out.println("=== END " + job.stage() + " job=" + job.id() + " file=" + job.fileId());
         }
     }
 
+    // =========================
+    // STAGE EXTRACT
+    // =========================
+
     /**
-     * Xử lý video YouTube: trích xuất phụ đề → chunk → embedding (tất cả async).
-     * 
-     * @param file       NotebookFile đã được lưu (với mimeType = video/youtube)
-     * @param youtubeUrl URL video YouTube để trích xuất phụ đề
+     * Đọc text (streaming) → chunk → ingestion_chunks. Chạy lại từ đầu khi retry.
      */
-    @Async
-    @Transactional
-    public void startYoutubeProcessing(NotebookFile file, String youtubeUrl) {
-        System.out.println("🎬 RUNNING YOUTUBE THREAD: " + Thread.currentThread().getName());
-
+    private void runExtractStage(IngestionJob job, String workerId, IngestionLease lease, NotebookFile file)
+            throws Exception {
         UUID fileId = file.getId();
-        System.out.println("=== START YOUTUBE PROCESSING: " + fileId);
+        updateFileStatus(fileId, "processing", false, false);
+
+        TextSource source;
+        if (job.sourceUrl() != null) {
+            source = sink -> {
+                System.out.println("📥 Đang trích xuất phụ đề từ: " + job.sourceUrl());
+                String subtitleText = youtubeSubtitleService.extractSubtitleWithTimestamps(job.sourceUrl()).fullText();
+                if (subtitleText != null && !subtitleText.isBlank()) {
+                    sink.accept(subtitleText);
+                }
+            };
+        } else {
+            source = sink -> ocrService.extractStreaming(file.getStorageUrl(), sink);
+        }
 
-        NotebookFile loadedFile = fileRepository.findById(fileId)
-                .orElseThrow(() -> new RuntimeException("File không tồn tại: " + fileId));
+        int chunkSize = file.getChunkSize() != null ? file.getChunkSize() : 2000;
+        int chunkOverlap = file.getChunkOverlap() != null ? file.getChunkOverlap() : 200;
+
+        transactionTemplate.executeWithoutResult(status -> {
+            jobQueue.heartbeat(job, workerId);
+            ingestionChunkRepository.deleteByFileId(fileId);
+        });
+
+        ChunkStager stager = new ChunkStager(job, workerId, lease, fileId);
+        TextChunker chunker = chunkingService.newChunker(chunkSize, chunkOverlap, stager::accept);
+        source.streamTo(text -> {
+            lease.ensureHeld();
+            chunker.accept(text);
+        });
+        chunker.finish();
+        stager.flush();
+
+        if (!stager.hasContent) {
+            if (job.sourceUrl() != null) {
+                // Video không có phụ đề: không có gì để embedding
+                System.out.println("⚠️ Subtitle trống, bỏ qua embedding.");
+                transactionTemplate.executeWithoutResult(status -> {
+                    jobQueue.heartbeat(job, workerId);
+                    ingestionChunkRepository.deleteByFileId(fileId);
+                    updateFileStatus(fileId, "done", null, true);
+                    jobQueue.complete(job, workerId);
+                });
+                return;
+            }
+            throw new IngestionAbortException("OCR không đọc được nội dung.");
+        }
 
-        loadedFile.setStatus("processing");
-        fileRepository.save(loadedFile);
+        System.out.println("✅ OCR/chunk hoàn thành: " + stager.count + " chunks");
+        transactionTemplate.executeWithoutResult(status -> {
+            updateFileStatus(fileId, null, true, null);
+            jobQueue.advance(job, workerId, IngestionStage.EMBED, stager.count);
+        });
+    }
 
-        try {
-            // 1. Trích xuất phụ đề (async - không block API)
-            System.out.println("📥 Đang trích xuất phụ đề từ: " + youtubeUrl);
-            YoutubeSubtitleService.SubtitleResult subtitleResult = youtubeSubtitleService
-                    .extractSubtitleWithTimestamps(youtubeUrl);
-            String subtitleText = subtitleResult.fullText();
+    /**
+     * Nguồn text đẩy dần từng đoạn vào sink (OCR streaming, phụ đề, ...).
+     */
+    @FunctionalInterface
+    private interface TextSource {
+        void streamTo(Consumer<String> sink) throws Exception;
+    }
 
-            if (subtitleText == null || subtitleText.isBlank()) {
-                System.out.println("⚠️ Subtitle trống, bỏ qua embedding.");
-                loadedFile.setEmbeddingDone(true);
-                loadedFile.setStatus("done");
-            } else {
-                System.out.println("📝 Subtitle extracted, length: " + subtitleText.length());
-                // 2. Chunk + Embedding
-                processChunksAndEmbeddings(loadedFile, subtitleText);
-                loadedFile.setEmbeddingDone(true);
-                loadedFile.setStatus("done");
+    /**
+     * Ghi chunk vào ingestion_chunks theo lô; dừng nếu job đã bị hủy / thu hồi.
+     * Mỗi lô được ghi cùng transaction với heartbeat trên DB: job bị hủy (vd
+     * enqueue lại file) thì lô bị rollback, không đè lên chunk của job EXTRACT
+     * mới.
+     */
+    private class ChunkStager {
+        private final IngestionJob job;
+        private final String workerId;
+        private final IngestionLease lease;
+        private final UUID fileId;
+        private final List<PendingChunk> pending = new ArrayList<>(INSERT_BATCH_SIZE);
+        private int count = 0;
+        private boolean hasContent = false;
+
+        ChunkStager(IngestionJob job, String workerId, IngestionLease lease, UUID fileId) {
+            this.job = job;
+            this.workerId = workerId;
+            this.lease = lease;
+            this.fileId = fileId;
+        }
+
+        void accept(TextChunk chunk) {
+            if (chunk.content().isBlank()) {
+                return;
+            }
+            hasContent = true;
+            pending.add(new PendingChunk(count++, chunk.content(), buildMetadata(chunk)));
+            if (pending.size() >= INSERT_BATCH_SIZE) {
+                lease.ensureHeld();
+                flush();
             }
+        }
 
-        } catch (Exception e) {
-            loadedFile.setStatus("failed");
-            System.err.println("LỖI YOUTUBE PROCESS: " + e.getMessage());
-            e.printStackTrace();
-        } finally {
-            loadedFile.setUpdatedAt(OffsetDateTime.now());
-            fileRepository.save(loadedFile);
-            System.out.println("=== END YOUTUBE PROCESSING: " + fileId + " | status=" + loadedFile.getStatus());
+        void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            transactionTemplate.executeWithoutResult(status -> {
+                jobQueue.heartbeat(job, workerId);
+                ingestionChunkRepository.batchInsert(fileId, pending);
+            });
+            pending.clear();
         }
     }
 
     /**
-     * Logic chung: chunk text → embedding → lưu FileChunk.
+     * Vị trí chunk trong văn bản gốc (offset ký tự) + ước lượng token, dùng để
+     * trích dẫn và debug chunking.
      */
-    private void processChunksAndEmbeddings(NotebookFile loadedFile, String text) {
-        UUID fileId = loadedFile.getId();
-        int chunkSize = loadedFile.getChunkSize() != null ? loadedFile.getChunkSize() : 2000;
-        int chunkOverlap = loadedFile.getChunkOverlap() != null ? loadedFile.getChunkOverlap() : 200;
+    private Map<String, Object> buildMetadata(TextChunk chunk) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("strategy", chunkingService.strategyName());
+        metadata.put("start_offset", chunk.startOffset());
+        metadata.put("end_offset", chunk.endOffset());
+        metadata.put("token_estimate", chunk.estimatedTokens());
+        if (chunk.heading() != null) {
+            metadata.put("heading", chunk.heading());
+        }
+        return metadata;
+    }
 
-        List<String> chunks = splitTextIntoChunks(text, chunkSize, chunkOverlap);
-        System.out.println("📦 Số lượng chunks: " + chunks.size());
+    // =========================
+    // STAGE EMBED
+    // =========================
 
-        fileChunkRepository.deleteByFileId(fileId);
+    /**
+     * Embedding theo cửa sổ embedWindow chunk. Mỗi cửa sổ được insert vào
+     * file_chunks cùng transaction với việc lưu last_chunk_index, nên khi retry chỉ
+     * làm tiếp phần chưa lưu.
+     */
+    private void runEmbedStage(IngestionJob job, String workerId, IngestionLease lease, NotebookFile file) {
+        UUID fileId = file.getId();
+        Notebook notebook = file.getNotebook();
+        int lastIndex = job.lastChunkIndex();
 
-        Notebook notebook = loadedFile.getNotebook();
-        int index = 0;
+        if (lastIndex >= 0) {
+            System.out.println("↩️ Tiếp tục embedding từ chunk " + (lastIndex + 2));
+        }
+        // Dọn phần ghi dở (nếu có) sau chunk cuối đã lưu; lần đầu xóa toàn bộ chunk cũ
+        int fromIndex = lastIndex;
+        transactionTemplate.executeWithoutResult(status -> {
+            jobQueue.heartbeat(job, workerId);
+            fileChunkBatchRepository.deleteByFileIdAfterIndex(fileId, fromIndex);
+        });
+        eventPublisher.publishEvent(new FileChunksChangedEvent(notebook.getId(), fileId));
+
+        while (true) {
+            lease.ensureHeld();
+            List<PendingChunk> window = ingestionChunkRepository.findAfter(fileId, lastIndex, embedWindow);
+            if (window.isEmpty()) {
+                break;
+            }
 
-        for (String chunk : chunks) {
-            System.out.println("🔄 Embedding chunk " + (index + 1) + "/" + chunks.size() + "...");
-            try {
-                List<Double> vector = embeddingService.embedGoogleNormalized(chunk);
+            int first = window.get(0).chunkIndex();
+            int last = window.get(window.size() - 1).chunkIndex();
+            System.out.println("🔄 Embedding chunks " + (first + 1) + "-" + (last + 1) + " (batch)...");
 
-                if (vector == null || vector.isEmpty() || vector.size() != 1536) {
-                    String errorMsg = vector == null ? "null" : String.valueOf(vector.size());
+            List<String> texts = new ArrayList<>(window.size());
+            for (PendingChunk chunk : window) {
+                texts.add(chunk.content());
+            }
+            List<float[]> vectors = embeddingService.embedGoogleNormalizedBatch(texts);
+
+            List<FileChunk> rows = new ArrayList<>(window.size());
+            for (int i = 0; i < window.size(); i++) {
+                PendingChunk chunk = window.get(i);
+                float[] vector = vectors.get(i);
+                if (vector == null || vector.length != 1536) {
+                    String errorMsg = vector == null ? "null" : String.valueOf(vector.length);
+                    System.err.println("❌ LỖI Ở CHUNK " + (chunk.chunkIndex() + 1) + ": Embedding invalid: size="
+                            + errorMsg);
                     throw new RuntimeException("Embedding invalid: size=" + errorMsg);
                 }
 
-                FileChunk fc = FileChunk.builder()
+                rows.add(FileChunk.builder()
                         .notebook(notebook)
-                        .file(loadedFile)
-                        .chunkIndex(index++)
-                        .content(chunk)
+                        .file(file)
+                        .chunkIndex(chunk.chunkIndex())
+                        .content(chunk.content())
                         .embedding(vector)
+                        .metadata(chunk.metadata())
                         .createdAt(OffsetDateTime.now())
-                        .build();
-
-                fileChunkRepository.save(fc);
-                System.out.println("✅ Đã lưu chunk " + index);
-            } catch (Exception e) {
-                System.err.println("❌ LỖI Ở CHUNK " + (index + 1) + ": " + e.getMessage());
-                throw e;
+                        .build());
             }
-        }
-    }
-
-    // Hàm chunk text
-    private List<String> splitTextIntoChunks(String text, int size, int overlap) {
-        java.util.ArrayList<String> list = new java.util.ArrayList<>();
 
-        int start = 0;
-        while (start < text.length()) {
-            int end = Math.min(start + size, text.length());
-            list.add(text.substring(start, end));
-            start += size - overlap;
+            transactionTemplate.executeWithoutResult(status -> {
+                for (int start = 0; start < rows.size(); start += INSERT_BATCH_SIZE) {
+                    fileChunkBatchRepository.batchInsert(rows.subList(start,
+                            Math.min(start + INSERT_BATCH_SIZE, rows.size())));
+                }
+                jobQueue.saveProgress(job, workerId, last);
+            });
+            lastIndex = last;
         }
 
-        return list;
+        transactionTemplate.executeWithoutResult(status -> {
+            jobQueue.heartbeat(job, workerId);
+            ingestionChunkRepository.deleteByFileId(fileId);
+            updateFileStatus(fileId, "done", null, true);
+            jobQueue.complete(job, workerId);
+        });
+        // Kết quả RAG tính trong lúc đang embedding (thiếu chunk) không được dùng tiếp
+        eventPublisher.publishEvent(new FileChunksChangedEvent(notebook.getId(), fileId));
+        System.out.println("✅ Đã lưu " + (lastIndex + 1) + " chunks | status=done");
+    }
+
+    /**
+     * Cập nhật trạng thái file (tham số null = giữ nguyên).
+     */
+    private void updateFileStatus(UUID fileId, String status, Boolean ocrDone, Boolean embeddingDone) {
+        fileRepository.findById(fileId).ifPresent(file -> {
+            if (status != null) {
+                file.setStatus(status);
+            }
+            if (ocrDone != null) {
+                file.setOcrDone(ocrDone);
+            }
+            if (embeddingDone != null) {
+                file.setEmbeddingDone(embeddingDone);
+            }
+            file.setUpdatedAt(OffsetDateTime.now());
+            fileRepository.save(file);
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.springboot_api.dto.shared.ai.FileSummaryCacheStats;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cache tóm tắt từng file (bảng public.file_summary_cache), khóa theo file id +
+ * hash nội dung đưa vào tóm tắt + model. DocumentSummarizationService đọc / ghi
+ * và xóa theo file khi chunk của file thay đổi.
+ * Lỗi ở tầng DB chỉ log warning, không làm hỏng luồng tóm tắt.
+ */
+@Service
+@Slf4j
+public class FileSummaryCacheService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate cacheTx;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder warmUps = new LongAdder();
+
+    public FileSummaryCacheService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+
+        // Transaction riêng: lỗi cache không được làm abort transaction của job gọi
+        this.cacheTx = new TransactionTemplate(transactionManager);
+        this.cacheTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public Optional<String> get(UUID fileId, String contentHash, String model) {
+        List<String> found = List.of();
+        try {
+            found = cacheTx.execute(status -> jdbcTemplate.queryForList(
+                    "UPDATE public.file_summary_cache SET last_used_at = now() "
+                            + "WHERE file_id = ? AND content_hash = ? AND model = ? RETURNING summary",
+                    String.class, fileId, contentHash, model));
+        } catch (Exception e) {
+            log.warn("⚠️ Không đọc được file summary cache từ DB: {}", e.getMessage());
+        }
+        if (found == null || found.isEmpty()) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(found.get(0));
+    }
+
+    public void put(UUID fileId, String contentHash, String model, String summary) {
+        if (summary == null || summary.isBlank()) {
+            return;
+        }
+        try {
+            cacheTx.executeWithoutResult(status -> jdbcTemplate.update(
+                    "INSERT INTO public.file_summary_cache (file_id, content_hash, model, summary) "
+                            + "VALUES (?, ?, ?, ?) "
+                            + "ON CONFLICT (file_id, content_hash, model) "
+                            + "DO UPDATE SET summary = EXCLUDED.summary, last_used_at = now()",
+                    fileId, contentHash, model, summary));
+            writes.increment();
+        } catch (Exception e) {
+            // Vd: file vừa bị xóa (vi phạm FK) – bỏ qua
+            log.warn("⚠️ Không ghi được file summary cache vào DB: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Xóa mọi tóm tắt của file (file được xử lý lại / bị xóa).
+     */
+    public void invalidateFile(UUID fileId) {
+        if (fileId == null) {
+            return;
+        }
+        try {
+            cacheTx.executeWithoutResult(status -> jdbcTemplate.update(
+                    "DELETE FROM public.file_summary_cache WHERE file_id = ?", fileId));
+            invalidations.increment();
+        } catch (Exception e) {
+            log.warn("⚠️ Không xóa được file summary cache của file {}: {}", fileId, e.getMessage());
+        }
+    }
+
+    void recordWarmUp() {
+        warmUps.increment();
+    }
+
+    public FileSummaryCacheStats getStats() {
+        long hit = hits.sum();
+        long miss = misses.sum();
+        long total = hit + miss;
+        return new FileSummaryCacheStats(hit, miss, total == 0 ? 0.0 : (double) hit / total, writes.sum(),
+                invalidations.sum(), warmUps.sum());
+    }
+
+    /**
+     * SHA-256 hex của text đưa vào tóm tắt.
+     */
+    static String contentHash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 không khả dụng", e);
+        }
+    }
+}
@@ -25,7 +25,6 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -33,13 +32,12 @@ import lombok.extern.slf4j.Slf4j;
  * Bao gồm: single-speaker TTS, multi-speaker TTS, convert PCM to WAV.
  */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class GeminiTtsService {
 
     private final TtsAssetRepository ttsAssetRepository;
     private final ObjectMapper objectMapper;
-    private final WebClient.Builder webClientBuilder;
+    private final WebClient client;
 
     @Value("${google.api.gemini_key:}")
     private String geminiApiKeyConfig;
@@ -49,6 +47,17 @@ public class GeminiTtsService {
 
     private static final String TTS_API_URL = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash-preview-tts:generateContent";
 
+    public GeminiTtsService(TtsAssetRepository ttsAssetRepository, ObjectMapper objectMapper,
+            WebClient.Builder webClientBuilder) {
+        this.ttsAssetRepository = ttsAssetRepository;
+        this.objectMapper = objectMapper;
+        // Một client cho mọi lời gọi TTS (audio base64 lớn), dùng chung connection
+        // pool của AiHttpClientConfig
+        this.client = webClientBuilder
+                .codecs(c -> c.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+                .build();
+    }
+
     /**
      * Gọi Gemini TTS API để tạo audio (single speaker).
      * 
@@ -60,10 +69,6 @@ public class GeminiTtsService {
         String apiKey = getApiKey();
         String voiceName = (voice != null && !voice.isBlank()) ? voice : "Aoede";
 
-        WebClient client = webClientBuilder
-                .codecs(c -> c.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
-                .build();
-
         String resp = client.post()
                 .uri(TTS_API_URL)
                 .header("x-goog-api-key", apiKey)
@@ -104,10 +109,6 @@ public class GeminiTtsService {
     public double generateVideoTts(String text, Path outputPath) throws Exception {
         String apiKey = getApiKey();
 
-        WebClient client = webClientBuilder
-                .codecs(c -> c.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
-                .build();
-
         String resp = client.post()
                 .uri(TTS_API_URL)
                 .header("x-goog-api-key", apiKey)
@@ -172,10 +173,6 @@ public class GeminiTtsService {
         String conversationPrompt = "TTS the following conversation between Host and Expert:\n" + script;
 
         try {
-            WebClient client = webClientBuilder
-                    .codecs(cfg -> cfg.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
-                    .build();
-
             // Multi-speaker config
             Map<String, Object> hostConfig = Map.of(
                     "speaker", "Host",
@@ -0,0 +1,168 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Trích giá trị một field string trong JSON khi JSON còn đang được stream về.
+ *
+ * LLM được yêu cầu trả về {"answer": "...", "sources": [...]}; extractor nhận
+ * từng đoạn text thô của model, tìm "answer": " rồi giải mã escape (\n, \",
+ * \\uXXXX, ...) và đẩy phần text đã giải mã ra sink ngay, không chờ JSON đóng.
+ *
+ * Nếu model không trả JSON (ký tự đầu tiên không phải { hoặc `) thì toàn bộ
+ * text được coi là câu trả lời và đẩy thẳng ra sink.
+ *
+ * Không thread-safe: một instance cho một response.
+ */
+public class JsonFieldStreamExtractor {
+
+    private enum State {
+        DETECT, SEEK, VALUE, DONE, PLAIN
+    }
+
+    // Tiền tố JSON tối đa giữ lại khi chưa thấy field (đủ cho vài field đứng trước)
+    private static final int MAX_SEEK_CHARS = 16_384;
+
+    private final Pattern fieldStart;
+    private final Consumer<String> sink;
+
+    private State state = State.DETECT;
+    private final StringBuilder seekBuffer = new StringBuilder();
+    private final StringBuilder unicode = new StringBuilder();
+    private boolean escape = false;
+    private boolean inUnicode = false;
+    private char pendingHighSurrogate = 0;
+
+    public JsonFieldStreamExtractor(String fieldName, Consumer<String> sink) {
+        this.fieldStart = Pattern.compile("\"" + Pattern.quote(fieldName) + "\"\\s*:\\s*\"");
+        this.sink = sink;
+    }
+
+    public void accept(String chunk) {
+        if (chunk == null || chunk.isEmpty()) {
+            return;
+        }
+
+        switch (state) {
+            case DETECT -> detect(chunk);
+            case SEEK -> seek(chunk);
+            case VALUE -> decode(chunk, 0);
+            case PLAIN -> sink.accept(chunk);
+            case DONE -> {
+                // Phần còn lại của JSON (sources, ...) không stream
+            }
+        }
+    }
+
+    /**
+     * true khi đã gặp dấu " đóng giá trị field.
+     */
+    public boolean isComplete() {
+        return state == State.DONE;
+    }
+
+    private void detect(String chunk) {
+        seekBuffer.append(chunk);
+        String head = seekBuffer.toString().stripLeading();
+        if (head.isEmpty()) {
+            return;
+        }
+
+        char first = head.charAt(0);
+        if (first == '{' || first == '`') {
+            state = State.SEEK;
+            String buffered = seekBuffer.toString();
+            seekBuffer.setLength(0);
+            seek(buffered);
+        } else {
+            state = State.PLAIN;
+            seekBuffer.setLength(0);
+            sink.accept(head);
+        }
+    }
+
+    private void seek(String chunk) {
+        seekBuffer.append(chunk);
+        Matcher m = fieldStart.matcher(seekBuffer);
+        if (m.find()) {
+            String rest = seekBuffer.substring(m.end());
+            seekBuffer.setLength(0);
+            state = State.VALUE;
+            decode(rest, 0);
+        } else if (seekBuffer.length() > MAX_SEEK_CHARS) {
+            // Không tìm thấy field: bỏ stream, câu trả lời cuối cùng vẫn có sau khi parse
+            seekBuffer.setLength(0);
+            state = State.DONE;
+        }
+    }
+
+    private void decode(String chunk, int from) {
+        StringBuilder out = new StringBuilder(chunk.length());
+        for (int i = from; i < chunk.length(); i++) {
+            char c = chunk.charAt(i);
+
+            if (inUnicode) {
+                unicode.append(c);
+                if (unicode.length() == 4) {
+                    inUnicode = false;
+                    try {
+                        append(out, (char) Integer.parseInt(unicode.toString(), 16));
+                    } catch (NumberFormatException e) {
+                        // \\u không hợp lệ: bỏ qua
+                    }
+                    unicode.setLength(0);
+                }
+                continue;
+            }
+
+            if (escape) {
+                escape = false;
+                switch (c) {
+                    case 'n' -> append(out, '\n');
+                    case 't' -> append(out, '\t');
+                    case 'r' -> append(out, '\r');
+                    case 'b' -> append(out, '\b');
+                    case 'f' -> append(out, '\f');
+                    case 'u' -> inUnicode = true;
+                    default -> append(out, c); // \" \\ \/
+                }
+                continue;
+            }
+
+            if (c == '\\') {
+                escape = true;
+            } else if (c == '"') {
+                state = State.DONE;
+                break;
+            } else {
+                append(out, c);
+            }
+        }
+
+        if (state == State.DONE && pendingHighSurrogate != 0) {
+            out.append(pendingHighSurrogate);
+            pendingHighSurrogate = 0;
+        }
+        if (out.length() > 0) {
+            sink.accept(out.toString());
+        }
+    }
+
+    /**
+     * Giữ lại high surrogate cho tới khi có low surrogate, để không đẩy ra nửa
+     * ký tự (emoji) ở ranh giới hai lần gửi.
+     */
+    private void append(StringBuilder out, char c) {
+        if (pendingHighSurrogate != 0) {
+            out.append(pendingHighSurrogate);
+            pendingHighSurrogate = 0;
+        }
+        if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else {
+            out.append(c);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Aho-Corasick trên text đã qua MessageClassifierService.normalizeText (chỉ
+ * còn a-z 0-9 space ? !). Mọi nhóm keyword được dựng thành một automaton, quét
+ * text một lần là biết nhóm nào có mặt, thay cho từng regex / vòng lặp
+ * matchKeyword.
+ *
+ * Mỗi keyword thuộc một nhóm C. wholeWord = true thì chỉ tính khi hai đầu
+ * không dính ký tự \w, giống "(?&lt;!\w)kw(?!\w)"; riêng keyword chỉ toàn ? ! /
+ * space luôn khớp chuỗi con ("ok?" chứa "?"), như matchKeyword cũ. Keyword có
+ * ký tự ngoài bảng chữ không bao giờ khớp text đã chuẩn hóa nên bị bỏ qua khi
+ * dựng.
+ */
+final class KeywordAutomaton<C extends Enum<C>> {
+
+    // a-z, 0-9, ' ', '?', '!'
+    private static final int ALPHABET = 39;
+
+    private final Class<C> type;
+    private final C[] categories;
+    // Bảng chuyển DFA đầy đủ (đã gộp fail link): next[state][symbol]
+    private final int[][] next;
+    // Keyword kết thúc tại state (gồm cả theo fail link): ordinal << 32 | length << 1 | wholeWord
+    private final long[][] outputs;
+
+    private KeywordAutomaton(Class<C> type, int[][] next, long[][] outputs) {
+        this.type = type;
+        this.categories = type.getEnumConstants();
+        this.next = next;
+        this.outputs = outputs;
+    }
+
+    static <C extends Enum<C>> Builder<C> builder(Class<C> type) {
+        return new Builder<>(type);
+    }
+
+    /**
+     * Các nhóm có ít nhất một keyword xuất hiện trong text.
+     */
+    EnumSet<C> scan(String text) {
+        EnumSet<C> found = EnumSet.noneOf(type);
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int symbol = symbol(text.charAt(i));
+            if (symbol < 0) {
+                state = 0;
+                continue;
+            }
+            state = next[state][symbol];
+            for (long output : outputs[state]) {
+                C category = categories[(int) (output >>> 32)];
+                if (found.contains(category)) {
+                    continue;
+                }
+                int length = (int) ((output & 0xFFFFFFFFL) >>> 1);
+                boolean wholeWord = (output & 1) != 0;
+                if (wholeWord && (isWordChar(text, i - length) || isWordChar(text, i + 1))) {
+                    continue;
+                }
+                found.add(category);
+            }
+        }
+        return found;
+    }
+
+    private static boolean isWordChar(String text, int index) {
+        if (index < 0 || index >= text.length()) {
+            return false;
+        }
+        char c = text.charAt(index);
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static int symbol(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        }
+        if (c >= '0' && c <= '9') {
+            return 26 + (c - '0');
+        }
+        return switch (c) {
+            case ' ' -> 36;
+            case '?' -> 37;
+            case '!' -> 38;
+            default -> -1;
+        };
+    }
+
+    static final class Builder<C extends Enum<C>> {
+
+        private final Class<C> type;
+        private final List<int[]> children = new ArrayList<>();
+        private final List<List<Long>> own = new ArrayList<>();
+
+        private Builder(Class<C> type) {
+            this.type = type;
+            newNode();
+        }
+
+        Builder<C> add(C category, boolean wholeWord, Collection<String> keywords) {
+            for (String keyword : keywords) {
+                add(category, wholeWord, keyword.trim());
+            }
+            return this;
+        }
+
+        private void add(C category, boolean wholeWord, String keyword) {
+            if (keyword.isEmpty() || keyword.chars().anyMatch(c -> symbol((char) c) < 0)) {
+                return;
+            }
+            // Keyword không có ký tự \w (vd "?", "!!"): không kiểm tra biên từ
+            boolean boundary = wholeWord && keyword.chars().anyMatch(c -> c != ' ' && c != '?' && c != '!');
+            int node = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                int symbol = symbol(keyword.charAt(i));
+                if (children.get(node)[symbol] == 0) {
+                    children.get(node)[symbol] = newNode();
+                }
+                node = children.get(node)[symbol];
+            }
+            own.get(node).add(((long) category.ordinal() << 32) | ((long) keyword.length() << 1) | (boundary ? 1 : 0));
+        }
+
+        private int newNode() {
+            children.add(new int[ALPHABET]);
+            own.add(new ArrayList<>());
+            return children.size() - 1;
+        }
+
+        KeywordAutomaton<C> build() {
+            int size = children.size();
+            int[][] next = new int[size][];
+            long[][] outputs = new long[size][];
+            int[] fail = new int[size];
+
+            // BFS: fail và output của node cha luôn có trước node con
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            next[0] = children.get(0).clone();
+            outputs[0] = toArray(own.get(0), new long[0]);
+            for (int symbol = 0; symbol < ALPHABET; symbol++) {
+                if (next[0][symbol] != 0) {
+                    queue.add(next[0][symbol]);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                outputs[node] = toArray(own.get(node), outputs[fail[node]]);
+                next[node] = new int[ALPHABET];
+                for (int symbol = 0; symbol < ALPHABET; symbol++) {
+                    int child = children.get(node)[symbol];
+                    if (child != 0) {
+                        fail[child] = next[fail[node]][symbol];
+                        next[node][symbol] = child;
+                        queue.add(child);
+                    } else {
+                        next[node][symbol] = next[fail[node]][symbol];
+                    }
+                }
+            }
+            return new KeywordAutomaton<>(type, next, outputs);
+        }
+
+        private static long[] toArray(List<Long> own, long[] inherited) {
+            long[] merged = Arrays.copyOf(inherited, inherited.length + own.size());
+            for (int i = 0; i < own.size(); i++) {
+                merged[inherited.length + i] = own.get(i);
+            }
+            return merged;
+        }
+    }
+}
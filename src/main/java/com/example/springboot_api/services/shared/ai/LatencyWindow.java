@@ -0,0 +1,62 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cửa sổ trượt capacity mẫu độ trễ gần nhất (ms) để tính percentile. Percentile
+ * được tính khi đọc (sort bản sao), ghi chỉ là một phép gán vào ring buffer.
+ */
+final class LatencyWindow {
+
+    private final long[] samples;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int next;
+    private int size;
+
+    LatencyWindow(int capacity) {
+        this.samples = new long[Math.max(1, capacity)];
+    }
+
+    void record(long millis) {
+        lock.lock();
+        try {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            if (size < samples.length) {
+                size++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return -1 nếu chưa có mẫu
+     */
+    long percentile(double percentile) {
+        long[] copy;
+        lock.lock();
+        try {
+            if (size == 0) {
+                return -1;
+            }
+            copy = Arrays.copyOf(samples, size);
+        } finally {
+            lock.unlock();
+        }
+        Arrays.sort(copy);
+        int index = (int) Math.ceil(percentile / 100.0 * copy.length) - 1;
+        return copy[Math.max(0, Math.min(copy.length - 1, index))];
+    }
+}
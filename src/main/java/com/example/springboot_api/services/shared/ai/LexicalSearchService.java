@@ -0,0 +1,232 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.example.springboot_api.config.AsyncConfig;
+import com.example.springboot_api.models.types.PgVector;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tìm chunk theo từ khóa (Postgres full-text search trên
+ * file_chunks.content_tsv, xem scripts/add_file_chunks_fts.sql), chạy song song
+ * với truy vấn vector của RAG.
+ *
+ * Câu hỏi được chuẩn hóa bằng MessageClassifierService.normalizeText (cùng quy
+ * tắc với vn_normalize phía Postgres), bỏ stop word rồi dựng tsquery OR các từ.
+ * Lỗi / quá thời gian thì trả danh sách rỗng: RAG chỉ còn kết quả vector như
+ * trước.
+ */
+@Service
+@Slf4j
+public class LexicalSearchService {
+
+    // Từ hỏi / hư từ phổ biến (đã bỏ dấu): khớp gần như mọi chunk nên chỉ làm nhiễu.
+    // Không bỏ các từ trùng với từ có nghĩa sau khi bỏ dấu (de: để / đề, dang: đang / đăng, ban: bạn / bản)
+    private static final Set<String> STOP_WORDS = Set.of(
+            // VN
+            "la", "cua", "va", "cac", "nhung", "cho", "voi", "co", "khong", "ko", "gi", "nao", "the", "thi", "ma",
+            "duoc", "trong", "ve", "nay", "do", "mot", "bao", "nhieu", "sao", "hay", "hoac", "nhu", "tai", "vi",
+            "se", "phai", "minh", "toi", "em", "oi", "nhe", "vay",
+            // EN
+            "an", "is", "are", "what", "how", "of", "to", "in", "for", "and", "or", "on", "with", "does");
+
+    private static final int MAX_TERMS = 24;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MessageClassifierService messageClassifierService;
+    private final Executor executor;
+
+    @Value("${ai.rag.hybrid.enabled:true}")
+    private boolean enabled;
+
+    // Mỗi nhánh (vector, từ khóa) lấy limit * factor ứng viên trước khi gộp
+    @Value("${ai.rag.hybrid.candidate-factor:3}")
+    private int candidateFactor;
+
+    @Value("${ai.rag.hybrid.timeout-ms:1500}")
+    private long timeoutMs;
+
+    // false khi chưa chạy add_file_chunks_fts.sql (thiếu cột / hàm); bật lại khi restart
+    private volatile boolean available = true;
+
+    public LexicalSearchService(JdbcTemplate jdbcTemplate, MessageClassifierService messageClassifierService,
+            @Qualifier(AsyncConfig.LEXICAL_SEARCH_EXECUTOR) Executor executor) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.messageClassifierService = messageClassifierService;
+        this.executor = executor;
+    }
+
+    /**
+     * Chunk khớp từ khóa, kèm embedding để tính cosine similarity cho chunk không
+     * có trong kết quả vector.
+     */
+    public record LexicalHit(UUID fileId, int chunkIndex, String content, float rank, float[] embedding) {
+
+        public double similarityTo(float[] query) {
+            if (embedding == null || embedding.length != query.length) {
+                return 0;
+            }
+            double dot = 0;
+            double normA = 0;
+            double normB = 0;
+            for (int i = 0; i < query.length; i++) {
+                dot += embedding[i] * query[i];
+                normA += embedding[i] * embedding[i];
+                normB += query[i] * query[i];
+            }
+            return normA == 0 || normB == 0 ? 0 : dot / Math.sqrt(normA * normB);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled && available;
+    }
+
+    /**
+     * Số ứng viên mỗi nhánh cần lấy để gộp ra limit kết quả.
+     */
+    public int candidateLimit(int limit) {
+        return isEnabled() ? limit * Math.max(1, candidateFactor) : limit;
+    }
+
+    /**
+     * Bắt đầu tìm theo từ khóa trên lexicalSearchExecutor; lấy kết quả bằng await.
+     */
+    public CompletableFuture<List<LexicalHit>> searchAsync(UUID notebookId, String queryText, List<UUID> fileIds,
+            int limit) {
+        if (!isEnabled()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        String tsQuery = buildTsQuery(queryText);
+        if (tsQuery.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        return CompletableFuture.supplyAsync(() -> search(notebookId, tsQuery, fileIds, limit), executor);
+    }
+
+    /**
+     * Chờ kết quả tối đa ai.rag.hybrid.timeout-ms (tính từ lúc gọi await, thường
+     * là sau khi vector search xong). Lỗi / quá hạn → danh sách rỗng.
+     */
+    public List<LexicalHit> await(CompletableFuture<List<LexicalHit>> future) {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            log.warn("⏱️ [LEXICAL] Tìm từ khóa quá {}ms, chỉ dùng kết quả vector", timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("⚠️ [LEXICAL] Tìm từ khóa lỗi: {}", e.getCause().getMessage());
+        }
+        return List.of();
+    }
+
+    /**
+     * Từ khóa của câu hỏi sau khi chuẩn hóa và bỏ stop word, theo thứ tự xuất
+     * hiện. phrases là các cặp "chữ số" đi liền (điều 12, chương 3), dạng
+     * "dieu 12".
+     */
+    public record QueryTerms(List<String> terms, List<String> phrases) {
+
+        public boolean isEmpty() {
+            return terms.isEmpty();
+        }
+    }
+
+    public QueryTerms queryTerms(String queryText) {
+        String normalized = messageClassifierService.normalizeText(queryText);
+        Set<String> terms = new LinkedHashSet<>();
+        Set<String> phrases = new LinkedHashSet<>();
+        // normalizeText giữ ? và !, tsquery chỉ nhận a-z 0-9
+        String[] tokens = normalized.isEmpty() ? new String[0] : normalized.split("[^a-z0-9]+");
+
+        for (int i = 0; i < tokens.length && terms.size() < MAX_TERMS; i++) {
+            String token = tokens[i];
+            if (token.isEmpty()) {
+                continue;
+            }
+            boolean numeric = isNumeric(token);
+            if (!numeric && (token.length() < 2 || STOP_WORDS.contains(token))) {
+                continue;
+            }
+            terms.add(token);
+            if (numeric && i > 0 && !tokens[i - 1].isEmpty() && !isNumeric(tokens[i - 1])) {
+                phrases.add(tokens[i - 1] + " " + token);
+            }
+        }
+        return new QueryTerms(List.copyOf(terms), List.copyOf(phrases));
+    }
+
+    /**
+     * Dựng tsquery (từ điển simple) từ câu hỏi: các từ OR với nhau; cụm "chữ số"
+     * thêm dạng a &lt;-&gt; b để chunk chứa đúng cụm xếp trên chunk chỉ chứa số
+     * đó. Trả "" nếu không còn từ nào.
+     */
+    public String buildTsQuery(String queryText) {
+        QueryTerms query = queryTerms(queryText);
+        List<String> parts = new ArrayList<>(query.terms());
+        for (String phrase : query.phrases()) {
+            parts.add("(" + phrase.replace(" ", " <-> ") + ")");
+        }
+        return String.join(" | ", parts);
+    }
+
+    private List<LexicalHit> search(UUID notebookId, String tsQuery, List<UUID> fileIds, int limit) {
+        long start = System.currentTimeMillis();
+        try {
+            List<LexicalHit> hits = jdbcTemplate.query(con -> {
+                PgVector.registerType(con);
+                Array fileIdArray = con.createArrayOf("uuid", fileIds.toArray());
+                PreparedStatement ps = con.prepareStatement(
+                        "SELECT file_id, chunk_index, content, rank, embedding "
+                                + "FROM public.rag_search_chunks_lexical(?, ?, ?, ?)");
+                ps.setObject(1, notebookId);
+                ps.setString(2, tsQuery);
+                ps.setArray(3, fileIdArray);
+                ps.setInt(4, limit);
+                return ps;
+            }, (rs, rowNum) -> new LexicalHit(
+                    (UUID) rs.getObject("file_id"),
+                    rs.getInt("chunk_index"),
+                    rs.getString("content"),
+                    rs.getFloat("rank"),
+                    PgVector.toArray(rs.getObject("embedding"))));
+            log.debug("🔤 [LEXICAL] '{}' → {} chunk trong {}ms", tsQuery, hits.size(),
+                    System.currentTimeMillis() - start);
+            return hits;
+        } catch (BadSqlGrammarException e) {
+            available = false;
+            log.warn("⚠️ [LEXICAL] Chưa có rag_search_chunks_lexical / content_tsv "
+                    + "(scripts/add_file_chunks_fts.sql), tắt tìm từ khóa: {}", e.getMessage());
+            return List.of();
+        }
+    }
+
+    private static boolean isNumeric(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) {
+                return false;
+            }
+        }
+        return !token.isEmpty();
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
+
+/**
+ * Single-flight cho lời gọi LLM không stream: nhiều request cùng key (provider
+ * + model + prompt) đến khi lời gọi đầu tiên chưa xong thì chờ và dùng chung
+ * kết quả, không gửi thêm request / không tốn thêm quota.
+ *
+ * Chỉ gộp các lời gọi đang chạy đồng thời, không cache kết quả đã xong.
+ *
+ * - Lời gọi interactive và job nền không gộp với nhau (LlmTenantContext), để
+ * câu hỏi chat không phải chờ theo max-wait-ms của job nền.
+ * - Caller chờ dùng chung có thể bị interrupt và chỉ chờ tới hạn của chính nó:
+ * thời gian chờ quota theo độ ưu tiên + ai.http.response-timeout-ms, quá hạn
+ * thì trả 429 như LlmRequestScheduler.
+ * - Lời gọi đầu bị hủy (vd thua hedge ở LlmRouter) thì các caller đang chờ
+ * không nhận lỗi đó mà tự gọi lại.
+ */
+@Service
+public class LlmCallCoalescer {
+
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+    private final long maxWaitMs;
+    private final long interactiveMaxWaitMs;
+    private final long callTimeoutMs;
+
+    public LlmCallCoalescer(
+            @Value("${ai.llm.rate.max-wait-ms:180000}") long maxWaitMs,
+            @Value("${ai.llm.rate.interactive-max-wait-ms:10000}") long interactiveMaxWaitMs,
+            @Value("${ai.http.response-timeout-ms:300000}") long callTimeoutMs) {
+        this.maxWaitMs = maxWaitMs;
+        this.interactiveMaxWaitMs = interactiveMaxWaitMs;
+        this.callTimeoutMs = callTimeoutMs;
+    }
+
+    public String call(String key, Supplier<String> call) {
+        boolean interactive = LlmTenantContext.isInteractive();
+        String flightKey = (interactive ? "interactive|" : "background|") + key;
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos((interactive ? interactiveMaxWaitMs : maxWaitMs) + callTimeoutMs);
+
+        while (true) {
+            CompletableFuture<String> created = new CompletableFuture<>();
+            CompletableFuture<String> shared = inFlight.putIfAbsent(flightKey, created);
+            if (shared == null) {
+                return lead(flightKey, created, call);
+            }
+
+            coalesced.increment();
+            try {
+                return shared.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (CancellationException e) {
+                // Lời gọi đầu bị hủy: thử lại (có thể tự thành lời gọi đầu)
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (TimeoutException e) {
+                throw new TooManyRequestsException("Hệ thống AI đang quá tải. Vui lòng thử lại sau.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Bị gián đoạn khi chờ lời gọi LLM dùng chung", e);
+            }
+        }
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private String lead(String flightKey, CompletableFuture<String> created, Supplier<String> call) {
+        try {
+            String result = call.get();
+            // Bỏ khỏi inFlight trước khi hoàn thành, để caller thử lại không gặp lại future cũ
+            inFlight.remove(flightKey, created);
+            created.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(flightKey, created);
+            if (e instanceof CancellationException || Thread.currentThread().isInterrupted()) {
+                created.cancel(false);
+            } else {
+                created.completeExceptionally(e);
+            }
+            throw e;
+        }
+    }
+}
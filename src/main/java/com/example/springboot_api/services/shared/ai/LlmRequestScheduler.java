@@ -0,0 +1,355 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
+import com.example.springboot_api.dto.shared.ai.LlmRateStats;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Điều phối request tới LLM theo quota thật của từng provider / model, thay cho
+ * các Thread.sleep cố định giữa các lời gọi.
+ *
+ * Mỗi bucket (GROQ, GEMINI, GEMINI_IMAGE) là một token bucket: rpm token mỗi
+ * phút, tối đa burst token dồn lại. Quota tính theo model, và mỗi bucket hiện
+ * ứng với đúng một model (GroqChatRequest.DEFAULT_MODEL,
+ * AIModelService.DEFAULT_GEMINI_MODEL, model ảnh của AiImageGeneratorService);
+ * gọi thêm model khác qua scheduler thì thêm bucket riêng cho model đó. Request chờ token theo hàng đợi riêng của
+ * từng tenant (LlmTenantContext) và được cấp vòng tròn giữa các tenant, nên một
+ * job tóm tắt 10 file không chặn câu hỏi chat của user khác.
+ *
+ * Lời gọi interactive (LlmTenantContext.interactive – câu trả lời chat, qua
+ * LlmRouter) có hàng đợi ưu tiên: token tiếp theo luôn cấp cho nó trước mọi job
+ * nền, và nó chỉ chờ tối đa interactive-max-wait-ms (mặc định 10s) rồi trả 429
+ * thay vì max-wait-ms (3 phút) như job nền.
+ *
+ * Quota mặc định theo free tier của provider (bảng rate limit trong tài liệu
+ * Groq / Gemini API): Groq llama-3.3-70b-versatile 30 RPM, Gemini 2.0 Flash 15
+ * RPM; model ảnh Gemini có quota thấp hơn model text nên để 10 RPM. Burst nhỏ để
+ * không dồn request vượt giới hạn theo phút. Tài khoản trả phí: đặt lại
+ * ai.llm.rate.*.rpm / burst theo tier.
+ *
+ * Gặp 429 / RESOURCE_EXHAUSTED: cả bucket dừng một khoảng backoff (nhân đôi mỗi
+ * lần, tới backoff-max-ms) và rpm giảm một nửa; mỗi lời gọi thành công tăng rpm
+ * lại 10% rpm cấu hình (AIMD). Lời gọi bị 429 được thử lại tối đa max-retries
+ * lần.
+ */
+@Service
+@Slf4j
+public class LlmRequestScheduler {
+
+    public static final String GROQ = "groq";
+    public static final String GEMINI = "gemini";
+    public static final String GEMINI_IMAGE = "gemini-image";
+
+    private final Map<String, Bucket> buckets = new LinkedHashMap<>();
+    private final long maxWaitMs;
+    private final long interactiveMaxWaitMs;
+    private final int maxRetries;
+    private final long backoffInitialMs;
+    private final long backoffMaxMs;
+
+    public LlmRequestScheduler(
+            @Value("${ai.llm.rate.groq.rpm:30}") double groqRpm,
+            @Value("${ai.llm.rate.groq.burst:5}") int groqBurst,
+            @Value("${ai.llm.rate.gemini.rpm:15}") double geminiRpm,
+            @Value("${ai.llm.rate.gemini.burst:3}") int geminiBurst,
+            @Value("${ai.llm.rate.gemini-image.rpm:10}") double imageRpm,
+            @Value("${ai.llm.rate.gemini-image.burst:2}") int imageBurst,
+            @Value("${ai.llm.rate.max-wait-ms:180000}") long maxWaitMs,
+            @Value("${ai.llm.rate.interactive-max-wait-ms:10000}") long interactiveMaxWaitMs,
+            @Value("${ai.llm.rate.max-retries:3}") int maxRetries,
+            @Value("${ai.llm.rate.backoff-initial-ms:2000}") long backoffInitialMs,
+            @Value("${ai.llm.rate.backoff-max-ms:60000}") long backoffMaxMs) {
+        buckets.put(GROQ, new Bucket(GROQ, groqRpm, groqBurst));
+        buckets.put(GEMINI, new Bucket(GEMINI, geminiRpm, geminiBurst));
+        buckets.put(GEMINI_IMAGE, new Bucket(GEMINI_IMAGE, imageRpm, imageBurst));
+        this.maxWaitMs = maxWaitMs;
+        this.interactiveMaxWaitMs = interactiveMaxWaitMs;
+        this.maxRetries = maxRetries;
+        this.backoffInitialMs = backoffInitialMs;
+        this.backoffMaxMs = backoffMaxMs;
+    }
+
+    /**
+     * Chờ token của bucket rồi gọi; 429 thì báo bucket và thử lại.
+     */
+    public <T> T call(String bucketName, Supplier<T> call) {
+        return call(bucketName, call, e -> true);
+    }
+
+    /**
+     * @param retryable lỗi 429 nào được thử lại (vd: stream đã trả một phần thì
+     *                  không)
+     */
+    public <T> T call(String bucketName, Supplier<T> call, Predicate<RuntimeException> retryable) {
+        Bucket bucket = bucket(bucketName);
+        String tenant = LlmTenantContext.current();
+        boolean interactive = LlmTenantContext.isInteractive();
+        for (int attempt = 0;; attempt++) {
+            bucket.acquire(tenant, interactive, interactive ? interactiveMaxWaitMs : maxWaitMs);
+            try {
+                T result = call.get();
+                bucket.onSuccess();
+                return result;
+            } catch (RuntimeException e) {
+                if (!AiCallErrors.isRateLimited(e)) {
+                    throw e;
+                }
+                long pauseMs = bucket.onRateLimited(backoffInitialMs, backoffMaxMs);
+                if (attempt >= maxRetries || !retryable.test(e)) {
+                    throw e;
+                }
+                log.warn("⏳ [LLM-RATE] {} bị giới hạn, dừng {}ms, còn {} rpm – thử lại lần {}", bucketName, pauseMs,
+                        String.format("%.1f", bucket.currentRpm()), attempt + 1);
+            }
+        }
+    }
+
+    public List<LlmRateStats> getStats() {
+        List<LlmRateStats> stats = new ArrayList<>(buckets.size());
+        for (Bucket bucket : buckets.values()) {
+            stats.add(bucket.stats());
+        }
+        return stats;
+    }
+
+    private Bucket bucket(String name) {
+        Bucket bucket = buckets.get(name);
+        if (bucket == null) {
+            throw new IllegalArgumentException("Không có LLM rate bucket: " + name);
+        }
+        return bucket;
+    }
+
+    /**
+     * Token bucket + hàng đợi vòng tròn theo tenant, hàng interactive được phục vụ
+     * trước hàng nền.
+     */
+    static final class Bucket {
+
+        private final String name;
+        private final double configuredPerNano;
+        private final int burst;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+
+        private double ratePerNano;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private long pausedUntil = lastRefill;
+        private long backoffMs;
+
+        private final Lane interactiveLane = new Lane();
+        private final Lane backgroundLane = new Lane();
+
+        private final LongAdder granted = new LongAdder();
+        private final LongAdder interactiveGranted = new LongAdder();
+        private final LongAdder rateLimited = new LongAdder();
+        private final LongAdder totalWaitMs = new LongAdder();
+        private final AtomicLong maxWaitMs = new AtomicLong();
+
+        Bucket(String name, double rpm, int burst) {
+            this.name = name;
+            this.configuredPerNano = rpm / TimeUnit.MINUTES.toNanos(1);
+            this.ratePerNano = configuredPerNano;
+            this.burst = Math.max(1, burst);
+            this.tokens = this.burst;
+        }
+
+        void acquire(String tenant, boolean interactive, long maxWaitMs) {
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            Object ticket = new Object();
+            Lane lane = interactive ? interactiveLane : backgroundLane;
+
+            lock.lock();
+            try {
+                lane.enqueue(tenant, ticket);
+                while (true) {
+                    long now = System.nanoTime();
+                    refill(now);
+
+                    long waitNanos = deadline - now;
+                    if (lane.isNext(tenant, ticket) && (interactive || interactiveLane.isEmpty())) {
+                        long readyAt = Math.max(pausedUntil,
+                                tokens >= 1 ? now : now + (long) Math.ceil((1 - tokens) / ratePerNano));
+                        if (readyAt <= now) {
+                            tokens -= 1;
+                            lane.grant(tenant);
+                            changed.signalAll();
+                            recordWait(start, interactive);
+                            return;
+                        }
+                        waitNanos = Math.min(waitNanos, readyAt - now);
+                    }
+                    if (now >= deadline) {
+                        lane.remove(tenant, ticket);
+                        changed.signalAll();
+                        throw new TooManyRequestsException("Hệ thống AI đang quá tải (" + name
+                                + "). Vui lòng thử lại sau.");
+                    }
+                    changed.awaitNanos(waitNanos);
+                }
+            } catch (InterruptedException e) {
+                lane.remove(tenant, ticket);
+                changed.signalAll();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Bị gián đoạn khi chờ quota LLM " + name, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onSuccess() {
+            lock.lock();
+            try {
+                backoffMs = 0;
+                if (ratePerNano < configuredPerNano) {
+                    ratePerNano = Math.min(configuredPerNano, ratePerNano + configuredPerNano * 0.1);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return thời gian bucket dừng (ms)
+         */
+        long onRateLimited(long backoffInitialMs, long backoffMaxMs) {
+            rateLimited.increment();
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                refill(now);
+                backoffMs = backoffMs == 0 ? backoffInitialMs : Math.min(backoffMaxMs, backoffMs * 2);
+                pausedUntil = Math.max(pausedUntil, now + TimeUnit.MILLISECONDS.toNanos(backoffMs));
+                ratePerNano = Math.max(configuredPerNano * 0.1, ratePerNano / 2);
+                tokens = Math.min(tokens, 0);
+                changed.signalAll();
+                return backoffMs;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        double currentRpm() {
+            return ratePerNano * TimeUnit.MINUTES.toNanos(1);
+        }
+
+        LlmRateStats stats() {
+            lock.lock();
+            try {
+                refill(System.nanoTime());
+                long n = granted.sum();
+                return new LlmRateStats(
+                        name,
+                        configuredPerNano * TimeUnit.MINUTES.toNanos(1),
+                        currentRpm(),
+                        tokens,
+                        interactiveLane.waiting + backgroundLane.waiting,
+                        interactiveLane.rotation.size() + backgroundLane.rotation.size(),
+                        n,
+                        interactiveGranted.sum(),
+                        rateLimited.sum(),
+                        n == 0 ? 0 : (double) totalWaitMs.sum() / n,
+                        maxWaitMs.get());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill(long now) {
+            if (now > lastRefill) {
+                tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerNano);
+                lastRefill = now;
+            }
+        }
+
+        private void recordWait(long start, boolean interactive) {
+            granted.increment();
+            if (interactive) {
+                interactiveGranted.increment();
+            }
+            long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            totalWaitMs.add(waitedMs);
+            maxWaitMs.accumulateAndGet(waitedMs, Math::max);
+            if (waitedMs >= 1000) {
+                log.debug("⏳ [LLM-RATE] {} chờ {}ms", name, waitedMs);
+            }
+        }
+    }
+
+    /**
+     * Hàng đợi của một mức ưu tiên: tenant → request đang chờ (FIFO), rotation là
+     * thứ tự phục vụ giữa các tenant. Chỉ truy cập khi giữ lock của Bucket.
+     */
+    private static final class Lane {
+
+        private final Map<String, ArrayDeque<Object>> queues = new HashMap<>();
+        private final ArrayDeque<String> rotation = new ArrayDeque<>();
+        private int waiting;
+
+        boolean isEmpty() {
+            return waiting == 0;
+        }
+
+        void enqueue(String tenant, Object ticket) {
+            ArrayDeque<Object> queue = queues.computeIfAbsent(tenant, t -> new ArrayDeque<>());
+            if (queue.isEmpty()) {
+                rotation.addLast(tenant);
+            }
+            queue.addLast(ticket);
+            waiting++;
+        }
+
+        boolean isNext(String tenant, Object ticket) {
+            return tenant.equals(rotation.peekFirst()) && queues.get(tenant).peekFirst() == ticket;
+        }
+
+        /**
+         * Cấp token cho request đầu hàng của tenant đầu vòng, tenant chuyển xuống
+         * cuối vòng nếu còn request chờ.
+         */
+        void grant(String tenant) {
+            ArrayDeque<Object> queue = queues.get(tenant);
+            queue.pollFirst();
+            rotation.pollFirst();
+            waiting--;
+            if (queue.isEmpty()) {
+                queues.remove(tenant);
+            } else {
+                rotation.addLast(tenant);
+            }
+        }
+
+        void remove(String tenant, Object ticket) {
+            ArrayDeque<Object> queue = queues.get(tenant);
+            if (queue == null || !queue.remove(ticket)) {
+                return;
+            }
+            waiting--;
+            if (queue.isEmpty()) {
+                queues.remove(tenant);
+                rotation.remove(tenant);
+            }
+        }
+    }
+}
@@ -0,0 +1,626 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.springboot_api.config.AsyncConfig;
+import com.example.springboot_api.dto.shared.ai.GroqChatRequest;
+import com.example.springboot_api.dto.shared.ai.LlmRouteStats;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chọn provider cho lời gọi LLM của chat theo độ trễ và tỉ lệ lỗi đo được,
+ * thay vì luôn dùng đúng code của LlmModel user chọn.
+ *
+ * Mỗi route (gemini, groq) giữ p50/p95 độ trễ cả câu trả lời và token đầu
+ * (stream), tỉ lệ lỗi (EWMA) và số lỗi liên tiếp. Lỗi liên tiếp tới
+ * failure-threshold thì route bị bỏ qua trong cooldown-ms. Route user chọn được
+ * ưu tiên, trừ khi route khác nhanh hơn switch-ratio lần.
+ *
+ * Hedge: bản chính chạy trên llmHedgeExecutor; quá p{hedge-percentile} độ trễ
+ * của route đó (kẹp trong [hedge-min-ms, hedge-max-ms]) mà chưa có kết quả /
+ * token đầu thì gửi thêm một bản tới route thứ hai, bên nào xong (stream: có
+ * token) trước thì dùng. Bản thua bị hủy để không tốn quota: bản stream ở token
+ * đầu của nó, bản thường bằng interrupt thread đang chờ quota / HTTP (best
+ * effort). call / stream trả về route thực sự trả lời để caller ghi đúng model.
+ *
+ * Chỉ dùng cho chat: prompt của các generator (quiz, tóm tắt, ...) dựa vào
+ * context / độ dài output của Gemini nên vẫn gọi thẳng AIModelService. Vì vậy
+ * mọi lời gọi qua router là interactive (LlmTenantContext.interactive): được
+ * LlmRequestScheduler cấp quota trước job nền và trả 429 sớm khi hết quota.
+ */
+@Service
+@Slf4j
+public class LlmRouter {
+
+    public static final String GEMINI = "gemini";
+    public static final String GROQ = "groq";
+
+    private static final int LATENCY_SAMPLES = 200;
+
+    /**
+     * Câu trả lời và route / model đã trả lời (có thể khác route ưu tiên).
+     */
+    public record Answer(String route, String model, String text) {
+    }
+
+    private final Map<String, Route> routes = new LinkedHashMap<>();
+    private final Executor executor;
+    private final boolean hedgeEnabled;
+    private final double hedgePercentile;
+    private final long hedgeMinMs;
+    private final long hedgeMaxMs;
+    private final int minSamples;
+    private final int failureThreshold;
+    private final long cooldownMs;
+    private final double switchRatio;
+
+    public LlmRouter(
+            AIModelService aiModelService,
+            @Qualifier(AsyncConfig.LLM_HEDGE_EXECUTOR) Executor executor,
+            @Value("${ai.llm.router.hedge-enabled:true}") boolean hedgeEnabled,
+            @Value("${ai.llm.router.hedge-percentile:95}") double hedgePercentile,
+            @Value("${ai.llm.router.hedge-min-ms:1500}") long hedgeMinMs,
+            @Value("${ai.llm.router.hedge-max-ms:20000}") long hedgeMaxMs,
+            @Value("${ai.llm.router.min-samples:5}") int minSamples,
+            @Value("${ai.llm.router.failure-threshold:3}") int failureThreshold,
+            @Value("${ai.llm.router.cooldown-ms:30000}") long cooldownMs,
+            @Value("${ai.llm.router.switch-ratio:1.3}") double switchRatio) {
+        routes.put(GEMINI, new Route(GEMINI, AIModelService.DEFAULT_GEMINI_MODEL,
+                aiModelService::callGeminiModel, aiModelService::streamGeminiModel));
+        routes.put(GROQ, new Route(GROQ, GroqChatRequest.DEFAULT_MODEL,
+                aiModelService::callGroqModel, aiModelService::streamGroqModel));
+        this.executor = executor;
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinMs = hedgeMinMs;
+        this.hedgeMaxMs = Math.max(hedgeMinMs, hedgeMaxMs);
+        this.minSamples = Math.max(1, minSamples);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.cooldownMs = cooldownMs;
+        this.switchRatio = Math.max(1.0, switchRatio);
+    }
+
+    /**
+     * Gọi LLM, chờ toàn bộ câu trả lời.
+     *
+     * @param preferredCode code của LlmModel user chọn (gemini / groq), null =
+     *                      route nhanh nhất
+     */
+    public Answer call(String preferredCode, String prompt) {
+        List<Route> order = order(preferredCode, false);
+        Route primary = order.get(0);
+        Route backup = order.size() > 1 ? order.get(1) : null;
+        if (!hedgeEnabled || backup == null) {
+            return callWithFailover(order, prompt);
+        }
+
+        Attempt firstAttempt = new Attempt();
+        CompletableFuture<Answer> first = submit(() -> attemptCall(primary, prompt, firstAttempt));
+        if (first == null) {
+            return callWithFailover(order, prompt);
+        }
+        try {
+            return first.get(hedgeDelayMs(primary, false), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Quá deadline: gửi bản hedge
+        } catch (ExecutionException e) {
+            log.warn("🔀 [LLM-ROUTER] {} lỗi, chuyển sang {}: {}", primary.name, backup.name,
+                    e.getCause().getMessage());
+            return timedCall(backup, prompt, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Bị gián đoạn khi chờ LLM", e);
+        }
+
+        Attempt secondAttempt = new Attempt();
+        CompletableFuture<Answer> second = submit(() -> attemptCall(backup, prompt, secondAttempt));
+        if (second == null) {
+            return join(first);
+        }
+        primary.hedged.increment();
+        log.debug("🔀 [LLM-ROUTER] {} chậm, gửi hedge tới {}", primary.name, backup.name);
+        AtomicReference<Route> owner = new AtomicReference<>();
+        try {
+            return race(primary, first, backup, second, owner);
+        } finally {
+            // Bản thua còn đang chờ quota / HTTP: hủy để không tốn thêm quota
+            Route winner = owner.get();
+            if (winner != null) {
+                Route loser = winner == primary ? backup : primary;
+                if ((winner == primary ? secondAttempt : firstAttempt).cancel()) {
+                    loser.hedgeCancelled.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gọi LLM dạng stream. onDelta chỉ nhận text của một route (route có token
+     * trước), có thể trên thread của llmHedgeExecutor.
+     *
+     * @return toàn bộ câu trả lời thô và route được dùng
+     */
+    public Answer stream(String preferredCode, String prompt, Consumer<String> onDelta) {
+        List<Route> order = order(preferredCode, true);
+        Route primary = order.get(0);
+        Route backup = order.size() > 1 ? order.get(1) : null;
+        if (!hedgeEnabled || backup == null) {
+            return streamWithFailover(order, prompt, onDelta);
+        }
+
+        AtomicReference<Route> owner = new AtomicReference<>();
+        CompletableFuture<Void> firstToken = new CompletableFuture<>();
+        CompletableFuture<Answer> first = submit(
+                () -> timedStream(primary, prompt, claim(primary, owner, firstToken, onDelta)));
+        if (first == null) {
+            return streamWithFailover(order, prompt, onDelta);
+        }
+        try {
+            CompletableFuture.anyOf(firstToken, first).get(hedgeDelayMs(primary, true), TimeUnit.MILLISECONDS);
+            return join(first);
+        } catch (TimeoutException e) {
+            // Chưa có token đầu sau deadline: gửi bản hedge
+        } catch (ExecutionException e) {
+            if (owner.get() != null) {
+                throw unwrap(e.getCause());
+            }
+            // Lỗi trước token đầu: chưa gửi gì cho client nên chuyển route được
+            log.warn("🔀 [LLM-ROUTER] {} lỗi trước token đầu, chuyển sang {}", primary.name, backup.name);
+            return timedStream(backup, prompt, onDelta);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Bị gián đoạn khi chờ LLM", e);
+        }
+
+        CompletableFuture<Answer> second = submit(
+                () -> timedStream(backup, prompt, claim(backup, owner, firstToken, onDelta)));
+        if (second == null) {
+            return join(first);
+        }
+        primary.hedged.increment();
+        log.debug("🔀 [LLM-ROUTER] {} chưa có token đầu, gửi hedge tới {}", primary.name, backup.name);
+        return race(primary, first, backup, second, owner);
+    }
+
+    public List<LlmRouteStats> getStats() {
+        long now = System.currentTimeMillis();
+        List<LlmRouteStats> stats = new ArrayList<>(routes.size());
+        for (Route route : routes.values()) {
+            stats.add(route.stats(now));
+        }
+        return stats;
+    }
+
+    /**
+     * Thứ tự thử: route còn khỏe, nhanh nhất trước; route user chọn đứng đầu nếu
+     * không chậm hơn route nhanh nhất quá switch-ratio lần (hoặc chưa đủ mẫu để
+     * so).
+     */
+    List<Route> order(String preferredCode, boolean streaming) {
+        long now = System.currentTimeMillis();
+        List<Route> candidates = new ArrayList<>();
+        for (Route route : routes.values()) {
+            if (route.healthy(now)) {
+                candidates.add(route);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // Mọi route đang cooldown: vẫn phải thử
+            candidates.addAll(routes.values());
+        }
+        // Route chưa đủ mẫu (score âm) lên trước để có số liệu
+        candidates.sort(Comparator.comparingDouble(route -> route.score(streaming, minSamples)));
+
+        Route preferred = routes.get(preferredCode == null ? null : preferredCode.trim().toLowerCase());
+        if (preferred != null && candidates.contains(preferred) && candidates.get(0) != preferred) {
+            double best = candidates.get(0).score(streaming, minSamples);
+            double mine = preferred.score(streaming, minSamples);
+            if (best < 0 || mine < 0 || mine <= best * switchRatio) {
+                candidates.remove(preferred);
+                candidates.add(0, preferred);
+            }
+        }
+        return candidates;
+    }
+
+    private Answer callWithFailover(List<Route> order, String prompt) {
+        RuntimeException last = null;
+        for (Route route : order) {
+            try {
+                return timedCall(route, prompt, null);
+            } catch (RuntimeException e) {
+                last = e;
+                log.warn("🔀 [LLM-ROUTER] {} lỗi: {}", route.name, e.getMessage());
+            }
+        }
+        throw last;
+    }
+
+    private Answer streamWithFailover(List<Route> order, String prompt, Consumer<String> onDelta) {
+        boolean[] emitted = new boolean[1];
+        Consumer<String> tracking = text -> {
+            emitted[0] = true;
+            onDelta.accept(text);
+        };
+        RuntimeException last = null;
+        for (Route route : order) {
+            try {
+                return timedStream(route, prompt, tracking);
+            } catch (RuntimeException e) {
+                // Đã gửi một phần câu trả lời thì không đổi route được
+                if (emitted[0]) {
+                    throw e;
+                }
+                last = e;
+                log.warn("🔀 [LLM-ROUTER] {} lỗi trước token đầu: {}", route.name, e.getMessage());
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * Bản gọi không stream trong cuộc đua hedge, hủy được qua attempt.
+     */
+    private Answer attemptCall(Route route, String prompt, Attempt attempt) {
+        if (!attempt.start()) {
+            throw new CancellationException("Hedge thua: " + route.name);
+        }
+        try {
+            return timedCall(route, prompt, attempt);
+        } finally {
+            attempt.finish();
+        }
+    }
+
+    /**
+     * @param attempt null nếu không chạy trong cuộc đua hedge
+     */
+    private Answer timedCall(Route route, String prompt, Attempt attempt) {
+        long start = System.nanoTime();
+        try {
+            String result = LlmTenantContext.interactive(() -> route.call.apply(prompt));
+            route.onSuccess(elapsedMs(start));
+            return new Answer(route.name, route.model, result);
+        } catch (RuntimeException e) {
+            if (attempt != null && attempt.isCancelled()) {
+                // Thua hedge, bị interrupt: không phải lỗi của route
+                throw new CancellationException("Hedge thua: " + route.name);
+            }
+            route.onFailure(System.currentTimeMillis(), failureThreshold, cooldownMs);
+            throw e;
+        }
+    }
+
+    private Answer timedStream(Route route, String prompt, Consumer<String> onDelta) {
+        long start = System.nanoTime();
+        boolean[] first = { true };
+        try {
+            String result = LlmTenantContext.interactive(() -> route.stream.apply(prompt, text -> {
+                if (first[0]) {
+                    first[0] = false;
+                    route.firstToken.record(elapsedMs(start));
+                }
+                onDelta.accept(text);
+            }));
+            route.onSuccess(elapsedMs(start));
+            return new Answer(route.name, route.model, result);
+        } catch (CancellationException e) {
+            // Thua hedge: không phải lỗi của route
+            route.hedgeCancelled.increment();
+            throw e;
+        } catch (RuntimeException e) {
+            route.onFailure(System.currentTimeMillis(), failureThreshold, cooldownMs);
+            throw e;
+        }
+    }
+
+    /**
+     * Consumer của một route trong cuộc đua stream: route có token đầu tiên giữ
+     * lượt, route kia bị hủy ở token đầu của nó.
+     */
+    private static Consumer<String> claim(Route route, AtomicReference<Route> owner,
+            CompletableFuture<Void> firstToken, Consumer<String> onDelta) {
+        return text -> {
+            if (owner.compareAndSet(null, route)) {
+                firstToken.complete(null);
+            } else if (owner.get() != route) {
+                throw new CancellationException("Hedge thua: " + route.name);
+            }
+            onDelta.accept(text);
+        };
+    }
+
+    /**
+     * Kết quả của route giữ lượt (owner), hoặc route xong trước nếu chưa ai giữ
+     * lượt; lỗi chỉ khi cả hai cùng lỗi hoặc route giữ lượt lỗi.
+     */
+    private Answer race(Route primary, CompletableFuture<Answer> first, Route backup,
+            CompletableFuture<Answer> second, AtomicReference<Route> owner) {
+        CompletableFuture<Answer> winner = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(2);
+        AtomicReference<Throwable> primaryError = new AtomicReference<>();
+        first.whenComplete((result, error) -> settle(primary, result, error, owner, winner, remaining,
+                primaryError));
+        second.whenComplete((result, error) -> settle(backup, result, error, owner, winner, remaining,
+                primaryError));
+        Answer result = join(winner);
+        if (owner.get() == backup) {
+            backup.hedgeWins.increment();
+        }
+        return result;
+    }
+
+    private static void settle(Route route, Answer result, Throwable error, AtomicReference<Route> owner,
+            CompletableFuture<Answer> winner, AtomicInteger remaining, AtomicReference<Throwable> primaryError) {
+        if (error == null) {
+            if (owner.compareAndSet(null, route) || owner.get() == route) {
+                winner.complete(result);
+            }
+        } else {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause()
+                    : error;
+            if (owner.get() == route) {
+                winner.completeExceptionally(cause);
+            } else if (!(cause instanceof CancellationException)) {
+                primaryError.compareAndSet(null, cause);
+            }
+        }
+        if (remaining.decrementAndGet() == 0) {
+            winner.completeExceptionally(primaryError.get() != null
+                    ? primaryError.get()
+                    : new IllegalStateException("Không route LLM nào trả lời"));
+        }
+    }
+
+    private CompletableFuture<Answer> submit(Supplier<Answer> call) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            // Pool đầy: gọi trên thread hiện tại, không hedge
+            return null;
+        }
+    }
+
+    private long hedgeDelayMs(Route route, boolean streaming) {
+        LatencyWindow window = streaming ? route.firstToken : route.latency;
+        if (window.size() < minSamples) {
+            return hedgeMaxMs;
+        }
+        return Math.max(hedgeMinMs, Math.min(hedgeMaxMs, window.percentile(hedgePercentile)));
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Một bản gọi không stream trên llmHedgeExecutor. Hủy = interrupt thread đang
+     * chạy nó (đang chờ token trong LlmRequestScheduler hoặc block trên HTTP); bản
+     * chưa kịp chạy thì không gọi provider nữa.
+     */
+    private static final class Attempt {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private Thread runner;
+        private boolean cancelled;
+        private boolean finished;
+
+        boolean start() {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    finished = true;
+                    return false;
+                }
+                runner = Thread.currentThread();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void finish() {
+            lock.lock();
+            try {
+                runner = null;
+                finished = true;
+                if (cancelled) {
+                    // Xóa cờ interrupt trước khi thread của pool nhận task khác
+                    Thread.interrupted();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isCancelled() {
+            lock.lock();
+            try {
+                return cancelled;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return true nếu bản gọi chưa xong (thật sự bị hủy)
+         */
+        boolean cancel() {
+            lock.lock();
+            try {
+                if (finished) {
+                    return false;
+                }
+                cancelled = true;
+                if (runner != null) {
+                    runner.interrupt();
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Lời gọi stream của một provider: (prompt, onDelta) → toàn bộ câu trả lời.
+     */
+    @FunctionalInterface
+    interface StreamCall {
+        String apply(String prompt, Consumer<String> onDelta);
+    }
+
+    static final class Route {
+
+        private final String name;
+        private final String model;
+        private final Function<String, String> call;
+        private final StreamCall stream;
+
+        private final LatencyWindow latency = new LatencyWindow(LATENCY_SAMPLES);
+        private final LatencyWindow firstToken = new LatencyWindow(LATENCY_SAMPLES);
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder hedged = new LongAdder();
+        private final LongAdder hedgeWins = new LongAdder();
+        private final LongAdder hedgeCancelled = new LongAdder();
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private double errorRate;
+        private int consecutiveFailures;
+        private long openUntil;
+
+        Route(String name, String model, Function<String, String> call, StreamCall stream) {
+            this.name = name;
+            this.model = model;
+            this.call = call;
+            this.stream = stream;
+        }
+
+        void onSuccess(long elapsedMs) {
+            calls.increment();
+            latency.record(elapsedMs);
+            lock.lock();
+            try {
+                errorRate *= 0.9;
+                consecutiveFailures = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onFailure(long now, int failureThreshold, long cooldownMs) {
+            calls.increment();
+            errors.increment();
+            lock.lock();
+            try {
+                errorRate = errorRate * 0.9 + 0.1;
+                consecutiveFailures++;
+                if (consecutiveFailures >= failureThreshold) {
+                    openUntil = now + cooldownMs;
+                    log.warn("🔀 [LLM-ROUTER] {} lỗi {} lần liên tiếp, tạm bỏ qua {}ms", name,
+                            consecutiveFailures, cooldownMs);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean healthy(long now) {
+            lock.lock();
+            try {
+                return now >= openUntil;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Độ trễ kỳ vọng (p50, phạt theo tỉ lệ lỗi); -1 nếu chưa đủ mẫu.
+         */
+        double score(boolean streaming, int minSamples) {
+            LatencyWindow window = streaming && firstToken.size() >= minSamples ? firstToken : latency;
+            if (window.size() < minSamples) {
+                return -1;
+            }
+            double rate;
+            lock.lock();
+            try {
+                rate = errorRate;
+            } finally {
+                lock.unlock();
+            }
+            return window.percentile(50) * (1 + 3 * rate);
+        }
+
+        LlmRouteStats stats(long now) {
+            double rate;
+            lock.lock();
+            try {
+                rate = errorRate;
+            } finally {
+                lock.unlock();
+            }
+            return new LlmRouteStats(
+                    name,
+                    model,
+                    healthy(now),
+                    calls.sum(),
+                    errors.sum(),
+                    rate,
+                    latency.percentile(50),
+                    latency.percentile(95),
+                    firstToken.percentile(50),
+                    firstToken.percentile(95),
+                    hedged.sum(),
+                    hedgeWins.sum(),
+                    hedgeCancelled.sum());
+        }
+    }
+}
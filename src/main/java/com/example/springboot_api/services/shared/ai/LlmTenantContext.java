@@ -0,0 +1,84 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.function.Supplier;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.example.springboot_api.config.security.UserPrincipal;
+
+/**
+ * "Tenant" của một lời gọi LLM, dùng để LlmRequestScheduler chia quota công
+ * bằng giữa các user.
+ *
+ * Thứ tự: tenant gắn vào thread (propagate) → user đang đăng nhập → SYSTEM.
+ * Các pool trong AsyncConfig dùng propagate làm TaskDecorator, nên job @Async
+ * (quiz, summary, video, ...) mang tenant của user đã tạo job.
+ *
+ * Lời gọi interactive (user đang chờ câu trả lời chat) được LlmRequestScheduler
+ * phục vụ trước các job nền và chỉ chờ quota trong thời gian ngắn.
+ */
+public final class LlmTenantContext {
+
+    public static final String SYSTEM = "system";
+
+    private static final ThreadLocal<String> TENANT = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> INTERACTIVE = new ThreadLocal<>();
+
+    private LlmTenantContext() {
+    }
+
+    public static String current() {
+        String tenant = TENANT.get();
+        if (tenant != null) {
+            return tenant;
+        }
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.getPrincipal() instanceof UserPrincipal principal && principal.getId() != null) {
+            return principal.getId().toString();
+        }
+        return SYSTEM;
+    }
+
+    /**
+     * Bọc task để chạy với tenant của thread đang submit.
+     */
+    public static Runnable propagate(Runnable task) {
+        String tenant = current();
+        return () -> {
+            String previous = TENANT.get();
+            TENANT.set(tenant);
+            try {
+                task.run();
+            } finally {
+                if (previous == null) {
+                    TENANT.remove();
+                } else {
+                    TENANT.set(previous);
+                }
+            }
+        };
+    }
+
+    public static boolean isInteractive() {
+        return Boolean.TRUE.equals(INTERACTIVE.get());
+    }
+
+    /**
+     * Chạy call dưới dạng interactive. Không truyền qua propagate: job @Async
+     * luôn là tác vụ nền.
+     */
+    public static <T> T interactive(Supplier<T> call) {
+        Boolean previous = INTERACTIVE.get();
+        INTERACTIVE.set(Boolean.TRUE);
+        try {
+            return call.get();
+        } finally {
+            if (previous == null) {
+                INTERACTIVE.remove();
+            } else {
+                INTERACTIVE.set(previous);
+            }
+        }
+    }
+}
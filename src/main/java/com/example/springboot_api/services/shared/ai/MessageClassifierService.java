@@ -2,20 +2,30 @@ package com.example.springboot_api.services.shared.ai;
 
 import java.text.Normalizer;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import com.example.springboot_api.dto.shared.ai.ClassifierStats;
+
 import lombok.RequiredArgsConstructor;
 
 /**
  * Service phân loại câu hỏi cho chat học tập.
  * Mục tiêu: Tối ưu hóa việc gọi RAG/Search bằng cách phân loại câu hỏi.
+ *
+ * Thứ tự: rule (một lần quét KeywordAutomaton) → local classifier cho vùng mơ
+ * hồ → cache quyết định của LLM → gọi LLM. Chỉ bước cuối tốn một round trip.
  */
 @Service
 @RequiredArgsConstructor
@@ -70,6 +80,103 @@ public class MessageClassifierService {
             // symbols
             "?", "??", "???", "!?", "!!", "!"));
 
+    // Các regex cũ của ruleDecide, giờ là nhóm keyword trong automaton
+    private static final List<String> DEICTIC = Arrays.asList(
+            "do", "day", "nay", "kia", "tren", "duoi", "doan", "phan", "cai");
+
+    private static final List<String> EXPLAIN = Arrays.asList(
+            "giai thich", "noi ro", "y la", "tuc la", "noi them", "chi tiet", "cu the", "chua hieu",
+            "khong hieu", "ko hieu", "vi du", "explain", "elaborate", "more detail", "tell me more",
+            "what do you mean", "dont understand", "y ban la", "y cua ban");
+
+    private static final List<String> KNOWLEDGE = Arrays.asList(
+            "la gi", "dinh nghia", "cong thuc", "huong dan", "cai dat", "how to", "how does", "what is",
+            "define", "compare", "so sanh");
+
+    private static final List<String> LESSON = Arrays.asList(
+            "video", "bai hoc", "giang vien", "tom tat", "phut thu", "noi dung chinh", "y chinh",
+            "diem quan trong", "doan phut", "phut 0", "phut 1", "phut 2", "phut 3", "phut 4", "phut 5",
+            "phut 6", "phut 7", "phut 8", "phut 9", "concept at", "lesson", "instructor", "summarize",
+            "main topic", "this video", "cover", "demo");
+
+    private static final List<String> REGULATION = Arrays.asList(
+            "cong van", "nghi dinh", "thong tu", "quyet dinh", "luat", "bo luat", "hien phap", "chi thi",
+            "nguyen tac", "dieu", "khoan", "chuong", "muc", "phu luc", "van ban", "quy che", "quy dinh",
+            "huong dan");
+
+    private static final List<String> TECH = Arrays.asList(
+            "react", "node", "python", "javascript", "typescript", "docker", "kubernetes", "sql", "nosql",
+            "mysql", "postgresql", "api", "database", "async", "await", "hook", "component", "java", "spring",
+            "golang", "redis", "mongodb", "flask", "django", "fastapi", "angular", "vue", "nestjs", "express",
+            "graphql", "microservices", "aws", "azure", "gcp", "machine learning", "deep learning",
+            "neural network", "tensorflow", "pytorch", "rust", "cpp", "csharp", "laravel", "php", "ruby",
+            "rails", "next", "nuxt", "webpack", "vite", "git", "linux", "devops", "rest", "grpc", "websocket",
+            "kafka", "rabbitmq", "elasticsearch", "nginx", "apache");
+
+    /**
+     * Nhóm keyword trong KEYWORDS. SMALL_TALK, FOLLOW_UP, DEICTIC khớp nguyên từ,
+     * các nhóm còn lại khớp chuỗi con (giống regex cũ).
+     */
+    enum Signal {
+        SMALL_TALK, FOLLOW_UP, DEICTIC, EXPLAIN, KNOWLEDGE, LESSON, REGULATION, TECH
+    }
+
+    private static final KeywordAutomaton<Signal> KEYWORDS = KeywordAutomaton.builder(Signal.class)
+            .add(Signal.SMALL_TALK, true, SMALL_TALK)
+            .add(Signal.FOLLOW_UP, true, FOLLOW_UP)
+            .add(Signal.DEICTIC, true, DEICTIC)
+            .add(Signal.EXPLAIN, false, EXPLAIN)
+            .add(Signal.KNOWLEDGE, false, KNOWLEDGE)
+            .add(Signal.LESSON, false, LESSON)
+            .add(Signal.REGULATION, false, REGULATION)
+            .add(Signal.TECH, false, TECH)
+            .build();
+
+    private static final Pattern EXPLAIN_ARCHITECTURE = Pattern.compile("explain.*architecture");
+    private static final Pattern CODE_CHARS = Pattern.compile("[_::\\(\\)\\[\\]]");
+    private static final Pattern ONLY_SYMBOLS = Pattern.compile("[?!]+");
+
+    // normalizeText
+    private static final Pattern MARKS = Pattern.compile("\\p{M}");
+    private static final Pattern NON_KEYWORD_CHARS = Pattern.compile("[^a-z0-9\\s?!]");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    // Local classifier: từ để hỏi, từ chức năng (không tính là nội dung)
+    private static final Set<String> QUESTION_WORDS = Set.of(
+            "gi", "sao", "nao", "dau", "ai", "bao", "nhieu", "khong", "chua", "ko",
+            "what", "why", "how", "when", "where", "which", "who");
+
+    private static final Set<String> FUNCTION_WORDS = Set.of(
+            // VN
+            "a", "ah", "u", "um", "uh", "vang", "da", "la", "thi", "ma", "va", "voi", "cua", "co", "nhu",
+            "nua", "con", "roi", "di", "nhe", "nha", "ha", "ho", "oi", "minh", "toi", "ban", "em", "anh",
+            "vay", "the", "duoc", "cung", "lai",
+            // EN
+            "an", "is", "are", "do", "does", "it", "this", "that", "to", "of", "in", "on", "and", "or",
+            "i", "you", "me", "so", "then");
+
+    // Cache quyết định của LLM: (có context, message đã chuẩn hóa) → mode
+    private static final int DECISION_CACHE_ENTRIES = 2000;
+    private static final long DECISION_CACHE_TTL_MS = 30 * 60 * 1000L;
+
+    private record Decision(ClassifierMode mode, long expiresAt) {
+    }
+
+    private final Map<String, Decision> decisions = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+            return size() > DECISION_CACHE_ENTRIES;
+        }
+    };
+    private final ReentrantLock decisionsLock = new ReentrantLock();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder ruleDecisions = new LongAdder();
+    private final LongAdder localDecisions = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder llmCalls = new LongAdder();
+    private final LongAdder llmFailures = new LongAdder();
+
     // =========================
     // PUBLIC METHODS
     // =========================
@@ -83,16 +190,67 @@ public class MessageClassifierService {
      * @return ClassifierMode
      */
     public ClassifierMode classifyMessage(String message, boolean hasPrevContext, List<String> previousMessages) {
+        requests.increment();
+        String m = normalizeText(message);
+
         // 1. Rule-based classification (nhanh, rẻ)
-        ClassifierMode mode = ruleDecide(message, hasPrevContext);
+        ClassifierMode mode = ruleDecide(m, hasPrevContext);
         if (mode != null) {
+            ruleDecisions.increment();
             log.debug("Classified by rule: {} -> {}", message, mode);
             return mode;
         }
 
-        // 2. Fallback to LLM (chậm hơn, tốn tiền, nhưng thông minh hơn)
+        // 2. Local classifier cho vùng mơ hồ, chỉ quyết khi đủ chắc
+        mode = localDecide(m, hasPrevContext);
+        if (mode != null) {
+            localDecisions.increment();
+            log.debug("Classified locally: {} -> {}", message, mode);
+            return mode;
+        }
+
+        // 3. Quyết định LLM đã có cho cùng message
+        String key = (hasPrevContext ? "1|" : "0|") + m;
+        mode = cachedDecision(key);
+        if (mode != null) {
+            cacheHits.increment();
+            log.debug("Classified from cache: {} -> {}", message, mode);
+            return mode;
+        }
+
+        // 4. Fallback to LLM (chậm hơn, tốn tiền, nhưng thông minh hơn)
         log.debug("Rule ambiguous, fallback to LLM for: {}", message);
-        return llmClassifyMode(message, hasPrevContext, previousMessages);
+        mode = llmClassifyMode(message, hasPrevContext, previousMessages);
+        if (mode != null) {
+            cacheDecision(key, mode);
+            return mode;
+        }
+        return ClassifierMode.SEARCH; // Fallback an toàn nhất
+    }
+
+    /**
+     * Số request theo đường quyết định; avoidedLlmRate = tỉ lệ không phải gọi
+     * LLM.
+     */
+    public ClassifierStats getStats() {
+        long total = requests.sum();
+        long llm = llmCalls.sum();
+        int entries;
+        decisionsLock.lock();
+        try {
+            entries = decisions.size();
+        } finally {
+            decisionsLock.unlock();
+        }
+        return new ClassifierStats(
+                total,
+                ruleDecisions.sum(),
+                localDecisions.sum(),
+                cacheHits.sum(),
+                llm,
+                llmFailures.sum(),
+                total == 0 ? 0 : (double) (total - llm) / total,
+                entries);
     }
 
     /**
@@ -111,11 +269,11 @@ public class MessageClassifierService {
 
         // Bỏ dấu tiếng Việt
         s = Normalizer.normalize(s, Normalizer.Form.NFD);
-        s = s.replaceAll("\\p{M}", "");
+        s = MARKS.matcher(s).replaceAll("");
 
         // Giữ a-z 0-9 space ? !
-        s = s.replaceAll("[^a-z0-9\\s?!]", " ");
-        s = s.replaceAll("\\s+", " ").trim();
+        s = NON_KEYWORD_CHARS.matcher(s).replaceAll(" ");
+        s = SPACES.matcher(s).replaceAll(" ").trim();
 
         return s;
     }
@@ -124,70 +282,38 @@ public class MessageClassifierService {
     // PRIVATE HELPERS
     // =========================
 
-    private boolean matchKeyword(String text, String kw) {
-        kw = kw.trim();
-        if (kw.isEmpty()) {
-            return false;
-        }
-
-        // Keyword chỉ toàn dấu ?! thì match chứa là đủ
-        boolean allSymbols = true;
-        for (char c : kw.toCharArray()) {
-            if (c != '?' && c != '!' && c != ' ') {
-                allSymbols = false;
-                break;
-            }
-        }
-
-        if (allSymbols) {
-            return text.contains(kw);
-        }
-
-        // Match "whole word" boundary regex
-        // (?<!\w)kw(?!\w)
-        String regex = "(?<!\\w)" + Pattern.quote(kw) + "(?!\\w)";
-        return Pattern.compile(regex).matcher(text).find();
-    }
-
-    private boolean containsAny(String text, List<String> keywords) {
-        for (String kw : keywords) {
-            if (matchKeyword(text, kw)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private ClassifierMode ruleDecide(String message, boolean hasPrevContext) {
-        String m = normalizeText(message);
+    /**
+     * @param m message đã normalizeText
+     */
+    private ClassifierMode ruleDecide(String m, boolean hasPrevContext) {
         if (m.isEmpty()) {
             return ClassifierMode.NO_SEARCH;
         }
 
+        EnumSet<Signal> signals = KEYWORDS.scan(m);
+
         int noScore = 0;
         int reuseScore = 0;
         int searchScore = 0;
 
         // 1) Giao tiếp: câu rất ngắn + từ xã giao
-        if (m.length() <= 25 && containsAny(m, SMALL_TALK)) {
+        if (m.length() <= 25 && signals.contains(Signal.SMALL_TALK)) {
             noScore += 4;
         }
 
         // 2) Dấu hiệu "hỏi tiếp"
         // (a) Từ chỉ trỏ / tham chiếu
-        if (Pattern.compile("(?<!\\w)(do|day|nay|kia|tren|duoi|doan|phan|cai)(?!\\w)").matcher(m).find()) {
+        if (signals.contains(Signal.DEICTIC)) {
             reuseScore += 2;
         }
 
         // (b) Cụm giải thích
-        if (Pattern.compile(
-                "(giai thich|noi ro|y la|tuc la|noi them|chi tiet|cu the|chua hieu|khong hieu|ko hieu|vi du|explain|elaborate|more detail|tell me more|what do you mean|dont understand|y ban la|y cua ban)")
-                .matcher(m).find()) {
+        if (signals.contains(Signal.EXPLAIN)) {
             reuseScore += 4;
         }
 
         // (c) Câu chỉ toàn ?!
-        if (m.matches("[?!]+")) {
+        if (ONLY_SYMBOLS.matcher(m).matches()) {
             if (hasPrevContext) {
                 reuseScore += 4;
             } else {
@@ -206,40 +332,28 @@ public class MessageClassifierService {
         }
 
         // (f) Follow-up keywords
-        if (containsAny(m, FOLLOW_UP)) {
+        if (signals.contains(Signal.FOLLOW_UP)) {
             reuseScore += 5; // Tăng điểm follow up để thắng search score (3 -> 5)
         }
 
         // 3) Dấu hiệu "hỏi kiến thức mới"
         // Có từ để hỏi + nội dung
-        if (Pattern.compile(
-                "(la gi|dinh nghia|cong thuc|huong dan|cai dat|how to|how does|what is|define|explain.*architecture|compare|so sanh)")
-                .matcher(m).find()) {
+        if (signals.contains(Signal.KNOWLEDGE) || EXPLAIN_ARCHITECTURE.matcher(m).find()) {
             searchScore += 4;
         }
 
         // Có từ liên quan video/lesson
-        if (Pattern.compile(
-                "(video|bai hoc|giang vien|tom tat|phut thu|noi dung chinh|y chinh|diem quan trong|doan phut|phut \\d|concept at|lesson|instructor|summarize|main topic|this video|cover|demo)")
-                .matcher(m).find()) {
+        if (signals.contains(Signal.LESSON)) {
             searchScore += 4;
         }
 
         // Có từ liên quan công văn/quy chế (REGULATION)
-        if (Pattern.compile(
-                "(cong van|nghi dinh|thong tu|quyet dinh|luat|bo luat|hien phap|chi thi|nguyen tac|dieu|khoan|chuong|muc|phu luc|van ban|quy che|quy dinh|huong dan)")
-                .matcher(m).find()) {
+        if (signals.contains(Signal.REGULATION)) {
             searchScore += 4;
         }
 
         // Có nhiều từ kỹ thuật (Heuristic)
-        String techRegex = "(react|node|python|javascript|typescript|docker|kubernetes|sql|nosql|mysql|postgresql|" +
-                "api|database|async|await|hook|component|java|spring|golang|redis|mongodb|" +
-                "flask|django|fastapi|angular|vue|nestjs|express|graphql|microservices|" +
-                "aws|azure|gcp|machine learning|deep learning|neural network|tensorflow|pytorch|" +
-                "rust|cpp|csharp|laravel|php|ruby|rails|next|nuxt|webpack|vite|git|linux|devops|" +
-                "rest|grpc|websocket|kafka|rabbitmq|elasticsearch|nginx|apache)";
-        if (Pattern.compile(techRegex).matcher(m).find()) {
+        if (signals.contains(Signal.TECH)) {
             searchScore += 3;
             // Có tech term + không context -> rất có thể hỏi mới
             if (!hasPrevContext) {
@@ -248,7 +362,7 @@ public class MessageClassifierService {
         }
 
         // Ký tự đặc biệt code
-        if (Pattern.compile("[_::\\(\\)\\[\\]]").matcher(m).find()) {
+        if (CODE_CHARS.matcher(m).find()) {
             searchScore += 1;
         }
 
@@ -279,11 +393,82 @@ public class MessageClassifierService {
             return ClassifierMode.SEARCH;
         }
 
-        // Mơ hồ -> fallback LLM
+        // Mơ hồ -> local classifier / LLM
         return null;
     }
 
+    /**
+     * Phân loại phần rule chưa quyết được, theo hình dạng câu: có phải câu hỏi
+     * không, số từ chỉ trỏ, số từ nội dung. Chỉ trả kết quả cho các dạng rõ ràng,
+     * còn lại null để hỏi LLM.
+     *
+     * @param m message đã normalizeText
+     */
+    static ClassifierMode localDecide(String m, boolean hasPrevContext) {
+        String[] tokens = SPACES.split(ONLY_SYMBOLS.matcher(m).replaceAll(" ").trim());
+        if (tokens.length == 0 || tokens[0].isEmpty()) {
+            return null;
+        }
+
+        boolean question = m.indexOf('?') >= 0;
+        int deictic = 0;
+        int content = 0;
+        for (String token : tokens) {
+            if (QUESTION_WORDS.contains(token)) {
+                question = true;
+            } else if (DEICTIC.contains(token)) {
+                deictic++;
+            } else if (!FUNCTION_WORDS.contains(token)) {
+                content++;
+            }
+        }
+
+        if (!question) {
+            // Phản hồi ngắn không có nội dung ("vang a", "uh")
+            return tokens.length <= 2 && content == 0 ? ClassifierMode.NO_SEARCH : null;
+        }
+        // "cai kia thi sao?", "con gi nua?"
+        if (hasPrevContext && content <= 1 && (deictic > 0 || tokens.length <= 3)) {
+            return ClassifierMode.REUSE;
+        }
+        // Câu hỏi có nội dung mới, không tham chiếu câu trước
+        if (content >= 3 && deictic == 0) {
+            return ClassifierMode.SEARCH;
+        }
+        return null;
+    }
+
+    private ClassifierMode cachedDecision(String key) {
+        decisionsLock.lock();
+        try {
+            Decision decision = decisions.get(key);
+            if (decision == null) {
+                return null;
+            }
+            if (decision.expiresAt() < System.currentTimeMillis()) {
+                decisions.remove(key);
+                return null;
+            }
+            return decision.mode();
+        } finally {
+            decisionsLock.unlock();
+        }
+    }
+
+    private void cacheDecision(String key, ClassifierMode mode) {
+        decisionsLock.lock();
+        try {
+            decisions.put(key, new Decision(mode, System.currentTimeMillis() + DECISION_CACHE_TTL_MS));
+        } finally {
+            decisionsLock.unlock();
+        }
+    }
+
+    /**
+     * @return null nếu gọi LLM lỗi (không cache)
+     */
     private ClassifierMode llmClassifyMode(String message, boolean hasPrevContext, List<String> previousMessages) {
+        llmCalls.increment();
         try {
             String history = (previousMessages == null || previousMessages.isEmpty()) ? "(khong co)"
                     : String.join("\n", previousMessages);
@@ -325,8 +510,9 @@ public class MessageClassifierService {
             return ClassifierMode.SEARCH; // Default safe option
 
         } catch (Exception e) {
+            llmFailures.increment();
             log.error("LLM classifier failed: {}", e.getMessage());
-            return ClassifierMode.SEARCH; // Fallback an toàn nhất
+            return null;
         }
     }
 }
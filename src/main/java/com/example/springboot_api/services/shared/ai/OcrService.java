@@ -1,18 +1,32 @@
 package com.example.springboot_api.services.shared.ai;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 import javax.imageio.ImageIO;
 
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.tika.Tika;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -24,7 +38,28 @@ public class OcrService {
     @Value("${file.upload-dir:uploads}")
     private String uploadDir;
 
+    @Value("${ocr.pdf.dpi:300}")
+    private int pdfDpi;
+
+    // Trang có ít nhất số ký tự chữ/số này trong text layer thì dùng luôn, không
+    // OCR
+    @Value("${ocr.pdf.min-text-layer-chars:40}")
+    private int minTextLayerChars;
+
+    // Số trang tối đa đã render nhưng chưa đẩy ra sink
+    @Value("${ocr.pdf.max-pending-pages:16}")
+    private int maxPendingPages;
+
+    private static final int READ_BUFFER_CHARS = 16 * 1024;
+    private static final Pattern TABS = Pattern.compile("[\\t]+");
+    private static final Pattern MULTI_SPACES = Pattern.compile("\\s{2,}");
+
     private final Tika tika = new Tika();
+    private final Executor ocrExecutor;
+
+    public OcrService(@Qualifier("ocrExecutor") Executor ocrExecutor) {
+        this.ocrExecutor = ocrExecutor;
+    }
 
     // Auto detect tesseract path
     private String getTesseractBinary() {
@@ -62,19 +97,36 @@ public class OcrService {
     // ============= MAIN ENTRY =============
 
     public String extract(String filePath) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        extractStreaming(filePath, sb::append);
+        return cleanText(sb.toString());
+    }
+
+    /**
+     * Trích xuất text theo từng đoạn và đẩy dần vào sink (từng trang PDF / từng
+     * buffer của Tika), không giữ toàn bộ văn bản trong bộ nhớ.
+     * Các đoạn được đẩy ra đúng thứ tự trong tài liệu.
+     */
+    public void extractStreaming(String filePath, Consumer<String> sink) throws Exception {
         Path path = resolvePath(filePath);
         File file = path.toFile();
 
         String mime = tika.detect(file);
 
-        if (mime.equals("application/pdf"))
-            return extractFromPDF(file);
+        if (mime.equals("application/pdf")) {
+            streamFromPDF(file, sink);
+            return;
+        }
 
-        if (mime.startsWith("image/"))
-            return extractFromImage(file);
+        if (mime.startsWith("image/")) {
+            sink.accept(extractFromImage(file));
+            return;
+        }
 
-        if (mime.contains("word"))
-            return extractFromWord(file);
+        if (mime.contains("word")) {
+            streamFromWord(file, sink);
+            return;
+        }
 
         throw new BadRequestException("Không hỗ trợ OCR file: " + mime);
     }
@@ -88,31 +140,112 @@ public class OcrService {
     // ============= OCR WORD =============
     // dùng Tika, miễn phí, không lỗi
     public String extractFromWord(File file) throws Exception {
-        String text = tika.parseToString(file);
-        return cleanText(text);
+        StringBuilder sb = new StringBuilder();
+        streamFromWord(file, sb::append);
+        return cleanText(sb.toString());
+    }
+
+    // Tika parse ở thread nền và trả về Reader → đọc từng buffer
+    private void streamFromWord(File file, Consumer<String> sink) throws Exception {
+        try (Reader reader = tika.parse(file)) {
+            char[] buffer = new char[READ_BUFFER_CHARS];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                String segment = normalizeSegment(new String(buffer, 0, read));
+                if (!segment.isEmpty()) {
+                    sink.accept(segment);
+                }
+            }
+        }
     }
 
     // ============= OCR PDF =============
-    // convert từng page -> PNG -> OCR
+    // Trang có text layer → lấy text trực tiếp (PDFBox), không render.
+    // Trang scan → render (tuần tự, PDFBox không thread-safe) rồi OCR song song
+    // trên ocrExecutor, ảnh được pipe vào tesseract qua stdin.
+    // Kết quả được ghép lại đúng thứ tự trang.
     public String extractFromPDF(File file) throws Exception {
         StringBuilder sb = new StringBuilder();
+        streamFromPDF(file, sb::append);
+        return cleanText(sb.toString());
+    }
+
+    // Trang nào xong (theo thứ tự) thì đẩy ra sink ngay; số trang đang chờ OCR bị
+    // giới hạn bởi maxPendingPages để bộ nhớ không tăng theo số trang
+    private void streamFromPDF(File file, Consumer<String> sink) throws Exception {
+        Deque<CompletableFuture<String>> pending = new ArrayDeque<>();
+        int totalPages;
+        int ocrPages = 0;
 
         try (PDDocument doc = Loader.loadPDF(file)) {
             PDFRenderer renderer = new PDFRenderer(doc);
-            int totalPages = doc.getNumberOfPages();
+            PDFTextStripper stripper = new PDFTextStripper();
+            totalPages = doc.getNumberOfPages();
 
             for (int i = 0; i < totalPages; i++) {
-                BufferedImage img = renderer.renderImageWithDPI(i, 300); // DPI cao → OCR đẹp
-                File temp = convertBufferedImageToTemp(img);
+                stripper.setStartPage(i + 1);
+                stripper.setEndPage(i + 1);
+                String layerText = stripper.getText(doc);
+
+                if (hasUsableTextLayer(layerText)) {
+                    pending.addLast(CompletableFuture.completedFuture(layerText));
+                } else {
+                    // Ảnh xám đủ cho OCR, nhẹ hơn 3 lần so với RGB
+                    BufferedImage img = renderer.renderImageWithDPI(i, pdfDpi, ImageType.GRAY);
+                    pending.addLast(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return runTesseract(toPng(img));
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                    }, ocrExecutor));
+                    ocrPages++;
+                }
+
+                drainPages(pending, sink, maxPendingPages);
+            }
+        }
+
+        drainPages(pending, sink, 0);
+
+        System.out.println("📄 PDF: " + totalPages + " trang, OCR " + ocrPages + " trang, "
+                + (totalPages - ocrPages) + " trang dùng text layer");
+    }
 
-                String text = runTesseract(temp);
-                sb.append(text).append("\n");
+    private void drainPages(Deque<CompletableFuture<String>> pending, Consumer<String> sink, int maxPending)
+            throws Exception {
+        while (!pending.isEmpty() && (pending.size() > maxPending || pending.peekFirst().isDone())) {
+            CompletableFuture<String> head = pending.pollFirst();
+            String text;
+            try {
+                text = head.join();
+            } catch (CompletionException e) {
+                pending.forEach(p -> p.cancel(true));
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof Exception ex) {
+                    throw ex;
+                }
+                throw e;
+            }
 
-                temp.delete();
+            String cleaned = cleanText(text);
+            if (!cleaned.isEmpty()) {
+                sink.accept(cleaned + "\n");
             }
         }
+    }
 
-        return cleanText(sb.toString());
+    private boolean hasUsableTextLayer(String text) {
+        if (text == null) {
+            return false;
+        }
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isLetterOrDigit(text.charAt(i)) && ++count >= minTextLayerChars) {
+                return true;
+            }
+        }
+        return false;
     }
 
     // ============= SUPPORT: run Tesseract CLI =============
@@ -138,11 +271,37 @@ public class OcrService {
         return cleanText(output);
     }
 
-    // convert buffer image -> file tạm
-    private File convertBufferedImageToTemp(BufferedImage image) throws IOException {
-        File temp = File.createTempFile("ocr_img_", ".png");
-        ImageIO.write(image, "png", temp);
-        return temp;
+    // OCR ảnh trong bộ nhớ: ghi ảnh vào stdin của tesseract, không tạo file tạm
+    private String runTesseract(byte[] imageBytes) throws Exception {
+        String tesseract = getTesseractBinary();
+
+        ProcessBuilder pb = new ProcessBuilder(
+                tesseract,
+                "stdin",
+                "stdout",
+                "-l", "vie+eng");
+
+        pb.redirectErrorStream(true);
+
+        Process process = pb.start();
+        // tesseract đọc hết ảnh rồi mới ghi kết quả → ghi xong stdin mới đọc stdout
+        try (OutputStream stdin = process.getOutputStream()) {
+            stdin.write(imageBytes);
+        }
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        int exitCode = process.waitFor();
+
+        if (exitCode != 0)
+            throw new BadRequestException("OCR thất bại (exit " + exitCode + "): " + output);
+
+        return cleanText(output);
+    }
+
+    // encode ảnh render -> PNG trong bộ nhớ
+    private byte[] toPng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
     }
 
     // ============= CLEAN TEXT =============
@@ -150,10 +309,14 @@ public class OcrService {
     private String cleanText(String text) {
         if (text == null)
             return "";
-        return text
-                .replaceAll("[\\t]+", " ")
-                .replaceAll("\\s{2,}", " ")
-                .trim();
+        return normalizeSegment(text).trim();
+    }
+
+    // Giống cleanText nhưng không trim: đoạn giữa văn bản phải giữ khoảng trắng ở
+    // biên để không dính chữ giữa 2 đoạn
+    private String normalizeSegment(String text) {
+        String noTabs = TABS.matcher(text).replaceAll(" ");
+        return MULTI_SPACES.matcher(noTabs).replaceAll(" ");
     }
 
     // ============= PATH =============
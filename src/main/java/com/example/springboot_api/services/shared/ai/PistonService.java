@@ -1,5 +1,6 @@
 package com.example.springboot_api.services.shared.ai;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +26,7 @@ import lombok.extern.slf4j.Slf4j;
 public class PistonService {
 
     private final SupportedLanguageRepository languageRepository;
+    private final WebClient.Builder webClientBuilder;
 
     @Value("${piston.url:http://localhost:2000}")
     private String pistonUrl;
@@ -36,7 +38,8 @@ public class PistonService {
 
     private WebClient getWebClient() {
         if (webClient == null) {
-            webClient = WebClient.builder()
+            // Builder được inject: dùng chung connection pool / timeout của AiHttpClientConfig
+            webClient = webClientBuilder
                     .baseUrl(pistonUrl)
                     .build();
         }
@@ -78,7 +81,7 @@ public class PistonService {
                     .bodyValue(payload)
                     .retrieve()
                     .bodyToMono(Map.class)
-                    .block();
+                    .block(Duration.ofSeconds(timeout));
 
             log.info("✅ [PISTON] Execution completed");
             return response;
@@ -102,7 +105,7 @@ public class PistonService {
                     .uri("/api/v2/runtimes")
                     .retrieve()
                     .bodyToMono(List.class)
-                    .block();
+                    .block(Duration.ofSeconds(timeout));
 
             log.info("✅ [PISTON] Found {} runtimes", runtimes != null ? runtimes.size() : 0);
             return runtimes;
@@ -0,0 +1,337 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.springboot_api.config.AsyncConfig;
+import com.example.springboot_api.dto.shared.ai.RagRerankStats;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Xếp lại các chunk RAG ứng viên trước khi đưa vào prompt: lấy dư ứng viên
+ * (candidates), chấm điểm theo câu hỏi rồi chỉ giữ top-k chunk tốt nhất.
+ *
+ * - LOCAL: chấm trong JVM, kết hợp cosine similarity với độ phủ từ khóa của câu
+ * hỏi (trọng số IDF tính trên tập ứng viên) và cụm "điều 12" khớp nguyên văn.
+ * Dưới 1ms cho vài chục chunk.
+ * - LLM: một lần gọi Groq chấm điểm cả lô (0-10 mỗi đoạn) trên
+ * ragRerankExecutor, chạy trong ai.rag.rerank.budget-ms; quá hạn thì lời gọi bị
+ * interrupt (hủy request HTTP / lượt chờ quota), quá hạn / lỗi / trả sai định
+ * dạng thì dùng điểm LOCAL.
+ *
+ * Chunk có điểm dưới relative-cutoff × điểm cao nhất bị bỏ (luôn giữ ít nhất
+ * một chunk), để prompt không mang theo các chunk chỉ hơi liên quan.
+ */
+@Service
+@Slf4j
+public class RagRerankService {
+
+    public enum Mode {
+        LOCAL, LLM
+    }
+
+    private static final double SIMILARITY_WEIGHT = 0.6;
+    private static final double COVERAGE_WEIGHT = 0.3;
+    private static final double PHRASE_WEIGHT = 0.1;
+    private static final double LLM_WEIGHT = 0.8;
+
+    private static final Pattern NUMBER = Pattern.compile("\\d+(?:\\.\\d+)?");
+
+    private final LexicalSearchService lexicalSearchService;
+    private final MessageClassifierService messageClassifierService;
+    private final AIModelService aiModelService;
+    private final Executor executor;
+
+    @Value("${ai.rag.rerank.enabled:false}")
+    private boolean enabled;
+
+    @Value("${ai.rag.rerank.mode:LOCAL}")
+    private Mode mode;
+
+    // Số chunk lấy từ searchRagChunks để chấm điểm
+    @Value("${ai.rag.rerank.candidates:20}")
+    private int candidates;
+
+    // Số chunk tối đa đưa vào prompt
+    @Value("${ai.rag.rerank.top-k:4}")
+    private int topK;
+
+    @Value("${ai.rag.rerank.relative-cutoff:0.6}")
+    private double relativeCutoff;
+
+    // Thời gian tối đa cho một lần rerank (chỉ có ý nghĩa với LLM)
+    @Value("${ai.rag.rerank.budget-ms:1200}")
+    private long budgetMs;
+
+    // Số ký tự mỗi chunk gửi cho LLM chấm điểm
+    @Value("${ai.rag.rerank.llm-content-chars:600}")
+    private int llmContentChars;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMs = new AtomicLong();
+    private final LongAdder totalCandidates = new LongAdder();
+    private final LongAdder totalKept = new LongAdder();
+
+    public RagRerankService(LexicalSearchService lexicalSearchService,
+            MessageClassifierService messageClassifierService, AIModelService aiModelService,
+            @Qualifier(AsyncConfig.RAG_RERANK_EXECUTOR) Executor executor) {
+        this.lexicalSearchService = lexicalSearchService;
+        this.messageClassifierService = messageClassifierService;
+        this.aiModelService = aiModelService;
+        this.executor = executor;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Số ứng viên cần lấy từ vector search trước khi rerank.
+     */
+    public int candidateCount() {
+        return Math.max(candidates, topK);
+    }
+
+    /**
+     * Chấm điểm candidates theo câu hỏi và trả về tối đa top-k phần tử, điểm giảm
+     * dần.
+     *
+     * @param content    nội dung dùng để chấm điểm
+     * @param similarity cosine similarity của vector search
+     */
+    public <T> List<T> rerank(String queryText, List<T> candidates, Function<T, String> content,
+            ToDoubleFunction<T> similarity) {
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        long start = System.nanoTime();
+
+        List<String> texts = new ArrayList<>(candidates.size());
+        double[] similarities = new double[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            String text = content.apply(candidates.get(i));
+            texts.add(text != null ? text : "");
+            similarities[i] = similarity.applyAsDouble(candidates.get(i));
+        }
+
+        double[] scores = localScores(lexicalSearchService.queryTerms(queryText), texts, similarities);
+        if (mode == Mode.LLM && candidates.size() > 1) {
+            double[] llmScores = llmScores(queryText, texts, start);
+            if (llmScores != null) {
+                for (int i = 0; i < scores.length; i++) {
+                    scores[i] = LLM_WEIGHT * llmScores[i] + (1 - LLM_WEIGHT) * scores[i];
+                }
+            }
+        }
+
+        List<T> kept = select(candidates, scores);
+        record(start, candidates.size(), kept.size());
+        return kept;
+    }
+
+    public RagRerankStats getStats() {
+        long n = count.sum();
+        return new RagRerankStats(
+                enabled ? mode.name() : "DISABLED",
+                n,
+                timeouts.sum(),
+                failures.sum(),
+                n == 0 ? 0 : totalMicros.sum() / 1000.0 / n,
+                maxMs.get(),
+                n == 0 ? 0 : (double) totalCandidates.sum() / n,
+                n == 0 ? 0 : (double) totalKept.sum() / n);
+    }
+
+    /**
+     * Điểm 0-1 không cần gọi mạng: SIMILARITY_WEIGHT × cosine + COVERAGE_WEIGHT ×
+     * tỉ lệ từ khóa (theo IDF) có trong chunk + PHRASE_WEIGHT × tỉ lệ cụm "chữ số"
+     * khớp nguyên văn.
+     */
+    double[] localScores(LexicalSearchService.QueryTerms query, List<String> texts, double[] similarities) {
+        int n = texts.size();
+        List<Set<String>> tokens = new ArrayList<>(n);
+        List<String> normalized = new ArrayList<>(n);
+        for (String text : texts) {
+            String norm = messageClassifierService.normalizeText(text);
+            normalized.add(" " + norm.replaceAll("[^a-z0-9]+", " ") + " ");
+            tokens.add(new HashSet<>(List.of(norm.split("[^a-z0-9]+"))));
+        }
+
+        // IDF kiểu BM25 trên tập ứng viên: từ có trong mọi chunk gần như không phân biệt được
+        Map<String, Double> idf = new HashMap<>();
+        double totalIdf = 0;
+        for (String term : query.terms()) {
+            int df = 0;
+            for (Set<String> chunkTokens : tokens) {
+                if (chunkTokens.contains(term)) {
+                    df++;
+                }
+            }
+            double weight = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+            idf.put(term, weight);
+            totalIdf += weight;
+        }
+
+        double[] scores = new double[n];
+        for (int i = 0; i < n; i++) {
+            double coverage = 0;
+            if (totalIdf > 0) {
+                for (Map.Entry<String, Double> entry : idf.entrySet()) {
+                    if (tokens.get(i).contains(entry.getKey())) {
+                        coverage += entry.getValue();
+                    }
+                }
+                coverage /= totalIdf;
+            }
+            double phrase = 0;
+            if (!query.phrases().isEmpty()) {
+                for (String p : query.phrases()) {
+                    if (normalized.get(i).contains(" " + p + " ")) {
+                        phrase++;
+                    }
+                }
+                phrase /= query.phrases().size();
+            }
+            scores[i] = SIMILARITY_WEIGHT * similarities[i] + COVERAGE_WEIGHT * coverage + PHRASE_WEIGHT * phrase;
+        }
+        return scores;
+    }
+
+    /**
+     * Điểm 0-1 do LLM chấm cho cả lô, null khi quá budget / lỗi / sai định dạng.
+     */
+    private double[] llmScores(String queryText, List<String> texts, long start) {
+        long remainingMs = budgetMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (remainingMs <= 0) {
+            timeouts.increment();
+            return null;
+        }
+
+        // FutureTask: cancel(true) interrupt thread đang gọi, khác CompletableFuture
+        FutureTask<String> future = new FutureTask<>(
+                () -> aiModelService.callGroqModel(buildLlmPrompt(queryText, texts)));
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            failures.increment();
+            return null;
+        }
+
+        try {
+            return parseLlmScores(future.get(remainingMs, TimeUnit.MILLISECONDS), texts.size());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeouts.increment();
+            log.warn("⏱️ [RERANK] LLM chấm điểm quá {}ms, dùng điểm local", budgetMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            failures.increment();
+            log.warn("⚠️ [RERANK] LLM chấm điểm lỗi: {}", e.getCause().getMessage());
+        }
+        return null;
+    }
+
+    private String buildLlmPrompt(String queryText, List<String> texts) {
+        StringBuilder passages = new StringBuilder();
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i).replaceAll("\\s+", " ").trim();
+            if (text.length() > llmContentChars) {
+                text = text.substring(0, llmContentChars) + "...";
+            }
+            passages.append("[").append(i + 1).append("] ").append(text).append("\n");
+        }
+        return """
+                Chấm mức độ liên quan của từng đoạn tài liệu với câu hỏi, thang 0-10
+                (10 = trả lời trực tiếp câu hỏi, 0 = không liên quan).
+
+                CÂU HỎI: %s
+
+                CÁC ĐOẠN:
+                %s
+                Chỉ trả về một mảng JSON gồm %d số nguyên theo đúng thứ tự các đoạn, ví dụ [7, 0, 10].
+                Không giải thích, không codeblock.
+                """.formatted(queryText, passages, texts.size());
+    }
+
+    private double[] parseLlmScores(String response, int expected) {
+        if (response == null) {
+            failures.increment();
+            return null;
+        }
+        int open = response.indexOf('[');
+        int close = response.indexOf(']', open + 1);
+        if (open < 0 || close < 0) {
+            failures.increment();
+            return null;
+        }
+        Matcher matcher = NUMBER.matcher(response.substring(open + 1, close));
+        List<Double> values = new ArrayList<>(expected);
+        while (matcher.find()) {
+            values.add(Double.parseDouble(matcher.group()));
+        }
+        if (values.size() != expected) {
+            failures.increment();
+            log.warn("⚠️ [RERANK] LLM trả {} điểm cho {} đoạn, dùng điểm local", values.size(), expected);
+            return null;
+        }
+        double[] scores = new double[expected];
+        for (int i = 0; i < expected; i++) {
+            scores[i] = Math.max(0, Math.min(10, values.get(i))) / 10.0;
+        }
+        return scores;
+    }
+
+    private <T> List<T> select(List<T> candidates, double[] scores) {
+        List<Integer> order = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingDouble((Integer i) -> scores[i]).reversed());
+
+        double best = scores[order.get(0)];
+        List<T> kept = new ArrayList<>(Math.min(topK, candidates.size()));
+        for (int i : order) {
+            if (kept.size() >= topK || (!kept.isEmpty() && scores[i] < best * relativeCutoff)) {
+                break;
+            }
+            kept.add(candidates.get(i));
+        }
+        return kept;
+    }
+
+    private void record(long start, int candidateCount, int keptCount) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        count.increment();
+        totalMicros.add(micros);
+        maxMs.accumulateAndGet(micros / 1000, Math::max);
+        totalCandidates.add(candidateCount);
+        totalKept.add(keptCount);
+        log.debug("🎯 [RERANK] {} → {} chunk trong {}µs ({})", candidateCount, keptCount, micros, mode);
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.example.springboot_api.dto.shared.ai.RagCacheStats;
+
+/**
+ * Cache kết quả truy vấn RAG: (notebookId, tập fileIds, câu hỏi đã chuẩn hóa,
+ * limit) → danh sách chunk top-k. Hit thì bỏ qua cả bước embedding câu hỏi lẫn
+ * rag_search_chunks.
+ *
+ * Tầng embedding câu hỏi (text → vector) đã có ở EmbeddingCacheService; cache
+ * này nằm phía trên, key theo text vì cùng text thì cùng embedding.
+ *
+ * Entry bị xóa khi chunk của một file trong tập fileIds được ghi lại / xóa
+ * (FileChunksChangedEvent → invalidateFile), và tự hết hạn sau ai.rag.cache.ttl-seconds.
+ */
+@Service
+public class RagResultCache {
+
+    private final int capacity;
+    private final long ttlMs;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Tăng mỗi lần invalidate: kết quả tính từ trước lần invalidate không được put
+    private final AtomicLong epoch = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public RagResultCache(
+            @Value("${ai.rag.cache.entries:2000}") int capacity,
+            @Value("${ai.rag.cache.ttl-seconds:600}") long ttlSeconds) {
+        this.capacity = capacity;
+        this.ttlMs = ttlSeconds * 1000;
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > RagResultCache.this.capacity;
+            }
+        };
+    }
+
+    private record Entry(Set<UUID> fileIds, List<?> chunks, long expiresAt) {
+    }
+
+    /**
+     * Vé tra cache: giữ key và epoch lúc tra, dùng lại khi put kết quả.
+     */
+    public record Lookup(String key, Set<UUID> fileIds, long epoch) {
+    }
+
+    public Lookup lookup(UUID notebookId, Collection<UUID> fileIds, String queryText, int limit) {
+        Set<UUID> sortedIds = new TreeSet<>(fileIds);
+        String key = notebookId + "|" + sortedIds + "|" + limit + "|" + normalize(queryText);
+        return new Lookup(key, sortedIds, epoch.get());
+    }
+
+    /**
+     * @return danh sách chunk đã cache, null nếu miss
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(Lookup lookup) {
+        if (capacity <= 0) {
+            return null;
+        }
+        Entry entry;
+        lock.lock();
+        try {
+            entry = entries.get(lookup.key());
+            if (entry != null && entry.expiresAt() < System.currentTimeMillis()) {
+                entries.remove(lookup.key());
+                entry = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return (List<T>) entry.chunks();
+    }
+
+    public <T> void put(Lookup lookup, List<T> chunks) {
+        if (capacity <= 0) {
+            return;
+        }
+        Entry entry = new Entry(lookup.fileIds(), List.copyOf(chunks), System.currentTimeMillis() + ttlMs);
+        lock.lock();
+        try {
+            // Chunk đã bị ghi lại trong lúc truy vấn: kết quả có thể cũ, bỏ qua
+            if (epoch.get() != lookup.epoch()) {
+                return;
+            }
+            entries.put(lookup.key(), entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Xóa mọi kết quả có chứa file này. Gọi khi chunk của file được ghi lại hoặc
+     * xóa.
+     */
+    public void invalidateFile(UUID fileId) {
+        if (fileId == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            epoch.incrementAndGet();
+            entries.values().removeIf(entry -> entry.fileIds().contains(fileId));
+        } finally {
+            lock.unlock();
+        }
+        invalidations.increment();
+    }
+
+    // Sau commit: trước đó truy vấn khác vẫn đọc được chunk cũ và cache lại
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onFileChunksChanged(FileChunksChangedEvent event) {
+        invalidateFile(event.fileId());
+    }
+
+    public RagCacheStats getStats() {
+        long hit = hits.sum();
+        long miss = misses.sum();
+        long total = hit + miss;
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        return new RagCacheStats(hit, miss, total == 0 ? 0.0 : (double) hit / total, invalidations.sum(), size,
+                capacity);
+    }
+
+    /**
+     * Chuẩn hóa câu hỏi để các câu gần giống nhau dùng chung entry: chữ thường,
+     * gộp khoảng trắng, bỏ dấu câu ở cuối ("Điều kiện tốt nghiệp?" = "điều kiện
+     * tốt nghiệp").
+     */
+    private String normalize(String queryText) {
+        String normalized = queryText == null ? ""
+                : queryText.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return normalized.replaceAll("[\\s?.!…]+$", "");
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reciprocal rank fusion (Cormack et al., 2009): gộp nhiều danh sách đã xếp
+ * hạng mà không cần đưa điểm của chúng về cùng thang đo.
+ *
+ * score(d) = Σ 1 / (k + rank_i(d)), rank tính từ 1; phần tử chỉ có trong một
+ * danh sách vẫn được tính. k = 60 là giá trị của bài báo gốc, càng lớn thì
+ * khoảng cách giữa các hạng đầu càng nhỏ.
+ */
+public final class RankFusion {
+
+    public static final int DEFAULT_K = 60;
+
+    private RankFusion() {
+    }
+
+    /**
+     * @param rankings các danh sách key, mỗi danh sách tốt nhất trước
+     * @param limit    số key tối đa trả về
+     * @return key giảm dần theo điểm RRF; bằng điểm thì key xuất hiện trước (theo
+     *         thứ tự rankings) đứng trước
+     */
+    public static <K> List<K> reciprocalRank(List<? extends List<K>> rankings, int limit) {
+        return reciprocalRank(rankings, limit, DEFAULT_K);
+    }
+
+    public static <K> List<K> reciprocalRank(List<? extends List<K>> rankings, int limit, int k) {
+        Map<K, Double> scores = new LinkedHashMap<>();
+        for (List<K> ranking : rankings) {
+            for (int i = 0; i < ranking.size(); i++) {
+                scores.merge(ranking.get(i), 1.0 / (k + i + 1), Double::sum);
+            }
+        }
+
+        List<Map.Entry<K, Double>> sorted = new ArrayList<>(scores.entrySet());
+        // List.sort ổn định: giữ thứ tự xuất hiện khi bằng điểm
+        sorted.sort(Map.Entry.<K, Double>comparingByValue().reversed());
+
+        List<K> fused = new ArrayList<>(Math.min(limit, sorted.size()));
+        for (int i = 0; i < sorted.size() && i < limit; i++) {
+            fused.add(sorted.get(i).getKey());
+        }
+        return fused;
+    }
+}
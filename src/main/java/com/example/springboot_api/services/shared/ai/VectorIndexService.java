@@ -0,0 +1,487 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.sql.Array;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.springboot_api.common.exceptions.BadRequestException;
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
+import com.example.springboot_api.dto.admin.vectorindex.CreateVectorIndexRequest;
+import com.example.springboot_api.dto.admin.vectorindex.VectorIndexBenchmarkRequest;
+import com.example.springboot_api.dto.admin.vectorindex.VectorIndexBenchmarkResponse;
+import com.example.springboot_api.dto.admin.vectorindex.VectorIndexResponse;
+import com.example.springboot_api.models.types.PgVector;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Quản lý ANN index (pgvector HNSW / IVFFlat) trên file_chunks.embedding và
+ * tham số truy vấn của nó.
+ *
+ * - Tạo / build lại / xóa index bằng CREATE / REINDEX / DROP ... CONCURRENTLY
+ * trên taskExecutor, không khóa ghi bảng file_chunks trong lúc build.
+ * - inSearchTransaction: chạy truy vấn RAG trong transaction read-only riêng
+ * với SET LOCAL hnsw.ef_search / ivfflat.probes (hoặc tắt index để so sánh
+ * exact).
+ * - searchTopK: như trên, nhưng chạy lại exact nếu index trả về ít hơn k dòng.
+ * Lọc notebook / file xảy ra sau khi index trả ứng viên, nên notebook nhỏ trong
+ * bảng lớn cần hnsw.iterative_scan (pgvector >= 0.8, mặc định relaxed_order);
+ * pgvector cũ hơn thì chỉ còn fallback exact.
+ * - benchmark: recall@k và độ trễ ANN so với exact search trên một notebook.
+ */
+@Service
+@Slf4j
+public class VectorIndexService {
+
+    /**
+     * HNSW / IVFFLAT: index trên vector đầy đủ. HNSW_*: index trên biểu thức rút gọn
+     * của embedding, dùng cho VectorStorageMode tương ứng (xem
+     * scripts/add_vector_storage_modes.sql).
+     */
+    public enum IndexType {
+        HNSW("idx_file_chunks_embedding_hnsw", "embedding vector_cosine_ops"),
+        IVFFLAT("idx_file_chunks_embedding_ivfflat", "embedding vector_cosine_ops"),
+        HNSW_HALFVEC("idx_file_chunks_embedding_hnsw_halfvec",
+                "(embedding::halfvec(1536)) halfvec_cosine_ops"),
+        HNSW_HALFVEC_768("idx_file_chunks_embedding_hnsw_halfvec_768",
+                "(subvector(embedding, 1, 768)::halfvec(768)) halfvec_cosine_ops"),
+        HNSW_BINARY("idx_file_chunks_embedding_hnsw_binary",
+                "(binary_quantize(embedding)::bit(1536)) bit_hamming_ops");
+
+        private final String indexName;
+        private final String operand;
+
+        IndexType(String indexName, String operand) {
+            this.indexName = indexName;
+            this.operand = operand;
+        }
+
+        public String indexName() {
+            return indexName;
+        }
+    }
+
+    /**
+     * Tham số cho một lần truy vấn. null = giữ giá trị của session; exact = tắt
+     * index scan để Postgres tính khoảng cách với mọi chunk.
+     */
+    public record SearchTuning(Integer efSearch, Integer probes, boolean exact) {
+        public static final SearchTuning EXACT = new SearchTuning(null, null, true);
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate searchTx;
+    private final Executor buildExecutor;
+    private final AtomicBoolean building = new AtomicBoolean(false);
+
+    @Value("${ai.rag.ann.ef-search:100}")
+    private int efSearch;
+
+    @Value("${ai.rag.ann.probes:10}")
+    private int probes;
+
+    // pgvector >= 0.8: strict_order | relaxed_order | off; bản cũ hơn tự bỏ qua
+    @Value("${ai.rag.ann.iterative-scan:relaxed_order}")
+    private String iterativeScan;
+
+    // null = chưa kiểm tra phiên bản pgvector
+    private volatile Boolean iterativeScanSupported;
+
+    @Value("${ai.rag.ann.maintenance-work-mem:512MB}")
+    private String maintenanceWorkMem;
+
+    public VectorIndexService(
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            @Qualifier("taskExecutor") Executor buildExecutor) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.buildExecutor = buildExecutor;
+
+        // REQUIRES_NEW: SET LOCAL (tắt index scan, ef_search, probes) hết hiệu lực
+        // khi transaction tìm kiếm kết thúc, không lan sang transaction của caller
+        // (vd stage RAG chạy CallerRuns trong @Transactional prepareChat)
+        this.searchTx = new TransactionTemplate(transactionManager);
+        this.searchTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.searchTx.setReadOnly(true);
+    }
+
+    public SearchTuning defaultTuning() {
+        return new SearchTuning(efSearch, probes, false);
+    }
+
+    /**
+     * Chạy truy vấn vector với tham số tuning (SET LOCAL, chỉ có hiệu lực trong
+     * transaction riêng này, kể cả khi caller đang có transaction).
+     */
+    public <T> T inSearchTransaction(SearchTuning tuning, Supplier<T> query) {
+        return searchTx.execute(status -> {
+            applySearchSettings(tuning);
+            return query.get();
+        });
+    }
+
+    /**
+     * Truy vấn top-k qua index; nếu nhận ít hơn limit dòng (ANN lọc notebook / file
+     * sau khi lấy ứng viên) thì chạy lại exact để không mất kết quả. Notebook thật
+     * sự có ít hơn limit chunk cũng đi exact, vốn rẻ vì notebook nhỏ.
+     */
+    public <T> List<T> searchTopK(SearchTuning tuning, int limit, Supplier<List<T>> query) {
+        List<T> rows = inSearchTransaction(tuning, query);
+        if (rows.size() >= limit || (tuning != null && tuning.exact())) {
+            return rows;
+        }
+        log.debug("🔎 [VECTOR-INDEX] ANN trả {} / {} dòng, chạy lại exact", rows.size(), limit);
+        return inSearchTransaction(SearchTuning.EXACT, query);
+    }
+
+    // =========================
+    // QUẢN LÝ INDEX
+    // =========================
+
+    public List<VectorIndexResponse> listIndexes() {
+        Map<String, Object> progress = jdbcTemplate.queryForList(
+                "SELECT phase, tuples_done, tuples_total FROM pg_stat_progress_create_index "
+                        + "WHERE relid = 'public.file_chunks'::regclass")
+                .stream().findFirst().orElse(null);
+
+        List<VectorIndexResponse> result = new ArrayList<>();
+        for (IndexType type : IndexType.values()) {
+            List<VectorIndexResponse> rows = jdbcTemplate.query(
+                    "SELECT i.indexdef, pg_relation_size(c.oid) AS size_bytes, x.indisvalid "
+                            + "FROM pg_indexes i "
+                            + "JOIN pg_class c ON c.relname = i.indexname "
+                            + "AND c.relnamespace = 'public'::regnamespace "
+                            + "JOIN pg_index x ON x.indexrelid = c.oid "
+                            + "WHERE i.schemaname = 'public' AND i.indexname = ?",
+                    (rs, rowNum) -> VectorIndexResponse.builder()
+                            .type(type.name())
+                            .name(type.indexName())
+                            .definition(rs.getString("indexdef"))
+                            .sizeBytes(rs.getLong("size_bytes"))
+                            .valid(rs.getBoolean("indisvalid"))
+                            .build(),
+                    type.indexName());
+
+            for (VectorIndexResponse row : rows) {
+                if (!Boolean.TRUE.equals(row.getValid()) && progress != null) {
+                    row.setBuildPhase((String) progress.get("phase"));
+                    row.setBuildTuplesDone(toLong(progress.get("tuples_done")));
+                    row.setBuildTuplesTotal(toLong(progress.get("tuples_total")));
+                }
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Bắt đầu build index (chạy nền). Index cùng loại đã tồn tại và hợp lệ thì báo
+     * lỗi, dùng rebuild; index lỗi từ lần build trước bị xóa rồi build lại.
+     */
+    public void createIndex(CreateVectorIndexRequest request) {
+        IndexType type = IndexType.valueOf(request.getType());
+        String ddl = buildCreateSql(type, request);
+
+        runBuild("CREATE " + type, () -> {
+            Boolean valid = findValidity(type);
+            if (Boolean.TRUE.equals(valid)) {
+                throw new BadRequestException("Index " + type.indexName() + " đã tồn tại, hãy dùng rebuild.");
+            }
+            if (valid != null) {
+                jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS public." + type.indexName());
+            }
+        }, ddl);
+    }
+
+    /**
+     * Build lại index (REINDEX CONCURRENTLY), ví dụ sau khi ingest nhiều file làm
+     * IVFFlat lệch cụm.
+     */
+    public void rebuildIndex(IndexType type) {
+        runBuild("REINDEX " + type, () -> {
+            if (findValidity(type) == null) {
+                throw new BadRequestException("Index " + type.indexName() + " chưa tồn tại.");
+            }
+        }, "REINDEX INDEX CONCURRENTLY public." + type.indexName());
+    }
+
+    /**
+     * Index đã build xong và dùng được cho truy vấn.
+     */
+    public boolean isIndexValid(IndexType type) {
+        return Boolean.TRUE.equals(findValidity(type));
+    }
+
+    public void dropIndex(IndexType type) {
+        if (building.get()) {
+            throw new TooManyRequestsException("Đang build index, vui lòng thử lại sau.");
+        }
+        jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS public." + type.indexName());
+        log.info("🗑️ [VECTOR-INDEX] Đã xóa {}", type.indexName());
+    }
+
+    // =========================
+    // BENCHMARK
+    // =========================
+
+    /**
+     * So sánh ANN với exact search: mỗi truy vấn là embedding của một chunk ngẫu
+     * nhiên trong notebook, chạy lần lượt exact rồi ANN qua rag_search_chunks.
+     */
+    public VectorIndexBenchmarkResponse benchmark(VectorIndexBenchmarkRequest request) {
+        UUID notebookId = request.getNotebookId();
+        int k = request.getK();
+        SearchTuning tuning = new SearchTuning(
+                request.getEfSearch() != null ? request.getEfSearch() : efSearch,
+                request.getProbes() != null ? request.getProbes() : probes,
+                false);
+
+        List<UUID> fileIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT file_id FROM public.file_chunks WHERE notebook_id = ?", UUID.class, notebookId);
+        if (fileIds.isEmpty()) {
+            throw new BadRequestException("Notebook chưa có chunk nào để benchmark.");
+        }
+        Long notebookChunks = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM public.file_chunks WHERE notebook_id = ?", Long.class, notebookId);
+        List<float[]> samples = jdbcTemplate.query(con -> {
+            PgVector.registerType(con);
+            var ps = con.prepareStatement(
+                    "SELECT embedding FROM public.file_chunks WHERE notebook_id = ? ORDER BY random() LIMIT ?");
+            ps.setObject(1, notebookId);
+            ps.setInt(2, request.getQueries());
+            return ps;
+        }, (rs, rowNum) -> PgVector.toArray(rs.getObject("embedding")));
+
+        List<Long> exactMs = new ArrayList<>(samples.size());
+        List<Long> annMs = new ArrayList<>(samples.size());
+        double recallSum = 0;
+
+        for (float[] vector : samples) {
+            long start = System.nanoTime();
+            Set<String> exact = inSearchTransaction(SearchTuning.EXACT, () -> topK(notebookId, vector, fileIds, k));
+            exactMs.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            start = System.nanoTime();
+            Set<String> ann = inSearchTransaction(tuning, () -> topK(notebookId, vector, fileIds, k));
+            annMs.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            if (!exact.isEmpty()) {
+                Set<String> hit = new HashSet<>(ann);
+                hit.retainAll(exact);
+                recallSum += (double) hit.size() / exact.size();
+            } else {
+                recallSum += 1;
+            }
+        }
+
+        List<String> indexes = listIndexes().stream()
+                .filter(index -> Boolean.TRUE.equals(index.getValid()))
+                .map(VectorIndexResponse::getName)
+                .toList();
+
+        return VectorIndexBenchmarkResponse.builder()
+                .notebookId(notebookId)
+                .queries(samples.size())
+                .k(k)
+                .notebookChunks(notebookChunks)
+                .indexes(indexes)
+                .efSearch(tuning.efSearch())
+                .probes(tuning.probes())
+                .exactAvgMs(average(exactMs))
+                .exactP95Ms(percentile95(exactMs))
+                .annAvgMs(average(annMs))
+                .annP95Ms(percentile95(annMs))
+                .recallAtK(samples.isEmpty() ? 0.0 : recallSum / samples.size())
+                .build();
+    }
+
+    // =========================
+    // PRIVATE HELPERS
+    // =========================
+
+    private void applySearchSettings(SearchTuning tuning) {
+        if (tuning == null) {
+            return;
+        }
+        if (tuning.exact()) {
+            jdbcTemplate.execute("SET LOCAL enable_indexscan = off");
+            return;
+        }
+        if (tuning.efSearch() != null) {
+            setLocal("hnsw.ef_search", String.valueOf(tuning.efSearch()));
+        }
+        if (tuning.probes() != null) {
+            setLocal("ivfflat.probes", String.valueOf(tuning.probes()));
+        }
+        if (iterativeScan != null && !iterativeScan.isBlank() && supportsIterativeScan()) {
+            setLocal("hnsw.iterative_scan", iterativeScan);
+            setLocal("ivfflat.iterative_scan", iterativeScan);
+        }
+    }
+
+    /**
+     * hnsw.iterative_scan / ivfflat.iterative_scan chỉ có từ pgvector 0.8; set trên
+     * bản cũ sẽ lỗi. Kiểm tra một lần theo extversion.
+     */
+    private boolean supportsIterativeScan() {
+        Boolean supported = iterativeScanSupported;
+        if (supported == null) {
+            List<String> versions = jdbcTemplate.queryForList(
+                    "SELECT extversion FROM pg_extension WHERE extname = 'vector'", String.class);
+            supported = !versions.isEmpty() && isAtLeast(versions.get(0), 0, 8);
+            if (!supported) {
+                log.warn("⚠️ [VECTOR-INDEX] pgvector {} chưa hỗ trợ iterative scan (cần >= 0.8), "
+                        + "RAG sẽ chạy lại exact khi index trả thiếu kết quả",
+                        versions.isEmpty() ? "?" : versions.get(0));
+            }
+            iterativeScanSupported = supported;
+        }
+        return supported;
+    }
+
+    private static boolean isAtLeast(String version, int major, int minor) {
+        String[] parts = version.split("\\.");
+        try {
+            int vMajor = Integer.parseInt(parts[0]);
+            int vMinor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return vMajor > major || (vMajor == major && vMinor >= minor);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private void setLocal(String name, String value) {
+        jdbcTemplate.queryForObject("SELECT set_config(?, ?, true)", String.class, name, value);
+    }
+
+    private Set<String> topK(UUID notebookId, float[] vector, List<UUID> fileIds, int k) {
+        List<String> keys = jdbcTemplate.query(con -> {
+            PgVector.registerType(con);
+            Array fileIdArray = con.createArrayOf("uuid", fileIds.toArray());
+            var ps = con.prepareStatement(
+                    "SELECT file_id, chunk_index FROM public.rag_search_chunks(?, ?, ?, ?)");
+            ps.setObject(1, notebookId);
+            ps.setObject(2, new PgVector(vector));
+            ps.setArray(3, fileIdArray);
+            ps.setInt(4, k);
+            return ps;
+        }, (rs, rowNum) -> rs.getObject("file_id") + ":" + rs.getInt("chunk_index"));
+        return new HashSet<>(keys);
+    }
+
+    private String buildCreateSql(IndexType type, CreateVectorIndexRequest request) {
+        String prefix = "CREATE INDEX CONCURRENTLY IF NOT EXISTS " + type.indexName()
+                + " ON public.file_chunks USING ";
+        if (type != IndexType.IVFFLAT) {
+            int m = request.getM() != null ? request.getM() : 16;
+            int efConstruction = request.getEfConstruction() != null ? request.getEfConstruction() : 64;
+            if (efConstruction < 2 * m) {
+                throw new BadRequestException("efConstruction phải >= 2 * m.");
+            }
+            return prefix + String.format("hnsw (%s) WITH (m = %d, ef_construction = %d)",
+                    type.operand, m, efConstruction);
+        }
+        int lists = request.getLists() != null ? request.getLists() : defaultIvfLists();
+        return prefix + String.format("ivfflat (%s) WITH (lists = %d)", type.operand, lists);
+    }
+
+    /**
+     * Khuyến nghị của pgvector: rows / 1000 tới 1 triệu dòng, trên đó sqrt(rows).
+     */
+    private int defaultIvfLists() {
+        Long rows = jdbcTemplate.queryForObject("SELECT count(*) FROM public.file_chunks", Long.class);
+        long n = rows != null ? rows : 0;
+        long lists = n <= 1_000_000 ? n / 1000 : (long) Math.sqrt(n);
+        return (int) Math.max(1, Math.min(lists, 32768));
+    }
+
+    /**
+     * @return null nếu index chưa tồn tại, ngược lại pg_index.indisvalid
+     */
+    private Boolean findValidity(IndexType type) {
+        List<Boolean> rows = jdbcTemplate.queryForList(
+                "SELECT x.indisvalid FROM pg_index x JOIN pg_class c ON c.oid = x.indexrelid "
+                        + "WHERE c.relname = ? AND c.relnamespace = 'public'::regnamespace",
+                Boolean.class, type.indexName());
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Chạy một lệnh DDL CONCURRENTLY trên taskExecutor (không được nằm trong
+     * transaction). Mỗi lúc chỉ một lần build.
+     */
+    private void runBuild(String label, Runnable precheck, String ddl) {
+        if (!building.compareAndSet(false, true)) {
+            throw new TooManyRequestsException("Đang build index khác, vui lòng thử lại sau.");
+        }
+        try {
+            precheck.run();
+            buildExecutor.execute(() -> {
+                long start = System.currentTimeMillis();
+                try {
+                    log.info("🏗️ [VECTOR-INDEX] {}: {}", label, ddl);
+                    jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+                        // SET theo session: RESET lại trước khi trả connection về pool
+                        try (Statement st = con.createStatement()) {
+                            st.execute("SET maintenance_work_mem = '" + maintenanceWorkMem.replace("'", "") + "'");
+                            try {
+                                st.execute(ddl);
+                            } finally {
+                                st.execute("RESET maintenance_work_mem");
+                            }
+                        }
+                        return null;
+                    });
+                    log.info("✅ [VECTOR-INDEX] {} xong sau {}ms", label, System.currentTimeMillis() - start);
+                } catch (Exception e) {
+                    log.error("❌ [VECTOR-INDEX] {} lỗi: {}", label, e.getMessage(), e);
+                } finally {
+                    building.set(false);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            building.set(false);
+            throw new TooManyRequestsException("Hệ thống đang quá tải, vui lòng thử lại sau.");
+        } catch (RuntimeException e) {
+            building.set(false);
+            throw e;
+        }
+    }
+
+    private static Long toLong(Object value) {
+        return value instanceof Number number ? number.longValue() : null;
+    }
+
+    static Double average(List<Long> values) {
+        return values.isEmpty() ? 0.0 : values.stream().mapToLong(Long::longValue).average().orElse(0);
+    }
+
+    static Long percentile95(List<Long> values) {
+        if (values.isEmpty()) {
+            return 0L;
+        }
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get((int) Math.ceil(sorted.size() * 0.95) - 1);
+    }
+}
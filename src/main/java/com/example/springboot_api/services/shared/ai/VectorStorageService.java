@@ -0,0 +1,335 @@
+package com.example.springboot_api.services.shared.ai;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.springboot_api.common.exceptions.BadRequestException;
+import com.example.springboot_api.dto.admin.vectorindex.UpdateVectorStorageRequest;
+import com.example.springboot_api.dto.admin.vectorindex.VectorStorageBenchmarkRequest;
+import com.example.springboot_api.dto.admin.vectorindex.VectorStorageBenchmarkResponse;
+import com.example.springboot_api.dto.admin.vectorindex.VectorStorageBenchmarkResult;
+import com.example.springboot_api.dto.admin.vectorindex.VectorStorageSettingsResponse;
+import com.example.springboot_api.models.types.PgVector;
+import com.example.springboot_api.services.shared.ai.VectorIndexService.IndexType;
+import com.example.springboot_api.services.shared.ai.VectorIndexService.SearchTuning;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chế độ lưu / tìm vector của từng notebook (bảng notebook_vector_settings).
+ *
+ * Chế độ rút gọn (halfvec, 768 chiều, binary) tìm p_candidates ứng viên trên
+ * index rút gọn rồi xếp lại bằng cosine distance đầy đủ
+ * (rag_search_chunks_compact); FULL dùng rag_search_chunks như cũ.
+ */
+@Service
+@Slf4j
+public class VectorStorageService {
+
+    public enum StorageMode {
+        FULL(null, 1536 * 4),
+        HALFVEC(IndexType.HNSW_HALFVEC, 1536 * 2),
+        HALFVEC_768(IndexType.HNSW_HALFVEC_768, 768 * 2),
+        BINARY(IndexType.HNSW_BINARY, 1536 / 8);
+
+        private final IndexType indexType;
+        private final int bytesPerVector;
+
+        StorageMode(IndexType indexType, int bytesPerVector) {
+            this.indexType = indexType;
+            this.bytesPerVector = bytesPerVector;
+        }
+
+        /**
+         * Index cần có để dùng chế độ này (null với FULL: HNSW / IVFFLAT hoặc quét
+         * tuần tự).
+         */
+        public IndexType indexType() {
+            return indexType;
+        }
+
+        public int bytesPerVector() {
+            return bytesPerVector;
+        }
+    }
+
+    public record NotebookVectorSettings(StorageMode mode, int rerankFactor) {
+
+        public int candidates(int limit) {
+            return mode == StorageMode.FULL ? limit : limit * rerankFactor;
+        }
+
+        /**
+         * hnsw.ef_search phải >= số ứng viên, không thì index trả về ít hơn.
+         */
+        public SearchTuning tuningFor(SearchTuning base, int limit) {
+            int candidates = candidates(limit);
+            if (base == null || base.exact() || base.efSearch() == null || base.efSearch() >= candidates) {
+                return base;
+            }
+            return new SearchTuning(candidates, base.probes(), false);
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorIndexService vectorIndexService;
+    private final TransactionTemplate settingsTx;
+
+    @Value("${ai.rag.storage.default-rerank-factor:4}")
+    private int defaultRerankFactor;
+
+    private final Map<UUID, NotebookVectorSettings> settingsCache = new ConcurrentHashMap<>();
+
+    // false khi chưa có bảng notebook_vector_settings: mọi notebook dùng FULL
+    private volatile boolean settingsTableAvailable = true;
+
+    public VectorStorageService(JdbcTemplate jdbcTemplate, VectorIndexService vectorIndexService,
+            PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorIndexService = vectorIndexService;
+
+        // Đọc settings trong transaction riêng: bảng chưa có / lỗi DB không được làm
+        // abort transaction của caller
+        this.settingsTx = new TransactionTemplate(transactionManager);
+        this.settingsTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.settingsTx.setReadOnly(true);
+    }
+
+    public NotebookVectorSettings settingsFor(UUID notebookId) {
+        NotebookVectorSettings settings = settingsCache.computeIfAbsent(notebookId, this::loadSettings);
+        // Đọc lỗi: dùng FULL cho lần này, không cache để lần sau đọc lại
+        return settings != null ? settings : new NotebookVectorSettings(StorageMode.FULL, defaultRerankFactor);
+    }
+
+    public VectorStorageSettingsResponse getSettings(UUID notebookId) {
+        return toResponse(notebookId, settingsFor(notebookId));
+    }
+
+    /**
+     * Đổi chế độ của notebook. Chế độ rút gọn chỉ bật được khi index tương ứng đã
+     * build xong (không thì truy vấn phải quét tuần tự trên biểu thức rút gọn).
+     */
+    public VectorStorageSettingsResponse updateSettings(UUID notebookId, UpdateVectorStorageRequest request) {
+        StorageMode mode = StorageMode.valueOf(request.getMode());
+        int rerankFactor = request.getRerankFactor() != null ? request.getRerankFactor() : defaultRerankFactor;
+        if (mode.indexType() != null && !vectorIndexService.isIndexValid(mode.indexType())) {
+            throw new BadRequestException("Chưa có index " + mode.indexType().indexName()
+                    + ", hãy tạo index " + mode.indexType() + " trước.");
+        }
+
+        jdbcTemplate.update(
+                "INSERT INTO public.notebook_vector_settings (notebook_id, storage_mode, rerank_factor, updated_at) "
+                        + "VALUES (?, ?, ?, now()) ON CONFLICT (notebook_id) DO UPDATE "
+                        + "SET storage_mode = EXCLUDED.storage_mode, rerank_factor = EXCLUDED.rerank_factor, "
+                        + "updated_at = now()",
+                notebookId, mode.name(), rerankFactor);
+        NotebookVectorSettings settings = new NotebookVectorSettings(mode, rerankFactor);
+        if (!settingsTableAvailable) {
+            // Bảng vừa được tạo: bỏ các FULL đã cache khi chưa migrate
+            settingsTableAvailable = true;
+            settingsCache.clear();
+        }
+        settingsCache.put(notebookId, settings);
+        log.info("🗜️ [VECTOR-STORAGE] Notebook {} → {} (rerank x{})", notebookId, mode, rerankFactor);
+        return toResponse(notebookId, settings);
+    }
+
+    /**
+     * PreparedStatement top-k theo chế độ lưu, trả về các cột file_id, chunk_index,
+     * content, similarity, distance.
+     */
+    public PreparedStatement prepareSearch(Connection con, UUID notebookId, float[] embedding, List<UUID> fileIds,
+            int limit, NotebookVectorSettings settings) throws SQLException {
+        PgVector.registerType(con);
+        Array fileIdArray = con.createArrayOf("uuid", fileIds.toArray());
+        PreparedStatement ps;
+        if (settings.mode() == StorageMode.FULL) {
+            ps = con.prepareStatement("SELECT file_id, chunk_index, content, similarity, distance "
+                    + "FROM public.rag_search_chunks(?, ?, ?, ?)");
+        } else {
+            ps = con.prepareStatement("SELECT file_id, chunk_index, content, similarity, distance "
+                    + "FROM public.rag_search_chunks_compact(?, ?, ?, ?, ?, ?)");
+            ps.setString(5, settings.mode().name());
+            ps.setInt(6, settings.candidates(limit));
+        }
+        ps.setObject(1, notebookId);
+        ps.setObject(2, new PgVector(embedding));
+        ps.setArray(3, fileIdArray);
+        ps.setInt(4, limit);
+        return ps;
+    }
+
+    // =========================
+    // BENCHMARK
+    // =========================
+
+    /**
+     * So sánh các chế độ lưu trên một notebook: mỗi truy vấn là embedding của một
+     * chunk ngẫu nhiên, kết quả exact search (vector đầy đủ, không index) làm chuẩn
+     * để tính recall@k. Chỉ đo các chế độ rút gọn đã có index.
+     */
+    public VectorStorageBenchmarkResponse benchmark(VectorStorageBenchmarkRequest request) {
+        UUID notebookId = request.getNotebookId();
+        int k = request.getK();
+        int rerankFactor = request.getRerankFactor() != null ? request.getRerankFactor() : defaultRerankFactor;
+
+        List<UUID> fileIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT file_id FROM public.file_chunks WHERE notebook_id = ?", UUID.class, notebookId);
+        if (fileIds.isEmpty()) {
+            throw new BadRequestException("Notebook chưa có chunk nào để benchmark.");
+        }
+        Long notebookChunks = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM public.file_chunks WHERE notebook_id = ?", Long.class, notebookId);
+        Long tableBytes = jdbcTemplate.queryForObject(
+                "SELECT pg_table_size('public.file_chunks'::regclass)", Long.class);
+        List<float[]> samples = jdbcTemplate.query(con -> {
+            PgVector.registerType(con);
+            var ps = con.prepareStatement(
+                    "SELECT embedding FROM public.file_chunks WHERE notebook_id = ? ORDER BY random() LIMIT ?");
+            ps.setObject(1, notebookId);
+            ps.setInt(2, request.getQueries());
+            return ps;
+        }, (rs, rowNum) -> PgVector.toArray(rs.getObject("embedding")));
+
+        List<StorageMode> modes = new ArrayList<>();
+        for (StorageMode mode : StorageMode.values()) {
+            if (mode.indexType() == null || vectorIndexService.isIndexValid(mode.indexType())) {
+                modes.add(mode);
+            }
+        }
+
+        NotebookVectorSettings exactSettings = new NotebookVectorSettings(StorageMode.FULL, 1);
+        List<Long> exactMs = new ArrayList<>(samples.size());
+        List<List<Long>> modeMs = new ArrayList<>();
+        double[] recallSums = new double[modes.size()];
+        for (int i = 0; i < modes.size(); i++) {
+            modeMs.add(new ArrayList<>(samples.size()));
+        }
+
+        for (float[] vector : samples) {
+            long start = System.nanoTime();
+            Set<String> exact = topK(notebookId, vector, fileIds, k, exactSettings, SearchTuning.EXACT);
+            exactMs.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            for (int i = 0; i < modes.size(); i++) {
+                NotebookVectorSettings settings = new NotebookVectorSettings(modes.get(i), rerankFactor);
+                start = System.nanoTime();
+                Set<String> found = topK(notebookId, vector, fileIds, k, settings,
+                        settings.tuningFor(vectorIndexService.defaultTuning(), k));
+                modeMs.get(i).add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+                if (!exact.isEmpty()) {
+                    Set<String> hit = new HashSet<>(found);
+                    hit.retainAll(exact);
+                    recallSums[i] += (double) hit.size() / exact.size();
+                } else {
+                    recallSums[i] += 1;
+                }
+            }
+        }
+
+        long chunks = notebookChunks != null ? notebookChunks : 0;
+        List<VectorStorageBenchmarkResult> results = new ArrayList<>();
+        for (int i = 0; i < modes.size(); i++) {
+            StorageMode mode = modes.get(i);
+            IndexType indexType = mode.indexType() != null ? mode.indexType() : IndexType.HNSW;
+            results.add(VectorStorageBenchmarkResult.builder()
+                    .mode(mode.name())
+                    .indexName(indexType.indexName())
+                    .indexBytes(indexBytes(indexType))
+                    .vectorBytes(chunks * mode.bytesPerVector())
+                    .avgMs(VectorIndexService.average(modeMs.get(i)))
+                    .p95Ms(VectorIndexService.percentile95(modeMs.get(i)))
+                    .recallAtK(samples.isEmpty() ? 0.0 : recallSums[i] / samples.size())
+                    .build());
+        }
+
+        return VectorStorageBenchmarkResponse.builder()
+                .notebookId(notebookId)
+                .queries(samples.size())
+                .k(k)
+                .rerankFactor(rerankFactor)
+                .notebookChunks(notebookChunks)
+                .tableBytes(tableBytes)
+                .exactAvgMs(VectorIndexService.average(exactMs))
+                .exactP95Ms(VectorIndexService.percentile95(exactMs))
+                .modes(results)
+                .build();
+    }
+
+    // =========================
+    // PRIVATE HELPERS
+    // =========================
+
+    /**
+     * Chưa migrate (không có bảng): FULL và được cache như notebook chưa cấu hình,
+     * các notebook khác cũng không truy vấn lại.
+     * null khi lỗi tạm thời: computeIfAbsent không cache giá trị null, lần sau đọc
+     * lại.
+     */
+    private NotebookVectorSettings loadSettings(UUID notebookId) {
+        if (!settingsTableAvailable) {
+            return new NotebookVectorSettings(StorageMode.FULL, defaultRerankFactor);
+        }
+        try {
+            List<NotebookVectorSettings> rows = settingsTx.execute(status -> jdbcTemplate.query(
+                    "SELECT storage_mode, rerank_factor FROM public.notebook_vector_settings WHERE notebook_id = ?",
+                    (rs, rowNum) -> new NotebookVectorSettings(StorageMode.valueOf(rs.getString("storage_mode")),
+                            rs.getInt("rerank_factor")),
+                    notebookId));
+            return rows.isEmpty() ? new NotebookVectorSettings(StorageMode.FULL, defaultRerankFactor) : rows.get(0);
+        } catch (BadSqlGrammarException e) {
+            settingsTableAvailable = false;
+            // Chưa chạy scripts/add_vector_storage_modes.sql: chỉ có chế độ FULL
+            log.warn("⚠️ [VECTOR-STORAGE] Chưa có notebook_vector_settings "
+                    + "(scripts/add_vector_storage_modes.sql), dùng FULL: {}", e.getMessage());
+            return new NotebookVectorSettings(StorageMode.FULL, defaultRerankFactor);
+        } catch (Exception e) {
+            log.warn("⚠️ [VECTOR-STORAGE] Không đọc được notebook_vector_settings: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private Set<String> topK(UUID notebookId, float[] vector, List<UUID> fileIds, int k,
+            NotebookVectorSettings settings, SearchTuning tuning) {
+        List<String> keys = vectorIndexService.inSearchTransaction(tuning, () -> jdbcTemplate.query(
+                con -> prepareSearch(con, notebookId, vector, fileIds, k, settings),
+                (rs, rowNum) -> rs.getObject("file_id") + ":" + rs.getInt("chunk_index")));
+        return new HashSet<>(keys);
+    }
+
+    private Long indexBytes(IndexType type) {
+        List<Long> rows = jdbcTemplate.queryForList(
+                "SELECT pg_relation_size(c.oid) FROM pg_class c "
+                        + "WHERE c.relname = ? AND c.relnamespace = 'public'::regnamespace",
+                Long.class, type.indexName());
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private VectorStorageSettingsResponse toResponse(UUID notebookId, NotebookVectorSettings settings) {
+        return VectorStorageSettingsResponse.builder()
+                .notebookId(notebookId)
+                .mode(settings.mode().name())
+                .rerankFactor(settings.rerankFactor())
+                .bytesPerVector(settings.mode().bytesPerVector())
+                .build();
+    }
+}
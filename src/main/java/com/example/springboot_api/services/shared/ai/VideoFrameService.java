@@ -91,7 +91,6 @@ public class VideoFrameService {
                     String basePrompt = frame.getImagePrompt();
                     image1 = imageGeneratorService
                             .generateSlideImageBase64(basePrompt + ", illustration style, vibrant colors");
-                    Thread.sleep(2000); // Rate limit
                     image2 = imageGeneratorService
                             .generateSlideImageBase64(basePrompt + ", different angle, cartoon style");
                 }
@@ -105,8 +104,6 @@ public class VideoFrameService {
                 base64Images.add(java.util.Base64.getEncoder().encodeToString(bytes));
             }
 
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
         } finally {
             context.close();
         }
@@ -0,0 +1,60 @@
+package com.example.springboot_api.services.shared.ai.chunking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Điểm vào chung cho việc chia chunk (ingest file, tóm tắt tài liệu, ...).
+ * Chiến lược được chọn qua cấu hình ai.chunking.strategy (semantic | fixed),
+ * mặc định semantic.
+ */
+@Service
+public class ChunkingService {
+
+    private final Map<String, ChunkingStrategy> strategies = new HashMap<>();
+    private final ChunkingStrategy strategy;
+
+    public ChunkingService(
+            List<ChunkingStrategy> strategies,
+            @Value("${ai.chunking.strategy:" + SemanticChunkingStrategy.NAME + "}") String strategyName) {
+        for (ChunkingStrategy s : strategies) {
+            this.strategies.put(s.name(), s);
+        }
+        this.strategy = this.strategies.get(strategyName);
+        if (this.strategy == null) {
+            throw new IllegalStateException("Chiến lược chunking không hợp lệ: " + strategyName
+                    + " (hỗ trợ: " + this.strategies.keySet() + ")");
+        }
+    }
+
+    public String strategyName() {
+        return strategy.name();
+    }
+
+    /**
+     * Tạo chunker streaming theo chiến lược đang cấu hình.
+     */
+    public TextChunker newChunker(int chunkSize, int chunkOverlap, Consumer<TextChunk> sink) {
+        return strategy.newChunker(chunkSize, chunkOverlap, sink);
+    }
+
+    /**
+     * Chia một đoạn text đã có sẵn trong bộ nhớ.
+     */
+    public List<TextChunk> split(String text, int chunkSize, int chunkOverlap) {
+        List<TextChunk> chunks = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return chunks;
+        }
+        TextChunker chunker = newChunker(chunkSize, chunkOverlap, chunks::add);
+        chunker.accept(text);
+        chunker.finish();
+        return chunks;
+    }
+}
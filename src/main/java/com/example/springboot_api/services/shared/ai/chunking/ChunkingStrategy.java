@@ -0,0 +1,24 @@
+package com.example.springboot_api.services.shared.ai.chunking;
+
+import java.util.function.Consumer;
+
+/**
+ * Chiến lược chia chunk. Mỗi chiến lược là một Spring bean, được chọn theo tên
+ * qua cấu hình ai.chunking.strategy (xem ChunkingService).
+ */
+public interface ChunkingStrategy {
+
+    /**
+     * Tên chiến lược (giá trị của ai.chunking.strategy).
+     */
+    String name();
+
+    /**
+     * Tạo chunker mới cho một văn bản.
+     *
+     * @param chunkSize    Kích thước chunk (ký tự) – NotebookFile.chunkSize
+     * @param chunkOverlap Overlap (ký tự) – NotebookFile.chunkOverlap
+     * @param sink         Nơi nhận chunk
+     */
+    TextChunker newChunker(int chunkSize, int chunkOverlap, Consumer<TextChunk> sink);
+}
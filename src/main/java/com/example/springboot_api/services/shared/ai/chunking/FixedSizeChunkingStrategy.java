@@ -0,0 +1,24 @@
+package com.example.springboot_api.services.shared.ai.chunking;
+
+import java.util.function.Consumer;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Chia theo số ký tự cố định + overlap (cách chia cũ).
+ */
+@Component
+public class FixedSizeChunkingStrategy implements ChunkingStrategy {
+
+    public static final String NAME = "fixed";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public TextChunker newChunker(int chunkSize, int chunkOverlap, Consumer<TextChunk> sink) {
+        return new StreamingTextChunker(chunkSize, chunkOverlap, sink);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.springboot_api.services.shared.ai.chunking;
+
+import java.util.function.Consumer;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Chia theo ranh giới câu / đoạn / tiêu đề, đóng gói theo ngân sách token (xem
+ * SemanticTextChunker).
+ */
+@Component
+public class SemanticChunkingStrategy implements ChunkingStrategy {
+
+    public static final String NAME = "semantic";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public TextChunker newChunker(int chunkSize, int chunkOverlap, Consumer<TextChunk> sink) {
+        return new SemanticTextChunker(chunkSize, chunkOverlap, sink);
+    }
+}
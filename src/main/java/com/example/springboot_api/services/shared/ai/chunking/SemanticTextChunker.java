@@ -0,0 +1,305 @@
+package com.example.springboot_api.services.shared.ai.chunking;
+
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chunker theo ngữ nghĩa, dạng streaming.
+ *
+ * - Tách text thành câu theo xuống dòng và dấu kết câu (. ! ? …), bỏ qua viết
+ * tắt (TP., ThS., v.v.), số thứ tự (1., Điều 5.) và số La Mã (Chương II.).
+ * - Gom câu vào chunk cho đến khi chạm ngân sách token (chunkSize / 4, tối đa
+ * giới hạn của model embedding); không bao giờ cắt giữa câu, trừ câu dài hơn cả
+ * ngân sách (khi đó cắt tại khoảng trắng).
+ * - Tiêu đề (Chương/Phần/Mục/Điều, markdown #) mở chunk mới nếu chunk hiện tại
+ * đã đủ dài, và được ghi vào TextChunk.heading cho các chunk phía sau.
+ * - Overlap chỉ mang sang câu cuối của chunk trước, và chỉ khi câu đó ngắn hơn
+ * chunkOverlap ký tự.
+ */
+public class SemanticTextChunker implements TextChunker {
+
+    private static final Set<String> ABBREVIATIONS = Set.of(
+            // VN
+            "tp", "ths", "ts", "pgs", "gs", "bs", "ks", "vd", "v.v", "tr", "nxb", "q", "p", "đ",
+            // EN
+            "mr", "mrs", "ms", "dr", "prof", "st", "vs", "etc", "e.g", "i.e", "no", "fig", "vol");
+
+    private static final String CLOSING_CHARS = "\"')]}”’»";
+    private static final String OPENING_CHARS = "\"'([{“‘«-–•*#";
+    private static final Pattern HEADING = Pattern.compile(
+            "^(#{1,6}\\s|(CHƯƠNG|Chương|PHẦN|Phần|MỤC|Mục|ĐIỀU|Điều)\\s+[0-9IVXLCDM]+)");
+    private static final Pattern ROMAN = Pattern.compile("[IVXLCDM]{1,5}");
+    private static final Pattern WORD = Pattern.compile("\\S+");
+    private static final int MAX_HEADING_CHARS = 120;
+
+    private final int tokenBudget;
+    private final int overlapChars;
+    private final int minTokensBeforeHeadingBreak;
+    private final int maxBufferChars;
+    private final Consumer<TextChunk> sink;
+
+    // Text chưa tách thành câu
+    private final StringBuilder buffer = new StringBuilder();
+    private long bufferStart = 0;
+
+    // Chunk đang gom
+    private final StringBuilder current = new StringBuilder();
+    private long currentStart = 0;
+    private long currentEnd = 0;
+    private int currentTokens = 0;
+    private boolean currentIsOverlapOnly = false;
+    private String currentHeading;
+    private String activeHeading;
+
+    // Câu cuối đã thêm vào chunk (ứng viên overlap)
+    private String lastSentence;
+    private long lastSentenceStart;
+    private int lastSentenceTokens;
+
+    public SemanticTextChunker(int chunkSize, int chunkOverlap, Consumer<TextChunk> sink) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize phải > 0");
+        }
+        this.tokenBudget = TokenEstimator.budgetForChars(chunkSize);
+        this.overlapChars = Math.max(0, chunkOverlap);
+        this.minTokensBeforeHeadingBreak = tokenBudget / 4;
+        this.maxBufferChars = Math.max(chunkSize * 2, 4000);
+        this.sink = sink;
+    }
+
+    @Override
+    public void accept(String segment) {
+        if (segment == null || segment.isEmpty()) {
+            return;
+        }
+        buffer.append(segment);
+        drain(false);
+    }
+
+    @Override
+    public void finish() {
+        drain(true);
+        if (!currentIsOverlapOnly) {
+            emitCurrent(false);
+        }
+        resetCurrent();
+    }
+
+    // =========================
+    // TÁCH CÂU
+    // =========================
+
+    private void drain(boolean eof) {
+        int pos = 0;
+        int end;
+        while ((end = findBoundary(pos, eof)) >= 0) {
+            addSentence(buffer.substring(pos, end), bufferStart + pos);
+            pos = end;
+        }
+
+        if (eof && pos < buffer.length()) {
+            addSentence(buffer.substring(pos), bufferStart + pos);
+            pos = buffer.length();
+        }
+
+        // Quá lâu không gặp ranh giới câu (OCR mất dấu câu) → cắt tại khoảng trắng
+        while (!eof && buffer.length() - pos > maxBufferChars) {
+            int limit = pos + maxBufferChars;
+            int cut = limit;
+            while (cut > pos && !Character.isWhitespace(buffer.charAt(cut - 1))) {
+                cut--;
+            }
+            if (cut == pos) {
+                cut = limit;
+            }
+            addSentence(buffer.substring(pos, cut), bufferStart + pos);
+            pos = cut;
+        }
+
+        buffer.delete(0, pos);
+        bufferStart += pos;
+    }
+
+    /**
+     * Tìm vị trí kết thúc câu đầu tiên kể từ from.
+     *
+     * @return vị trí ngay sau câu, hoặc -1 nếu chưa thấy (hoặc chưa đủ dữ liệu để
+     *         quyết định)
+     */
+    private int findBoundary(int from, boolean eof) {
+        int len = buffer.length();
+        for (int i = from; i < len; i++) {
+            char c = buffer.charAt(i);
+            if (c == '\n') {
+                return i + 1;
+            }
+            if (c != '.' && c != '!' && c != '?' && c != '…') {
+                continue;
+            }
+
+            int j = i + 1;
+            while (j < len && CLOSING_CHARS.indexOf(buffer.charAt(j)) >= 0) {
+                j++;
+            }
+            if (j >= len) {
+                return eof ? len : -1;
+            }
+            if (!Character.isWhitespace(buffer.charAt(j))) {
+                continue; // 3.14, v.v, www.abc.com, "..."
+            }
+            if (c == '!' || c == '?') {
+                return j;
+            }
+
+            int k = j;
+            while (k < len && Character.isWhitespace(buffer.charAt(k))) {
+                k++;
+            }
+            if (k >= len) {
+                return eof ? len : -1;
+            }
+
+            char next = buffer.charAt(k);
+            boolean startsSentence = Character.isUpperCase(next) || Character.isDigit(next)
+                    || OPENING_CHARS.indexOf(next) >= 0;
+            if (startsSentence && !isAbbreviationBefore(i)) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isAbbreviationBefore(int dotIndex) {
+        int s = dotIndex;
+        while (s > 0 && (Character.isLetterOrDigit(buffer.charAt(s - 1)) || buffer.charAt(s - 1) == '.')) {
+            s--;
+        }
+        String word = buffer.substring(s, dotIndex);
+        if (word.isEmpty()) {
+            return false;
+        }
+        if (ABBREVIATIONS.contains(word.toLowerCase())) {
+            return true;
+        }
+        // Chữ viết tắt tên (N. Văn A), số thứ tự (1., Điều 5.), số La Mã (Chương II.)
+        if (word.length() == 1 && Character.isLetter(word.charAt(0))) {
+            return true;
+        }
+        if (word.length() <= 3 && word.chars().allMatch(Character::isDigit)) {
+            return true;
+        }
+        return ROMAN.matcher(word).matches();
+    }
+
+    // =========================
+    // GOM CÂU THÀNH CHUNK
+    // =========================
+
+    private void addSentence(String sentence, long start) {
+        String trimmed = sentence.strip();
+        if (trimmed.isEmpty()) {
+            if (current.length() > 0) {
+                current.append(sentence);
+                currentEnd = start + sentence.length();
+            }
+            return;
+        }
+
+        int tokens = TokenEstimator.estimate(trimmed);
+        boolean heading = HEADING.matcher(trimmed).find();
+
+        if (heading && currentTokens >= minTokensBeforeHeadingBreak) {
+            // Không mang overlap qua ranh giới tiêu đề
+            if (currentIsOverlapOnly) {
+                resetCurrent();
+            } else {
+                emitCurrent(false);
+            }
+        }
+        if (heading) {
+            activeHeading = trimmed.length() > MAX_HEADING_CHARS ? trimmed.substring(0, MAX_HEADING_CHARS) : trimmed;
+        }
+
+        if (tokens > tokenBudget) {
+            if (currentIsOverlapOnly) {
+                resetCurrent();
+            } else {
+                emitCurrent(false);
+            }
+            splitOversized(sentence, start);
+            return;
+        }
+
+        if (currentTokens + tokens > tokenBudget) {
+            if (currentIsOverlapOnly) {
+                resetCurrent();
+            } else {
+                emitCurrent(true);
+                if (currentTokens + tokens > tokenBudget) {
+                    resetCurrent();
+                }
+            }
+        }
+
+        append(sentence, start, tokens);
+        currentIsOverlapOnly = false;
+        lastSentence = sentence;
+        lastSentenceStart = start;
+        lastSentenceTokens = tokens;
+    }
+
+    /**
+     * Câu dài hơn cả ngân sách: cắt tại khoảng trắng, mỗi phần đủ ngân sách thành
+     * một chunk; phần dư được gom tiếp với các câu sau.
+     */
+    private void splitOversized(String sentence, long start) {
+        Matcher m = WORD.matcher(sentence);
+        int pieceStart = 0;
+        int pieceTokens = 0;
+        while (m.find()) {
+            int wordTokens = TokenEstimator.estimate(m.group());
+            if (pieceTokens > 0 && pieceTokens + wordTokens > tokenBudget) {
+                append(sentence.substring(pieceStart, m.start()), start + pieceStart, pieceTokens);
+                emitCurrent(false);
+                pieceStart = m.start();
+                pieceTokens = 0;
+            }
+            pieceTokens += wordTokens;
+        }
+        append(sentence.substring(pieceStart), start + pieceStart, pieceTokens);
+        currentIsOverlapOnly = false;
+        lastSentence = null;
+    }
+
+    private void append(String text, long start, int tokens) {
+        if (current.length() == 0) {
+            currentStart = start;
+            currentHeading = activeHeading;
+        }
+        current.append(text);
+        currentEnd = start + text.length();
+        currentTokens += tokens;
+    }
+
+    private void emitCurrent(boolean withOverlap) {
+        String content = current.toString().strip();
+        if (!content.isEmpty()) {
+            sink.accept(new TextChunk(content, currentStart, currentEnd, currentTokens, currentHeading));
+        }
+        resetCurrent();
+
+        if (withOverlap && lastSentence != null && overlapChars > 0
+                && lastSentence.strip().length() <= overlapChars) {
+            append(lastSentence, lastSentenceStart, lastSentenceTokens);
+            currentIsOverlapOnly = true;
+        }
+    }
+
+    private void resetCurrent() {
+        current.setLength(0);
+        currentTokens = 0;
+        currentIsOverlapOnly = false;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.springboot_api.services.shared.ai.chunking;
+
+import java.util.function.Consumer;
+
+/**
+ * Chia text thành chunk kích thước cố định (có overlap) từ một luồng các đoạn
+ * text. Chỉ giữ trong bộ nhớ phần text chưa thành chunk (tối đa ~chunkSize ký
+ * tự), chunk được đẩy ra chunkSink ngay khi đủ dài.
+ *
+ * Kết quả giống hệt việc chia cả văn bản một lần: chunk thứ k là
+ * text[k * (size - overlap), k * (size - overlap) + size).
+ */
+public class StreamingTextChunker implements TextChunker {
+
+    private final int size;
+    private final int step;
+    private final Consumer<TextChunk> chunkSink;
+    private final StringBuilder buffer = new StringBuilder();
+
+    // Vị trí (trong văn bản gốc) của ký tự đầu tiên trong buffer
+    private long bufferStart = 0;
+
+    public StreamingTextChunker(int size, int overlap, Consumer<TextChunk> chunkSink) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("chunkSize phải > 0");
+        }
+        this.size = size;
+        // overlap >= size sẽ không bao giờ tiến được → giới hạn lại
+        this.step = size - Math.max(0, Math.min(overlap, size - 1));
+        this.chunkSink = chunkSink;
+    }
+
+    /**
+     * Nhận thêm một đoạn text, đẩy ra các chunk đã đủ kích thước.
+     */
+    @Override
+    public void accept(String segment) {
+        if (segment == null || segment.isEmpty()) {
+            return;
+        }
+        buffer.append(segment);
+        while (buffer.length() >= size) {
+            emit(buffer.substring(0, size));
+            advance();
+        }
+    }
+
+    /**
+     * Kết thúc luồng: đẩy ra các chunk cuối (ngắn hơn chunkSize).
+     */
+    @Override
+    public void finish() {
+        while (buffer.length() > 0) {
+            emit(buffer.toString());
+            if (buffer.length() <= step) {
+                break;
+            }
+            advance();
+        }
+        buffer.setLength(0);
+    }
+
+    private void emit(String content) {
+        chunkSink.accept(new TextChunk(content, bufferStart, bufferStart + content.length(),
+                TokenEstimator.estimate(content), null));
+    }
+
+    private void advance() {
+        buffer.delete(0, step);
+        bufferStart += step;
+    }
+}
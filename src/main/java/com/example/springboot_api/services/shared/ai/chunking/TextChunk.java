@@ -0,0 +1,19 @@
+package com.example.springboot_api.services.shared.ai.chunking;
+
+/**
+ * Một chunk text kèm vị trí trong văn bản gốc.
+ *
+ * @param content         Nội dung chunk
+ * @param startOffset     Vị trí ký tự bắt đầu trong văn bản gốc
+ * @param endOffset       Vị trí ký tự kết thúc (không bao gồm)
+ * @param estimatedTokens Số token ước lượng (TokenEstimator)
+ * @param heading         Tiêu đề (Chương/Mục/Điều...) gần nhất bao trùm chunk,
+ *                        null nếu không có
+ */
+public record TextChunk(
+        String content,
+        long startOffset,
+        long endOffset,
+        int estimatedTokens,
+        String heading) {
+}
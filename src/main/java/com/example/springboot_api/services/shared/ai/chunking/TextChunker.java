@@ -0,0 +1,18 @@
+package com.example.springboot_api.services.shared.ai.chunking;
+
+/**
+ * Bộ chia chunk dạng streaming: nhận lần lượt các đoạn text, đẩy chunk ra sink
+ * ngay khi chunk hoàn chỉnh.
+ */
+public interface TextChunker {
+
+    /**
+     * Nhận thêm một đoạn text.
+     */
+    void accept(String segment);
+
+    /**
+     * Kết thúc luồng: đẩy ra các chunk còn lại.
+     */
+    void finish();
+}
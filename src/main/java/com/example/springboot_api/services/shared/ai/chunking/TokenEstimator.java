@@ -0,0 +1,60 @@
+package com.example.springboot_api.services.shared.ai.chunking;
+
+/**
+ * Ước lượng số token của text mà không cần tokenizer thật.
+ * Từ ASCII (tiếng Anh, code) ~4 ký tự/token, từ có dấu tiếng Việt ~3 ký
+ * tự/token, mỗi từ tối thiểu 1 token.
+ */
+public final class TokenEstimator {
+
+    /**
+     * Số ký tự trung bình / token dùng để quy đổi chunkSize (ký tự) sang ngân sách
+     * token.
+     */
+    public static final int CHARS_PER_TOKEN = 4;
+
+    /**
+     * Giới hạn input của gemini-embedding-001 là 2048 token, chừa lại biên an
+     * toàn.
+     */
+    public static final int MAX_EMBEDDING_TOKENS = 1800;
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+
+        int tokens = 0;
+        int wordLength = 0;
+        boolean wordAscii = true;
+
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isWhitespace(c)) {
+                if (wordLength > 0) {
+                    int charsPerToken = wordAscii ? 4 : 3;
+                    tokens += Math.max(1, (wordLength + charsPerToken - 1) / charsPerToken);
+                }
+                wordLength = 0;
+                wordAscii = true;
+            } else {
+                wordLength++;
+                if (c > 127) {
+                    wordAscii = false;
+                }
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Quy đổi kích thước chunk (ký tự) sang ngân sách token cho chunker.
+     */
+    public static int budgetForChars(int chars) {
+        return Math.max(16, Math.min(MAX_EMBEDDING_TOKENS, chars / CHARS_PER_TOKEN));
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.example.springboot_api.config.AsyncConfig;
 import com.example.springboot_api.models.Notebook;
 import com.example.springboot_api.models.NotebookAiSet;
 import com.example.springboot_api.models.NotebookFile;
@@ -47,7 +48,7 @@ public class AudioOverviewService {
     /**
      * Xử lý audio overview generation ở background.
      */
-    @Async
+    @Async(AsyncConfig.MEDIA_EXECUTOR)
     @Transactional
     public void processAudioOverviewAsync(UUID aiSetId, UUID notebookId, UUID userId, List<UUID> fileIds,
             String voiceId, String outputFormat, String notes) {
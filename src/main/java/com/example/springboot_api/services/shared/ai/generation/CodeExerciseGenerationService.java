@@ -8,6 +8,7 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.example.springboot_api.config.AsyncConfig;
 import com.example.springboot_api.models.CodeExercise;
 import com.example.springboot_api.models.CodeExerciseFile;
 import com.example.springboot_api.models.CodeExerciseTestcase;
@@ -21,6 +22,7 @@ import com.example.springboot_api.repositories.shared.CodeExerciseTestcaseReposi
 import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
 import com.example.springboot_api.repositories.shared.SupportedLanguageRepository;
 import com.example.springboot_api.services.shared.ai.AIModelService;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import com.example.springboot_api.services.shared.ai.AiTaskProgressService;
 import com.example.springboot_api.services.shared.ai.JsonParsingService;
 import com.example.springboot_api.services.shared.ai.PistonService;
@@ -45,11 +47,12 @@ public class CodeExerciseGenerationService {
     private final CodeExerciseTestcaseRepository testcaseRepository;
     private final NotebookAiSetRepository aiSetRepository;
     private final AiTaskProgressService progressService;
+    private final AiTaskBulkhead aiTaskBulkhead;
 
     /**
      * Sinh bài tập code async.
      */
-    @Async
+    @Async(AsyncConfig.AI_GENERATION_EXECUTOR)
     @Transactional
     public void generateAsync(UUID aiSetId, Notebook notebook, User user,
             String documentContent, int maxExercises,
@@ -370,6 +373,7 @@ public class CodeExerciseGenerationService {
             aiSet.setOutputStats(Map.of("exerciseCount", count));
             aiSetRepository.save(aiSet);
         });
+        aiTaskBulkhead.release(aiSetId);
     }
 
     private void updateAiSetError(UUID aiSetId, String errorMessage) {
@@ -379,5 +383,6 @@ public class CodeExerciseGenerationService {
             aiSet.setFinishedAt(java.time.OffsetDateTime.now());
             aiSetRepository.save(aiSet);
         });
+        aiTaskBulkhead.release(aiSetId);
     }
 }
@@ -11,6 +11,7 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.example.springboot_api.config.AsyncConfig;
 import com.example.springboot_api.models.Flashcard;
 import com.example.springboot_api.models.Notebook;
 import com.example.springboot_api.models.NotebookAiSet;
@@ -44,7 +45,7 @@ public class FlashcardGenerationService {
     /**
      * Xử lý flashcard generation ở background (async).
      */
-    @Async
+    @Async(AsyncConfig.AI_GENERATION_EXECUTOR)
     @Transactional
     public void processFlashcardGenerationAsync(UUID aiSetId, UUID notebookId, UUID userId,
             List<UUID> fileIds, String numberOfCards, String additionalRequirements) {
@@ -11,6 +11,7 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.example.springboot_api.config.AsyncConfig;
 import com.example.springboot_api.models.Notebook;
 import com.example.springboot_api.models.NotebookAiSet;
 import com.example.springboot_api.models.NotebookFile;
@@ -22,6 +23,7 @@ import com.example.springboot_api.repositories.shared.QuizOptionRepository;
 import com.example.springboot_api.repositories.shared.QuizRepository;
 import com.example.springboot_api.services.shared.ai.AIModelService;
 import com.example.springboot_api.services.shared.ai.AiSetStatusService;
+import com.example.springboot_api.services.shared.ai.AiTaskProgressService;
 import com.example.springboot_api.services.shared.ai.DocumentSummarizationService;
 import com.example.springboot_api.services.shared.ai.JsonParsingService;
 
@@ -44,11 +46,12 @@ public class QuizGenerationService {
     private final DocumentSummarizationService summarizationService;
     private final JsonParsingService jsonParsingService;
     private final AiSetStatusService statusService;
+    private final AiTaskProgressService progressService;
 
     /**
      * Xử lý quiz generation ở background (async).
      */
-    @Async
+    @Async(AsyncConfig.AI_GENERATION_EXECUTOR)
     @Transactional
     public void processQuizGenerationAsync(UUID aiSetId, UUID notebookId, UUID userId,
             List<UUID> fileIds, String numberOfQuestions, String difficultyLevel,
@@ -86,9 +89,15 @@ public class QuizGenerationService {
                 return;
             }
 
-            // Tóm tắt documents
+            // Tóm tắt documents, báo tiến độ khi từng file xong (10% → 50%)
             log.info("📄 [QUIZ] Đang tóm tắt tài liệu...");
-            String summaryText = summarizationService.summarizeDocuments(selectedFiles, null);
+            int fileCount = Math.min(selectedFiles.size(), DocumentSummarizationService.MAX_FILES);
+            int[] summarized = { 0 };
+            String summaryText = summarizationService.summarizeDocuments(selectedFiles, null, (file, summary) -> {
+                summarized[0]++;
+                progressService.sendProgress(aiSetId, "summarizing", 10 + 40 * summarized[0] / fileCount,
+                        "Đã tóm tắt " + summarized[0] + "/" + fileCount + " tài liệu: " + file.getOriginalFilename());
+            });
             if (summaryText == null || summaryText.isEmpty()) {
                 statusService.markFailed(aiSetId, "Không thể tóm tắt tài liệu (có thể không có chunks)");
                 return;
@@ -100,6 +109,7 @@ public class QuizGenerationService {
 
             // Gọi LLM để tạo quiz
             log.info("🤖 [QUIZ] Đang gọi LLM...");
+            progressService.sendProgress(aiSetId, "generating", 60, "Đang tạo câu hỏi...");
             String llmResponse = aiModelService.callGeminiModel(quizPrompt);
             if (llmResponse == null || llmResponse.trim().isEmpty()) {
                 statusService.markFailed(aiSetId, "LLM trả về response rỗng");
@@ -11,6 +11,7 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.example.springboot_api.config.AsyncConfig;
 import com.example.springboot_api.models.Notebook;
 import com.example.springboot_api.models.NotebookAiSet;
 import com.example.springboot_api.models.NotebookAiSetSuggestion;
@@ -45,7 +46,7 @@ public class SuggestionGenerationService {
     /**
      * Xử lý suggestion generation ở background.
      */
-    @Async
+    @Async(AsyncConfig.AI_GENERATION_EXECUTOR)
     @Transactional
     public void processSuggestionGenerationAsync(UUID aiSetId, UUID notebookId, UUID userId,
             List<UUID> fileIds, String additionalRequirements) {
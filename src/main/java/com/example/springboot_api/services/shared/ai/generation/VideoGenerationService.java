@@ -14,6 +14,7 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.example.springboot_api.config.AsyncConfig;
 import com.example.springboot_api.dto.shared.VideoSlide;
 import com.example.springboot_api.models.Notebook;
 import com.example.springboot_api.models.NotebookAiSet;
@@ -59,7 +60,7 @@ public class VideoGenerationService {
     /**
      * Xử lý video generation ở background.
      */
-    @Async
+    @Async(AsyncConfig.MEDIA_EXECUTOR)
     @Transactional
     public void processVideoGenerationAsync(UUID aiSetId, UUID notebookId, UUID userId,
             List<UUID> fileIds, String templateName, String additionalRequirements,
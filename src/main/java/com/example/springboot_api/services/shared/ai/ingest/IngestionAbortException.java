@@ -0,0 +1,12 @@
+package com.example.springboot_api.services.shared.ai.ingest;
+
+/**
+ * Lỗi không thể khắc phục bằng retry (file rỗng, định dạng không hỗ trợ, job bị
+ * hủy, ...): job bị đánh dấu failed/cancelled ngay.
+ */
+public class IngestionAbortException extends RuntimeException {
+
+    public IngestionAbortException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.springboot_api.services.shared.ai.ingest;
+
+import java.util.UUID;
+
+/**
+ * Một job trong bảng public.ingestion_jobs (đã được worker claim).
+ *
+ * @param lastChunkIndex Chunk cuối đã embedding + lưu xong (-1 nếu chưa có)
+ * @param sourceUrl      URL YouTube, null với file upload
+ */
+public record IngestionJob(
+        UUID id,
+        UUID fileId,
+        IngestionStage stage,
+        int priority,
+        int attempts,
+        int maxAttempts,
+        int lastChunkIndex,
+        String sourceUrl) {
+
+    /** Retry thủ công / upload đơn lẻ của người dùng. */
+    public static final int PRIORITY_HIGH = 10;
+    public static final int PRIORITY_NORMAL = 5;
+    /** Upload hàng loạt của admin: không chặn upload của người dùng. */
+    public static final int PRIORITY_BULK = 0;
+}
@@ -0,0 +1,165 @@
+package com.example.springboot_api.services.shared.ai.ingest;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.springboot_api.dto.shared.ai.IngestionQueueStat;
+import com.example.springboot_api.repositories.shared.IngestionJobRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hàng đợi job ingest trên Postgres (public.ingestion_jobs).
+ *
+ * - enqueue ghi job trong transaction của caller: job chỉ hiện ra với worker
+ * sau khi file đã commit, và mất đi nếu upload bị rollback.
+ * - Worker trong cùng instance được đánh thức ngay sau commit; instance khác
+ * nhận job ở lần poll kế tiếp.
+ * - Retry với exponential backoff (có jitter) tới max_attempts.
+ */
+@Service
+@Slf4j
+public class IngestionJobQueue {
+
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    private final IngestionJobRepository jobRepository;
+    private final Map<IngestionStage, Semaphore> wakeups = new EnumMap<>(IngestionStage.class);
+
+    @Value("${ai.ingest.retry-backoff-initial-ms:30000}")
+    private long backoffInitialMs;
+
+    @Value("${ai.ingest.retry-backoff-max-ms:900000}")
+    private long backoffMaxMs;
+
+    public IngestionJobQueue(IngestionJobRepository jobRepository) {
+        this.jobRepository = jobRepository;
+        for (IngestionStage stage : IngestionStage.values()) {
+            wakeups.put(stage, new Semaphore(0));
+        }
+    }
+
+    /**
+     * Đưa file vào hàng đợi xử lý từ stage EXTRACT. Job cũ chưa xong của file bị
+     * hủy.
+     *
+     * @param sourceUrl URL YouTube, null với file upload
+     */
+    public UUID enqueue(UUID fileId, String sourceUrl, int priority) {
+        jobRepository.cancelActiveByFileId(fileId);
+        UUID jobId = jobRepository.insert(fileId, IngestionStage.EXTRACT, priority, sourceUrl);
+        signalAfterCommit(IngestionStage.EXTRACT);
+        return jobId;
+    }
+
+    public IngestionJob claim(IngestionStage stage, String workerId) {
+        return jobRepository.claimNext(stage, workerId);
+    }
+
+    /**
+     * Chờ tới khi có job mới của stage (trong instance này) hoặc hết timeout.
+     */
+    public void awaitWork(IngestionStage stage, long timeoutMs) throws InterruptedException {
+        Semaphore semaphore = wakeups.get(stage);
+        if (semaphore.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+            semaphore.drainPermits();
+        }
+    }
+
+    /**
+     * Gọi trong transaction ghi dữ liệu của job thì row job bị khóa tới khi
+     * commit: hủy / thu hồi job phải chờ lần ghi đó xong, và lần ghi sau sẽ thấy.
+     *
+     * @throws IngestionAbortException nếu job đã bị hủy / thu hồi
+     */
+    public void heartbeat(IngestionJob job, String workerId) {
+        if (!jobRepository.heartbeat(job.id(), workerId)) {
+            throw new IngestionAbortException("Job " + job.id() + " đã bị hủy hoặc thu hồi.");
+        }
+    }
+
+    /**
+     * Gọi trong cùng transaction với việc ghi chunk, để tiến độ và dữ liệu luôn
+     * khớp nhau.
+     *
+     * @throws IngestionAbortException nếu job đã bị hủy / thu hồi (transaction
+     *                                 phải rollback)
+     */
+    public void saveProgress(IngestionJob job, String workerId, int lastChunkIndex) {
+        if (!jobRepository.updateProgress(job.id(), workerId, lastChunkIndex)) {
+            throw new IngestionAbortException("Job " + job.id() + " đã bị hủy hoặc thu hồi.");
+        }
+    }
+
+    public void advance(IngestionJob job, String workerId, IngestionStage nextStage, int totalChunks) {
+        if (jobRepository.advance(job.id(), workerId, nextStage, totalChunks)) {
+            signalAfterCommit(nextStage);
+        }
+    }
+
+    public void complete(IngestionJob job, String workerId) {
+        jobRepository.markDone(job.id(), workerId);
+    }
+
+    /**
+     * Ghi nhận lỗi: retry sau backoff nếu còn lượt, ngược lại đánh dấu failed.
+     *
+     * @return true nếu job bị đánh dấu failed hẳn (caller cập nhật trạng thái
+     *         file); false nếu job sẽ được thử lại hoặc đã bị hủy / thu hồi
+     */
+    public boolean fail(IngestionJob job, String workerId, Exception error, boolean retryable) {
+        String message = truncate(error.getMessage() != null ? error.getMessage() : error.getClass().getName());
+
+        if (retryable && job.attempts() < job.maxAttempts()) {
+            long backoff = Math.min(backoffMaxMs, backoffInitialMs << Math.min(job.attempts() - 1, 20));
+            long delay = backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            log.warn("⏳ Job {} ({}) lỗi lần {}/{}: {} → thử lại sau {}ms", job.id(), job.stage(),
+                    job.attempts(), job.maxAttempts(), message, delay);
+            jobRepository.reschedule(job.id(), workerId, delay, message);
+            return false;
+        }
+
+        log.error("❌ Job {} ({}) thất bại sau {} lần: {}", job.id(), job.stage(), job.attempts(), message);
+        return jobRepository.markFailed(job.id(), workerId, message);
+    }
+
+    public int requeueExpired(long leaseMs) {
+        int count = jobRepository.requeueExpired(leaseMs);
+        if (count > 0) {
+            log.warn("♻️ Đưa lại hàng đợi {} job ingest hết lease", count);
+        }
+        return count;
+    }
+
+    public List<IngestionQueueStat> getStats() {
+        return jobRepository.countByStageAndStatus();
+    }
+
+    private void signalAfterCommit(IngestionStage stage) {
+        Semaphore semaphore = wakeups.get(stage);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    semaphore.release();
+                }
+            });
+        } else {
+            semaphore.release();
+        }
+    }
+
+    private String truncate(String message) {
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+}
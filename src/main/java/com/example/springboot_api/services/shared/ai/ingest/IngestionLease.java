@@ -0,0 +1,40 @@
+package com.example.springboot_api.services.shared.ai.ingest;
+
+/**
+ * Lease của một job đang được worker giữ. IngestionWorker gia hạn lease theo
+ * timer suốt thời gian chạy job (kể cả khi OCR / đọc file lâu chưa ra chunk
+ * nào); khi gia hạn thất bại vì job đã bị hủy / thu hồi thì lease bị đánh dấu
+ * mất và pipeline dừng ở lần kiểm tra kế tiếp.
+ */
+public final class IngestionLease {
+
+    private final IngestionJob job;
+    private final String workerId;
+    private volatile boolean lost;
+
+    IngestionLease(IngestionJob job, String workerId) {
+        this.job = job;
+        this.workerId = workerId;
+    }
+
+    public IngestionJob job() {
+        return job;
+    }
+
+    public String workerId() {
+        return workerId;
+    }
+
+    /**
+     * @throws IngestionAbortException nếu job đã bị hủy / thu hồi
+     */
+    public void ensureHeld() {
+        if (lost) {
+            throw new IngestionAbortException("Job " + job.id() + " đã bị hủy hoặc thu hồi.");
+        }
+    }
+
+    void markLost() {
+        lost = true;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.springboot_api.services.shared.ai.ingest;
+
+/**
+ * Các stage của pipeline ingest, mỗi stage có pool worker riêng.
+ */
+public enum IngestionStage {
+    /** OCR / đọc text / phụ đề → chunk, lưu vào ingestion_chunks (CPU-bound). */
+    EXTRACT,
+    /** Embedding các chunk và ghi vào file_chunks (IO-bound, gọi API). */
+    EMBED
+}
@@ -0,0 +1,170 @@
+package com.example.springboot_api.services.shared.ai.ingest;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.example.springboot_api.services.shared.ai.FileProcessingTaskService;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pool worker cho từng stage ingest. Mỗi worker là một thread poll
+ * public.ingestion_jobs (SKIP LOCKED) và chạy job qua
+ * FileProcessingTaskService.processJob.
+ *
+ * Số worker mỗi stage cấu hình riêng:
+ * - ai.ingest.extract-workers: OCR/đọc file, CPU-bound (OCR theo trang đã song
+ * song trong ocrExecutor)
+ * - ai.ingest.embed-workers: gọi API embedding, IO-bound
+ *
+ * Lease của các job đang chạy được gia hạn bởi một timer riêng (mỗi lease-ms /
+ * 3), không phụ thuộc pipeline có ra chunk hay không.
+ */
+@Component
+@Slf4j
+public class IngestionWorker {
+
+    private final IngestionJobQueue jobQueue;
+    private final FileProcessingTaskService fileProcessingTaskService;
+
+    @Value("${ai.ingest.extract-workers:2}")
+    private int extractWorkers;
+
+    @Value("${ai.ingest.embed-workers:2}")
+    private int embedWorkers;
+
+    @Value("${ai.ingest.poll-interval-ms:5000}")
+    private long pollIntervalMs;
+
+    // Job running không được gia hạn lease quá thời gian này coi như worker đã chết
+    @Value("${ai.ingest.lease-ms:600000}")
+    private long leaseMs;
+
+    @Value("${ai.ingest.enabled:true}")
+    private boolean enabled;
+
+    private final String instanceId = ManagementFactory.getRuntimeMXBean().getName();
+    private final List<Thread> threads = new ArrayList<>();
+    private final Set<IngestionLease> heldLeases = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService heartbeatTimer;
+    private volatile boolean running;
+
+    public IngestionWorker(IngestionJobQueue jobQueue, FileProcessingTaskService fileProcessingTaskService) {
+        this.jobQueue = jobQueue;
+        this.fileProcessingTaskService = fileProcessingTaskService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("⏸️ Ingestion worker bị tắt (ai.ingest.enabled=false)");
+            return;
+        }
+
+        running = true;
+        long heartbeatMs = Math.max(1000, leaseMs / 3);
+        heartbeatTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Ingest-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatTimer.scheduleWithFixedDelay(this::renewLeases, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        startPool(IngestionStage.EXTRACT, extractWorkers);
+        startPool(IngestionStage.EMBED, embedWorkers);
+        log.info("✅ Ingestion worker sẵn sàng: extract={}, embed={}", extractWorkers, embedWorkers);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (heartbeatTimer != null) {
+            heartbeatTimer.shutdownNow();
+        }
+        // Job đang chạy dở sẽ được worker khác nhận lại khi hết lease
+    }
+
+    private void startPool(IngestionStage stage, int size) {
+        for (int i = 1; i <= size; i++) {
+            String name = "Ingest-" + stage.name().toLowerCase() + "-" + i;
+            String workerId = instanceId + "/" + name;
+            Thread thread = new Thread(() -> pollLoop(stage, workerId), name);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    private void pollLoop(IngestionStage stage, String workerId) {
+        while (running) {
+            try {
+                IngestionJob job = jobQueue.claim(stage, workerId);
+                if (job == null) {
+                    jobQueue.requeueExpired(leaseMs);
+                    jobQueue.awaitWork(stage, pollIntervalMs);
+                    continue;
+                }
+
+                IngestionLease lease = new IngestionLease(job, workerId);
+                heldLeases.add(lease);
+                try {
+                    fileProcessingTaskService.processJob(job, workerId, lease);
+                } finally {
+                    heldLeases.remove(lease);
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // Lỗi kết nối DB khi poll: chờ rồi thử lại, không để thread chết
+                log.error("❌ Ingestion worker {} lỗi khi poll: {}", workerId, e.getMessage());
+                try {
+                    Thread.sleep(pollIntervalMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gia hạn lease của mọi job đang chạy. Job bị hủy / thu hồi thì đánh dấu lease
+     * mất; lỗi DB tạm thời thì bỏ qua, thử lại ở nhịp sau.
+     */
+    private void renewLeases() {
+        for (IngestionLease lease : heldLeases) {
+            try {
+                jobQueue.heartbeat(lease.job(), lease.workerId());
+            } catch (IngestionAbortException e) {
+                log.warn("⛔ Mất lease job {}: {}", lease.job().id(), e.getMessage());
+                lease.markLost();
+            } catch (Exception e) {
+                log.warn("⚠️ Không gia hạn được lease job {}: {}", lease.job().id(), e.getMessage());
+            }
+        }
+    }
+}
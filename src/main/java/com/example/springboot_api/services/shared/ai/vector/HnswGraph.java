@@ -0,0 +1,205 @@
+package com.example.springboot_api.services.shared.ai.vector;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * Đồ thị HNSW (Malkov &amp; Yashunin) trên một VectorStore, độ đo là tích vô
+ * hướng (vector đã chuẩn hóa → cosine).
+ *
+ * - Thêm node tăng dần (add), không xóa: node bị xóa chỉ bị lọc khỏi kết quả,
+ * NotebookVectorIndex build lại khi số node xóa quá nhiều.
+ * - search nhận filter: node không qua filter vẫn được duyệt để đi tiếp trong đồ
+ * thị nhưng không vào kết quả.
+ *
+ * Không thread-safe: ghi cần lock ghi, search cần lock đọc (NotebookVectorIndex).
+ */
+final class HnswGraph {
+
+    /** Node và độ tương đồng với query. */
+    record Scored(int node, float score) {
+    }
+
+    private static final Comparator<Scored> BEST_FIRST = Comparator.comparingDouble(Scored::score).reversed();
+    private static final Comparator<Scored> WORST_FIRST = Comparator.comparingDouble(Scored::score);
+
+    private final VectorStore vectors;
+    private final int m;
+    private final int maxLinksLayer0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    // links.get(node)[layer] = danh sách láng giềng của node ở layer đó
+    private final List<int[][]> links = new ArrayList<>();
+    private int entryPoint = -1;
+    private int maxLayer = -1;
+
+    HnswGraph(VectorStore vectors, int m, int efConstruction) {
+        this.vectors = vectors;
+        this.m = m;
+        this.maxLinksLayer0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    int size() {
+        return links.size();
+    }
+
+    /**
+     * Nối node vừa thêm vào vectors (node phải bằng size()).
+     */
+    void add(int node) {
+        if (node != links.size()) {
+            throw new IllegalStateException("Node phải được thêm theo thứ tự: " + node + " != " + links.size());
+        }
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        int[][] nodeLinks = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            nodeLinks[l] = new int[0];
+        }
+        links.add(nodeLinks);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLayer = level;
+            return;
+        }
+
+        float[] query = vectors.get(node);
+        int current = entryPoint;
+        for (int l = maxLayer; l > level; l--) {
+            current = greedy(query, current, l);
+        }
+
+        for (int l = Math.min(level, maxLayer); l >= 0; l--) {
+            List<Scored> candidates = searchLayer(query, current, efConstruction, l, n -> true);
+            int maxLinks = l == 0 ? maxLinksLayer0 : m;
+            int[] neighbours = new int[Math.min(maxLinks, candidates.size())];
+            for (int i = 0; i < neighbours.length; i++) {
+                neighbours[i] = candidates.get(i).node();
+            }
+            nodeLinks[l] = neighbours;
+            for (int neighbour : neighbours) {
+                connect(neighbour, node, l, maxLinks);
+            }
+            current = candidates.get(0).node();
+        }
+
+        if (level > maxLayer) {
+            maxLayer = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * Top-k node qua filter, sắp xếp giảm dần theo độ tương đồng.
+     */
+    List<Scored> search(float[] query, int k, int ef, IntPredicate filter) {
+        if (entryPoint < 0) {
+            return List.of();
+        }
+        int current = entryPoint;
+        for (int l = maxLayer; l > 0; l--) {
+            current = greedy(query, current, l);
+        }
+        List<Scored> found = searchLayer(query, current, Math.max(ef, k), 0, filter);
+        return found.size() > k ? found.subList(0, k) : found;
+    }
+
+    private int greedy(float[] query, int start, int layer) {
+        int current = start;
+        float best = vectors.dot(current, query);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbour : links.get(current)[layer]) {
+                float score = vectors.dot(neighbour, query);
+                if (score > best) {
+                    best = score;
+                    current = neighbour;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Beam search trên một layer. Trả về tối đa ef node qua filter, tốt nhất trước.
+     */
+    private List<Scored> searchLayer(float[] query, int start, int ef, int layer, IntPredicate filter) {
+        BitSet visited = new BitSet(links.size());
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Scored> results = new PriorityQueue<>(WORST_FIRST);
+
+        Scored first = new Scored(start, vectors.dot(start, query));
+        visited.set(start);
+        candidates.add(first);
+        if (filter.test(start)) {
+            results.add(first);
+        }
+
+        while (!candidates.isEmpty()) {
+            Scored candidate = candidates.poll();
+            if (results.size() >= ef && candidate.score() < results.peek().score()) {
+                break;
+            }
+            for (int neighbour : links.get(candidate.node())[layer]) {
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float score = vectors.dot(neighbour, query);
+                if (results.size() < ef || score > results.peek().score()) {
+                    Scored scored = new Scored(neighbour, score);
+                    candidates.add(scored);
+                    if (filter.test(neighbour)) {
+                        results.add(scored);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Scored> sorted = new ArrayList<>(results);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    /**
+     * Thêm cạnh from → to; quá maxLinks thì giữ các láng giềng gần from nhất.
+     */
+    private void connect(int from, int to, int layer, int maxLinks) {
+        int[][] fromLinks = links.get(from);
+        int[] current = fromLinks[layer];
+        int[] extended = new int[current.length + 1];
+        System.arraycopy(current, 0, extended, 0, current.length);
+        extended[current.length] = to;
+
+        if (extended.length <= maxLinks) {
+            fromLinks[layer] = extended;
+            return;
+        }
+
+        float[] base = vectors.get(from);
+        List<Scored> scored = new ArrayList<>(extended.length);
+        for (int neighbour : extended) {
+            scored.add(new Scored(neighbour, vectors.dot(neighbour, base)));
+        }
+        scored.sort(BEST_FIRST);
+        int[] pruned = new int[maxLinks];
+        for (int i = 0; i < maxLinks; i++) {
+            pruned[i] = scored.get(i).node();
+        }
+        fromLinks[layer] = pruned;
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.springboot_api.services.shared.ai.vector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.example.springboot_api.dto.shared.ai.MemoryVectorIndexStats;
+import com.example.springboot_api.models.types.PgVector;
+import com.example.springboot_api.services.shared.ai.FileChunksChangedEvent;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Index HNSW trong JVM cho các notebook "nóng", để truy vấn RAG không phải đi
+ * qua Postgres. file_chunks vẫn là nguồn dữ liệu chính:
+ *
+ * - Notebook quy chế (type = regulation) được nạp lúc khởi động.
+ * - Notebook khác được nạp khi có ≥ hot-min-queries truy vấn trong
+ * window-minutes phút; tối đa max-notebooks notebook, bỏ notebook lâu không
+ * dùng nhất.
+ * - Chunk của file thay đổi (FileChunksChangedEvent) → nạp lại file đó sau khi
+ * transaction commit.
+ *
+ * search trả về Optional.empty() khi notebook chưa nạp (hoặc tắt tính năng), khi
+ * đó caller truy vấn Postgres như cũ.
+ */
+@Service
+@Slf4j
+public class InMemoryVectorIndexService {
+
+    private static final String REGULATION_TYPE = "regulation";
+    private static final int DIMENSION = 1536;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Executor loadExecutor;
+
+    @Value("${ai.rag.memory-index.enabled:false}")
+    private boolean enabled;
+
+    // Số notebook nạp theo độ nóng (không tính notebook quy chế)
+    @Value("${ai.rag.memory-index.max-notebooks:4}")
+    private int maxNotebooks;
+
+    // Notebook nhiều chunk hơn thì để Postgres xử lý (1536 float ≈ 6KB / chunk)
+    @Value("${ai.rag.memory-index.max-chunks:100000}")
+    private int maxChunks;
+
+    @Value("${ai.rag.memory-index.hot-min-queries:30}")
+    private int hotMinQueries;
+
+    @Value("${ai.rag.memory-index.window-minutes:10}")
+    private long windowMinutes;
+
+    // Lưu vector dạng int8 (~4 lần nhỏ hơn float32, recall giảm rất ít)
+    @Value("${ai.rag.memory-index.int8:false}")
+    private boolean int8;
+
+    @Value("${ai.rag.memory-index.m:16}")
+    private int m;
+
+    @Value("${ai.rag.memory-index.ef-construction:100}")
+    private int efConstruction;
+
+    @Value("${ai.rag.memory-index.ef-search:64}")
+    private int efSearch;
+
+    private final Map<UUID, NotebookVectorIndex> indexes = new ConcurrentHashMap<>();
+    private final Set<UUID> pinned = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> tooLarge = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, AccessWindow> accessWindows = new ConcurrentHashMap<>();
+
+    // Notebook đang nạp → các file thay đổi trong lúc nạp, nạp lại sau khi xong.
+    // Giữ loadLock khi đọc / ghi cùng với indexes để không lọt event.
+    private final Map<UUID, Set<UUID>> loading = new HashMap<>();
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    // Nạp lại file tuần tự: hai event cùng file chạy song song sẽ nhân đôi chunk
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    private record AccessWindow(long startedAt, int count) {
+    }
+
+    public InMemoryVectorIndexService(JdbcTemplate jdbcTemplate,
+            @Qualifier("taskExecutor") Executor loadExecutor) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.loadExecutor = loadExecutor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void preloadRegulationNotebooks() {
+        if (!enabled) {
+            return;
+        }
+        List<UUID> notebookIds = jdbcTemplate.queryForList(
+                "SELECT id FROM public.notebooks WHERE type = ?", UUID.class, REGULATION_TYPE);
+        pinned.addAll(notebookIds);
+        notebookIds.forEach(this::scheduleLoad);
+        log.info("🧠 [MEM-INDEX] Nạp trước {} notebook quy chế", notebookIds.size());
+    }
+
+    /**
+     * Top-k chunk trong fileIds theo cosine similarity, từ index trong JVM.
+     *
+     * @param embedding embedding câu hỏi (1536 chiều)
+     * @return Optional.empty() nếu notebook chưa có index trong JVM
+     */
+    public Optional<List<VectorHit>> search(UUID notebookId, float[] embedding, Collection<UUID> fileIds, int k) {
+        if (!enabled || notebookId == null) {
+            return Optional.empty();
+        }
+        NotebookVectorIndex index = indexes.get(notebookId);
+        if (index == null) {
+            recordAccess(notebookId);
+            return Optional.empty();
+        }
+        if (embedding == null || embedding.length != index.dimension()) {
+            return Optional.empty();
+        }
+
+        // Bản sao: embedding có thể là mảng dùng chung với EmbeddingCacheService
+        float[] query = embedding.clone();
+        normalize(query);
+        return Optional.of(index.search(query, fileIds, k));
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onFileChunksChanged(FileChunksChangedEvent event) {
+        if (!enabled || event.notebookId() == null) {
+            return;
+        }
+        // Số chunk đã đổi (vd. xóa file): cho notebook bị bỏ qua vì quá lớn được
+        // đếm lại ở lần nóng kế tiếp
+        tooLarge.remove(event.notebookId());
+        NotebookVectorIndex index;
+        loadLock.lock();
+        try {
+            Set<UUID> pendingFiles = loading.get(event.notebookId());
+            if (pendingFiles != null) {
+                pendingFiles.add(event.fileId());
+                return;
+            }
+            index = indexes.get(event.notebookId());
+        } finally {
+            loadLock.unlock();
+        }
+        if (index != null) {
+            loadExecutor.execute(() -> refreshFiles(index, Set.of(event.fileId())));
+        }
+    }
+
+    public List<MemoryVectorIndexStats> getStats() {
+        List<MemoryVectorIndexStats> stats = new ArrayList<>();
+        for (NotebookVectorIndex index : indexes.values()) {
+            stats.add(new MemoryVectorIndexStats(index.notebookId(), index.liveCount(), index.deletedCount(),
+                    index.offHeapBytes(), index.searches(), index.avgSearchMicros()));
+        }
+        return stats;
+    }
+
+    private void recordAccess(UUID notebookId) {
+        if (tooLarge.contains(notebookId)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long windowMs = windowMinutes * 60_000;
+        AccessWindow window = accessWindows.compute(notebookId,
+                (id, current) -> current == null || now - current.startedAt() > windowMs
+                        ? new AccessWindow(now, 1)
+                        : new AccessWindow(current.startedAt(), current.count() + 1));
+        if (window.count() >= hotMinQueries) {
+            accessWindows.remove(notebookId);
+            scheduleLoad(notebookId);
+        }
+    }
+
+    private void scheduleLoad(UUID notebookId) {
+        loadLock.lock();
+        try {
+            if (loading.containsKey(notebookId)) {
+                return;
+            }
+            loading.put(notebookId, new HashSet<>());
+        } finally {
+            loadLock.unlock();
+        }
+        loadExecutor.execute(() -> load(notebookId));
+    }
+
+    /**
+     * Build index mới cho notebook (lần đầu hoặc build lại khi nhiều chunk đã xóa)
+     * rồi thay index cũ.
+     */
+    private void load(UUID notebookId) {
+        NotebookVectorIndex index = null;
+        try {
+            Integer chunkCount = jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM public.file_chunks WHERE notebook_id = ?", Integer.class, notebookId);
+            int total = chunkCount != null ? chunkCount : 0;
+            if (total > maxChunks) {
+                tooLarge.add(notebookId);
+                log.info("🧠 [MEM-INDEX] Bỏ qua notebook {}: {} chunk > {}", notebookId, total, maxChunks);
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            index = new NotebookVectorIndex(notebookId, DIMENSION, Math.max(total, 16), int8, m, efConstruction,
+                    efSearch);
+            // Nạp theo từng file: không kéo cả notebook (vài trăm MB text vector) vào bộ
+            // nhớ driver một lần
+            List<UUID> fileIds = jdbcTemplate.queryForList(
+                    "SELECT DISTINCT file_id FROM public.file_chunks WHERE notebook_id = ?", UUID.class,
+                    notebookId);
+            for (UUID fileId : fileIds) {
+                loadFile(index, fileId);
+            }
+            if (!pinned.contains(notebookId)) {
+                evictIfFull(notebookId);
+            }
+            log.info("🧠 [MEM-INDEX] Đã nạp notebook {}: {} chunk, {} MB off-heap, {}ms", notebookId,
+                    index.liveCount(), index.offHeapBytes() / (1024 * 1024), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("⚠️ [MEM-INDEX] Lỗi nạp notebook {}: {}", notebookId, e.getMessage());
+            index = null;
+        } finally {
+            Set<UUID> changedFiles;
+            loadLock.lock();
+            try {
+                changedFiles = loading.remove(notebookId);
+                if (index != null) {
+                    indexes.put(notebookId, index);
+                    tooLarge.remove(notebookId);
+                }
+            } finally {
+                loadLock.unlock();
+            }
+            if (index != null && changedFiles != null && !changedFiles.isEmpty()) {
+                refreshFiles(index, changedFiles);
+            }
+        }
+    }
+
+    private void refreshFiles(NotebookVectorIndex index, Set<UUID> fileIds) {
+        refreshLock.lock();
+        try {
+            for (UUID fileId : fileIds) {
+                index.removeFile(fileId);
+                loadFile(index, fileId);
+            }
+        } catch (Exception e) {
+            // Index lệch với file_chunks: bỏ đi, lần sau nạp lại từ đầu
+            log.warn("⚠️ [MEM-INDEX] Lỗi nạp lại file của notebook {}: {}", index.notebookId(), e.getMessage());
+            indexes.remove(index.notebookId(), index);
+            return;
+        } finally {
+            refreshLock.unlock();
+        }
+        if (index.needsCompaction()) {
+            scheduleLoad(index.notebookId());
+        }
+    }
+
+    private void loadFile(NotebookVectorIndex index, UUID fileId) {
+        jdbcTemplate.query(con -> {
+            PgVector.registerType(con);
+            var ps = con.prepareStatement(
+                    "SELECT chunk_index, content, embedding FROM public.file_chunks "
+                            + "WHERE notebook_id = ? AND file_id = ? AND embedding IS NOT NULL ORDER BY chunk_index");
+            ps.setObject(1, index.notebookId());
+            ps.setObject(2, fileId);
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            float[] vector = PgVector.toArray(rs.getObject("embedding"));
+            if (vector == null || vector.length != index.dimension()) {
+                return;
+            }
+            normalize(vector);
+            index.add(fileId, rs.getInt("chunk_index"), rs.getString("content"), vector);
+        });
+    }
+
+    private void evictIfFull(UUID loadingNotebookId) {
+        List<NotebookVectorIndex> hot = new ArrayList<>();
+        for (NotebookVectorIndex index : indexes.values()) {
+            if (!pinned.contains(index.notebookId()) && !index.notebookId().equals(loadingNotebookId)) {
+                hot.add(index);
+            }
+        }
+        if (hot.size() < maxNotebooks) {
+            return;
+        }
+        hot.sort(Comparator.comparingLong(NotebookVectorIndex::lastAccessAt));
+        for (int i = 0; i <= hot.size() - maxNotebooks; i++) {
+            UUID evicted = hot.get(i).notebookId();
+            indexes.remove(evicted);
+            log.info("🧠 [MEM-INDEX] Bỏ notebook {} khỏi bộ nhớ (lâu không dùng)", evicted);
+        }
+    }
+
+    private static void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.springboot_api.services.shared.ai.vector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Kho vector lượng tử hóa int8 (scalar quantization) ngoài heap: mỗi chiều 1
+ * byte + 1 float scale / vector, nhỏ ~4 lần so với OffHeapVectorStore (1536
+ * chiều ≈ 1.5 KB / vector).
+ *
+ * code[i] = round(v[i] / scale), scale = max|v[i]| / 127. Khoảng cách tính bất
+ * đối xứng: query giữ float, chỉ vector đã lưu bị lượng tử hóa.
+ */
+final class Int8VectorStore implements VectorStore {
+
+    private final int dimension;
+    private ByteBuffer codes;
+    private FloatBuffer scales;
+    private int size;
+
+    Int8VectorStore(int dimension, int initialCapacity) {
+        this.dimension = dimension;
+        int capacity = Math.max(16, initialCapacity);
+        this.codes = ByteBuffer.allocateDirect(capacity * dimension);
+        this.scales = allocateScales(capacity);
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return codes.capacity() + (long) scales.capacity() * Float.BYTES;
+    }
+
+    @Override
+    public int add(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Vector " + vector.length + " chiều, cần " + dimension);
+        }
+        if (size == scales.capacity()) {
+            int capacity = size * 2;
+            ByteBuffer grownCodes = ByteBuffer.allocateDirect(capacity * dimension);
+            grownCodes.put(0, codes, 0, size * dimension);
+            FloatBuffer grownScales = allocateScales(capacity);
+            grownScales.put(0, scales, 0, size);
+            codes = grownCodes;
+            scales = grownScales;
+        }
+
+        float max = 0f;
+        for (float component : vector) {
+            max = Math.max(max, Math.abs(component));
+        }
+        float scale = max == 0f ? 1f : max / 127f;
+        int base = size * dimension;
+        for (int i = 0; i < dimension; i++) {
+            codes.put(base + i, (byte) Math.round(vector[i] / scale));
+        }
+        scales.put(size, scale);
+        return size++;
+    }
+
+    @Override
+    public float dot(int node, float[] query) {
+        ByteBuffer buf = codes;
+        int base = node * dimension;
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += buf.get(base + i) * query[i];
+        }
+        return sum * scales.get(node);
+    }
+
+    @Override
+    public float[] get(int node) {
+        float[] vector = new float[dimension];
+        float scale = scales.get(node);
+        int base = node * dimension;
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = codes.get(base + i) * scale;
+        }
+        return vector;
+    }
+
+    private static FloatBuffer allocateScales(int vectors) {
+        return ByteBuffer.allocateDirect(vectors * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.springboot_api.services.shared.ai.vector;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index vector trong JVM cho một notebook: vector ngoài heap (float32 hoặc
+ * int8) + đồ thị HNSW + (file_id, chunk_index, content) của từng node.
+ *
+ * Xóa file chỉ đánh dấu node là đã xóa; needsCompaction() báo khi nên build lại.
+ * Ghi dùng lock ghi, search dùng lock đọc (nhiều search chạy song song).
+ */
+final class NotebookVectorIndex {
+
+    // Filter chọn ít node hơn ngưỡng này thì quét tuần tự các node đó thay vì đi
+    // đồ thị (đồ thị phải duyệt rất nhiều node mới gom đủ k kết quả qua filter)
+    private static final int BRUTE_FORCE_MAX_NODES = 2000;
+    private static final double BRUTE_FORCE_MAX_FRACTION = 0.1;
+
+    private final UUID notebookId;
+    private final VectorStore vectors;
+    private final HnswGraph graph;
+    private final int efSearch;
+
+    private final List<UUID> nodeFileIds = new ArrayList<>();
+    private final List<Integer> nodeChunkIndexes = new ArrayList<>();
+    private final List<String> nodeContents = new ArrayList<>();
+    private final Map<UUID, List<Integer>> nodesByFile = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private volatile long lastAccessAt = System.currentTimeMillis();
+
+    NotebookVectorIndex(UUID notebookId, int dimension, int expectedSize, boolean int8, int m, int efConstruction,
+            int efSearch) {
+        this.notebookId = notebookId;
+        this.vectors = int8 ? new Int8VectorStore(dimension, expectedSize)
+                : new OffHeapVectorStore(dimension, expectedSize);
+        this.graph = new HnswGraph(vectors, m, efConstruction);
+        this.efSearch = efSearch;
+    }
+
+    UUID notebookId() {
+        return notebookId;
+    }
+
+    int dimension() {
+        return vectors.dimension();
+    }
+
+    void add(UUID fileId, int chunkIndex, String content, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            int node = vectors.add(vector);
+            graph.add(node);
+            nodeFileIds.add(fileId);
+            nodeChunkIndexes.add(chunkIndex);
+            nodeContents.add(content);
+            nodesByFile.computeIfAbsent(fileId, k -> new ArrayList<>()).add(node);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void removeFile(UUID fileId) {
+        lock.writeLock().lock();
+        try {
+            List<Integer> nodes = nodesByFile.remove(fileId);
+            if (nodes == null) {
+                return;
+            }
+            for (int node : nodes) {
+                deleted.set(node);
+                nodeContents.set(node, null);
+            }
+            deletedCount += nodes.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Top-k chunk thuộc fileIds, giảm dần theo cosine similarity.
+     */
+    List<VectorHit> search(float[] query, Collection<UUID> fileIds, int k) {
+        long start = System.nanoTime();
+        lastAccessAt = System.currentTimeMillis();
+        lock.readLock().lock();
+        try {
+            Set<UUID> allowedFiles = Set.copyOf(fileIds);
+            int allowedCount = 0;
+            for (UUID fileId : allowedFiles) {
+                List<Integer> nodes = nodesByFile.get(fileId);
+                allowedCount += nodes != null ? nodes.size() : 0;
+            }
+            if (allowedCount == 0) {
+                return List.of();
+            }
+
+            List<HnswGraph.Scored> found;
+            if (allowedCount <= BRUTE_FORCE_MAX_NODES || allowedCount < liveCountLocked() * BRUTE_FORCE_MAX_FRACTION) {
+                found = bruteForce(query, allowedFiles, k);
+            } else {
+                found = graph.search(query, k, efSearch,
+                        node -> !deleted.get(node) && allowedFiles.contains(nodeFileIds.get(node)));
+            }
+
+            List<VectorHit> hits = new ArrayList<>(found.size());
+            for (HnswGraph.Scored scored : found) {
+                int node = scored.node();
+                hits.add(new VectorHit(nodeFileIds.get(node), nodeChunkIndexes.get(node), nodeContents.get(node),
+                        scored.score()));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+            searches.increment();
+            searchNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    int liveCount() {
+        lock.readLock().lock();
+        try {
+            return liveCountLocked();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Node đã xóa chiếm quá 30%: nên build lại để đồ thị không phình và chậm.
+     */
+    boolean needsCompaction() {
+        lock.readLock().lock();
+        try {
+            return deletedCount > 0 && deletedCount > graph.size() * 0.3;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long offHeapBytes() {
+        return vectors.offHeapBytes();
+    }
+
+    long lastAccessAt() {
+        return lastAccessAt;
+    }
+
+    long searches() {
+        return searches.sum();
+    }
+
+    double avgSearchMicros() {
+        long count = searches.sum();
+        return count == 0 ? 0 : searchNanos.sum() / 1000.0 / count;
+    }
+
+    private int liveCountLocked() {
+        return graph.size() - deletedCount;
+    }
+
+    private List<HnswGraph.Scored> bruteForce(float[] query, Set<UUID> allowedFiles, int k) {
+        PriorityQueue<HnswGraph.Scored> top = new PriorityQueue<>(
+                (a, b) -> Float.compare(a.score(), b.score()));
+        for (UUID fileId : allowedFiles) {
+            List<Integer> nodes = nodesByFile.get(fileId);
+            if (nodes == null) {
+                continue;
+            }
+            for (int node : nodes) {
+                float score = vectors.dot(node, query);
+                if (top.size() < k) {
+                    top.add(new HnswGraph.Scored(node, score));
+                } else if (score > top.peek().score()) {
+                    top.poll();
+                    top.add(new HnswGraph.Scored(node, score));
+                }
+            }
+        }
+        List<HnswGraph.Scored> sorted = new ArrayList<>(top);
+        sorted.sort((a, b) -> Float.compare(b.score(), a.score()));
+        return sorted;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.springboot_api.services.shared.ai.vector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Mảng vector float liên tiếp nằm ngoài heap (direct buffer): 1536 chiều = 6 KB
+ * mỗi vector, không tạo object nào cho GC quét. Node i nằm ở [i * dimension,
+ * (i + 1) * dimension).
+ *
+ * Không thread-safe: caller (NotebookVectorIndex) giữ lock khi ghi.
+ */
+final class OffHeapVectorStore implements VectorStore {
+
+    private final int dimension;
+    private FloatBuffer data;
+    private int size;
+
+    OffHeapVectorStore(int dimension, int initialCapacity) {
+        this.dimension = dimension;
+        this.data = allocate(Math.max(16, initialCapacity));
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return (long) data.capacity() * Float.BYTES;
+    }
+
+    @Override
+    public int add(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Vector " + vector.length + " chiều, cần " + dimension);
+        }
+        if ((size + 1) * dimension > data.capacity()) {
+            FloatBuffer grown = allocate(Math.max(16, size * 2));
+            grown.put(0, data, 0, size * dimension);
+            data = grown;
+        }
+        data.put(size * dimension, vector);
+        return size++;
+    }
+
+    @Override
+    public float dot(int node, float[] query) {
+        FloatBuffer buf = data;
+        int base = node * dimension;
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += buf.get(base + i) * query[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float[] get(int node) {
+        float[] vector = new float[dimension];
+        data.get(node * dimension, vector);
+        return vector;
+    }
+
+    private FloatBuffer allocate(int vectors) {
+        return ByteBuffer.allocateDirect(vectors * dimension * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.springboot_api.services.shared.ai.vector;
+
+import java.util.UUID;
+
+/**
+ * Một chunk tìm được từ index trong JVM, similarity = cosine similarity.
+ */
+public record VectorHit(UUID fileId, int chunkIndex, String content, float similarity) {
+}
@@ -0,0 +1,26 @@
+package com.example.springboot_api.services.shared.ai.vector;
+
+/**
+ * Kho vector của một NotebookVectorIndex, node đánh số 0..size()-1 theo thứ tự
+ * add. Không thread-safe: caller giữ lock khi ghi.
+ */
+interface VectorStore {
+
+    int dimension();
+
+    int size();
+
+    long offHeapBytes();
+
+    /**
+     * @return số thứ tự node của vector vừa thêm
+     */
+    int add(float[] vector);
+
+    /**
+     * Tích vô hướng node với query (= cosine similarity khi cả hai đã chuẩn hóa).
+     */
+    float dot(int node, float[] query);
+
+    float[] get(int node);
+}
@@ -13,6 +13,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.example.springboot_api.common.exceptions.BadRequestException;
 import com.example.springboot_api.common.exceptions.NotFoundException;
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
 import com.example.springboot_api.dto.user.audio.AudioListResponse;
 import com.example.springboot_api.dto.user.audio.AudioResponse;
 import com.example.springboot_api.mappers.AudioMapper;
@@ -30,6 +31,7 @@ import com.example.springboot_api.repositories.shared.NotebookAiSetFileRepositor
 import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
 import com.example.springboot_api.repositories.shared.TtsAssetRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import com.example.springboot_api.services.shared.ai.generation.AudioOverviewService;
 
 import lombok.RequiredArgsConstructor;
@@ -52,6 +54,7 @@ public class AudioService {
     private final UserRepository userRepository;
     private final AudioMapper audioMapper;
     private final AudioOverviewService audioOverviewService;
+    private final AiTaskBulkhead aiTaskBulkhead;
 
     // ================================
     // GENERATE AUDIO OVERVIEW (ASYNC)
@@ -99,6 +102,8 @@ public class AudioService {
                 inputConfig.put("notes", notes);
             }
 
+            aiTaskBulkhead.checkCapacity(userId, notebookId);
+
             NotebookAiSet aiSet = NotebookAiSet.builder()
                     .notebook(notebook)
                     .createdBy(user)
@@ -122,14 +127,18 @@ public class AudioService {
 
             log.info("📤 [AUDIO] Gọi async method - Thread: {}", Thread.currentThread().getName());
 
-            audioOverviewService.processAudioOverviewAsync(
-                    savedAiSet.getId(), notebookId, userId, fileIds, voiceId, outputFormat, notes);
+            aiTaskBulkhead.dispatch(savedAiSet.getId(), userId, notebookId,
+                    () -> audioOverviewService.processAudioOverviewAsync(
+                            savedAiSet.getId(), notebookId, userId, fileIds, voiceId, outputFormat, notes));
 
             result.put("aiSetId", savedAiSet.getId());
             result.put("status", "queued");
             result.put("success", true);
             result.put("message", "Audio Overview đang được tạo ở nền. Dùng aiSetId để theo dõi.");
 
+        } catch (TooManyRequestsException e) {
+            // Bulkhead / pool đầy: để GlobalExceptionHandler trả 429
+            throw e;
         } catch (Exception e) {
             result.put("error", "Lỗi khi khởi tạo audio: " + e.getMessage());
             log.error("❌ [AUDIO] Error: {}", e.getMessage(), e);
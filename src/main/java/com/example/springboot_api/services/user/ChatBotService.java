@@ -1,7 +1,6 @@
 package com.example.springboot_api.services.user;
 
 import java.io.IOException;
-import java.sql.Array;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -12,8 +11,11 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -56,11 +58,19 @@ import com.example.springboot_api.repositories.shared.NotebookBotMessageReposito
 import com.example.springboot_api.repositories.shared.NotebookBotMessageSourceRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
 import com.example.springboot_api.services.shared.FileStorageService;
-import com.example.springboot_api.services.shared.ai.AIModelService;
 import com.example.springboot_api.services.shared.ai.EmbeddingService;
 import com.example.springboot_api.services.shared.ai.ImageExtractionService;
+import com.example.springboot_api.services.shared.ai.LexicalSearchService;
+import com.example.springboot_api.services.shared.ai.LlmRouter;
 import com.example.springboot_api.services.shared.ai.OcrService;
+import com.example.springboot_api.services.shared.ai.RagRerankService;
+import com.example.springboot_api.services.shared.ai.RagResultCache;
+import com.example.springboot_api.services.shared.ai.RankFusion;
+import com.example.springboot_api.services.shared.ai.VectorIndexService;
+import com.example.springboot_api.services.shared.ai.VectorStorageService;
 import com.example.springboot_api.services.shared.ai.WebSearchService;
+import com.example.springboot_api.services.shared.ai.chunking.TokenEstimator;
+import com.example.springboot_api.services.shared.ai.vector.InMemoryVectorIndexService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import jakarta.persistence.EntityManager;
@@ -78,7 +88,7 @@ public class ChatBotService {
     private final WebSearchService webSearchService;
     private final OcrService ocrService;
     private final FileStorageService fileStorageService;
-    private final AIModelService aiModelService;
+    private final LlmRouter llmRouter;
     private final ImageExtractionService imageExtractionService;
     private final ObjectMapper objectMapper;
     private final NotebookBotConversationRepository conversationRepository;
@@ -92,6 +102,16 @@ public class ChatBotService {
     private final UserRepository userRepository;
     private final EntityManager entityManager;
     private final ChatBotMapper chatBotMapper;
+    private final ChatStagePipeline chatStagePipeline;
+    private final ChatPromptBuilder chatPromptBuilder;
+    private final RagResultCache ragResultCache;
+    private final VectorIndexService vectorIndexService;
+    private final VectorStorageService vectorStorageService;
+    private final InMemoryVectorIndexService inMemoryVectorIndexService;
+    private final LexicalSearchService lexicalSearchService;
+    private final RagRerankService ragRerankService;
+    private final ConversationMemoryService conversationMemoryService;
+    private final ApplicationEventPublisher eventPublisher;
 
     /**
      * Record chứa kết quả RAG chunk.
@@ -104,6 +124,28 @@ public class ChatBotService {
             double distance) {
     }
 
+    /**
+     * Kết quả bước chuẩn bị chat (message user đã lưu, prompt đã dựng), dùng
+     * chung cho chat đồng bộ và chat stream.
+     */
+    public record PreparedChat(
+            UUID notebookId,
+            UUID conversationId,
+            UUID userMessageId,
+            UUID llmModelId,
+            ChatMode mode,
+            String modelCode,
+            String prompt,
+            Map<String, Object> llmInputData) {
+    }
+
+    /**
+     * Kết quả upload + OCR một ảnh đính kèm; error != null nếu upload hoặc OCR lỗi
+     * (storageUrl vẫn có nếu upload đã xong).
+     */
+    private record ChatImageResult(String storageUrl, String ocrText, Throwable error) {
+    }
+
     /**
      * Truy vấn RAG sử dụng hàm SQL rag_search_chunks.
      * 
@@ -117,7 +159,8 @@ public class ChatBotService {
     }
 
     /**
-     * Truy vấn RAG sử dụng hàm SQL rag_search_chunks với custom limit.
+     * Truy vấn RAG sử dụng hàm SQL rag_search_chunks với custom limit, gộp với
+     * kết quả tìm từ khóa (LexicalSearchService) nếu bật ai.rag.hybrid.enabled.
      * 
      * @param notebookId Notebook ID
      * @param queryText  Text câu hỏi để tạo embedding
@@ -134,33 +177,81 @@ public class ChatBotService {
             return Collections.emptyList();
         }
 
+        // Câu hỏi lặp lại (cùng notebook + file) lấy thẳng kết quả đã cache
+        RagResultCache.Lookup cacheLookup = ragResultCache.lookup(notebookId, fileIds, queryText, limit);
+        List<RagChunk> cached = ragResultCache.get(cacheLookup);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Tìm từ khóa (full-text) chạy song song với embedding + vector search,
+        // mỗi nhánh lấy dư ứng viên rồi gộp bằng reciprocal rank fusion
+        int candidates = lexicalSearchService.candidateLimit(limit);
+        CompletableFuture<List<LexicalSearchService.LexicalHit>> lexicalFuture = lexicalSearchService
+                .searchAsync(notebookId, queryText, fileIds, candidates);
+
         // Tạo embedding từ query text
-        List<Double> embedding = embeddingService.embedGoogleNormalized(queryText);
-
-        // Convert embedding sang PostgreSQL vector format
-        String vectorString = convertEmbeddingToVectorString(embedding);
-
-        // Gọi SQL function rag_search_chunks (p_notebook_id, p_query_embedding,
-        // p_file_ids, p_limit)
-        return jdbcTemplate.query(con -> {
-            Array fileIdArray = con.createArrayOf("uuid", fileIds.toArray());
-
-            var ps = con.prepareCall(
-                    "SELECT file_id, chunk_index, content, similarity, distance " +
-                            "FROM public.rag_search_chunks(?, ?::vector, ?, ?)");
-
-            ps.setObject(1, notebookId);
-            ps.setString(2, vectorString);
-            ps.setArray(3, fileIdArray);
-            ps.setInt(4, limit);
-
-            return ps;
-        }, (rs, rowNum) -> new RagChunk(
-                (UUID) rs.getObject("file_id"),
-                rs.getInt("chunk_index"),
-                rs.getString("content"),
-                rs.getDouble("similarity"),
-                rs.getDouble("distance")));
+        float[] embedding = embeddingService.embedGoogleNormalized(queryText);
+
+        // Notebook nóng có index trong JVM thì không cần đi Postgres
+        List<RagChunk> vectorChunks = inMemoryVectorIndexService.search(notebookId, embedding, fileIds, candidates)
+                .map(hits -> hits.stream()
+                        .map(hit -> new RagChunk(hit.fileId(), hit.chunkIndex(), hit.content(), hit.similarity(),
+                                1 - hit.similarity()))
+                        .toList())
+                .orElseGet(() -> queryRagChunks(notebookId, embedding, fileIds, candidates));
+
+        List<RagChunk> chunks = fuseHybrid(vectorChunks, lexicalSearchService.await(lexicalFuture), embedding, limit);
+        ragResultCache.put(cacheLookup, chunks);
+        return chunks;
+    }
+
+    /**
+     * Gộp kết quả vector và từ khóa bằng reciprocal rank fusion. Chunk chỉ có
+     * trong kết quả từ khóa được tính cosine similarity từ embedding của nó, để
+     * similarity trong prompt / nguồn vẫn cùng thang đo.
+     */
+    private List<RagChunk> fuseHybrid(List<RagChunk> vectorChunks, List<LexicalSearchService.LexicalHit> lexicalHits,
+            float[] embedding, int limit) {
+        if (lexicalHits.isEmpty()) {
+            return vectorChunks.size() > limit ? List.copyOf(vectorChunks.subList(0, limit)) : vectorChunks;
+        }
+
+        Map<String, RagChunk> byKey = new HashMap<>();
+        List<String> vectorKeys = new ArrayList<>(vectorChunks.size());
+        for (RagChunk chunk : vectorChunks) {
+            String key = chunk.fileId() + ":" + chunk.chunkIndex();
+            byKey.put(key, chunk);
+            vectorKeys.add(key);
+        }
+        List<String> lexicalKeys = new ArrayList<>(lexicalHits.size());
+        for (LexicalSearchService.LexicalHit hit : lexicalHits) {
+            String key = hit.fileId() + ":" + hit.chunkIndex();
+            byKey.computeIfAbsent(key, k -> {
+                double similarity = hit.similarityTo(embedding);
+                return new RagChunk(hit.fileId(), hit.chunkIndex(), hit.content(), similarity, 1 - similarity);
+            });
+            lexicalKeys.add(key);
+        }
+
+        return RankFusion.reciprocalRank(List.of(vectorKeys, lexicalKeys), limit).stream()
+                .map(byKey::get)
+                .toList();
+    }
+
+    private List<RagChunk> queryRagChunks(UUID notebookId, float[] embedding, List<UUID> fileIds, int limit) {
+        // FULL: rag_search_chunks; chế độ rút gọn (halfvec / 768 chiều / binary):
+        // rag_search_chunks_compact lấy ứng viên trên index rút gọn rồi re-rank chính xác
+        VectorStorageService.NotebookVectorSettings storage = vectorStorageService.settingsFor(notebookId);
+        VectorIndexService.SearchTuning tuning = storage.tuningFor(vectorIndexService.defaultTuning(), limit);
+        return vectorIndexService.searchTopK(tuning, limit, () -> jdbcTemplate.query(
+                con -> vectorStorageService.prepareSearch(con, notebookId, embedding, fileIds, limit, storage),
+                (rs, rowNum) -> new RagChunk(
+                        (UUID) rs.getObject("file_id"),
+                        rs.getInt("chunk_index"),
+                        rs.getString("content"),
+                        rs.getDouble("similarity"),
+                        rs.getDouble("distance"))));
     }
 
     /**
@@ -287,25 +378,6 @@ public class ChatBotService {
         return chatBotMapper.toLlmModelResponseList(models);
     }
 
-    /**
-     * Convert List<Double> embedding to PostgreSQL vector string format:
-     * "[0.1,0.2,0.3,...]"
-     */
-    private String convertEmbeddingToVectorString(List<Double> embedding) {
-        if (embedding == null || embedding.isEmpty()) {
-            return "[]";
-        }
-        StringBuilder sb = new StringBuilder("[");
-        for (int i = 0; i < embedding.size(); i++) {
-            if (i > 0) {
-                sb.append(",");
-            }
-            sb.append(embedding.get(i));
-        }
-        sb.append("]");
-        return sb.toString();
-    }
-
     /**
      * Upload ảnh cho chat và thực hiện OCR.
      * Ảnh được lưu vào storage và trả về thông tin để FE gửi kèm khi chat.
@@ -512,11 +584,13 @@ public class ChatBotService {
             processRagMode(notebookId, combinedQueryText, ragFileIds, llmInputData);
         }
 
-        // Lấy chat history
-        String chatHistory = getChatHistory(conversation.getId(), userId);
+        // Lấy chat history: bộ nhớ hội thoại nếu đã cập nhật, không thì đọc lại messages
+        String chatHistory = conversationMemoryService
+                .history(userId, notebookId, conversation.getId(), "RAG", combinedQueryText)
+                .orElseGet(() -> getChatHistory(conversation.getId(), userId));
 
         // Chuẩn bị prompt và gọi LLM
-        String llmPrompt = buildLlmPrompt(llmInputData, chatHistory);
+        String llmPrompt = buildLlmPrompt(conversation.getId(), llmInputData, chatHistory);
 
         // Gọi LLM model
         String llmResponse;
@@ -524,14 +598,15 @@ public class ChatBotService {
             throw new BadRequestException("Không tìm thấy model LLM nào.");
         }
 
+        // Như trước khi có LlmRouter: groq → Groq, code khác → Gemini
         String modelCode = llmModel.getCode();
-        if ("gemini".equalsIgnoreCase(modelCode)) {
-            llmResponse = aiModelService.callGeminiModel(llmPrompt);
-        } else if ("groq".equalsIgnoreCase(modelCode)) {
-            llmResponse = aiModelService.callGroqModel(llmPrompt);
-        } else {
-            llmResponse = aiModelService.callGeminiModel(llmPrompt); // Fallback to Gemini
+        if (!LlmRouter.GROQ.equalsIgnoreCase(modelCode)) {
+            modelCode = LlmRouter.GEMINI; // Fallback to Gemini
         }
+        // Model user chọn được ưu tiên; router chuyển route khi model đó chậm / lỗi
+        LlmRouter.Answer llmAnswer = llmRouter.call(modelCode, llmPrompt);
+        llmResponse = llmAnswer.text();
+        LlmModel answeredBy = answeringModel(llmModel, llmAnswer.route());
 
         // Parse JSON response từ LLM
         Map<String, Object> llmResponseJson = parseLlmResponse(llmResponse);
@@ -551,7 +626,7 @@ public class ChatBotService {
                 .role("assistant")
                 .content(answer)
                 .mode("RAG")
-                .llmModel(llmModel)
+                .llmModel(answeredBy)
                 .createdAt(OffsetDateTime.now())
                 .build();
 
@@ -560,6 +635,10 @@ public class ChatBotService {
         // Lưu sources
         saveSources(assistantMessage, llmResponseJson, llmInputData);
 
+        // Cập nhật bộ nhớ hội thoại sau commit
+        eventPublisher.publishEvent(new ConversationTurnCompletedEvent(userId, notebookId, conversation.getId(),
+                assistantMessage.getId(), "RAG", combinedQueryText, answer));
+
         // Flush để đảm bảo dữ liệu được ghi
         entityManager.flush();
 
@@ -577,11 +656,11 @@ public class ChatBotService {
         resp.setCreatedAt(assistantMessage.getCreatedAt());
 
         // Set model
-        if (llmModel != null) {
+        if (answeredBy != null) {
             resp.setModel(ModelResponse.builder()
-                    .id(llmModel.getId())
-                    .code(llmModel.getCode())
-                    .provider(llmModel.getProvider())
+                    .id(answeredBy.getId())
+                    .code(answeredBy.getCode())
+                    .provider(answeredBy.getProvider())
                     .build());
         }
 
@@ -597,9 +676,33 @@ public class ChatBotService {
         return resp;
     }
 
+    /**
+     * Chat đồng bộ: chuẩn bị prompt, chờ LLM trả lời xong rồi lưu câu trả lời.
+     * Bản stream (từng token qua SSE) xem ChatStreamService.
+     */
     @Transactional
     public ChatResponse chat(UUID notebookId, UUID userId, ChatRequest req, List<MultipartFile> files)
             throws IOException {
+        PreparedChat prepared = prepareChat(notebookId, userId, req, files);
+        if (prepared.mode() == null) {
+            ChatResponse resp = new ChatResponse();
+            resp.setContent("Mode is required");
+            return resp;
+        }
+
+        LlmRouter.Answer llmAnswer = callLlm(prepared.modelCode(), prepared.prompt());
+        return completeChat(prepared, llmAnswer);
+    }
+
+    /**
+     * Bước 1 của chat: lưu message của user (kèm file + OCR), lấy ngữ cảnh
+     * RAG/WEB theo mode và dựng prompt.
+     *
+     * @return PreparedChat; mode() == null nếu request không có mode
+     */
+    @Transactional
+    public PreparedChat prepareChat(UUID notebookId, UUID userId, ChatRequest req, List<MultipartFile> files)
+            throws IOException {
         // Normalize files
         if (files == null) {
             files = Collections.emptyList();
@@ -640,58 +743,66 @@ public class ChatBotService {
         // Cập nhật conversation: updatedAt và title nếu là title mặc định
         updateConversationAfterMessage(conversation, userMessage.getContent());
 
+        ChatStagePipeline.Trace trace = chatStagePipeline.newTrace(conversation.getId());
+
+        // Upload + OCR từng ảnh song song (mỗi ảnh một chuỗi upload -> ocr trên
+        // chatPipelineExecutor); lưu NotebookBotMessageFile theo đúng thứ tự ảnh trên
+        // request thread vì cần transaction hiện tại
+        List<MultipartFile> imageFiles = new ArrayList<>();
+        List<CompletableFuture<ChatImageResult>> imageStages = new ArrayList<>();
+        for (MultipartFile file : files) {
+            if (file == null || file.isEmpty()) {
+                continue;
+            }
+            imageFiles.add(file);
+            imageStages.add(startImageStage(trace, file));
+        }
+
         // Thu thập OCR text từ danh sách hình ảnh
         StringBuilder imageTextsBuilder = new StringBuilder();
         List<String> fileTypes = new ArrayList<>();
 
-        // Xử lý upload và OCR cho danh sách hình ảnh nếu có
-        if (files != null && !files.isEmpty()) {
-            for (MultipartFile file : files) {
-                if (file == null || file.isEmpty()) {
-                    continue;
-                }
+        for (int i = 0; i < imageFiles.size(); i++) {
+            MultipartFile file = imageFiles.get(i);
+            ChatImageResult image = imageStages.get(i).join();
 
-                try {
-                    // Lưu file trước (tham khảo AdminNotebookFileService)
-                    String storageUrl = fileStorageService.storeFile(file);
+            if (image.error() != null) {
+                // Xử lý lỗi OCR: vẫn lưu file nhưng với OCR text là error message
+                handleOcrError(file, image.storageUrl(), userMessage, fileTypes, image.error());
+                continue;
+            }
 
-                    if (storageUrl == null || storageUrl.trim().isEmpty()) {
-                        continue;
-                    }
+            if (image.storageUrl() == null || image.storageUrl().trim().isEmpty()) {
+                continue;
+            }
 
-                    // Thực hiện OCR để lấy text từ hình ảnh
-                    String ocrText = ocrService.extract(storageUrl);
+            String ocrText = image.ocrText();
 
-                    // Thu thập OCR text để tiền xử lý
-                    appendOcrText(ocrText, imageTextsBuilder);
+            // Thu thập OCR text để tiền xử lý
+            appendOcrText(ocrText, imageTextsBuilder);
 
-                    // Xác định file type và mime type từ file
-                    String fileType = determineFileTypeFromFile(file);
-                    String mimeType = file.getContentType();
-                    String fileName = file.getOriginalFilename();
+            // Xác định file type và mime type từ file
+            String fileType = determineFileTypeFromFile(file);
+            String mimeType = file.getContentType();
+            String fileName = file.getOriginalFilename();
 
-                    // Thu thập thông tin file type
-                    if (fileType != null && !fileType.isEmpty()) {
-                        fileTypes.add(fileType);
-                    }
+            // Thu thập thông tin file type
+            if (fileType != null && !fileType.isEmpty()) {
+                fileTypes.add(fileType);
+            }
 
-                    // Lưu thông tin file và OCR text vào database
-                    NotebookBotMessageFile messageFile = NotebookBotMessageFile.builder()
-                            .message(userMessage)
-                            .fileType(fileType)
-                            .fileUrl(storageUrl)
-                            .mimeType(mimeType)
-                            .fileName(fileName)
-                            .ocrText(ocrText)
-                            .createdAt(OffsetDateTime.now())
-                            .build();
+            // Lưu thông tin file và OCR text vào database
+            NotebookBotMessageFile messageFile = NotebookBotMessageFile.builder()
+                    .message(userMessage)
+                    .fileType(fileType)
+                    .fileUrl(image.storageUrl())
+                    .mimeType(mimeType)
+                    .fileName(fileName)
+                    .ocrText(ocrText)
+                    .createdAt(OffsetDateTime.now())
+                    .build();
 
-                    messageFileRepository.save(messageFile);
-                } catch (Exception e) {
-                    // Xử lý lỗi OCR: vẫn lưu file nhưng với OCR text là error message
-                    handleOcrError(file, userMessage, fileTypes, e);
-                }
-            }
+            messageFileRepository.save(messageFile);
         }
 
         // Tiền xử lý: Tạo 2 biến text từ câu hỏi và text từ hình ảnh
@@ -720,11 +831,9 @@ public class ChatBotService {
         // LLM
         Map<String, Object> llmInputData = new HashMap<>();
 
-        ChatResponse resp = new ChatResponse();
-
         if (req.getMode() == null) {
-            resp.setContent("Mode is required");
-            return resp;
+            return new PreparedChat(notebookId, conversation.getId(), userMessage.getId(), null, null, null, null,
+                    llmInputData);
         }
 
         ChatMode actualMode = req.getMode();
@@ -735,38 +844,46 @@ public class ChatBotService {
         llmInputData.put("originalQueryText", queryText);
         llmInputData.put("imageTexts", imageTextsBuilder.toString().trim());
 
-        // Xử lý theo mode
-        switch (actualMode) {
-            case RAG:
-                processRagMode(notebookId, combinedQueryText, req.getRagFileIds(), llmInputData);
-                break;
-
-            case WEB:
-                processWebMode(combinedQueryText, llmInputData);
-                break;
+        // RAG (embedding câu hỏi + rag_search_chunks) và WEB chạy song song; HYBRID
+        // chạy cả hai. LLM_ONLY không cần thêm dữ liệu.
+        boolean useRag = actualMode == ChatMode.RAG || actualMode == ChatMode.HYBRID;
+        boolean useWeb = actualMode == ChatMode.WEB || actualMode == ChatMode.HYBRID;
 
-            case HYBRID:
-                processHybridMode(notebookId, combinedQueryText, req.getRagFileIds(), llmInputData);
-                break;
+        CompletableFuture<Map<String, Object>> ragStage = useRag
+                ? chatStagePipeline.supply(trace, ChatStagePipeline.RAG, () -> {
+                    Map<String, Object> ragData = new HashMap<>();
+                    processRagMode(notebookId, combinedQueryText, req.getRagFileIds(), ragData);
+                    return ragData;
+                })
+                : null;
+        CompletableFuture<Map<String, Object>> webStage = useWeb
+                ? chatStagePipeline.supply(trace, ChatStagePipeline.WEB, () -> {
+                    Map<String, Object> webData = new HashMap<>();
+                    processWebMode(combinedQueryText, webData);
+                    return webData;
+                })
+                : null;
 
-            case LLM_ONLY:
-                // LLM_ONLY mode: Chỉ sử dụng LLM, không cần RAG hay WEB
-                // Dữ liệu đã có sẵn trong llmInputData
-                break;
+        // Lấy chat history để bổ sung ngữ cảnh, trên request thread trong lúc RAG/WEB
+        // đang chạy. Ưu tiên bộ nhớ hội thoại (một dòng state); chưa cập nhật kịp thì
+        // đọc lại messages – query cần transaction hiện tại để thấy message user vừa lưu
+        String chatHistory = trace.time(ChatStagePipeline.HISTORY,
+                () -> conversationMemoryService
+                        .history(userId, notebookId, conversation.getId(), actualMode.name(), combinedQueryText)
+                        .orElseGet(() -> getChatHistory(conversation.getId(), userId)));
 
-            default:
-                // Unknown mode - không xử lý gì
-                break;
+        // Stage quá timeout thì trả lời không có ngữ cảnh đó thay vì lỗi cả lượt chat
+        if (ragStage != null) {
+            llmInputData.putAll(chatStagePipeline.await(ragStage, this::emptyRagData));
         }
-
-        // Lấy chat history (10 messages mới nhất) để bổ sung ngữ cảnh
-        String chatHistory = getChatHistory(conversation.getId(), userId);
+        if (webStage != null) {
+            llmInputData.putAll(chatStagePipeline.await(webStage, () -> emptyWebData(combinedQueryText)));
+        }
+        trace.log();
 
         // Chuẩn bị prompt từ llmInputData và chat history để gọi LLM
-        String llmPrompt = buildLlmPrompt(llmInputData, chatHistory);
+        String llmPrompt = buildLlmPrompt(conversation.getId(), llmInputData, chatHistory);
 
-        // Gọi LLM model dựa trên model code
-        String llmResponse;
         if (llmModel == null) {
             throw new BadRequestException("Model ID là bắt buộc. Vui lòng chọn model.");
         }
@@ -775,18 +892,93 @@ public class ChatBotService {
         if (modelCode == null || modelCode.trim().isEmpty()) {
             throw new BadRequestException("Model code không hợp lệ.");
         }
-
-        // Gọi model dựa trên code
-        if ("gemini".equalsIgnoreCase(modelCode)) {
-            llmResponse = aiModelService.callGeminiModel(llmPrompt);
-        } else if ("groq".equalsIgnoreCase(modelCode)) {
-            llmResponse = aiModelService.callGroqModel(llmPrompt);
-        } else {
+        if (!"gemini".equalsIgnoreCase(modelCode) && !"groq".equalsIgnoreCase(modelCode)) {
             throw new BadRequestException(
                     "Model code không được hỗ trợ: " + modelCode
                             + ". Hỗ trợ 'gemini' hoặc 'groq'.");
         }
 
+        return new PreparedChat(notebookId, conversation.getId(), userMessage.getId(), llmModel.getId(),
+                actualMode, modelCode, llmPrompt, llmInputData);
+    }
+
+    /**
+     * Bước 2 (đồng bộ): gọi model qua LlmRouter (ưu tiên model theo code), chờ
+     * toàn bộ câu trả lời.
+     */
+    private LlmRouter.Answer callLlm(String modelCode, String llmPrompt) {
+        return llmRouter.call(chatRoute(modelCode), llmPrompt);
+    }
+
+    /**
+     * Bước 2 (stream): gọi model qua LlmRouter (ưu tiên model theo code), onDelta
+     * nhận từng đoạn text ngay khi model sinh ra.
+     *
+     * @return toàn bộ câu trả lời thô và route đã trả lời
+     */
+    public LlmRouter.Answer streamLlm(PreparedChat prepared, Consumer<String> onDelta) {
+        return llmRouter.stream(chatRoute(prepared.modelCode()), prepared.prompt(), onDelta);
+    }
+
+    /**
+     * Route ưu tiên theo code của LlmModel, giữ như trước khi có LlmRouter: gemini
+     * → Gemini, code khác → Groq.
+     */
+    private static String chatRoute(String modelCode) {
+        return LlmRouter.GEMINI.equalsIgnoreCase(modelCode) ? LlmRouter.GEMINI : LlmRouter.GROQ;
+    }
+
+    /**
+     * LlmModel thực sự trả lời: model user chọn, hoặc model có code = route nếu
+     * LlmRouter đã chuyển sang route khác (hedge / failover).
+     */
+    private LlmModel answeringModel(LlmModel chosen, String route) {
+        if (chosen == null || route == null || route.equalsIgnoreCase(chosen.getCode())) {
+            return chosen;
+        }
+        LlmModel served = llmModelRepository.findByCode(route);
+        return served != null ? served : chosen;
+    }
+
+    /**
+     * Xóa message user đã lưu ở prepareChat khi lượt chat không thể hoàn tất (stream
+     * bị từ chối, LLM lỗi): không để lại câu hỏi không có câu trả lời trong
+     * conversation. File đính kèm được xóa cả trên storage.
+     */
+    @Transactional
+    public void discardUserMessage(UUID userMessageId) {
+        messageRepository.findByIdWithSourcesAndFiles(userMessageId).ifPresent(message -> {
+            for (NotebookBotMessageFile file : message.getNotebookBotMessageFiles()) {
+                if (file.getFileUrl() != null && !file.getFileUrl().isEmpty()) {
+                    fileStorageService.deleteFile(file.getFileUrl());
+                }
+            }
+            messageFileRepository.deleteAll(message.getNotebookBotMessageFiles());
+            messageSourceRepository.deleteAll(message.getNotebookBotMessageSources());
+            messageRepository.delete(message);
+            System.out.println("🗑️ [CHAT] Đã xóa message user " + userMessageId + " của lượt chat không hoàn tất");
+        });
+    }
+
+    /**
+     * Bước 3 của chat: parse câu trả lời của LLM, lưu message assistant + sources
+     * và dựng ChatResponse.
+     */
+    @Transactional
+    public ChatResponse completeChat(PreparedChat prepared, LlmRouter.Answer llmAnswer) {
+        String llmResponse = llmAnswer.text();
+        Notebook notebook = notebookRepository.findById(prepared.notebookId())
+                .orElseThrow(() -> new RuntimeException("Notebook not found: " + prepared.notebookId()));
+        NotebookBotConversation conversation = conversationRepository.findById(prepared.conversationId())
+                .orElseThrow(() -> new RuntimeException("Conversation not found: " + prepared.conversationId()));
+        NotebookBotMessage userMessage = messageRepository.findById(prepared.userMessageId())
+                .orElseThrow(() -> new RuntimeException("Message not found: " + prepared.userMessageId()));
+        // Ghi model của route đã trả lời, không phải model user chọn
+        LlmModel llmModel = answeringModel(llmModelRepository.findById(prepared.llmModelId()).orElse(null),
+                llmAnswer.route());
+
+        ChatResponse resp = new ChatResponse();
+
         // Parse JSON response từ LLM (loại bỏ code block markdown nếu có)
         Map<String, Object> llmResponseJson = parseLlmResponse(llmResponse);
 
@@ -809,7 +1001,7 @@ public class ChatBotService {
                 .user(null) // Assistant message không có user
                 .role("assistant")
                 .content(answer)
-                .mode(req.getMode().toString())
+                .mode(prepared.mode().name())
                 .llmModel(llmModel)
                 .createdAt(OffsetDateTime.now())
                 .build();
@@ -817,7 +1009,13 @@ public class ChatBotService {
         assistantMessage = messageRepository.save(assistantMessage);
 
         // Lưu sources vào NotebookBotMessageSource
-        saveSources(assistantMessage, llmResponseJson, llmInputData);
+        saveSources(assistantMessage, llmResponseJson, prepared.llmInputData());
+
+        // Cập nhật bộ nhớ hội thoại sau commit
+        eventPublisher.publishEvent(new ConversationTurnCompletedEvent(
+                userMessage.getUser() != null ? userMessage.getUser().getId() : null,
+                prepared.notebookId(), prepared.conversationId(), assistantMessage.getId(),
+                prepared.mode().name(), String.valueOf(prepared.llmInputData().get("queryText")), answer));
 
         // Flush để đảm bảo dữ liệu được ghi vào database trước khi query lại
         entityManager.flush();
@@ -829,7 +1027,7 @@ public class ChatBotService {
         // Set tất cả các trường từ NotebookBotMessage
         resp.setId(assistantMessage.getId());
         resp.setContent(answer);
-        resp.setMode(actualMode.name());
+        resp.setMode(prepared.mode().name());
         resp.setRole(assistantMessage.getRole());
         resp.setContext(assistantMessage.getContext());
         resp.setCreatedAt(assistantMessage.getCreatedAt());
@@ -849,7 +1047,7 @@ public class ChatBotService {
         Set<NotebookBotMessageSource> sourcesSet = savedSources != null
                 ? new LinkedHashSet<>(savedSources)
                 : new LinkedHashSet<>();
-        resp.setSources(buildSourcesResponse(sourcesSet, llmInputData));
+        resp.setSources(buildSourcesResponse(sourcesSet, prepared.llmInputData()));
 
         // Set files (từ user message nếu có) - chỉ query khi user message có files
         if (userMessage.getNotebookBotMessageFiles() != null && !userMessage.getNotebookBotMessageFiles().isEmpty()) {
@@ -985,9 +1183,10 @@ public class ChatBotService {
                         continue; // Skip unknown role
                     }
 
-                    // Truncate content if longer than 1000 characters
-                    if (content.length() > 1000) {
-                        content = content.substring(0, 1000) + "...";
+                    // Chặn message quá dài; tổng history do ChatPromptBuilder cắt theo
+                    // ngân sách token (ai.chat.prompt.history-tokens)
+                    if (content.length() > 4000) {
+                        content = content.substring(0, 4000) + "...";
                     }
 
                     historyBuilder.append(prefix).append(content).append("\n\n");
@@ -1002,11 +1201,14 @@ public class ChatBotService {
         }
     }
 
-    private String buildLlmPrompt(Map<String, Object> llmInputData, String chatHistory) {
-        // Convert llmInputData sang JSON string
+    private String buildLlmPrompt(UUID conversationId, Map<String, Object> llmInputData, String chatHistory) {
+        // Cắt history / ragChunks / webResults / imageTexts theo ngân sách token
+        ChatPromptBuilder.PromptPlan plan = chatPromptBuilder.plan(llmInputData, chatHistory);
+
+        // Convert dữ liệu đã cắt sang JSON string (không pretty print: thụt lề cũng tốn token)
         String jsonInput;
         try {
-            jsonInput = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(llmInputData);
+            jsonInput = objectMapper.writeValueAsString(plan.inputData());
         } catch (Exception e) {
             jsonInput = "{}";
         }
@@ -1104,9 +1306,10 @@ public class ChatBotService {
                         - BẮT ĐẦU NGAY BẰNG DẤU { VÀ KẾT THÚC BẰNG DẤU }.
                         - ĐẢM BẢO JSON HỢP LỆ, CÓ THỂ PARSE ĐƯỢC.
                         """,
-                chatHistory != null && !chatHistory.isEmpty() ? chatHistory : "(Không có lịch sử trò chuyện trước đó)",
+                !plan.chatHistory().isEmpty() ? plan.chatHistory() : "(Không có lịch sử trò chuyện trước đó)",
                 jsonInput);
 
+        chatPromptBuilder.record(conversationId, plan, TokenEstimator.estimate(prompt));
         return prompt;
     }
 
@@ -1115,7 +1318,15 @@ public class ChatBotService {
      */
     private void processRagMode(UUID notebookId, String queryText, List<UUID> ragFileIds,
             Map<String, Object> llmInputData) {
-        List<RagChunk> ragChunks = searchRagChunks(notebookId, queryText, ragFileIds);
+        List<RagChunk> ragChunks;
+        if (ragRerankService.isEnabled()) {
+            // Lấy dư ứng viên rồi chỉ giữ vài chunk tốt nhất cho prompt
+            List<RagChunk> candidates = searchRagChunks(notebookId, queryText, ragFileIds,
+                    ragRerankService.candidateCount());
+            ragChunks = ragRerankService.rerank(queryText, candidates, RagChunk::content, RagChunk::similarity);
+        } else {
+            ragChunks = searchRagChunks(notebookId, queryText, ragFileIds);
+        }
         List<Map<String, Object>> ragChunksJson = convertRagChunksToJson(ragChunks);
         boolean hasRagContext = !ragChunksJson.isEmpty();
 
@@ -1138,14 +1349,25 @@ public class ChatBotService {
     }
 
     /**
-     * Xử lý HYBRID mode: Kết hợp RAG + WEB.
+     * Dữ liệu RAG rỗng khi stage RAG quá timeout.
      */
-    private void processHybridMode(UUID notebookId, String queryText, List<UUID> ragFileIds,
-            Map<String, Object> llmInputData) {
-        // Xử lý RAG
-        processRagMode(notebookId, queryText, ragFileIds, llmInputData);
-        // Xử lý WEB
-        processWebMode(queryText, llmInputData);
+    private Map<String, Object> emptyRagData() {
+        Map<String, Object> ragData = new HashMap<>();
+        ragData.put("ragChunks", new ArrayList<>());
+        ragData.put("hasRagContext", false);
+        return ragData;
+    }
+
+    /**
+     * Dữ liệu WEB rỗng khi stage web search quá timeout.
+     */
+    private Map<String, Object> emptyWebData(String queryText) {
+        Map<String, Object> webData = new HashMap<>();
+        webData.put("webResults", new ArrayList<>());
+        webData.put("webQuery", queryText);
+        webData.put("webSearchTimeMs", 0L);
+        webData.put("hasWebResults", false);
+        return webData;
     }
 
     /**
@@ -1185,15 +1407,17 @@ public class ChatBotService {
 
     /**
      * Xử lý lỗi OCR: lưu file với OCR text là error message.
+     * storageUrl null (upload lỗi) thì thử lưu file lại.
      */
-    private void handleOcrError(MultipartFile file, NotebookBotMessage userMessage,
-            List<String> fileTypes, Exception e) {
-        String storageUrl = null;
-        try {
-            storageUrl = fileStorageService.storeFile(file);
-        } catch (Exception ex) {
-            // Nếu không lưu được file thì skip
-            return;
+    private void handleOcrError(MultipartFile file, String storageUrl, NotebookBotMessage userMessage,
+            List<String> fileTypes, Throwable e) {
+        if (storageUrl == null) {
+            try {
+                storageUrl = fileStorageService.storeFile(file);
+            } catch (Exception ex) {
+                // Nếu không lưu được file thì skip
+                return;
+            }
         }
 
         String fileType = determineFileTypeFromFile(file);
@@ -1214,6 +1438,23 @@ public class ChatBotService {
         messageFileRepository.save(messageFile);
     }
 
+    /**
+     * Upload rồi OCR một ảnh trên chatPipelineExecutor. Future luôn hoàn thành
+     * bình thường, lỗi được trả trong ChatImageResult.error.
+     */
+    private CompletableFuture<ChatImageResult> startImageStage(ChatStagePipeline.Trace trace, MultipartFile file) {
+        return chatStagePipeline.supply(trace, ChatStagePipeline.UPLOAD, () -> fileStorageService.storeFile(file))
+                .thenCompose(storageUrl -> {
+                    if (storageUrl == null || storageUrl.trim().isEmpty()) {
+                        return CompletableFuture.completedFuture(new ChatImageResult(null, null, null));
+                    }
+                    return chatStagePipeline.supply(trace, ChatStagePipeline.OCR, () -> ocrService.extract(storageUrl))
+                            .handle((ocrText, error) -> new ChatImageResult(storageUrl, ocrText,
+                                    error != null ? ChatStagePipeline.unwrap(error) : null));
+                })
+                .exceptionally(error -> new ChatImageResult(null, null, ChatStagePipeline.unwrap(error)));
+    }
+
     /**
      * Thêm OCR text vào StringBuilder.
      */
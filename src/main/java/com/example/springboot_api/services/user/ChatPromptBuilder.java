@@ -0,0 +1,356 @@
+package com.example.springboot_api.services.user;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.springboot_api.dto.shared.ai.ChatPromptStats;
+import com.example.springboot_api.services.shared.ai.chunking.TokenEstimator;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chia ngân sách token cho các phần dữ liệu của prompt chatbot (chat history,
+ * ragChunks, webResults, imageTexts) trước khi ChatBotService ghép vào template.
+ *
+ * - Mỗi phần có ngân sách riêng (ai.chat.prompt.*-tokens); phần dùng không hết
+ * thì phần còn lại được dùng thêm theo thứ tự ưu tiên RAG → ảnh → history → web.
+ * - ragChunks: bỏ đoạn overlap giữa các chunk liền nhau của cùng file và chunk
+ * trùng nội dung, rồi giữ chunk theo thứ hạng cho tới khi hết ngân sách.
+ * - webResults: chỉ cắt phần đuôi (sources tham chiếu theo web_index).
+ * - history: giữ phần mới nhất.
+ *
+ * Chỉ tạo bản sao cho prompt; llmInputData gốc vẫn dùng để map sources. Số token
+ * là ước lượng của TokenEstimator, mỗi request được log một dòng và cộng dồn vào
+ * GET /admin/ai/metrics/chat-prompt.
+ */
+@Component
+@Slf4j
+public class ChatPromptBuilder {
+
+    private static final int HISTORY = 0;
+    private static final int RAG = 1;
+    private static final int WEB = 2;
+    private static final int IMAGES = 3;
+    // Thứ tự được dùng phần ngân sách dư
+    private static final int[] PRIORITY = { RAG, IMAGES, HISTORY, WEB };
+
+    // Khóa JSON + dấu câu của một chunk / kết quả web trong prompt
+    private static final int ITEM_OVERHEAD_TOKENS = 20;
+    // Overlap ngắn hơn thì coi như trùng ngẫu nhiên
+    private static final int MIN_OVERLAP_CHARS = 20;
+    private static final int MAX_OVERLAP_CHARS = 2000;
+
+    @Value("${ai.chat.prompt.history-tokens:1500}")
+    private int historyBudget;
+
+    @Value("${ai.chat.prompt.rag-tokens:4000}")
+    private int ragBudget;
+
+    @Value("${ai.chat.prompt.web-tokens:2000}")
+    private int webBudget;
+
+    @Value("${ai.chat.prompt.image-tokens:1000}")
+    private int imageBudget;
+
+    private final LongAdder prompts = new LongAdder();
+    private final LongAdder totalTokens = new LongAdder();
+    private final AtomicLong maxTokens = new AtomicLong();
+    private final LongAdder historyTokens = new LongAdder();
+    private final LongAdder ragTokens = new LongAdder();
+    private final LongAdder webTokens = new LongAdder();
+    private final LongAdder imageTokens = new LongAdder();
+    private final LongAdder trimmedPrompts = new LongAdder();
+    private final LongAdder dedupedChunks = new LongAdder();
+    private final LongAdder droppedChunks = new LongAdder();
+
+    /**
+     * Số token (ước lượng) của từng phần sau khi cắt.
+     */
+    public record SectionTokens(int history, int ragChunks, int webResults, int imageTexts) {
+    }
+
+    /**
+     * Dữ liệu đã cắt theo ngân sách để ghép vào prompt.
+     *
+     * @param dedupedChunks chunk bị bỏ / rút gọn vì trùng với chunk khác
+     * @param droppedChunks chunk bị bỏ vì hết ngân sách
+     */
+    public record PromptPlan(String chatHistory, Map<String, Object> inputData, SectionTokens tokens,
+            boolean trimmed, int dedupedChunks, int droppedChunks) {
+    }
+
+    public PromptPlan plan(Map<String, Object> llmInputData, String chatHistory) {
+        String history = chatHistory != null ? chatHistory : "";
+        String imageTexts = stringOf(llmInputData.get("imageTexts"));
+        List<Map<String, Object>> rawChunks = listOf(llmInputData.get("ragChunks"));
+        List<Map<String, Object>> web = listOf(llmInputData.get("webResults"));
+
+        int[] deduped = new int[1];
+        List<Map<String, Object>> chunks = dedupeChunks(rawChunks, deduped);
+
+        int[] need = new int[4];
+        need[HISTORY] = TokenEstimator.estimate(history);
+        need[RAG] = itemsTokens(chunks);
+        need[WEB] = itemsTokens(web);
+        need[IMAGES] = TokenEstimator.estimate(imageTexts);
+        int[] alloc = allocate(need, new int[] { historyBudget, ragBudget, webBudget, imageBudget });
+
+        String fittedHistory = tailWithin(dropOldestBlocks(history, alloc[HISTORY]), alloc[HISTORY]);
+        List<Map<String, Object>> fittedChunks = fitChunks(chunks, alloc[RAG]);
+        List<Map<String, Object>> fittedWeb = fitPrefix(web, alloc[WEB]);
+        String fittedImages = headWithin(imageTexts, alloc[IMAGES]);
+
+        Map<String, Object> data = new LinkedHashMap<>(llmInputData);
+        if (llmInputData.containsKey("ragChunks")) {
+            data.put("ragChunks", fittedChunks);
+        }
+        if (llmInputData.containsKey("webResults")) {
+            data.put("webResults", fittedWeb);
+        }
+        if (!fittedImages.equals(imageTexts)) {
+            data.put("imageTexts", fittedImages);
+            // queryText chứa nguyên OCR text trong "[Câu hỏi bổ sung từ hình ảnh: ...]"
+            data.put("queryText", stringOf(llmInputData.get("queryText")).replace(imageTexts, fittedImages));
+        }
+
+        SectionTokens tokens = new SectionTokens(
+                TokenEstimator.estimate(fittedHistory),
+                itemsTokens(fittedChunks),
+                itemsTokens(fittedWeb),
+                TokenEstimator.estimate(fittedImages));
+        boolean trimmed = tokens.history() < need[HISTORY] || tokens.ragChunks() < need[RAG]
+                || tokens.webResults() < need[WEB] || tokens.imageTexts() < need[IMAGES];
+        return new PromptPlan(fittedHistory, data, tokens, trimmed, deduped[0], chunks.size() - fittedChunks.size());
+    }
+
+    /**
+     * Ghi số token của prompt hoàn chỉnh (template + dữ liệu) vào log và thống kê.
+     */
+    public void record(UUID conversationId, PromptPlan plan, int promptTokens) {
+        SectionTokens tokens = plan.tokens();
+        prompts.increment();
+        totalTokens.add(promptTokens);
+        maxTokens.accumulateAndGet(promptTokens, Math::max);
+        historyTokens.add(tokens.history());
+        ragTokens.add(tokens.ragChunks());
+        webTokens.add(tokens.webResults());
+        imageTokens.add(tokens.imageTexts());
+        dedupedChunks.add(plan.dedupedChunks());
+        droppedChunks.add(plan.droppedChunks());
+        if (plan.trimmed()) {
+            trimmedPrompts.increment();
+        }
+
+        log.info("🧾 [PROMPT] conversation {} – ~{} token: history {}, rag {} (trùng {}, bỏ {} chunk), web {}, ảnh {}{}",
+                conversationId, promptTokens, tokens.history(), tokens.ragChunks(), plan.dedupedChunks(),
+                plan.droppedChunks(), tokens.webResults(), tokens.imageTexts(), plan.trimmed() ? " (đã cắt)" : "");
+    }
+
+    public ChatPromptStats getStats() {
+        long n = prompts.sum();
+        return new ChatPromptStats(
+                n,
+                average(totalTokens, n),
+                maxTokens.get(),
+                average(historyTokens, n),
+                average(ragTokens, n),
+                average(webTokens, n),
+                average(imageTokens, n),
+                trimmedPrompts.sum(),
+                dedupedChunks.sum(),
+                droppedChunks.sum());
+    }
+
+    /**
+     * Mỗi phần nhận min(cần, ngân sách); phần ngân sách dư được chia cho các phần
+     * còn thiếu theo PRIORITY.
+     */
+    static int[] allocate(int[] need, int[] budget) {
+        int[] alloc = new int[need.length];
+        int spare = 0;
+        for (int i = 0; i < need.length; i++) {
+            alloc[i] = Math.min(need[i], budget[i]);
+            spare += budget[i] - alloc[i];
+        }
+        for (int section : PRIORITY) {
+            int extra = Math.min(need[section] - alloc[section], spare);
+            alloc[section] += extra;
+            spare -= extra;
+        }
+        return alloc;
+    }
+
+    /**
+     * Bỏ overlap giữa chunk liền nhau của cùng file (chunker lặp lại phần cuối chunk
+     * trước ở đầu chunk sau) và chunk trùng nội dung. Giữ thứ tự xếp hạng.
+     */
+    static List<Map<String, Object>> dedupeChunks(List<Map<String, Object>> chunks, int[] deduped) {
+        List<Map<String, Object>> result = new ArrayList<>(chunks.size());
+        // Nội dung gốc của chunk đã giữ, theo file_id:chunk_index
+        Map<String, String> keptByKey = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+
+        for (Map<String, Object> chunk : chunks) {
+            String original = stringOf(chunk.get("content"));
+            String fileId = String.valueOf(chunk.get("file_id"));
+            int index = chunk.get("chunk_index") instanceof Number n ? n.intValue() : -1;
+
+            String content = original;
+            String previous = keptByKey.get(fileId + ":" + (index - 1));
+            if (previous != null) {
+                content = content.substring(overlap(previous, content));
+            }
+            String next = keptByKey.get(fileId + ":" + (index + 1));
+            if (next != null) {
+                content = content.substring(0, content.length() - overlap(content, next));
+            }
+            content = content.strip();
+
+            if (content.isEmpty() || !seen.add(content)) {
+                deduped[0]++;
+                continue;
+            }
+            if (content.length() < original.strip().length()) {
+                deduped[0]++;
+            }
+            keptByKey.put(fileId + ":" + index, original);
+            Map<String, Object> copy = new LinkedHashMap<>(chunk);
+            copy.put("content", content);
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /**
+     * Độ dài đoạn dài nhất vừa là đuôi của a vừa là đầu của b (0 nếu ngắn hơn
+     * MIN_OVERLAP_CHARS).
+     */
+    static int overlap(String a, String b) {
+        int max = Math.min(MAX_OVERLAP_CHARS, Math.min(a.length(), b.length()));
+        for (int length = max; length >= MIN_OVERLAP_CHARS; length--) {
+            if (a.regionMatches(a.length() - length, b, 0, length)) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    private static List<Map<String, Object>> fitChunks(List<Map<String, Object>> chunks, int budget) {
+        List<Map<String, Object>> result = new ArrayList<>(chunks.size());
+        int used = 0;
+        for (Map<String, Object> chunk : chunks) {
+            int tokens = itemTokens(chunk);
+            if (used + tokens <= budget) {
+                result.add(chunk);
+                used += tokens;
+            } else if (result.isEmpty() && budget > ITEM_OVERHEAD_TOKENS) {
+                // Chunk tốt nhất quá dài: giữ phần đầu thay vì không có chunk nào
+                Map<String, Object> copy = new LinkedHashMap<>(chunk);
+                copy.put("content", headWithin(stringOf(chunk.get("content")), budget - ITEM_OVERHEAD_TOKENS));
+                result.add(copy);
+                used = budget;
+            }
+        }
+        return result;
+    }
+
+    private static List<Map<String, Object>> fitPrefix(List<Map<String, Object>> items, int budget) {
+        int used = 0;
+        for (int i = 0; i < items.size(); i++) {
+            used += itemTokens(items.get(i));
+            if (used > budget) {
+                return new ArrayList<>(items.subList(0, i));
+            }
+        }
+        return items;
+    }
+
+    private static int itemsTokens(List<Map<String, Object>> items) {
+        int tokens = 0;
+        for (Map<String, Object> item : items) {
+            tokens += itemTokens(item);
+        }
+        return tokens;
+    }
+
+    private static int itemTokens(Map<String, Object> item) {
+        return TokenEstimator.estimate(stringOf(item.get("content")))
+                + TokenEstimator.estimate(stringOf(item.get("title")))
+                + TokenEstimator.estimate(stringOf(item.get("snippet"))) + ITEM_OVERHEAD_TOKENS;
+    }
+
+    /**
+     * Bỏ các đoạn (cách nhau bởi dòng trống) cũ nhất cho tới khi vừa ngân sách.
+     */
+    private static String dropOldestBlocks(String history, int budget) {
+        String text = history;
+        while (TokenEstimator.estimate(text) > budget) {
+            int cut = text.indexOf("\n\n");
+            if (cut < 0) {
+                break;
+            }
+            text = text.substring(cut + 2);
+        }
+        return text;
+    }
+
+    /**
+     * Phần đầu của text vừa trong tokens token.
+     */
+    static String headWithin(String text, int tokens) {
+        if (TokenEstimator.estimate(text) <= tokens) {
+            return text;
+        }
+        int end = Math.min(text.length(), Math.max(0, tokens) * 3);
+        while (end > 0 && TokenEstimator.estimate(text.substring(0, end)) > tokens) {
+            end = end * 9 / 10;
+        }
+        int space = text.lastIndexOf(' ', end);
+        if (space > end / 2) {
+            end = space;
+        }
+        return text.substring(0, end).strip() + "...";
+    }
+
+    /**
+     * Phần cuối của text vừa trong tokens token.
+     */
+    private static String tailWithin(String text, int tokens) {
+        if (TokenEstimator.estimate(text) <= tokens) {
+            return text;
+        }
+        int start = Math.max(0, text.length() - Math.max(0, tokens) * 3);
+        while (start < text.length() && TokenEstimator.estimate(text.substring(start)) > tokens) {
+            start += (text.length() - start) / 10 + 1;
+        }
+        int space = text.indexOf(' ', start);
+        if (space >= 0 && space < start + (text.length() - start) / 2) {
+            start = space;
+        }
+        return "..." + text.substring(Math.min(start, text.length())).strip();
+    }
+
+    private static double average(LongAdder sum, long count) {
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    private static String stringOf(Object value) {
+        return value != null ? value.toString() : "";
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> listOf(Object value) {
+        return value instanceof List<?> list ? (List<Map<String, Object>>) list : List.of();
+    }
+}
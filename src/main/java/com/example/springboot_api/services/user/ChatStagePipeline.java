@@ -0,0 +1,238 @@
+package com.example.springboot_api.services.user;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.springboot_api.config.AsyncConfig;
+import com.example.springboot_api.dto.shared.ai.ChatStageStats;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chạy các stage của một lượt chat (upload ảnh, OCR, RAG, web search) dưới dạng
+ * CompletableFuture trên chatPipelineExecutor, mỗi stage có timeout riêng.
+ *
+ * Thời gian từng stage được ghi vào Trace (log một dòng cho mỗi request) và cộng
+ * dồn vào thống kê toàn cục (GET /admin/ai/metrics/chat-stages).
+ *
+ * Stage quá timeout thì future kết thúc với TimeoutException; việc bên dưới (OCR,
+ * HTTP) vẫn chạy nốt trên thread của pool nhưng request không chờ nữa.
+ */
+@Component
+@Slf4j
+public class ChatStagePipeline {
+
+    public static final String UPLOAD = "upload";
+    public static final String OCR = "ocr";
+    public static final String RAG = "rag";
+    public static final String WEB = "web";
+    public static final String HISTORY = "history";
+
+    private final Executor executor;
+    private final Map<String, StageStats> stats = new ConcurrentHashMap<>();
+
+    @Value("${ai.chat.pipeline.upload-timeout-ms:15000}")
+    private long uploadTimeoutMs;
+
+    @Value("${ai.chat.pipeline.ocr-timeout-ms:30000}")
+    private long ocrTimeoutMs;
+
+    @Value("${ai.chat.pipeline.rag-timeout-ms:10000}")
+    private long ragTimeoutMs;
+
+    @Value("${ai.chat.pipeline.web-timeout-ms:10000}")
+    private long webTimeoutMs;
+
+    public ChatStagePipeline(@Qualifier(AsyncConfig.CHAT_PIPELINE_EXECUTOR) Executor executor) {
+        this.executor = executor;
+    }
+
+    public Trace newTrace(UUID conversationId) {
+        return new Trace(conversationId);
+    }
+
+    /**
+     * Chạy work trên pool. Future kết thúc với TimeoutException nếu stage chạy quá
+     * timeout cấu hình (ai.chat.pipeline.*-timeout-ms, <= 0 là không giới hạn).
+     */
+    public <T> CompletableFuture<T> supply(Trace trace, String stage, Callable<T> work) {
+        CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> trace.time(stage, work), executor);
+
+        long timeoutMs = timeoutOf(stage);
+        if (timeoutMs <= 0) {
+            return future;
+        }
+        return future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .handle((result, error) -> {
+                    if (error == null) {
+                        return result;
+                    }
+                    Throwable cause = unwrap(error);
+                    if (cause instanceof TimeoutException) {
+                        trace.timedOut(stage);
+                        cause = new TimeoutException("Stage " + stage + " quá " + timeoutMs + "ms");
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
+
+    /**
+     * Chờ kết quả stage. Quá timeout thì trả về onTimeout; lỗi khác được ném lại
+     * như khi chạy tuần tự.
+     */
+    public <T> T await(CompletableFuture<T> future, Supplier<T> onTimeout) {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof TimeoutException) {
+                return onTimeout.get();
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Lấy lỗi gốc bên trong CompletionException / ExecutionException.
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    public List<ChatStageStats> getStats() {
+        List<ChatStageStats> result = new ArrayList<>(stats.size());
+        new TreeMap<>(stats).forEach((stage, s) -> {
+            long count = s.count.sum();
+            result.add(new ChatStageStats(
+                    stage,
+                    count,
+                    s.failures.sum(),
+                    s.timeouts.sum(),
+                    count == 0 ? 0 : (double) s.totalMs.sum() / count,
+                    s.maxMs.get()));
+        });
+        return result;
+    }
+
+    private long timeoutOf(String stage) {
+        return switch (stage) {
+            case UPLOAD -> uploadTimeoutMs;
+            case OCR -> ocrTimeoutMs;
+            case RAG -> ragTimeoutMs;
+            case WEB -> webTimeoutMs;
+            default -> 0;
+        };
+    }
+
+    private StageStats statsOf(String stage) {
+        return stats.computeIfAbsent(stage, k -> new StageStats());
+    }
+
+    private static <T> T call(Callable<T> work) {
+        try {
+            return work.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Thời gian các stage của một lượt chat. Stage chạy nhiều lần (OCR nhiều ảnh)
+     * được ghi số lần và thời gian lâu nhất.
+     */
+    public final class Trace {
+
+        private final UUID conversationId;
+        private final long startedAt = System.nanoTime();
+        private final Map<String, long[]> stages = new ConcurrentSkipListMap<>();
+        private final Map<String, Boolean> timeouts = new ConcurrentHashMap<>();
+
+        private Trace(UUID conversationId) {
+            this.conversationId = conversationId;
+        }
+
+        /**
+         * Chạy work trên thread hiện tại và ghi thời gian vào stage.
+         */
+        public <T> T time(String stage, Callable<T> work) {
+            long start = System.nanoTime();
+            boolean ok = false;
+            try {
+                T result = call(work);
+                ok = true;
+                return result;
+            } finally {
+                record(stage, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), ok);
+            }
+        }
+
+        private void record(String stage, long elapsedMs, boolean ok) {
+            // [số lần, thời gian lâu nhất]
+            stages.merge(stage, new long[] { 1, elapsedMs },
+                    (a, b) -> new long[] { a[0] + b[0], Math.max(a[1], b[1]) });
+
+            StageStats s = statsOf(stage);
+            s.count.increment();
+            s.totalMs.add(elapsedMs);
+            s.maxMs.accumulateAndGet(elapsedMs, Math::max);
+            if (!ok) {
+                s.failures.increment();
+            }
+        }
+
+        private void timedOut(String stage) {
+            timeouts.put(stage, Boolean.TRUE);
+            statsOf(stage).timeouts.increment();
+        }
+
+        public void log() {
+            StringJoiner summary = new StringJoiner(", ");
+            stages.forEach((stage, v) -> summary.add(v[0] > 1
+                    ? String.format("%s %dx max %dms", stage, v[0], v[1])
+                    : String.format("%s %dms", stage, v[1])));
+            timeouts.keySet().forEach(stage -> summary.add(stage + " TIMEOUT"));
+
+            log.info("⏱️ [CHAT-PIPELINE] conversation {} – {}ms: {}", conversationId,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), summary);
+        }
+    }
+
+    private static final class StageStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder totalMs = new LongAdder();
+        private final AtomicLong maxMs = new AtomicLong();
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.springboot_api.services.user;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.example.springboot_api.common.exceptions.BadRequestException;
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
+import com.example.springboot_api.config.AsyncConfig;
+import com.example.springboot_api.dto.user.chatbot.ChatRequest;
+import com.example.springboot_api.dto.user.chatbot.ChatResponse;
+import com.example.springboot_api.services.shared.ai.JsonFieldStreamExtractor;
+import com.example.springboot_api.services.shared.ai.LlmRouter;
+import com.example.springboot_api.services.user.ChatBotService.PreparedChat;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chat bot dạng stream (SSE): token của LLM được đẩy về client ngay khi model
+ * sinh ra, thay vì chờ toàn bộ câu trả lời.
+ *
+ * Luồng:
+ * 1. prepareChat (trên request thread, commit ngay): lưu message user, OCR
+ * file, lấy RAG/WEB, dựng prompt.
+ * 2. Stream LLM trên chatStreamExecutor, gửi các event:
+ * - start: {conversationId, userMessageId}
+ * - delta: {content} – phần text mới của answer
+ * - done: ChatResponse đầy đủ (answer đã parse + sources)
+ * - error: {message}
+ * 3. completeChat (transaction riêng): parse JSON, lưu message assistant và
+ * sources.
+ *
+ * Client ngắt kết nối giữa chừng thì vẫn sinh tiếp và lưu câu trả lời, để lần
+ * load lại conversation vẫn thấy. Stream bị từ chối hoặc lỗi trước khi lưu được
+ * câu trả lời thì message user của bước 1 bị xóa (discardUserMessage).
+ */
+@Service
+@Slf4j
+public class ChatStreamService {
+
+    private final ChatBotService chatBotService;
+    private final Executor chatStreamExecutor;
+
+    @Value("${ai.chat.stream-timeout-ms:180000}")
+    private long streamTimeoutMs;
+
+    public ChatStreamService(
+            ChatBotService chatBotService,
+            @Qualifier(AsyncConfig.CHAT_STREAM_EXECUTOR) Executor chatStreamExecutor) {
+        this.chatBotService = chatBotService;
+        this.chatStreamExecutor = chatStreamExecutor;
+    }
+
+    public SseEmitter chatStream(UUID notebookId, UUID userId, ChatRequest req, List<MultipartFile> files)
+            throws IOException {
+        if (req.getMode() == null) {
+            throw new BadRequestException("Mode is required");
+        }
+
+        PreparedChat prepared = chatBotService.prepareChat(notebookId, userId, req, files);
+
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        StreamState state = new StreamState(emitter);
+        emitter.onCompletion(() -> state.clientGone = true);
+        emitter.onTimeout(() -> state.clientGone = true);
+        emitter.onError(e -> state.clientGone = true);
+
+        try {
+            chatStreamExecutor.execute(() -> run(prepared, state));
+        } catch (TaskRejectedException e) {
+            discard(prepared);
+            throw new TooManyRequestsException("Hệ thống đang quá tải, vui lòng thử lại sau.");
+        }
+        return emitter;
+    }
+
+    private void run(PreparedChat prepared, StreamState state) {
+        long startedAt = System.currentTimeMillis();
+        state.send("start", Map.of(
+                "conversationId", prepared.conversationId(),
+                "userMessageId", prepared.userMessageId()));
+
+        boolean saved = false;
+        try {
+            JsonFieldStreamExtractor answer = new JsonFieldStreamExtractor("answer",
+                    text -> {
+                        if (state.firstDeltaAt == 0) {
+                            state.firstDeltaAt = System.currentTimeMillis();
+                        }
+                        state.send("delta", Map.of("content", text));
+                    });
+
+            LlmRouter.Answer llmAnswer = chatBotService.streamLlm(prepared, answer::accept);
+            ChatResponse response = chatBotService.completeChat(prepared, llmAnswer);
+            saved = true;
+
+            log.info("💬 [CHAT-STREAM] conversation {} – token đầu sau {}ms, xong sau {}ms",
+                    prepared.conversationId(),
+                    state.firstDeltaAt == 0 ? -1 : state.firstDeltaAt - startedAt,
+                    System.currentTimeMillis() - startedAt);
+
+            state.send("done", response);
+            state.complete();
+        } catch (Exception e) {
+            log.error("❌ [CHAT-STREAM] conversation {}: {}", prepared.conversationId(), e.getMessage(), e);
+            if (!saved) {
+                discard(prepared);
+            }
+            state.send("error", Map.of("message", e.getMessage() != null ? e.getMessage() : "Lỗi khi gọi LLM"));
+            state.complete();
+        }
+    }
+
+    private void discard(PreparedChat prepared) {
+        try {
+            chatBotService.discardUserMessage(prepared.userMessageId());
+        } catch (Exception e) {
+            log.warn("⚠️ [CHAT-STREAM] Không xóa được message user {}: {}", prepared.userMessageId(),
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Trạng thái gửi của một stream. Mỗi lúc chỉ một thread gửi: thread của
+     * executor, hoặc thread của LlmRouter đang giữ lượt trả lời (delta) – thread
+     * executor chỉ gửi tiếp sau khi lời gọi đó xong. clientGone được set từ
+     * callback của container nên volatile.
+     */
+    private static final class StreamState {
+        private final SseEmitter emitter;
+        private volatile boolean clientGone = false;
+        // Ghi trên thread của LlmRouter, đọc trên thread chat stream
+        private volatile long firstDeltaAt = 0;
+
+        private StreamState(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        private void send(String event, Object data) {
+            if (clientGone) {
+                return;
+            }
+            try {
+                emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                clientGone = true;
+            }
+        }
+
+        private void complete() {
+            if (!clientGone) {
+                emitter.complete();
+            }
+        }
+    }
+}
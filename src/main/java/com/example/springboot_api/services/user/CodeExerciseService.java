@@ -29,6 +29,7 @@ import com.example.springboot_api.repositories.shared.FileChunkRepository;
 import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
 import com.example.springboot_api.repositories.shared.SupportedLanguageRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import com.example.springboot_api.services.shared.ai.PistonService;
 import com.example.springboot_api.services.shared.ai.generation.CodeExerciseGenerationService;
 
@@ -53,6 +54,7 @@ public class CodeExerciseService {
         private final CodeExerciseTestcaseRepository testcaseRepository;
         private final PistonService pistonService;
         private final CodeExerciseGenerationService generationService;
+        private final AiTaskBulkhead aiTaskBulkhead;
 
         /**
          * Sinh bài tập code từ tài liệu.
@@ -75,6 +77,8 @@ public class CodeExerciseService {
                         throw new BadRequestException("Tài liệu chưa được xử lý OCR");
                 }
 
+                aiTaskBulkhead.checkCapacity(user.getId(), notebookId);
+
                 // Tạo AI Set
                 NotebookAiSet aiSet = NotebookAiSet.builder()
                                 .notebook(notebook)
@@ -88,14 +92,15 @@ public class CodeExerciseService {
                 aiSetRepository.save(aiSet);
 
                 // Trigger async generation
-                generationService.generateAsync(
-                                aiSet.getId(),
-                                notebook,
-                                user,
-                                documentContent,
-                                request.getMaxExercises() != null ? request.getMaxExercises() : 3,
-                                request.getLanguage() != null ? request.getLanguage() : "vi",
-                                request.getAdditionalRequirements());
+                aiTaskBulkhead.dispatch(aiSet.getId(), user.getId(), notebookId,
+                        () -> generationService.generateAsync(
+                                        aiSet.getId(),
+                                        notebook,
+                                        user,
+                                        documentContent,
+                                        request.getMaxExercises() != null ? request.getMaxExercises() : 3,
+                                        request.getLanguage() != null ? request.getLanguage() : "vi",
+                                        request.getAdditionalRequirements()));
 
                 return aiSet;
         }
@@ -0,0 +1,303 @@
+package com.example.springboot_api.services.user;
+
+import java.time.OffsetDateTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.example.springboot_api.services.shared.ai.AIModelService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bộ nhớ hội thoại gọn cho chatbot. Nó nằm trong
+ * notebook_bot_conversation_states.metadata.memory.&lt;conversationId&gt; và gồm:
+ * - summary: tóm tắt các lượt cũ (LLM tóm tắt, lỗi thì ghép câu hỏi / trả lời
+ * rút gọn)
+ * - lastTurn: lượt hỏi - đáp gần nhất, đã format như getChatHistory
+ * - throughMessageId: message assistant cuối cùng đã được tính vào bộ nhớ
+ *
+ * Sau mỗi câu trả lời (ConversationTurnCompletedEvent, sau commit), bộ nhớ được
+ * cập nhật trên taskExecutor: lastTurn cũ gộp vào summary, lượt mới thành
+ * lastTurn. Mọi conversation của một (user, notebook) dùng chung một dòng state
+ * (metadata.memory được đọc - sửa - ghi cả map), nên các lần cập nhật theo
+ * (user, notebook) chạy tuần tự.
+ *
+ * Khi dựng prompt, history() đọc một dòng state. Bộ nhớ chỉ được dùng khi
+ * throughMessageId là message assistant mới nhất của conversation. Nếu chưa cập
+ * nhật kịp, đã đổi máy, v.v. thì trả Optional.empty() và caller đọc lại
+ * message như cũ (ChatBotService.getChatHistory).
+ */
+@Service
+@Slf4j
+public class ConversationMemoryService {
+
+    // Giống giới hạn mỗi message trong ChatBotService.getChatHistory
+    private static final int MAX_MESSAGE_CHARS = 4000;
+    // Mỗi lượt gộp vào summary dạng rút gọn (khi không dùng LLM)
+    private static final int EXTRACT_CHARS = 200;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final AIModelService aiModelService;
+    private final Executor executor;
+
+    @Value("${ai.chat.memory.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.chat.memory.llm-summary:true}")
+    private boolean llmSummary;
+
+    @Value("${ai.chat.memory.summary-max-chars:1500}")
+    private int summaryMaxChars;
+
+    // Số conversation giữ bộ nhớ trên mỗi state (user, notebook)
+    @Value("${ai.chat.memory.max-conversations:5}")
+    private int maxConversations;
+
+    // (user, notebook) → lần cập nhật cuối đang chờ / đang chạy
+    private final Map<StateKey, CompletableFuture<Void>> updateChains = new ConcurrentHashMap<>();
+
+    private record StateKey(UUID userId, UUID notebookId) {
+    }
+
+    /**
+     * Bộ nhớ của một conversation (một entry trong metadata.memory).
+     */
+    record Memory(String summary, String lastTurn, UUID throughMessageId, int turns, String updatedAt) {
+    }
+
+    public ConversationMemoryService(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper,
+            AIModelService aiModelService, @Qualifier("taskExecutor") Executor executor) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.aiModelService = aiModelService;
+        this.executor = executor;
+    }
+
+    /**
+     * Chat history cho prompt từ bộ nhớ: summary + lượt trước + câu hỏi hiện tại
+     * (đánh dấu [MỚI NHẤT]). Empty nếu bộ nhớ không có hoặc chưa cập nhật tới
+     * message assistant mới nhất.
+     *
+     * @param currentUserContent câu hỏi hiện tại đã ghép OCR text
+     */
+    public Optional<String> history(UUID userId, UUID notebookId, UUID conversationId, String mode,
+            String currentUserContent) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        try {
+            List<Map.Entry<String, UUID>> rows = jdbcTemplate.query(
+                    "SELECT s.metadata::jsonb -> 'memory' -> ? AS memory, "
+                            + "(SELECT m.id FROM public.notebook_bot_messages m "
+                            + "WHERE m.conversation_id = ? AND m.role = 'assistant' "
+                            + "ORDER BY m.created_at DESC LIMIT 1) AS last_assistant_id "
+                            + "FROM public.notebook_bot_conversation_states s "
+                            + "WHERE s.user_id = ? AND s.notebook_id = ?",
+                    (rs, rowNum) -> new AbstractMap.SimpleEntry<>(rs.getString("memory"),
+                            (UUID) rs.getObject("last_assistant_id")),
+                    conversationId.toString(), conversationId, userId, notebookId);
+            if (rows.isEmpty() || rows.get(0).getKey() == null || rows.get(0).getValue() == null) {
+                return Optional.empty();
+            }
+
+            Memory memory = objectMapper.readValue(rows.get(0).getKey(), Memory.class);
+            if (!rows.get(0).getValue().equals(memory.throughMessageId())) {
+                // Lượt mới nhất chưa được cập nhật vào bộ nhớ
+                return Optional.empty();
+            }
+
+            StringBuilder history = new StringBuilder();
+            if (memory.summary() != null && !memory.summary().isBlank()) {
+                history.append("[TÓM TẮT CÁC LƯỢT TRƯỚC] ").append(memory.summary().trim()).append("\n\n");
+            }
+            if (memory.lastTurn() != null && !memory.lastTurn().isBlank()) {
+                history.append(memory.lastTurn()).append("\n\n");
+            }
+            history.append(formatLine(true, mode, currentUserContent, true));
+            return Optional.of(history.toString().trim());
+        } catch (Exception e) {
+            log.warn("⚠️ [CHAT-MEMORY] Không đọc được bộ nhớ conversation {}: {}", conversationId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onTurnCompleted(ConversationTurnCompletedEvent event) {
+        if (!enabled || event.userId() == null) {
+            return;
+        }
+        UUID conversationId = event.conversationId();
+        StateKey stateKey = new StateKey(event.userId(), event.notebookId());
+        CompletableFuture<Void> chained = updateChains.compute(stateKey, (key, previous) -> (previous != null
+                ? previous.exceptionally(e -> null)
+                : CompletableFuture.<Void>completedFuture(null))
+                .thenRunAsync(() -> update(event), executor));
+        chained.whenComplete((result, error) -> {
+            if (error != null) {
+                log.warn("⚠️ [CHAT-MEMORY] Không cập nhật được bộ nhớ conversation {}: {}", conversationId,
+                        error.getMessage());
+            }
+            updateChains.remove(stateKey, chained);
+        });
+    }
+
+    private void update(ConversationTurnCompletedEvent event) {
+        Map<String, Memory> memories = readAll(event.userId(), event.notebookId());
+        if (memories == null) {
+            // Chưa có state (user chưa mở conversation nào trong notebook)
+            return;
+        }
+
+        String key = event.conversationId().toString();
+        Memory previous = memories.get(key);
+        String summary = previous != null && previous.summary() != null ? previous.summary() : "";
+        if (previous != null && previous.lastTurn() != null && !previous.lastTurn().isBlank()) {
+            summary = fold(summary, previous.lastTurn());
+        }
+        String turn = formatLine(true, event.mode(), event.userContent(), false) + "\n\n"
+                + formatLine(false, event.mode(), event.assistantContent(), false);
+
+        memories.put(key, new Memory(summary, turn, event.assistantMessageId(),
+                previous != null ? previous.turns() + 1 : 1, OffsetDateTime.now().toString()));
+        prune(memories);
+
+        try {
+            jdbcTemplate.update(
+                    "UPDATE public.notebook_bot_conversation_states "
+                            + "SET metadata = jsonb_set(COALESCE(metadata::jsonb, '{}'::jsonb), '{memory}', ?::jsonb) "
+                            + "WHERE user_id = ? AND notebook_id = ?",
+                    objectMapper.writeValueAsString(memories), event.userId(), event.notebookId());
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        log.debug("🧠 [CHAT-MEMORY] Conversation {} – {} lượt, summary {} ký tự", event.conversationId(),
+                memories.get(key).turns(), summary.length());
+    }
+
+    /**
+     * Toàn bộ metadata.memory của state; null nếu không có state.
+     */
+    private Map<String, Memory> readAll(UUID userId, UUID notebookId) {
+        List<String> rows = jdbcTemplate.query(
+                "SELECT COALESCE(metadata::jsonb -> 'memory', '{}'::jsonb)::text AS memory "
+                        + "FROM public.notebook_bot_conversation_states WHERE user_id = ? AND notebook_id = ?",
+                (rs, rowNum) -> rs.getString("memory"), userId, notebookId);
+        if (rows.isEmpty()) {
+            return null;
+        }
+        try {
+            return new LinkedHashMap<>(objectMapper.readValue(rows.get(0), new TypeReference<Map<String, Memory>>() {
+            }));
+        } catch (Exception e) {
+            // Entry hỏng / khác định dạng: bắt đầu lại
+            log.warn("⚠️ [CHAT-MEMORY] metadata.memory không hợp lệ, tạo lại: {}", e.getMessage());
+            return new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * Chỉ giữ maxConversations conversation cập nhật gần nhất.
+     */
+    private void prune(Map<String, Memory> memories) {
+        if (memories.size() <= maxConversations) {
+            return;
+        }
+        List<Map.Entry<String, Memory>> entries = new ArrayList<>(memories.entrySet());
+        entries.sort(Comparator.comparing((Map.Entry<String, Memory> e) -> String.valueOf(e.getValue().updatedAt()))
+                .reversed());
+        for (Map.Entry<String, Memory> entry : entries.subList(maxConversations, entries.size())) {
+            memories.remove(entry.getKey());
+        }
+    }
+
+    /**
+     * Gộp một lượt vào summary. Dùng LLM nếu bật, lỗi thì nối bản rút gọn.
+     */
+    private String fold(String summary, String turn) {
+        if (llmSummary) {
+            try {
+                String updated = aiModelService.callGroqModel(buildSummaryPrompt(summary, turn));
+                if (updated != null && !updated.isBlank()) {
+                    String trimmed = updated.trim();
+                    return trimmed.length() > summaryMaxChars ? trimmed.substring(0, summaryMaxChars) : trimmed;
+                }
+            } catch (Exception e) {
+                log.warn("⚠️ [CHAT-MEMORY] LLM tóm tắt lỗi, dùng bản rút gọn: {}", e.getMessage());
+            }
+        }
+        return extractiveFold(summary, turn, summaryMaxChars);
+    }
+
+    private String buildSummaryPrompt(String summary, String turn) {
+        return """
+                Bạn đang duy trì bản tóm tắt ngắn của một cuộc trò chuyện giữa người dùng và trợ lý học tập.
+                Cập nhật bản tóm tắt với lượt hỏi - đáp mới bên dưới.
+
+                YÊU CẦU:
+                - Tối đa %d ký tự, tiếng Việt, văn xuôi ngắn gọn hoặc gạch đầu dòng.
+                - Giữ chủ đề, câu hỏi của người dùng và kết luận chính của trợ lý.
+                - Giữ nguyên số liệu, số điều / khoản, mã học phần, tên riêng.
+                - Chỉ trả về bản tóm tắt, không giải thích.
+
+                TÓM TẮT HIỆN TẠI:
+                %s
+
+                LƯỢT MỚI:
+                %s
+                """.formatted(summaryMaxChars, summary.isBlank() ? "(trống)" : summary, turn);
+    }
+
+    /**
+     * Nối mỗi message của lượt (cắt EXTRACT_CHARS ký tự) vào summary, bỏ dòng cũ
+     * nhất khi quá maxChars.
+     */
+    static String extractiveFold(String summary, String turn, int maxChars) {
+        List<String> lines = new ArrayList<>();
+        if (!summary.isBlank()) {
+            lines.addAll(List.of(summary.split("\n")));
+        }
+        for (String message : turn.split("\n\n")) {
+            String line = message.replaceAll("\\s+", " ").trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            lines.add("- " + (line.length() > EXTRACT_CHARS ? line.substring(0, EXTRACT_CHARS) + "..." : line));
+        }
+        while (lines.size() > 1 && String.join("\n", lines).length() > maxChars) {
+            lines.remove(0);
+        }
+        return String.join("\n", lines);
+    }
+
+    /**
+     * Một message theo format của ChatBotService.getChatHistory.
+     */
+    private static String formatLine(boolean user, String mode, String content, boolean newest) {
+        String text = content != null ? content : "";
+        if (text.length() > MAX_MESSAGE_CHARS) {
+            text = text.substring(0, MAX_MESSAGE_CHARS) + "...";
+        }
+        String role = user ? "Người dùng" : "Trợ lý";
+        String prefix = mode == null || mode.isEmpty() ? role + ": " : String.format("%s [%s]: ", role, mode);
+        return (newest ? "[MỚI NHẤT] " : "") + prefix + text;
+    }
+}
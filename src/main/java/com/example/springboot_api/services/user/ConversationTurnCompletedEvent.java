@@ -0,0 +1,19 @@
+package com.example.springboot_api.services.user;
+
+import java.util.UUID;
+
+/**
+ * Một lượt chat (câu hỏi + câu trả lời) vừa được lưu. ConversationMemoryService
+ * nghe event này để cập nhật bộ nhớ hội thoại sau khi transaction commit.
+ *
+ * @param userContent nội dung câu hỏi đã ghép OCR text (giống queryText)
+ */
+public record ConversationTurnCompletedEvent(
+        UUID userId,
+        UUID notebookId,
+        UUID conversationId,
+        UUID assistantMessageId,
+        String mode,
+        String userContent,
+        String assistantContent) {
+}
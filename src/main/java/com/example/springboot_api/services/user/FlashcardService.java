@@ -13,6 +13,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.example.springboot_api.common.exceptions.BadRequestException;
 import com.example.springboot_api.common.exceptions.NotFoundException;
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
 import com.example.springboot_api.dto.user.flashcard.FlashcardListResponse;
 import com.example.springboot_api.dto.user.flashcard.FlashcardResponse;
 import com.example.springboot_api.mappers.FlashcardMapper;
@@ -30,6 +31,7 @@ import com.example.springboot_api.repositories.shared.FlashcardRepository;
 import com.example.springboot_api.repositories.shared.NotebookAiSetFileRepository;
 import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import com.example.springboot_api.services.shared.ai.generation.FlashcardGenerationService;
 
 import lombok.RequiredArgsConstructor;
@@ -52,6 +54,7 @@ public class FlashcardService {
     private final UserRepository userRepository;
     private final FlashcardMapper flashcardMapper;
     private final FlashcardGenerationService flashcardGenerationService;
+    private final AiTaskBulkhead aiTaskBulkhead;
 
     // ================================
     // GENERATE FLASHCARDS (ASYNC)
@@ -89,6 +92,8 @@ public class FlashcardService {
                 return result;
             }
 
+            aiTaskBulkhead.checkCapacity(userId, notebookId);
+
             NotebookAiSet savedAiSet = createFlashcardAiSet(notebook, user, selectedFiles, fileIds,
                     numberOfCards, additionalRequirements);
 
@@ -99,9 +104,13 @@ public class FlashcardService {
 
             log.info("📤 [FLASHCARD] Gọi async method - Thread: {}", Thread.currentThread().getName());
 
-            flashcardGenerationService.processFlashcardGenerationAsync(
-                    savedAiSet.getId(), notebookId, userId, fileIds, numberOfCards, additionalRequirements);
+            aiTaskBulkhead.dispatch(savedAiSet.getId(), userId, notebookId,
+                    () -> flashcardGenerationService.processFlashcardGenerationAsync(
+                            savedAiSet.getId(), notebookId, userId, fileIds, numberOfCards, additionalRequirements));
 
+        } catch (TooManyRequestsException e) {
+            // Bulkhead / pool đầy: để GlobalExceptionHandler trả 429
+            throw e;
         } catch (Exception e) {
             result.put("error", "Lỗi khi khởi tạo flashcards: " + e.getMessage());
             log.error("❌ [FLASHCARD] Error: {}", e.getMessage(), e);
@@ -13,6 +13,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.example.springboot_api.common.exceptions.BadRequestException;
 import com.example.springboot_api.common.exceptions.NotFoundException;
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
 import com.example.springboot_api.dto.user.ai.MindmapResponse;
 import com.example.springboot_api.mappers.MindmapMapper;
 import com.example.springboot_api.models.Notebook;
@@ -28,6 +29,7 @@ import com.example.springboot_api.repositories.shared.MindmapRepository;
 import com.example.springboot_api.repositories.shared.NotebookAiSetFileRepository;
 import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import com.example.springboot_api.services.shared.ai.generation.MindmapGenerationService;
 
 import lombok.RequiredArgsConstructor;
@@ -50,6 +52,7 @@ public class MindmapService {
     private final UserRepository userRepository;
     private final MindmapMapper mindmapMapper;
     private final MindmapGenerationService mindmapGenerationService;
+    private final AiTaskBulkhead aiTaskBulkhead;
 
     // ================================
     // GENERATE MINDMAP (ASYNC)
@@ -84,6 +87,8 @@ public class MindmapService {
                 return result;
             }
 
+            aiTaskBulkhead.checkCapacity(userId, notebookId);
+
             NotebookAiSet savedAiSet = createMindmapAiSet(notebook, user, selectedFiles, fileIds,
                     additionalRequirements);
 
@@ -94,9 +99,13 @@ public class MindmapService {
 
             log.info("📤 [MINDMAP] Gọi async method - Thread: {}", Thread.currentThread().getName());
 
-            mindmapGenerationService.processMindmapGenerationAsync(
-                    savedAiSet.getId(), notebookId, userId, fileIds, additionalRequirements);
+            aiTaskBulkhead.dispatch(savedAiSet.getId(), userId, notebookId,
+                    () -> mindmapGenerationService.processMindmapGenerationAsync(
+                            savedAiSet.getId(), notebookId, userId, fileIds, additionalRequirements));
 
+        } catch (TooManyRequestsException e) {
+            // Bulkhead / pool đầy: để GlobalExceptionHandler trả 429
+            throw e;
         } catch (Exception e) {
             result.put("error", "Lỗi khi khởi tạo mindmap: " + e.getMessage());
             log.error("❌ [MINDMAP] Error: {}", e.getMessage(), e);
@@ -13,6 +13,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.example.springboot_api.common.exceptions.BadRequestException;
 import com.example.springboot_api.common.exceptions.NotFoundException;
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
 import com.example.springboot_api.dto.user.quiz.QuizListResponse;
 import com.example.springboot_api.dto.user.quiz.QuizResponse;
 import com.example.springboot_api.mappers.QuizMapper;
@@ -30,6 +31,7 @@ import com.example.springboot_api.repositories.shared.NotebookAiSetFileRepositor
 import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
 import com.example.springboot_api.repositories.shared.QuizRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import com.example.springboot_api.services.shared.ai.generation.QuizGenerationService;
 
 import lombok.RequiredArgsConstructor;
@@ -52,6 +54,7 @@ public class QuizService {
         private final UserRepository userRepository;
         private final QuizMapper quizMapper;
         private final QuizGenerationService quizGenerationService;
+        private final AiTaskBulkhead aiTaskBulkhead;
 
         // ================================
         // GENERATE QUIZ (ASYNC)
@@ -92,6 +95,8 @@ public class QuizService {
                                 return result;
                         }
 
+                        aiTaskBulkhead.checkCapacity(userId, notebookId);
+
                         NotebookAiSet savedAiSet = createQuizAiSet(notebook, user, selectedFiles, fileIds,
                                         numberOfQuestions, difficultyLevel, additionalRequirements);
 
@@ -102,10 +107,14 @@ public class QuizService {
 
                         log.info("📤 [QUIZ] Gọi async method - Thread: {}", Thread.currentThread().getName());
 
-                        quizGenerationService.processQuizGenerationAsync(
-                                        savedAiSet.getId(), notebookId, userId, fileIds,
-                                        numberOfQuestions, difficultyLevel, additionalRequirements);
+                        aiTaskBulkhead.dispatch(savedAiSet.getId(), userId, notebookId,
+                                () -> quizGenerationService.processQuizGenerationAsync(
+                                                savedAiSet.getId(), notebookId, userId, fileIds,
+                                                numberOfQuestions, difficultyLevel, additionalRequirements));
 
+                } catch (TooManyRequestsException e) {
+                        // Bulkhead / pool đầy: để GlobalExceptionHandler trả 429
+                        throw e;
                 } catch (Exception e) {
                         result.put("error", "Lỗi khi khởi tạo quiz: " + e.getMessage());
                         log.error("❌ [QUIZ] Error: {}", e.getMessage(), e);
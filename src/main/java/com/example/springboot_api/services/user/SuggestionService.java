@@ -11,6 +11,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.example.springboot_api.common.exceptions.NotFoundException;
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
 import com.example.springboot_api.dto.user.suggestion.SuggestionItem;
 import com.example.springboot_api.dto.user.suggestion.SuggestionResponse;
 import com.example.springboot_api.models.Notebook;
@@ -25,6 +26,7 @@ import com.example.springboot_api.repositories.shared.NotebookAiSetFileRepositor
 import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
 import com.example.springboot_api.repositories.shared.NotebookAiSetSuggestionRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import com.example.springboot_api.services.shared.ai.generation.SuggestionGenerationService;
 
 import lombok.RequiredArgsConstructor;
@@ -42,6 +44,7 @@ public class SuggestionService {
     private final NotebookAiSetFileRepository aiSetFileRepository;
     private final NotebookFileRepository notebookFileRepository;
     private final SuggestionGenerationService suggestionGenerationService;
+    private final AiTaskBulkhead aiTaskBulkhead;
 
     // ================================
     // GENERATE SUGGESTIONS (ASYNC)
@@ -76,6 +79,8 @@ public class SuggestionService {
                 return result;
             }
 
+            aiTaskBulkhead.checkCapacity(userId, notebookId);
+
             NotebookAiSet savedAiSet = createSuggestionAiSet(notebook, user, selectedFiles, fileIds);
 
             result.put("aiSetId", savedAiSet.getId());
@@ -85,9 +90,13 @@ public class SuggestionService {
 
             log.info("📤 [SUGGESTION] Gọi async method - Thread: {}", Thread.currentThread().getName());
 
-            suggestionGenerationService.processSuggestionGenerationAsync(
-                    savedAiSet.getId(), notebookId, userId, fileIds, additionalRequirements);
+            aiTaskBulkhead.dispatch(savedAiSet.getId(), userId, notebookId,
+                    () -> suggestionGenerationService.processSuggestionGenerationAsync(
+                            savedAiSet.getId(), notebookId, userId, fileIds, additionalRequirements));
 
+        } catch (TooManyRequestsException e) {
+            // Bulkhead / pool đầy: để GlobalExceptionHandler trả 429
+            throw e;
         } catch (Exception e) {
             result.put("error", "Lỗi khi khởi tạo suggestions: " + e.getMessage());
             log.error("❌ [SUGGESTION] Error: {}", e.getMessage(), e);
@@ -13,6 +13,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.example.springboot_api.common.exceptions.BadRequestException;
 import com.example.springboot_api.common.exceptions.NotFoundException;
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
 import com.example.springboot_api.dto.user.summary.SummaryResponse;
 import com.example.springboot_api.models.Notebook;
 import com.example.springboot_api.models.NotebookAiSet;
@@ -28,6 +29,7 @@ import com.example.springboot_api.repositories.shared.NotebookAiSetFileRepositor
 import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
 import com.example.springboot_api.repositories.shared.NotebookAiSummaryRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import com.example.springboot_api.services.shared.ai.generation.SummaryGenerationService;
 import com.example.springboot_api.utils.UrlNormalizer;
 
@@ -50,6 +52,7 @@ public class SummaryService {
     private final NotebookFileRepository notebookFileRepository;
     private final UserRepository userRepository;
     private final SummaryGenerationService summaryGenerationService;
+    private final AiTaskBulkhead aiTaskBulkhead;
     private final UrlNormalizer urlNormalizer;
 
     // ================================
@@ -85,6 +88,8 @@ public class SummaryService {
                 return result;
             }
 
+            aiTaskBulkhead.checkCapacity(userId, notebookId);
+
             NotebookAiSet savedAiSet = createSummaryAiSet(notebook, user, selectedFiles, fileIds,
                     voiceId, language, additionalRequirements);
 
@@ -95,9 +100,13 @@ public class SummaryService {
 
             log.info("📤 [SUMMARY] Gọi async method - Thread: {}", Thread.currentThread().getName());
 
-            summaryGenerationService.processSummaryGenerationAsync(
-                    savedAiSet.getId(), notebookId, userId, fileIds, voiceId, language, additionalRequirements);
+            aiTaskBulkhead.dispatch(savedAiSet.getId(), userId, notebookId,
+                    () -> summaryGenerationService.processSummaryGenerationAsync(
+                            savedAiSet.getId(), notebookId, userId, fileIds, voiceId, language, additionalRequirements));
 
+        } catch (TooManyRequestsException e) {
+            // Bulkhead / pool đầy: để GlobalExceptionHandler trả 429
+            throw e;
         } catch (Exception e) {
             result.put("error", "Lỗi khi khởi tạo summary: " + e.getMessage());
             log.error("❌ [SUMMARY] Error: {}", e.getMessage(), e);
@@ -12,6 +12,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.example.springboot_api.common.exceptions.BadRequestException;
 import com.example.springboot_api.common.exceptions.NotFoundException;
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
 import com.example.springboot_api.dto.user.timeline.TimelineResponse;
 import com.example.springboot_api.mappers.TimelineMapper;
 import com.example.springboot_api.models.Notebook;
@@ -26,6 +27,7 @@ import com.example.springboot_api.repositories.shared.NotebookAiSetFileRepositor
 import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
 import com.example.springboot_api.repositories.shared.TimelineEventRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import com.example.springboot_api.services.shared.ai.generation.TimelineGenerationService;
 
 import lombok.RequiredArgsConstructor;
@@ -46,6 +48,7 @@ public class TimelineService {
     private final UserRepository userRepository;
     private final TimelineEventRepository timelineEventRepository;
     private final TimelineGenerationService timelineGenerationService;
+    private final AiTaskBulkhead aiTaskBulkhead;
     private final TimelineMapper timelineMapper;
 
     /**
@@ -88,6 +91,8 @@ public class TimelineService {
             int maxEventsValue = (maxEvents != null && maxEvents > 0) ? maxEvents : 25;
 
             // Tạo AI Set (trong transaction riêng)
+            aiTaskBulkhead.checkCapacity(userId, notebookId);
+
             NotebookAiSet savedAiSet = createTimelineAiSet(notebook, user, selectedFiles, fileIds,
                     modeValue, maxEventsValue, additionalRequirements);
 
@@ -98,10 +103,14 @@ public class TimelineService {
 
             // Gọi async processing - PHẢI NGOÀI transaction
             log.info("📤 [TIMELINE] Gọi async method - Thread: {}", Thread.currentThread().getName());
-            timelineGenerationService.processTimelineGenerationAsync(
-                    savedAiSet.getId(), notebookId, userId, fileIds,
-                    modeValue, maxEventsValue, additionalRequirements);
-
+            aiTaskBulkhead.dispatch(savedAiSet.getId(), userId, notebookId,
+                    () -> timelineGenerationService.processTimelineGenerationAsync(
+                            savedAiSet.getId(), notebookId, userId, fileIds,
+                            modeValue, maxEventsValue, additionalRequirements));
+
+        } catch (TooManyRequestsException e) {
+            // Bulkhead / pool đầy: để GlobalExceptionHandler trả 429
+            throw e;
         } catch (Exception e) {
             result.put("error", e.getMessage());
             result.put("success", false);
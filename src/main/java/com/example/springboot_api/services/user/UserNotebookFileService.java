@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -23,6 +24,7 @@ import com.example.springboot_api.repositories.admin.NotebookRepository;
 import com.example.springboot_api.repositories.admin.UserRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
 import com.example.springboot_api.services.shared.FileStorageService;
+import com.example.springboot_api.services.shared.ai.FileChunksChangedEvent;
 import com.example.springboot_api.services.shared.ai.FileProcessingTaskService;
 
 import lombok.RequiredArgsConstructor;
@@ -37,6 +39,7 @@ public class UserNotebookFileService {
     private final NotebookFileRepository notebookFileRepository;
     private final NotebookMemberRepository notebookMemberRepository;
     private final FileProcessingTaskService fileProcessingTaskService;
+    private final ApplicationEventPublisher eventPublisher;
     private final NotebookFileMapper notebookFileMapper;
     private final com.example.springboot_api.repositories.shared.FileChunkRepository fileChunkRepository;
 
@@ -322,6 +325,7 @@ public class UserNotebookFileService {
 
         // Xóa file chunks
         fileChunkRepository.deleteByFileId(fileId);
+        eventPublisher.publishEvent(new FileChunksChangedEvent(notebookId, fileId));
 
         // Xóa file từ storage
         fileStorageService.deleteFile(file.getStorageUrl());
@@ -12,6 +12,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.example.springboot_api.common.exceptions.BadRequestException;
 import com.example.springboot_api.common.exceptions.NotFoundException;
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
 import com.example.springboot_api.dto.user.video.VideoResponse;
 import com.example.springboot_api.models.Notebook;
 import com.example.springboot_api.models.NotebookAiSet;
@@ -27,6 +28,7 @@ import com.example.springboot_api.repositories.shared.NotebookAiSetFileRepositor
 import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
 import com.example.springboot_api.repositories.shared.NotebookFileRepository;
 import com.example.springboot_api.repositories.shared.VideoAssetRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
 import com.example.springboot_api.services.shared.ai.generation.VideoGenerationService;
 
 import lombok.RequiredArgsConstructor;
@@ -48,6 +50,7 @@ public class VideoService {
     private final NotebookFileRepository notebookFileRepository;
     private final UserRepository userRepository;
     private final VideoGenerationService videoGenerationService;
+    private final AiTaskBulkhead aiTaskBulkhead;
     private final com.example.springboot_api.utils.UrlNormalizer urlNormalizer;
 
     // ================================
@@ -83,6 +86,8 @@ public class VideoService {
                 return result;
             }
 
+            aiTaskBulkhead.checkCapacity(userId, notebookId);
+
             NotebookAiSet savedAiSet = createVideoAiSet(notebook, user, selectedFiles, fileIds,
                     numberOfSlides, generateImages, additionalRequirements);
 
@@ -93,10 +98,14 @@ public class VideoService {
 
             log.info("📤 [VIDEO] Gọi async method - Thread: {}", Thread.currentThread().getName());
 
-            videoGenerationService.processVideoGenerationAsync(
-                    savedAiSet.getId(), notebookId, userId, fileIds,
-                    "CORPORATE", additionalRequirements, numberOfSlides, generateImages);
+            aiTaskBulkhead.dispatch(savedAiSet.getId(), userId, notebookId,
+                    () -> videoGenerationService.processVideoGenerationAsync(
+                            savedAiSet.getId(), notebookId, userId, fileIds,
+                            "CORPORATE", additionalRequirements, numberOfSlides, generateImages));
 
+        } catch (TooManyRequestsException e) {
+            // Bulkhead / pool đầy: để GlobalExceptionHandler trả 429
+            throw e;
         } catch (Exception e) {
             result.put("error", "Lỗi khi khởi tạo video: " + e.getMessage());
             log.error("❌ [VIDEO] Error: {}", e.getMessage(), e);
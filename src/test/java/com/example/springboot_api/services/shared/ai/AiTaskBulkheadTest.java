@@ -0,0 +1,57 @@
+package com.example.springboot_api.services.shared.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
+import com.example.springboot_api.models.NotebookAiSet;
+import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
+
+@ExtendWith(MockitoExtension.class)
+class AiTaskBulkheadTest {
+
+    @Mock
+    private NotebookAiSetRepository aiSetRepository;
+
+    private AiTaskBulkhead bulkhead;
+
+    @BeforeEach
+    void setUp() {
+        bulkhead = new AiTaskBulkhead(aiSetRepository);
+        ReflectionTestUtils.setField(bulkhead, "maxPerUser", 1);
+        ReflectionTestUtils.setField(bulkhead, "maxPerNotebook", 10);
+        ReflectionTestUtils.setField(bulkhead, "maxHoldMinutes", 30L);
+    }
+
+    @Test
+    void dispatch_ShouldReleaseSlotAndFailAiSet_WhenExecutorRejects() {
+        UUID userId = UUID.randomUUID();
+        UUID notebookId = UUID.randomUUID();
+        UUID aiSetId = UUID.randomUUID();
+        NotebookAiSet aiSet = new NotebookAiSet();
+        when(aiSetRepository.findById(aiSetId)).thenReturn(Optional.of(aiSet));
+
+        bulkhead.checkCapacity(userId, notebookId);
+        assertThrows(TooManyRequestsException.class, () -> bulkhead.dispatch(aiSetId, userId, notebookId, () -> {
+            throw new TaskRejectedException("aiGenerationExecutor đầy");
+        }));
+
+        assertEquals("failed", aiSet.getStatus());
+        verify(aiSetRepository).save(aiSet);
+        // Slot đã được trả: user vẫn tạo được tác vụ mới
+        bulkhead.checkCapacity(userId, notebookId);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.springboot_api.services.shared.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.example.springboot_api.models.NotebookFile;
+import com.example.springboot_api.repositories.shared.FileChunkRepository;
+import com.example.springboot_api.repositories.shared.NotebookFileRepository;
+import com.example.springboot_api.services.shared.ai.chunking.ChunkingService;
+import com.example.springboot_api.services.shared.ai.chunking.TextChunk;
+
+@ExtendWith(MockitoExtension.class)
+class DocumentSummarizationServiceTest {
+
+    @Mock
+    private FileChunkRepository fileChunkRepository;
+
+    @Mock
+    private AIModelService aiModelService;
+
+    @Mock
+    private ChunkingService chunkingService;
+
+    @Mock
+    private FileSummaryCacheService summaryCache;
+
+    @Mock
+    private NotebookFileRepository notebookFileRepository;
+
+    private DocumentSummarizationService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new DocumentSummarizationService(fileChunkRepository, aiModelService, chunkingService,
+                summaryCache, notebookFileRepository, Runnable::run);
+    }
+
+    @Test
+    void summarizeDocuments_ShouldMapChunksAndKeepFileOrder() {
+        NotebookFile shortFile = file("ngan.pdf");
+        NotebookFile longFile = file("dai.pdf");
+        String longText = "x".repeat(9000);
+        when(fileChunkRepository.findByFileIdWithLimit(eq(shortFile.getId()), anyInt()))
+                .thenReturn(rows("Nội dung ngắn"));
+        when(fileChunkRepository.findByFileIdWithLimit(eq(longFile.getId()), anyInt()))
+                .thenReturn(rows(longText));
+        when(chunkingService.split(eq(longText), anyInt(), anyInt())).thenReturn(List.of(
+                new TextChunk("a", 0, 3000, 750, null),
+                new TextChunk("b", 3000, 6000, 750, null),
+                new TextChunk("c", 6000, 9000, 750, null)));
+        when(aiModelService.callGeminiModel(anyString())).thenReturn("tóm tắt");
+        when(summaryCache.get(eq(longFile.getId()), anyString(), anyString())).thenReturn(Optional.empty());
+        List<String> partial = new ArrayList<>();
+
+        String summary = service.summarizeDocuments(List.of(shortFile, longFile), null,
+                (file, text) -> partial.add(file.getOriginalFilename()));
+
+        assertEquals("--- FILE: ngan.pdf ---\nNội dung ngắn\n\n--- FILE: dai.pdf ---\ntóm tắt\ntóm tắt\ntóm tắt",
+                summary);
+        assertEquals(2, partial.size());
+        assertTrue(partial.containsAll(List.of("ngan.pdf", "dai.pdf")));
+        verify(aiModelService, times(3)).callGeminiModel(anyString());
+        verify(summaryCache).put(eq(longFile.getId()), anyString(), anyString(), eq("tóm tắt\ntóm tắt\ntóm tắt"));
+    }
+
+    @Test
+    void summarizeDocuments_ShouldReuseCachedFileSummary() {
+        NotebookFile longFile = file("dai.pdf");
+        when(fileChunkRepository.findByFileIdWithLimit(eq(longFile.getId()), anyInt()))
+                .thenReturn(rows("y".repeat(9000)));
+        when(summaryCache.get(eq(longFile.getId()), anyString(), anyString())).thenReturn(Optional.of("đã cache"));
+
+        String summary = service.summarizeDocuments(List.of(longFile), null);
+
+        assertEquals("--- FILE: dai.pdf ---\nđã cache", summary);
+        verifyNoInteractions(aiModelService, chunkingService);
+    }
+
+    @Test
+    void summarizeDocuments_ShouldNotCacheFallbackSummary() {
+        NotebookFile longFile = file("dai.pdf");
+        String longText = "z".repeat(9000);
+        when(fileChunkRepository.findByFileIdWithLimit(eq(longFile.getId()), anyInt()))
+                .thenReturn(rows(longText));
+        when(summaryCache.get(eq(longFile.getId()), anyString(), anyString())).thenReturn(Optional.empty());
+        when(chunkingService.split(eq(longText), anyInt(), anyInt())).thenReturn(List.of(
+                new TextChunk("a", 0, 4500, 1125, null),
+                new TextChunk("b", 4500, 9000, 1125, null)));
+        when(aiModelService.callGeminiModel(anyString())).thenThrow(new RuntimeException("timeout"));
+
+        String summary = service.summarizeDocuments(List.of(longFile), null);
+
+        assertEquals("--- FILE: dai.pdf ---\na\nb", summary);
+        verify(summaryCache, never()).put(eq(longFile.getId()), anyString(), anyString(), anyString());
+    }
+
+    private static NotebookFile file(String name) {
+        return NotebookFile.builder().id(UUID.randomUUID()).originalFilename(name).build();
+    }
+
+    private static List<Object[]> rows(String content) {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[] { 0, content });
+        return rows;
+    }
+}
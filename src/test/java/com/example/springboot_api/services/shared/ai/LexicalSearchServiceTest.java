@@ -0,0 +1,45 @@
+package com.example.springboot_api.services.shared.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+@ExtendWith(MockitoExtension.class)
+class LexicalSearchServiceTest {
+
+    @Mock
+    private AIModelService aiModelService;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private LexicalSearchService lexicalSearchService;
+
+    @BeforeEach
+    void setUp() {
+        lexicalSearchService = new LexicalSearchService(jdbcTemplate, new MessageClassifierService(aiModelService),
+                Runnable::run);
+    }
+
+    @Test
+    void buildTsQuery_ShouldDropStopWordsAndAddPhraseForArticleNumber() {
+        assertEquals("dieu | 12 | quy | dinh | (dieu <-> 12)",
+                lexicalSearchService.buildTsQuery("Điều 12 quy định gì vậy?"));
+    }
+
+    @Test
+    void buildTsQuery_ShouldKeepCourseCodes() {
+        assertEquals("hoc | phan | int1234 | may | tin | chi",
+                lexicalSearchService.buildTsQuery("Học phần INT1234 có mấy tín chỉ?"));
+    }
+
+    @Test
+    void buildTsQuery_ShouldReturnEmpty_WhenOnlyStopWords() {
+        assertEquals("", lexicalSearchService.buildTsQuery("là gì vậy ?"));
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.springboot_api.services.shared.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
+
+class LlmCallCoalescerTest {
+
+    private final LlmCallCoalescer coalescer = new LlmCallCoalescer(180000, 10000, 300000);
+
+    @Test
+    void call_ShouldShareInFlightResult_ForSameKey() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> coalescer.call("gemini|p", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "kết quả";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> coalescer.call("gemini|p", () -> {
+            calls.incrementAndGet();
+            return "khác";
+        }));
+        while (coalescer.getCoalescedCount() == 0) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+
+        assertEquals("kết quả", first.get(5, TimeUnit.SECONDS));
+        assertEquals("kết quả", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    void call_ShouldNotKeepFailedResult() {
+        assertThrows(IllegalStateException.class, () -> coalescer.call("groq|p", () -> {
+            throw new IllegalStateException("boom");
+        }));
+
+        assertEquals("ok", coalescer.call("groq|p", () -> "ok"));
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    void call_ShouldNotShareBetweenInteractiveAndBackground() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> background = CompletableFuture.supplyAsync(() -> coalescer.call("groq|p", () -> {
+            started.countDown();
+            await(release);
+            return "nền";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Câu hỏi chat không chờ theo job nền cùng prompt
+        assertEquals("chat", LlmTenantContext.interactive(() -> coalescer.call("groq|p", () -> "chat")));
+        release.countDown();
+        assertEquals("nền", background.get(5, TimeUnit.SECONDS));
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    void call_ShouldRetryOwnCall_WhenLeaderIsInterrupted() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService leaderThread = Executors.newSingleThreadExecutor();
+
+        Future<String> first = leaderThread.submit(() -> coalescer.call("groq|p", () -> {
+            started.countDown();
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Hedge thua", e);
+            }
+            return "chậm";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> coalescer.call("groq|p", () -> "mới"));
+        while (coalescer.getCoalescedCount() == 0) {
+            Thread.onSpinWait();
+        }
+        // Như LlmRouter hủy bản thua hedge
+        leaderThread.shutdownNow();
+
+        assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertEquals("mới", second.get(5, TimeUnit.SECONDS));
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    void call_ShouldStopWaiting_AtCallerDeadline() throws Exception {
+        LlmCallCoalescer shortWait = new LlmCallCoalescer(0, 0, 100);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> shortWait.call("groq|p", () -> {
+            started.countDown();
+            await(release);
+            return "kết quả";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertThrows(TooManyRequestsException.class, () -> shortWait.call("groq|p", () -> "khác"));
+        release.countDown();
+        assertEquals("kết quả", first.get(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
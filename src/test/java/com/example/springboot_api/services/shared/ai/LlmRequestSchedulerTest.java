@@ -0,0 +1,112 @@
+package com.example.springboot_api.services.shared.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
+import com.example.springboot_api.dto.shared.ai.LlmRateStats;
+
+class LlmRequestSchedulerTest {
+
+    private final LlmRequestScheduler scheduler = new LlmRequestScheduler(
+            6000, 5, 6000, 5, 6000, 5, 1000, 1000, 2, 1, 10);
+
+    @Test
+    void call_ShouldRetryAndLowerRate_WhenRateLimited() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = scheduler.call(LlmRequestScheduler.GEMINI, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw tooManyRequests();
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(2, attempts.get());
+        LlmRateStats stats = stats(LlmRequestScheduler.GEMINI);
+        assertEquals(1, stats.rateLimited());
+        assertEquals(2, stats.granted());
+        assertTrue(stats.currentRpm() < stats.configuredRpm());
+    }
+
+    @Test
+    void call_ShouldNotRetry_WhenNotRetryable() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(RuntimeException.class, () -> scheduler.call(LlmRequestScheduler.GROQ, () -> {
+            attempts.incrementAndGet();
+            throw tooManyRequests();
+        }, e -> false));
+        assertThrows(IllegalStateException.class, () -> scheduler.call(LlmRequestScheduler.GROQ, () -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("boom");
+        }));
+
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void call_ShouldNotTreatMessageAsRateLimit_WhenNoStatus() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(RuntimeException.class, () -> scheduler.call(LlmRequestScheduler.GEMINI, () -> {
+            attempts.incrementAndGet();
+            throw new RuntimeException("Chunk 429 không hợp lệ");
+        }));
+
+        assertEquals(1, attempts.get());
+        assertEquals(0, stats(LlmRequestScheduler.GEMINI).rateLimited());
+    }
+
+    @Test
+    void call_ShouldServeInteractiveBeforeQueuedBackground() throws Exception {
+        // 1 token / 100ms, burst 1
+        LlmRequestScheduler slow = new LlmRequestScheduler(600, 1, 600, 1, 600, 1, 5000, 5000, 2, 1, 10);
+        slow.call(LlmRequestScheduler.GEMINI, () -> "drain");
+        AtomicInteger order = new AtomicInteger();
+
+        CompletableFuture<Integer> background = CompletableFuture
+                .supplyAsync(() -> slow.call(LlmRequestScheduler.GEMINI, order::incrementAndGet));
+        while (stats(slow, LlmRequestScheduler.GEMINI).waiting() == 0) {
+            Thread.sleep(5);
+        }
+        int interactive = LlmTenantContext.interactive(
+                () -> slow.call(LlmRequestScheduler.GEMINI, order::incrementAndGet));
+
+        assertEquals(1, interactive);
+        assertEquals(2, background.get().intValue());
+        assertEquals(1, stats(slow, LlmRequestScheduler.GEMINI).interactiveGranted());
+    }
+
+    @Test
+    void call_ShouldFailFast_WhenInteractiveQuotaExhausted() {
+        // 1 token / phút: lời gọi interactive chỉ chờ 50ms rồi 429
+        LlmRequestScheduler slow = new LlmRequestScheduler(1, 1, 1, 1, 1, 1, 60000, 50, 2, 1, 10);
+        slow.call(LlmRequestScheduler.GROQ, () -> "drain");
+
+        long start = System.nanoTime();
+        assertThrows(TooManyRequestsException.class, () -> LlmTenantContext.interactive(
+                () -> slow.call(LlmRequestScheduler.GROQ, () -> "late")));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+    }
+
+    private static WebClientResponseException tooManyRequests() {
+        return new WebClientResponseException(429, "Too Many Requests", null, null, null);
+    }
+
+    private LlmRateStats stats(String bucket) {
+        return stats(scheduler, bucket);
+    }
+
+    private static LlmRateStats stats(LlmRequestScheduler scheduler, String bucket) {
+        return scheduler.getStats().stream().filter(s -> s.bucket().equals(bucket)).findFirst().orElseThrow();
+    }
+}
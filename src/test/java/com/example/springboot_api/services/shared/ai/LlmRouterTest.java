@@ -0,0 +1,112 @@
+package com.example.springboot_api.services.shared.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.example.springboot_api.dto.shared.ai.LlmRouteStats;
+
+@ExtendWith(MockitoExtension.class)
+class LlmRouterTest {
+
+    @Mock
+    private AIModelService aiModelService;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void call_ShouldSkipPreferredRoute_AfterRepeatedFailures() {
+        LlmRouter router = router(false, 50);
+        when(aiModelService.callGroqModel(anyString())).thenThrow(new RuntimeException("503"));
+        when(aiModelService.callGeminiModel(anyString())).thenReturn("ok");
+
+        assertEquals("ok", router.call(LlmRouter.GROQ, "xin chào").text());
+        assertEquals("ok", router.call(LlmRouter.GROQ, "xin chào").text());
+        assertEquals("ok", router.call(LlmRouter.GROQ, "xin chào").text());
+
+        // Lỗi 2 lần liên tiếp: lần thứ 3 không thử groq nữa
+        verify(aiModelService, times(2)).callGroqModel(anyString());
+        assertFalse(stats(router, LlmRouter.GROQ).healthy());
+    }
+
+    @Test
+    void call_ShouldUseHedgeResultAndCancelLoser_WhenPrimaryIsSlow() throws Exception {
+        LlmRouter router = router(true, 50);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(aiModelService.callGroqModel(anyString())).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return "chậm";
+        });
+        when(aiModelService.callGeminiModel(anyString())).thenReturn("nhanh");
+
+        LlmRouter.Answer answer = router.call(LlmRouter.GROQ, "xin chào");
+
+        assertEquals("nhanh", answer.text());
+        assertEquals(LlmRouter.GEMINI, answer.route());
+        assertEquals(1, stats(router, LlmRouter.GROQ).hedged());
+        assertEquals(1, stats(router, LlmRouter.GEMINI).hedgeWins());
+        // Bản groq thua bị hủy (interrupt), không chạy tiếp tới hết
+        assertEquals(1, stats(router, LlmRouter.GROQ).hedgeCancelled());
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void stream_ShouldOnlyForwardDeltasOfFirstRoute() {
+        LlmRouter router = router(true, 50);
+        when(aiModelService.streamGroqModel(anyString(), any())).thenAnswer(invocation -> {
+            Thread.sleep(500);
+            Consumer<String> onDelta = invocation.getArgument(1);
+            onDelta.accept("chậm");
+            return "chậm";
+        });
+        when(aiModelService.streamGeminiModel(anyString(), any())).thenAnswer(invocation -> {
+            Consumer<String> onDelta = invocation.getArgument(1);
+            onDelta.accept("nhanh");
+            return "nhanh";
+        });
+        List<String> deltas = new CopyOnWriteArrayList<>();
+
+        LlmRouter.Answer answer = router.stream(LlmRouter.GROQ, "xin chào", deltas::add);
+
+        assertEquals("nhanh", answer.text());
+        assertEquals(LlmRouter.GEMINI, answer.route());
+        assertEquals(List.of("nhanh"), deltas);
+    }
+
+    private LlmRouter router(boolean hedge, long hedgeMs) {
+        return new LlmRouter(aiModelService, executor, hedge, 95, hedgeMs, hedgeMs, 5, 2, 60000, 1.3);
+    }
+
+    private static LlmRouteStats stats(LlmRouter router, String route) {
+        return router.getStats().stream().filter(s -> s.route().equals(route)).findFirst().orElseThrow();
+    }
+}
@@ -1,10 +1,15 @@
 package com.example.springboot_api.services.shared.ai;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -15,6 +20,8 @@ import org.junit.jupiter.params.provider.CsvSource;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import com.example.springboot_api.dto.shared.ai.ClassifierStats;
+
 @ExtendWith(MockitoExtension.class)
 class MessageClassifierServiceTest {
 
@@ -40,7 +47,8 @@ class MessageClassifierServiceTest {
             "Cảm ơn nhé, NO_SEARCH",
             "Hello, NO_SEARCH",
             "Ok thanks, NO_SEARCH",
-            "Hi there, NO_SEARCH"
+            "Hi there, NO_SEARCH",
+            "ok?, NO_SEARCH"
     })
     void classifyMessage_ShouldIdentifySmallTalk(String message, ClassifierMode expectedMode) {
         ClassifierMode mode = messageClassifierService.classifyMessage(message, false, null);
@@ -57,7 +65,8 @@ class MessageClassifierServiceTest {
             "Ý bạn là sao, REUSE",
             "chưa hiểu lắm, REUSE",
             "Example please, REUSE",
-            "Why is that, REUSE"
+            "Why is that, REUSE",
+            "what?, REUSE"
     })
     void classifyMessage_ShouldIdentifyReuse_WhenContextExists(String message, ClassifierMode expectedMode) {
         // Assume context exists for follow-up questions
@@ -109,4 +118,49 @@ class MessageClassifierServiceTest {
         // Expect LLM result
         assertEquals(ClassifierMode.SEARCH, mode);
     }
+
+    @ParameterizedTest
+    @CsvSource({
+            "Còn cái kia thì sao?, REUSE",
+            "Ai là hiệu trưởng trường mình?, SEARCH",
+            "Vâng ạ, NO_SEARCH"
+    })
+    void classifyMessage_ShouldDecideLocally_WithoutLlm(String message, ClassifierMode expectedMode) {
+        ClassifierMode mode = messageClassifierService.classifyMessage(message, true, List.of("Previous context"));
+
+        assertEquals(expectedMode, mode);
+        verifyNoInteractions(aiModelService);
+    }
+
+    @Test
+    void classifyMessage_ShouldReuseCachedLlmDecision() {
+        when(aiModelService.callGeminiModel(anyString())).thenReturn("SEARCH");
+
+        messageClassifierService.classifyMessage("Con mèo đang ngủ", true, Collections.emptyList());
+        ClassifierMode mode = messageClassifierService.classifyMessage("con meo dang ngu", true,
+                Collections.emptyList());
+
+        assertEquals(ClassifierMode.SEARCH, mode);
+        verify(aiModelService, times(1)).callGeminiModel(anyString());
+        ClassifierStats stats = messageClassifierService.getStats();
+        assertEquals(2, stats.requests());
+        assertEquals(1, stats.cacheHits());
+        assertEquals(1, stats.llmCalls());
+    }
+
+    @Test
+    void keywordAutomaton_ShouldMatchSymbolOnlyKeywords_AsSubstring() {
+        KeywordAutomaton<MessageClassifierService.Signal> automaton = KeywordAutomaton
+                .builder(MessageClassifierService.Signal.class)
+                .add(MessageClassifierService.Signal.FOLLOW_UP, true, List.of("?", "!!"))
+                .add(MessageClassifierService.Signal.SMALL_TALK, true, List.of("ok"))
+                .build();
+
+        assertTrue(automaton.scan("ok?").contains(MessageClassifierService.Signal.FOLLOW_UP));
+        assertTrue(automaton.scan("what?").contains(MessageClassifierService.Signal.FOLLOW_UP));
+        assertTrue(automaton.scan("hay!!").contains(MessageClassifierService.Signal.FOLLOW_UP));
+        assertEquals(EnumSet.of(MessageClassifierService.Signal.SMALL_TALK), automaton.scan("ok"));
+        // Keyword có chữ vẫn giữ biên từ
+        assertTrue(automaton.scan("oke").isEmpty());
+    }
 }
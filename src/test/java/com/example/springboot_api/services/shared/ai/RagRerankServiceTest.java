@@ -0,0 +1,93 @@
+package com.example.springboot_api.services.shared.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.springboot_api.dto.shared.ai.RagRerankStats;
+
+@ExtendWith(MockitoExtension.class)
+class RagRerankServiceTest {
+
+    @Mock
+    private AIModelService aiModelService;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private LexicalSearchService lexicalSearchService;
+    private RagRerankService ragRerankService;
+
+    @BeforeEach
+    void setUp() {
+        MessageClassifierService classifier = new MessageClassifierService(aiModelService);
+        lexicalSearchService = new LexicalSearchService(jdbcTemplate, classifier, Runnable::run);
+        ragRerankService = new RagRerankService(lexicalSearchService, classifier, aiModelService, executor);
+        ReflectionTestUtils.setField(ragRerankService, "topK", 2);
+        ReflectionTestUtils.setField(ragRerankService, "relativeCutoff", 0.0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void localScores_ShouldPreferExactArticleOverHigherSimilarity() {
+        List<String> texts = List.of(
+                "Điều 13. Điều kiện xét tốt nghiệp: sinh viên tích lũy đủ tín chỉ.",
+                "Điều 12. Điều kiện xét tốt nghiệp: hoàn thành chương trình đào tạo.",
+                "Chương 2. Tổ chức đào tạo theo học kỳ.");
+
+        double[] scores = ragRerankService.localScores(
+                lexicalSearchService.queryTerms("Điều 12 quy định điều kiện tốt nghiệp thế nào?"),
+                texts, new double[] { 0.82, 0.78, 0.60 });
+
+        assertTrue(scores[1] > scores[0]);
+        assertTrue(scores[0] > scores[2]);
+    }
+
+    @Test
+    void rerank_ShouldInterruptLlmCall_WhenBudgetExceeded() throws Exception {
+        ReflectionTestUtils.setField(ragRerankService, "mode", RagRerankService.Mode.LLM);
+        ReflectionTestUtils.setField(ragRerankService, "budgetMs", 50L);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(aiModelService.callGroqModel(anyString())).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return "[10, 0]";
+        });
+
+        List<String> kept = ragRerankService.rerank("điều kiện tốt nghiệp",
+                List.of("Điều kiện xét tốt nghiệp", "Tổ chức đào tạo"), text -> text,
+                text -> text.startsWith("Điều") ? 0.9 : 0.5);
+
+        // Quá budget: dùng điểm local, lời gọi Groq bị hủy chứ không chạy tiếp
+        assertEquals("Điều kiện xét tốt nghiệp", kept.get(0));
+        RagRerankStats stats = ragRerankService.getStats();
+        assertEquals(1, stats.timeouts());
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.springboot_api.services.shared.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+class RagResultCacheTest {
+
+    private final UUID notebookId = UUID.randomUUID();
+    private final UUID fileA = UUID.randomUUID();
+    private final UUID fileB = UUID.randomUUID();
+
+    @Test
+    void get_ShouldHit_ForNearIdenticalQuestionAndSameFileSet() {
+        RagResultCache cache = new RagResultCache(100, 600);
+        cache.put(cache.lookup(notebookId, List.of(fileA, fileB), "Điều kiện tốt nghiệp?", 5), List.of("chunk"));
+
+        List<String> cached = cache.get(cache.lookup(notebookId, List.of(fileB, fileA), "  điều kiện  tốt nghiệp ", 5));
+
+        assertEquals(List.of("chunk"), cached);
+        assertNull(cache.get(cache.lookup(notebookId, List.of(fileA), "điều kiện tốt nghiệp", 5)));
+    }
+
+    @Test
+    void invalidateFile_ShouldDropEntriesContainingFile() {
+        RagResultCache cache = new RagResultCache(100, 600);
+        cache.put(cache.lookup(notebookId, List.of(fileA, fileB), "q1", 5), List.of("ab"));
+        cache.put(cache.lookup(notebookId, List.of(fileB), "q2", 5), List.of("b"));
+
+        cache.invalidateFile(fileA);
+
+        assertNull(cache.get(cache.lookup(notebookId, List.of(fileA, fileB), "q1", 5)));
+        assertEquals(List.of("b"), cache.get(cache.lookup(notebookId, List.of(fileB), "q2", 5)));
+    }
+
+    @Test
+    void put_ShouldBeIgnored_WhenInvalidatedDuringSearch() {
+        RagResultCache cache = new RagResultCache(100, 600);
+        RagResultCache.Lookup lookup = cache.lookup(notebookId, List.of(fileA), "q", 5);
+
+        cache.invalidateFile(fileA);
+        cache.put(lookup, List.of("stale"));
+
+        assertNull(cache.get(cache.lookup(notebookId, List.of(fileA), "q", 5)));
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.springboot_api.services.shared.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RankFusionTest {
+
+    @Test
+    void reciprocalRank_ShouldPreferItemsRankedByBothLists() {
+        List<String> vector = List.of("a", "b", "c");
+        List<String> lexical = List.of("c", "d");
+
+        List<String> fused = RankFusion.reciprocalRank(List.of(vector, lexical), 3);
+
+        // c: 1/63 + 1/61 > a: 1/61 > d: 1/62 > b: 1/62 (b xuất hiện trước d → đứng trước)
+        assertEquals(List.of("c", "a", "b"), fused);
+    }
+
+    @Test
+    void reciprocalRank_ShouldKeepSingleListOrder() {
+        assertEquals(List.of("a", "b"), RankFusion.reciprocalRank(List.of(List.of("a", "b", "c")), 2));
+    }
+}
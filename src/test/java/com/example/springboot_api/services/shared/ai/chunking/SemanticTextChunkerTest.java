@@ -0,0 +1,57 @@
+package com.example.springboot_api.services.shared.ai.chunking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class SemanticTextChunkerTest {
+
+    private static final String SENTENCES = "Văn bản này quy định TP. Hồ Chí Minh và ThS. Nguyễn Văn A. "
+            + "Đây là câu thứ hai! Câu hỏi thứ ba? Có 3.14 điểm. ";
+
+    private List<TextChunk> chunk(String text, int chunkSize, int overlap, int segmentLength) {
+        List<TextChunk> chunks = new ArrayList<>();
+        TextChunker chunker = new SemanticTextChunker(chunkSize, overlap, chunks::add);
+        for (int i = 0; i < text.length(); i += segmentLength) {
+            chunker.accept(text.substring(i, Math.min(text.length(), i + segmentLength)));
+        }
+        chunker.finish();
+        return chunks;
+    }
+
+    @Test
+    void chunks_ShouldEndAtSentenceBoundaries_AndStayWithinTokenBudget() {
+        String text = SENTENCES.repeat(20);
+        List<TextChunk> chunks = chunk(text, 400, 0, 37);
+
+        assertTrue(chunks.size() > 1);
+        for (TextChunk c : chunks) {
+            assertTrue(".!?".indexOf(c.content().charAt(c.content().length() - 1)) >= 0, c.content());
+            assertTrue(c.estimatedTokens() <= TokenEstimator.budgetForChars(400));
+        }
+    }
+
+    @Test
+    void offsets_ShouldPointBackToSourceText() {
+        String text = SENTENCES.repeat(10) + "Câu cuối không dấu";
+        for (TextChunk c : chunk(text, 400, 120, 23)) {
+            assertEquals(c.content(), text.substring((int) c.startOffset(), (int) c.endOffset()).strip());
+        }
+    }
+
+    @Test
+    void heading_ShouldStartNewChunk_AndBeRecorded() {
+        String text = "CHƯƠNG I. QUY ĐỊNH CHUNG\n" + SENTENCES.repeat(6)
+                + "CHƯƠNG II. TỔ CHỨC THỰC HIỆN\n" + SENTENCES.repeat(6);
+        List<TextChunk> chunks = chunk(text, 2000, 200, 50);
+
+        assertEquals(2, chunks.size());
+        assertEquals("CHƯƠNG I. QUY ĐỊNH CHUNG", chunks.get(0).heading());
+        assertEquals("CHƯƠNG II. TỔ CHỨC THỰC HIỆN", chunks.get(1).heading());
+        assertTrue(chunks.get(1).content().startsWith("CHƯƠNG II."));
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.springboot_api.services.shared.ai.vector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+class NotebookVectorIndexTest {
+
+    private static final int DIMENSION = 32;
+
+    private final UUID fileA = UUID.randomUUID();
+    private final UUID fileB = UUID.randomUUID();
+
+    @Test
+    void search_ShouldMatchBruteForce_WhenGraphIsUsed() {
+        Random random = new Random(7);
+        NotebookVectorIndex index = new NotebookVectorIndex(UUID.randomUUID(), DIMENSION, 16, false, 16, 100, 64);
+        for (int i = 0; i < 3000; i++) {
+            index.add(i % 2 == 0 ? fileA : fileB, i, "chunk " + i, randomUnitVector(random));
+        }
+
+        int found = 0;
+        int queries = 20;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomUnitVector(random);
+            // 3000 node qua filter > ngưỡng brute force → đi đồ thị HNSW
+            List<VectorHit> hits = index.search(query, List.of(fileA, fileB), 10);
+            Set<Integer> expected = exactTop10(index, query);
+            for (VectorHit hit : hits) {
+                if (expected.contains(hit.chunkIndex())) {
+                    found++;
+                }
+            }
+        }
+        double recall = found / (queries * 10.0);
+        assertTrue(recall >= 0.9, "recall@10 = " + recall);
+    }
+
+    @Test
+    void search_ShouldKeepRecall_WhenVectorsAreInt8Quantized() {
+        Random random = new Random(9);
+        NotebookVectorIndex full = new NotebookVectorIndex(UUID.randomUUID(), DIMENSION, 16, false, 16, 100, 64);
+        NotebookVectorIndex int8 = new NotebookVectorIndex(UUID.randomUUID(), DIMENSION, 16, true, 16, 100, 64);
+        for (int i = 0; i < 1000; i++) {
+            float[] vector = randomUnitVector(random);
+            full.add(fileA, i, "chunk " + i, vector);
+            int8.add(fileA, i, "chunk " + i, vector);
+        }
+
+        int found = 0;
+        int queries = 20;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomUnitVector(random);
+            // 1000 node ≤ ngưỡng brute force → so sánh thẳng điểm int8 với float32
+            Set<Integer> expected = new HashSet<>();
+            full.search(query, List.of(fileA), 10).forEach(hit -> expected.add(hit.chunkIndex()));
+            for (VectorHit hit : int8.search(query, List.of(fileA), 10)) {
+                if (expected.contains(hit.chunkIndex())) {
+                    found++;
+                }
+            }
+        }
+        double recall = found / (queries * 10.0);
+        assertTrue(recall >= 0.9, "recall@10 = " + recall);
+        assertTrue(int8.offHeapBytes() * 3 < full.offHeapBytes());
+    }
+
+    @Test
+    void removeFile_ShouldExcludeChunksOfRemovedFile() {
+        Random random = new Random(11);
+        NotebookVectorIndex index = new NotebookVectorIndex(UUID.randomUUID(), DIMENSION, 16, false, 16, 100, 64);
+        float[] target = randomUnitVector(random);
+        index.add(fileA, 0, "a", target);
+        index.add(fileB, 0, "b", randomUnitVector(random));
+
+        assertEquals(fileA, index.search(target, List.of(fileA, fileB), 1).get(0).fileId());
+
+        index.removeFile(fileA);
+
+        List<VectorHit> hits = index.search(target, List.of(fileA, fileB), 5);
+        assertEquals(1, hits.size());
+        assertEquals(fileB, hits.get(0).fileId());
+        assertEquals(1, index.liveCount());
+    }
+
+    private Set<Integer> exactTop10(NotebookVectorIndex index, float[] query) {
+        // Filter chỉ một file (1500 node) → nhánh quét tuần tự, kết quả chính xác
+        Set<Integer> expected = new HashSet<>();
+        List<VectorHit> merged = new ArrayList<>(index.search(query, List.of(fileA), 10));
+        merged.addAll(index.search(query, List.of(fileB), 10));
+        merged.sort((x, y) -> Float.compare(y.similarity(), x.similarity()));
+        for (VectorHit hit : merged.subList(0, 10)) {
+            expected.add(hit.chunkIndex());
+        }
+        return expected;
+    }
+
+    private static float[] randomUnitVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        double norm = 0;
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.springboot_api.services.user;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class ChatPromptBuilderTest {
+
+    private static final String OVERLAP = "Sinh viên phải tích lũy đủ 130 tín chỉ.";
+
+    @Test
+    void dedupeChunks_ShouldStripOverlapBetweenAdjacentChunks() {
+        Map<String, Object> first = chunk("f1", 3, "Điều 12. Điều kiện tốt nghiệp. " + OVERLAP);
+        Map<String, Object> second = chunk("f1", 4, OVERLAP + " Điểm trung bình tích lũy từ 2.0 trở lên.");
+        Map<String, Object> duplicate = chunk("f2", 0, "Điều 12. Điều kiện tốt nghiệp. " + OVERLAP);
+        int[] deduped = new int[1];
+
+        List<Map<String, Object>> result = ChatPromptBuilder.dedupeChunks(List.of(first, second, duplicate),
+                deduped);
+
+        assertEquals(2, result.size());
+        assertEquals("Điểm trung bình tích lũy từ 2.0 trở lên.", result.get(1).get("content"));
+        assertEquals(2, deduped[0]);
+    }
+
+    @Test
+    void allocate_ShouldGiveSpareBudgetToRagFirst() {
+        // history, rag, web, images
+        int[] alloc = ChatPromptBuilder.allocate(new int[] { 100, 6000, 3000, 0 },
+                new int[] { 1500, 4000, 2000, 1000 });
+
+        assertArrayEquals(new int[] { 100, 6000, 2400, 0 }, alloc);
+    }
+
+    private static Map<String, Object> chunk(String fileId, int index, String content) {
+        Map<String, Object> chunk = new HashMap<>();
+        chunk.put("file_id", fileId);
+        chunk.put("chunk_index", index);
+        chunk.put("content", content);
+        return chunk;
+    }
+}
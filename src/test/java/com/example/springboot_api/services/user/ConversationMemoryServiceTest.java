@@ -0,0 +1,92 @@
+package com.example.springboot_api.services.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.springboot_api.services.shared.ai.AIModelService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@ExtendWith(MockitoExtension.class)
+class ConversationMemoryServiceTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private AIModelService aiModelService;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void onTurnCompleted_ShouldKeepMemoryOfBothConversations_InSameNotebook() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        // metadata.memory của dòng state (user, notebook)
+        AtomicReference<String> stored = new AtomicReference<>("{}");
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(), any()))
+                .thenAnswer(invocation -> List.of(stored.get()));
+        when(jdbcTemplate.update(anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            stored.set(invocation.getArgument(1));
+            return 1;
+        });
+        Deque<Runnable> tasks = new ArrayDeque<>();
+        ConversationMemoryService service = new ConversationMemoryService(jdbcTemplate, objectMapper,
+                aiModelService, tasks::add);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "maxConversations", 5);
+
+        UUID userId = UUID.randomUUID();
+        UUID notebookId = UUID.randomUUID();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        service.onTurnCompleted(new ConversationTurnCompletedEvent(userId, notebookId, first, UUID.randomUUID(),
+                "RAG", "Học phí?", "Theo quy định năm học."));
+        service.onTurnCompleted(new ConversationTurnCompletedEvent(userId, notebookId, second, UUID.randomUUID(),
+                "RAG", "Điều kiện tốt nghiệp?", "Đủ 130 tín chỉ."));
+
+        // Cùng (user, notebook): lần cập nhật thứ hai chỉ được lên lịch sau khi lần đầu ghi xong
+        assertEquals(1, tasks.size());
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+
+        Map<String, ConversationMemoryService.Memory> memories = objectMapper.readValue(stored.get(),
+                new TypeReference<Map<String, ConversationMemoryService.Memory>>() {
+                });
+        assertEquals(2, memories.size());
+        assertTrue(memories.get(first.toString()).lastTurn().contains("Học phí?"));
+        assertTrue(memories.get(second.toString()).lastTurn().contains("Điều kiện tốt nghiệp?"));
+    }
+
+    @Test
+    void extractiveFold_ShouldAppendTurnAndDropOldestLines() {
+        String turn = "Người dùng [RAG]: Điều kiện tốt nghiệp là gì?\n\n"
+                + "Trợ lý [RAG]: Sinh viên phải tích lũy đủ 130 tín chỉ.";
+
+        String first = ConversationMemoryService.extractiveFold("", turn, 1500);
+        assertEquals("- Người dùng [RAG]: Điều kiện tốt nghiệp là gì?\n"
+                + "- Trợ lý [RAG]: Sinh viên phải tích lũy đủ 130 tín chỉ.", first);
+
+        String folded = ConversationMemoryService.extractiveFold(first,
+                "Người dùng [RAG]: Học phí?\n\nTrợ lý [RAG]: Theo quy định năm học.", 100);
+        assertTrue(folded.length() <= 100);
+        assertTrue(folded.endsWith("- Trợ lý [RAG]: Theo quy định năm học."));
+        assertTrue(!folded.contains("tốt nghiệp"));
+    }
+}
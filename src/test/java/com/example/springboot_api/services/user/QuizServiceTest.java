@@ -0,0 +1,72 @@
+package com.example.springboot_api.services.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.example.springboot_api.common.exceptions.GlobalExceptionHandler;
+import com.example.springboot_api.common.exceptions.GlobalExceptionHandler.ErrorResponse;
+import com.example.springboot_api.common.exceptions.TooManyRequestsException;
+import com.example.springboot_api.models.Notebook;
+import com.example.springboot_api.models.NotebookFile;
+import com.example.springboot_api.models.User;
+import com.example.springboot_api.repositories.admin.NotebookRepository;
+import com.example.springboot_api.repositories.admin.UserRepository;
+import com.example.springboot_api.repositories.shared.NotebookAiSetRepository;
+import com.example.springboot_api.repositories.shared.NotebookFileRepository;
+import com.example.springboot_api.services.shared.ai.AiTaskBulkhead;
+
+@ExtendWith(MockitoExtension.class)
+class QuizServiceTest {
+
+    @Mock
+    private NotebookRepository notebookRepository;
+    @Mock
+    private UserRepository userRepository;
+    @Mock
+    private NotebookFileRepository notebookFileRepository;
+    @Mock
+    private NotebookAiSetRepository aiSetRepository;
+    @Mock
+    private AiTaskBulkhead aiTaskBulkhead;
+
+    @InjectMocks
+    private QuizService quizService;
+
+    @Test
+    void generateQuiz_ShouldRespond429_WhenBulkheadIsFull() {
+        UUID notebookId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+        UUID fileId = UUID.randomUUID();
+        Notebook notebook = new Notebook().setId(notebookId);
+        when(notebookRepository.findById(notebookId)).thenReturn(Optional.of(notebook));
+        when(userRepository.findById(userId)).thenReturn(Optional.of(new User().setId(userId)));
+        when(notebookFileRepository.findById(fileId))
+                .thenReturn(Optional.of(new NotebookFile().setId(fileId).setNotebook(notebook)));
+        doThrow(new TooManyRequestsException("Bạn đang có 3 tác vụ AI đang xử lý."))
+                .when(aiTaskBulkhead).checkCapacity(userId, notebookId);
+
+        TooManyRequestsException ex = assertThrows(TooManyRequestsException.class,
+                () -> quizService.generateQuiz(notebookId, userId, List.of(fileId), "10", "medium", null));
+
+        ResponseEntity<ErrorResponse> response = new GlobalExceptionHandler().handleTooManyRequests(ex);
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+        verify(aiSetRepository, never()).save(any());
+    }
+}